@@ -1,6 +1,7 @@
 package com.blazemeter.jmeter.hls.gui;
 
 import com.blazemeter.jmeter.hls.logic.HlsSampler;
+import com.blazemeter.jmeter.videostreaming.core.DownloadEngine;
 import com.blazemeter.jmeter.videostreaming.core.Protocol;
 import com.google.common.annotations.VisibleForTesting;
 import java.awt.BorderLayout;
@@ -60,6 +61,10 @@ public class HlsSamplerGui extends AbstractSamplerGui {
     hlsSamplerPanel.setIncludeTypeInHeaders(sampler.getIncludeTypeInHeadersStatus());
     hlsSamplerPanel.setStartFromLiveEdge(sampler.isStartFromLiveEdge());
     hlsSamplerPanel.setProtocolSelector(sampler.getProtocolSelector());
+    hlsSamplerPanel.setDownloadEngine(sampler.getDownloadEngine());
+    hlsSamplerPanel.setDownloadTracksConcurrently(sampler.isDownloadTracksConcurrently());
+    hlsSamplerPanel.setSegmentPrefetch(sampler.getSegmentPrefetch());
+    hlsSamplerPanel.setViewersPerThread(sampler.getViewersPerThread());
     hlsSamplerPanel.setVariantsProvider(sampler);
   }
 
@@ -83,6 +88,10 @@ public class HlsSamplerGui extends AbstractSamplerGui {
       sampler.setIncludeTypeInHeadersStatus(hlsSamplerPanel.getIncludeTypeInHeadersStatus());
       sampler.setStartFromLiveEdge(hlsSamplerPanel.isStartFromLiveEdge());
       sampler.setProtocolSelector(hlsSamplerPanel.getProtocolSelector());
+      sampler.setDownloadEngine(hlsSamplerPanel.getDownloadEngine());
+      sampler.setDownloadTracksConcurrently(hlsSamplerPanel.isDownloadTracksConcurrently());
+      sampler.setSegmentPrefetch(hlsSamplerPanel.getSegmentPrefetch());
+      sampler.setViewersPerThread(hlsSamplerPanel.getViewersPerThread());
     }
   }
 
@@ -97,6 +106,10 @@ public class HlsSamplerGui extends AbstractSamplerGui {
     hlsSamplerPanel.setIncludeTypeInHeaders(false);
     hlsSamplerPanel.setStartFromLiveEdge(false);
     hlsSamplerPanel.setProtocolSelector(Protocol.AUTOMATIC);
+    hlsSamplerPanel.setDownloadEngine(DownloadEngine.BLOCKING);
+    hlsSamplerPanel.setDownloadTracksConcurrently(false);
+    hlsSamplerPanel.setSegmentPrefetch("");
+    hlsSamplerPanel.setViewersPerThread("");
   }
 
 }
@@ -4,6 +4,7 @@ import com.blazemeter.jmeter.commons.BlazemeterLabsLogo;
 import com.blazemeter.jmeter.hls.logic.BandwidthSelector;
 import com.blazemeter.jmeter.hls.logic.ResolutionSelector;
 import com.blazemeter.jmeter.hls.logic.ResolutionSelector.CustomResolutionSelector;
+import com.blazemeter.jmeter.videostreaming.core.DownloadEngine;
 import com.blazemeter.jmeter.videostreaming.core.Protocol;
 import com.blazemeter.jmeter.videostreaming.core.Variants;
 import com.blazemeter.jmeter.videostreaming.core.VariantsProvider;
@@ -67,8 +68,15 @@ public class HlsSamplerPanel extends JPanel implements ActionListener {
   private JRadioButton mpegDashProtocolOption;
   private JRadioButton automaticProtocolOption;
 
+  private JRadioButton blockingEngineOption;
+  private JRadioButton asyncEngineOption;
+  private JRadioButton http2EngineOption;
+
   private JCheckBox resumeDownloadOption;
   private JCheckBox includeTypeInHeaders;
+  private JCheckBox downloadTracksConcurrentlyOption;
+  private JTextField segmentPrefetchField;
+  private JTextField viewersPerThreadField;
   private JCheckBox startFromLiveEdgeOption;
   private final String min = "Min";
   private final String max = "Max";
@@ -91,6 +99,7 @@ public class HlsSamplerPanel extends JPanel implements ActionListener {
     JPanel resolutionPanel = buildResolutionPanel();
     JPanel resumeDownloadPanel = buildResumeDownloadPanel();
     JPanel protocolSelectionPanel = buildProtocolSelectionPanel();
+    JPanel downloadEnginePanel = buildDownloadEnginePanel();
 
     mpegDashProtocolOption.addItemListener(e ->
         startFromLiveEdgeOption.setEnabled(e.getStateChange() != ItemEvent.SELECTED));
@@ -103,8 +112,10 @@ public class HlsSamplerPanel extends JPanel implements ActionListener {
     layout.setHorizontalGroup(layout.createParallelGroup()
         .addComponent(urlPanel, GroupLayout.PREFERRED_SIZE,
             GroupLayout.PREFERRED_SIZE, Short.MAX_VALUE)
-        .addComponent(protocolSelectionPanel, GroupLayout.PREFERRED_SIZE,
-            GroupLayout.PREFERRED_SIZE, Short.MAX_VALUE)
+        .addGroup(layout.createSequentialGroup()
+            .addComponent(protocolSelectionPanel, GroupLayout.PREFERRED_SIZE,
+                GroupLayout.PREFERRED_SIZE, Short.MAX_VALUE)
+            .addComponent(downloadEnginePanel))
         .addGroup(layout.createSequentialGroup()
             .addComponent(durationPanel)
             .addComponent(trackPanel))
@@ -118,8 +129,11 @@ public class HlsSamplerPanel extends JPanel implements ActionListener {
     layout.setVerticalGroup(layout.createSequentialGroup()
         .addComponent(urlPanel, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE,
             GroupLayout.PREFERRED_SIZE)
-        .addComponent(protocolSelectionPanel, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE,
-            GroupLayout.PREFERRED_SIZE)
+        .addGroup(layout.createParallelGroup()
+            .addComponent(protocolSelectionPanel, GroupLayout.PREFERRED_SIZE,
+                GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
+            .addComponent(downloadEnginePanel, GroupLayout.PREFERRED_SIZE,
+                GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE))
         .addGroup(layout.createParallelGroup()
             .addComponent(durationPanel, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE,
                 GroupLayout.PREFERRED_SIZE)
@@ -356,15 +370,41 @@ public class HlsSamplerPanel extends JPanel implements ActionListener {
         "Resume video download between iterations"));
     includeTypeInHeaders = namedComponent("includeTypeInHeaders", new JCheckBox(
         "Include video type in request and response headers"));
+    downloadTracksConcurrentlyOption = namedComponent("downloadTracksConcurrentlyOption",
+        new JCheckBox("Download audio, video and subtitle tracks concurrently"));
+    JLabel segmentPrefetchLabel = new JLabel("Segments prefetch (lookahead):");
+    segmentPrefetchField = namedComponent("segmentPrefetchField", new JTextField(5));
+    segmentPrefetchField.setToolTipText(
+        "Maximum number of segment requests in flight per track (1 disables prefetch)");
+    JLabel viewersPerThreadLabel = new JLabel("Viewers per thread:");
+    viewersPerThreadField = namedComponent("viewersPerThreadField", new JTextField(5));
+    viewersPerThreadField.setToolTipText(
+        "Number of independent playbacks played by each JMeter thread");
     GroupLayout layout = new GroupLayout(panel);
     layout.setAutoCreateContainerGaps(true);
     panel.setLayout(layout);
     layout.setHorizontalGroup(layout.createParallelGroup()
         .addComponent(resumeDownloadOption)
-        .addComponent(includeTypeInHeaders));
+        .addComponent(includeTypeInHeaders)
+        .addComponent(downloadTracksConcurrentlyOption)
+        .addGroup(layout.createSequentialGroup()
+            .addComponent(segmentPrefetchLabel)
+            .addComponent(segmentPrefetchField, GroupLayout.PREFERRED_SIZE,
+                GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE))
+        .addGroup(layout.createSequentialGroup()
+            .addComponent(viewersPerThreadLabel)
+            .addComponent(viewersPerThreadField, GroupLayout.PREFERRED_SIZE,
+                GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE)));
     layout.setVerticalGroup(layout.createSequentialGroup()
         .addComponent(resumeDownloadOption)
-        .addComponent(includeTypeInHeaders));
+        .addComponent(includeTypeInHeaders)
+        .addComponent(downloadTracksConcurrentlyOption)
+        .addGroup(layout.createParallelGroup(Alignment.BASELINE)
+            .addComponent(segmentPrefetchLabel)
+            .addComponent(segmentPrefetchField))
+        .addGroup(layout.createParallelGroup(Alignment.BASELINE)
+            .addComponent(viewersPerThreadLabel)
+            .addComponent(viewersPerThreadField)));
     return panel;
   }
 
@@ -398,6 +438,40 @@ public class HlsSamplerPanel extends JPanel implements ActionListener {
     return panel;
   }
 
+  private JPanel buildDownloadEnginePanel() {
+    JPanel panel = new JPanel();
+    panel.setBorder(BorderFactory.createTitledBorder("Download engine"));
+
+    blockingEngineOption = namedComponent("blockingEngineOption",
+        new JRadioButton(DownloadEngine.BLOCKING.toString(), true));
+    asyncEngineOption = namedComponent("asyncEngineOption",
+        new JRadioButton(DownloadEngine.ASYNC.toString()));
+    asyncEngineOption.setToolTipText(
+        "Shares a JVM-wide non-blocking HTTP client instead of a blocking one per thread");
+    http2EngineOption = namedComponent("http2EngineOption",
+        new JRadioButton(DownloadEngine.HTTP2.toString()));
+    http2EngineOption.setToolTipText(
+        "Multiplexes all the requests of each thread over one HTTP/2 connection (h2c or h2)");
+
+    ButtonGroup engineRadiosGroup = new ButtonGroup();
+    engineRadiosGroup.add(blockingEngineOption);
+    engineRadiosGroup.add(asyncEngineOption);
+    engineRadiosGroup.add(http2EngineOption);
+
+    GroupLayout layout = new GroupLayout(panel);
+    layout.setAutoCreateContainerGaps(true);
+    panel.setLayout(layout);
+    layout.setHorizontalGroup(layout.createSequentialGroup()
+        .addComponent(blockingEngineOption)
+        .addComponent(asyncEngineOption)
+        .addComponent(http2EngineOption));
+    layout.setVerticalGroup(layout.createParallelGroup()
+        .addComponent(blockingEngineOption)
+        .addComponent(asyncEngineOption)
+        .addComponent(http2EngineOption));
+    return panel;
+  }
+
   public void setMasterUrl(String masterUrl) {
     masterUrlField.setText(masterUrl);
   }
@@ -504,6 +578,26 @@ public class HlsSamplerPanel extends JPanel implements ActionListener {
     }
   }
 
+  public DownloadEngine getDownloadEngine() {
+    if (asyncEngineOption.isSelected()) {
+      return DownloadEngine.ASYNC;
+    } else if (http2EngineOption.isSelected()) {
+      return DownloadEngine.HTTP2;
+    } else {
+      return DownloadEngine.BLOCKING;
+    }
+  }
+
+  public void setDownloadEngine(DownloadEngine engine) {
+    if (engine == DownloadEngine.ASYNC) {
+      asyncEngineOption.setSelected(true);
+    } else if (engine == DownloadEngine.HTTP2) {
+      http2EngineOption.setSelected(true);
+    } else {
+      blockingEngineOption.setSelected(true);
+    }
+  }
+
   public boolean getResumeVideoStatus() {
     return resumeDownloadOption.isSelected();
   }
@@ -520,6 +614,30 @@ public class HlsSamplerPanel extends JPanel implements ActionListener {
     includeTypeInHeaders.setSelected(check);
   }
 
+  public boolean isDownloadTracksConcurrently() {
+    return downloadTracksConcurrentlyOption.isSelected();
+  }
+
+  public void setDownloadTracksConcurrently(boolean check) {
+    downloadTracksConcurrentlyOption.setSelected(check);
+  }
+
+  public String getSegmentPrefetch() {
+    return segmentPrefetchField.getText();
+  }
+
+  public void setSegmentPrefetch(String segments) {
+    segmentPrefetchField.setText(segments);
+  }
+
+  public String getViewersPerThread() {
+    return viewersPerThreadField.getText();
+  }
+
+  public void setViewersPerThread(String viewers) {
+    viewersPerThreadField.setText(viewers);
+  }
+
   public boolean isStartFromLiveEdge() {
     return startFromLiveEdgeOption.isSelected();
   }
@@ -1,13 +1,17 @@
 package com.blazemeter.jmeter.hls.logic;
 
+import com.blazemeter.jmeter.videostreaming.core.DownloadEngine;
 import com.blazemeter.jmeter.videostreaming.core.Protocol;
 import com.blazemeter.jmeter.videostreaming.core.SampleResultProcessor;
+import com.blazemeter.jmeter.videostreaming.core.StreamingMetrics;
 import com.blazemeter.jmeter.videostreaming.core.StreamingSliceCoordinator;
+import com.blazemeter.jmeter.videostreaming.core.SystemTimeMachine;
 import com.blazemeter.jmeter.videostreaming.core.TimeMachine;
 import com.blazemeter.jmeter.videostreaming.core.Variants;
 import com.blazemeter.jmeter.videostreaming.core.VariantsProvider;
 import com.blazemeter.jmeter.videostreaming.core.VideoStreamingHttpClient;
 import com.blazemeter.jmeter.videostreaming.core.VideoStreamingSampler;
+import com.blazemeter.jmeter.videostreaming.core.ViewerPool;
 import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistDownloadException;
 import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistParsingException;
 import com.helger.commons.annotation.VisibleForTesting;
@@ -51,6 +55,11 @@ public class HlsSampler extends HTTPSamplerBase implements Interruptible, Varian
   private static final String RESUME_DOWNLOAD_PROPERTY_NAME = "HLS.RESUME_DOWNLOAD";
   private static final String INCLUDE_TYPE_IN_HEADER_NAME = "HLS.INCLUDE_TYPE_IN_HEADER";
   private static final String PROTOCOL_PROPERTY_NAME = "VIDEO_STREAMING.PROTOCOL";
+  private static final String DOWNLOAD_ENGINE_PROPERTY_NAME = "VIDEO_STREAMING.DOWNLOAD_ENGINE";
+  private static final String CONCURRENT_TRACKS_PROPERTY_NAME = "VIDEO_STREAMING.CONCURRENT_TRACKS";
+  private static final String SEGMENT_PREFETCH_PROPERTY_NAME = "VIDEO_STREAMING.SEGMENT_PREFETCH";
+  private static final String VIEWERS_PER_THREAD_PROPERTY_NAME =
+      "VIDEO_STREAMING.VIEWERS_PER_THREAD";
   private static final String AUDIO_LANGUAGE_OPTIONS_PROPERTY_NAME = "HLS.AUDIO_OPTIONS";
   private static final String SUBTITLE_LANGUAGE_OPTIONS_PROPERTY_NAME = "HLS.SUBTITLES_OPTIONS";
   private static final String BANDWIDTH_OPTIONS_PROPERTY_NAME = "HLS.BANDWIDTH_OPTIONS";
@@ -67,8 +76,10 @@ public class HlsSampler extends HTTPSamplerBase implements Interruptible, Varian
   private transient TimeMachine timeMachine;
   private transient SampleResultProcessor sampleResultProcessor;
   private transient VideoStreamingSampler<?, ?> sampler;
+  private transient ViewerPool viewerPool;
 
   private transient String lastMasterUrl = null;
+  private transient String lastViewersUrl = null;
   private transient volatile boolean notifyFirstSampleAfterLoopRestart;
   private transient VideoStreamingSamplerFactory factory;
 
@@ -83,6 +94,7 @@ public class HlsSampler extends HTTPSamplerBase implements Interruptible, Varian
     this.httpClient = client;
     this.sampleResultProcessor = processor;
     this.timeMachine = timeMachine;
+    viewerPool = new ViewerPool();
   }
 
   public HlsSampler(VideoStreamingHttpClient httpClient, TimeMachine timeMachine) {
@@ -91,6 +103,7 @@ public class HlsSampler extends HTTPSamplerBase implements Interruptible, Varian
     this.timeMachine = timeMachine;
     sampleResultProcessor = new SampleResultProcessor(this);
     factory = new VideoStreamingSamplerFactory();
+    viewerPool = new ViewerPool();
   }
 
   private void initHttpSampler() {
@@ -98,7 +111,8 @@ public class HlsSampler extends HTTPSamplerBase implements Interruptible, Varian
     factory = new VideoStreamingSamplerFactory();
     httpClient = new VideoStreamingHttpClient(this);
     sampleResultProcessor = new SampleResultProcessor(this);
-    timeMachine = TimeMachine.SYSTEM;
+    timeMachine = new SystemTimeMachine();
+    viewerPool = new ViewerPool();
   }
 
   private void setInitHttpSamplerConfig() {
@@ -177,6 +191,15 @@ public class HlsSampler extends HTTPSamplerBase implements Interruptible, Varian
     setProperty(PROTOCOL_PROPERTY_NAME, selector.name());
   }
 
+  public DownloadEngine getDownloadEngine() {
+    return DownloadEngine.valueOf(getPropertyAsString(DOWNLOAD_ENGINE_PROPERTY_NAME,
+        DownloadEngine.BLOCKING.name()));
+  }
+
+  public void setDownloadEngine(DownloadEngine engine) {
+    setProperty(DOWNLOAD_ENGINE_PROPERTY_NAME, engine.name());
+  }
+
   public boolean getResumeVideoStatus() {
     return this.getPropertyAsBoolean(RESUME_DOWNLOAD_PROPERTY_NAME);
   }
@@ -201,6 +224,30 @@ public class HlsSampler extends HTTPSamplerBase implements Interruptible, Varian
     this.setProperty(START_FROM_LIVE_EDGE_PROPERTY_NAME, value);
   }
 
+  public boolean isDownloadTracksConcurrently() {
+    return this.getPropertyAsBoolean(CONCURRENT_TRACKS_PROPERTY_NAME);
+  }
+
+  public void setDownloadTracksConcurrently(boolean value) {
+    this.setProperty(CONCURRENT_TRACKS_PROPERTY_NAME, value);
+  }
+
+  public String getSegmentPrefetch() {
+    return this.getPropertyAsString(SEGMENT_PREFETCH_PROPERTY_NAME);
+  }
+
+  public void setSegmentPrefetch(String segments) {
+    this.setProperty(SEGMENT_PREFETCH_PROPERTY_NAME, segments);
+  }
+
+  public String getViewersPerThread() {
+    return this.getPropertyAsString(VIEWERS_PER_THREAD_PROPERTY_NAME);
+  }
+
+  public void setViewersPerThread(String viewers) {
+    this.setProperty(VIEWERS_PER_THREAD_PROPERTY_NAME, viewers);
+  }
+
   // implemented for avoiding loading the url when changing context
   public String getAudioLanguageOptions() {
     return getPropertyAsString(AUDIO_LANGUAGE_OPTIONS_PROPERTY_NAME);
@@ -274,7 +321,11 @@ public class HlsSampler extends HTTPSamplerBase implements Interruptible, Varian
   @Override
   public SampleResult sample() {
     if (notifyFirstSampleAfterLoopRestart) {
+      // an interrupted iteration (like one restarted by a Flow Control Action) must not release
+      // the waits of the following ones
+      timeMachine.reset();
       httpClient.notifyFirstSampleAfterLoopRestart();
+      viewerPool.notifyFirstSampleAfterLoopRestart();
       notifyFirstSampleAfterLoopRestart = false;
     }
 
@@ -283,6 +334,13 @@ public class HlsSampler extends HTTPSamplerBase implements Interruptible, Varian
     // consume the new-session flag once here; the protocol sampler decides setup vs resume purely
     // from whether its playback session is still initialized
     boolean newSession = active && StreamingSliceCoordinator.consumeNewSession();
+    // time slices of the Streaming Parallel Controller are only supported with one viewer
+    int viewers = active ? 1 : getViewersPerThreadOrWarn();
+    if (viewers > 1) {
+      return sampleViewers(url, viewers);
+    }
+    // releases viewers of previous samples, if any
+    viewerPool.shutdown();
     if (!url.equals(lastMasterUrl)) {
       try {
         sampler = factory
@@ -306,6 +364,34 @@ public class HlsSampler extends HTTPSamplerBase implements Interruptible, Varian
     return sampler.sample();
   }
 
+  private SampleResult sampleViewers(String url, int viewers) {
+    if (!url.equals(lastViewersUrl)) {
+      viewerPool.shutdown();
+    } else if (!this.getResumeVideoStatus()) {
+      viewerPool.resetVideoStatus();
+    }
+    try {
+      viewerPool.resize(viewers, () -> {
+        VideoStreamingHttpClient client = new VideoStreamingHttpClient(this);
+        client.useOwnCookies();
+        return factory
+            .getVideoStreamingSampler(url, this, client, timeMachine, sampleResultProcessor);
+      });
+    } catch (IllegalArgumentException e) {
+      LOG.error("Error initializing the sampler", e);
+      return null;
+    }
+    lastViewersUrl = url;
+    try {
+      // connections of the non blocking engines are not bound to threads, so they can be released
+      viewerPool.sample(getDownloadEngine() != DownloadEngine.BLOCKING);
+    } catch (InterruptedException e) {
+      LOG.warn("Sampler has been interrupted", e);
+      Thread.currentThread().interrupt();
+    }
+    return null;
+  }
+
   @Override
   protected HTTPSampleResult sample(URL url, String method, boolean areFollowingRedirect,
                                     int frameDepth) {
@@ -326,12 +412,17 @@ public class HlsSampler extends HTTPSamplerBase implements Interruptible, Varian
   @Override
   public boolean interrupt() {
     timeMachine.interrupt();
-    return httpClient.interrupt();
+    boolean viewersInterrupted = viewerPool.interrupt();
+    return httpClient.interrupt() || viewersInterrupted;
   }
 
   @Override
   public void threadFinished() {
     StreamingSliceCoordinator.clear();
+    if (sampler != null) {
+      sampler.threadFinished();
+    }
+    viewerPool.shutdown();
     httpClient.threadFinished();
   }
 
@@ -352,9 +443,55 @@ public class HlsSampler extends HTTPSamplerBase implements Interruptible, Varian
     return playSeconds;
   }
 
+  public int getSegmentPrefetchOrWarn() {
+    String segments = getSegmentPrefetch();
+    if (segments.isEmpty()) {
+      return 1;
+    }
+    try {
+      int ret = Integer.parseInt(segments.trim());
+      if (ret < 1) {
+        LOG.warn("Provided segment prefetch ({}) is less than one. The sampler will request one "
+            + "segment at a time", ret);
+        return 1;
+      }
+      return ret;
+    } catch (NumberFormatException e) {
+      LOG.warn("Provided segment prefetch ({}) is not a number. The sampler will request one "
+          + "segment at a time", segments);
+      return 1;
+    }
+  }
+
+  public int getViewersPerThreadOrWarn() {
+    String viewers = getViewersPerThread();
+    if (viewers.isEmpty()) {
+      return 1;
+    }
+    try {
+      int ret = Integer.parseInt(viewers.trim());
+      if (ret < 1) {
+        LOG.warn("Provided viewers per thread ({}) is less than one. The sampler will play one "
+            + "viewer per thread", ret);
+        return 1;
+      }
+      return ret;
+    } catch (NumberFormatException e) {
+      LOG.warn("Provided viewers per thread ({}) is not a number. The sampler will play one "
+          + "viewer per thread", viewers);
+      return 1;
+    }
+  }
+
   @Override
   public void testStarted() {
     timeMachine.reset();
+    StreamingMetrics.reset();
+  }
+
+  @Override
+  public void testEnded() {
+    StreamingMetrics.logSummary();
   }
 
   private void readObject(ObjectInputStream inputStream)
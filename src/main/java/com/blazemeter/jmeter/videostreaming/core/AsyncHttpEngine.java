@@ -0,0 +1,92 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+import org.apache.jmeter.util.JMeterUtils;
+
+/*
+JVM-wide non-blocking HTTP engine shared by every sampler configured with DownloadEngine.ASYNC.
+
+A single I/O reactor multiplexes the sockets of all the viewers, so a request in flight doesn't
+pin a JMeter thread. Connections are still isolated per viewer: each request carries its owner
+as user token (connection state), so a keep-alive connection is only reused by the viewer that
+opened it, as it happens with the per thread blocking client. When the pool is exhausted, idle
+connections of other viewers are closed to make room for new ones.
+*/
+public final class AsyncHttpEngine {
+
+  public static final String IO_THREADS_PROPERTY_NAME = "hls.sampler.async.ioThreads";
+  public static final String MAX_CONNECTIONS_PROPERTY_NAME = "hls.sampler.async.maxConnections";
+  private static final int DEFAULT_MAX_CONNECTIONS = 10000;
+
+  private static volatile AsyncHttpEngine instance;
+
+  private final CloseableHttpAsyncClient client;
+
+  private AsyncHttpEngine(int ioThreads, int maxConnections) throws IOReactorException {
+    DefaultConnectingIOReactor ioReactor = new DefaultConnectingIOReactor(
+        IOReactorConfig.custom()
+            .setIoThreadCount(ioThreads)
+            .build(),
+        buildThreadFactory("hls-async-io-"));
+    PoolingNHttpClientConnectionManager connectionManager =
+        new PoolingNHttpClientConnectionManager(ioReactor);
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnections);
+    client = HttpAsyncClients.custom()
+        .setConnectionManager(connectionManager)
+        .disableCookieManagement()
+        .setThreadFactory(buildThreadFactory("hls-async-dispatcher-"))
+        .build();
+    client.start();
+  }
+
+  public static AsyncHttpEngine getInstance() {
+    AsyncHttpEngine ret = instance;
+    if (ret == null) {
+      synchronized (AsyncHttpEngine.class) {
+        ret = instance;
+        if (ret == null) {
+          try {
+            ret = new AsyncHttpEngine(
+                JMeterUtils.getPropDefault(IO_THREADS_PROPERTY_NAME,
+                    Runtime.getRuntime().availableProcessors()),
+                JMeterUtils.getPropDefault(MAX_CONNECTIONS_PROPERTY_NAME,
+                    DEFAULT_MAX_CONNECTIONS));
+          } catch (IOReactorException e) {
+            throw new IllegalStateException("Could not start asynchronous HTTP engine", e);
+          }
+          instance = ret;
+        }
+      }
+    }
+    return ret;
+  }
+
+  private static ThreadFactory buildThreadFactory(String namePrefix) {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, namePrefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer,
+      HttpAsyncResponseConsumer<T> responseConsumer, HttpContext context,
+      FutureCallback<T> callback) {
+    return client.execute(requestProducer, responseConsumer, context, callback);
+  }
+
+}
@@ -0,0 +1,155 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.jmeter.protocol.http.sampler.HTTPSampleResult;
+
+/*
+Builds a HTTPSampleResult out of an asynchronous exchange, registering the same timings the
+blocking client does: latency when the response head arrives and sample end when the body has
+been completely received. Body size is the amount of bytes received through the wire, so
+compressed responses report their transferred size while the response data is decompressed.
+*/
+class AsyncSampleResultConsumer extends AbstractAsyncResponseConsumer<HTTPSampleResult> {
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final int DEFAULT_BODY_SIZE = 4 * 1024;
+  /*
+  Content is always completely consumed in each onContentReceived invocation, so the reactor
+  threads can share a buffer among all the exchanges they handle.
+  */
+  private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal
+      .withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+
+  private final HTTPSampleResult result;
+  private final boolean discardBody;
+  // null when the arrival of CMAF chunks is not timed
+  private final CmafChunkTimer chunkTimer;
+  private HttpResponse response;
+  private ByteArrayOutputStream body;
+  private long bodyBytes;
+
+  AsyncSampleResultConsumer(HTTPSampleResult result, boolean discardBody,
+      CmafChunkTimer chunkTimer) {
+    this.result = result;
+    this.discardBody = discardBody;
+    this.chunkTimer = chunkTimer;
+  }
+
+  @Override
+  protected void onResponseReceived(HttpResponse response) {
+    result.latencyEnd();
+    this.response = response;
+  }
+
+  @Override
+  protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) {
+    if (discardBody) {
+      return;
+    }
+    long length = entity.getContentLength();
+    body = new ByteArrayOutputStream(length > 0 && length < Integer.MAX_VALUE ? (int) length
+        : DEFAULT_BODY_SIZE);
+  }
+
+  @Override
+  protected void onContentReceived(ContentDecoder decoder, IOControl ioControl)
+      throws IOException {
+    ByteBuffer buffer = BUFFER.get();
+    buffer.clear();
+    int read;
+    while ((read = decoder.read(buffer)) > 0) {
+      bodyBytes += read;
+      if (chunkTimer != null) {
+        chunkTimer.update(buffer.array(), 0, read);
+      }
+      if (body != null) {
+        body.write(buffer.array(), 0, read);
+      }
+      buffer.clear();
+    }
+  }
+
+  @Override
+  protected HTTPSampleResult buildResult(HttpContext context) throws IOException {
+    result.sampleEnd();
+    result.setResponseCode(String.valueOf(response.getStatusLine().getStatusCode()));
+    result.setResponseMessage(response.getStatusLine().getReasonPhrase());
+    String responseHeaders = buildResponseHeaders(response);
+    result.setResponseHeaders(responseHeaders);
+    result.setHeadersSize(responseHeaders.length());
+    result.setBodySize(bodyBytes);
+    result.setBytes(responseHeaders.length() + bodyBytes);
+    Header contentType = response.getLastHeader("Content-Type");
+    if (contentType != null) {
+      result.setContentType(contentType.getValue());
+      result.setEncodingAndType(contentType.getValue());
+    }
+    Header location = response.getLastHeader("Location");
+    if (location != null) {
+      result.setRedirectLocation(location.getValue());
+    }
+    Header encoding = response.getLastHeader("Content-Encoding");
+    result.setResponseData(body != null
+        ? decode(body.toByteArray(), encoding != null ? encoding.getValue() : null)
+        : new byte[0]);
+    List<URI> redirects = HttpClientContext.adapt(context).getRedirectLocations();
+    if (redirects != null && !redirects.isEmpty()) {
+      result.setURL(redirects.get(redirects.size() - 1).toURL());
+    }
+    return result;
+  }
+
+  private static String buildResponseHeaders(HttpResponse response) {
+    StringBuilder ret = new StringBuilder();
+    ret.append(response.getStatusLine()).append("\n");
+    for (Header header : response.getAllHeaders()) {
+      ret.append(header.getName()).append(": ").append(header.getValue()).append("\n");
+    }
+    return ret.toString();
+  }
+
+  static byte[] decode(byte[] data, String contentEncoding) throws IOException {
+    if (contentEncoding == null || data.length == 0) {
+      return data;
+    }
+    String value = contentEncoding.trim();
+    if ("gzip".equalsIgnoreCase(value)) {
+      return readFully(new GZIPInputStream(new ByteArrayInputStream(data)));
+    } else if ("deflate".equalsIgnoreCase(value)) {
+      return readFully(new InflaterInputStream(new ByteArrayInputStream(data)));
+    } else {
+      return data;
+    }
+  }
+
+  private static byte[] readFully(InputStream stream) throws IOException {
+    try (InputStream in = stream) {
+      return IOUtils.toByteArray(in);
+    }
+  }
+
+  @Override
+  protected void releaseResources() {
+    response = null;
+    body = null;
+  }
+
+}
@@ -0,0 +1,132 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/*
+Registers the arrival time of each CMAF chunk (a moof box followed by its mdat box) of a segment
+while its body is received, following the sizes of the top level ISO BMFF boxes, so the latency
+of chunks delivered with chunked transfer encoding by low latency streams can be measured.
+
+Box payloads are never inspected, so this adds no noticeable cost to reading the body.
+*/
+final class CmafChunkTimer {
+
+  private static final int BOX_HEADER_SIZE = 8;
+  private static final int LARGE_BOX_HEADER_SIZE = 16;
+  private static final int LARGE_BOX_SIZE = 1;
+  private static final int MDAT_BOX_TYPE = 0x6d646174;
+
+  private final byte[] header = new byte[LARGE_BOX_HEADER_SIZE];
+  private int headerLength;
+  private long remainingBoxBytes;
+  private boolean mdat;
+  private boolean invalid;
+  private final List<Long> chunkTimes = new ArrayList<>();
+
+  void update(byte[] data, int offset, int length) {
+    update(ByteBuffer.wrap(data, offset, length));
+  }
+
+  // the position of the given buffer is not modified
+  void update(ByteBuffer data) {
+    ByteBuffer src = data.duplicate();
+    long time = System.currentTimeMillis();
+    while (src.hasRemaining() && !invalid) {
+      if (remainingBoxBytes > 0) {
+        int skipped = (int) Math.min(remainingBoxBytes, src.remaining());
+        src.position(src.position() + skipped);
+        remainingBoxBytes -= skipped;
+        if (remainingBoxBytes == 0) {
+          completeBox(time);
+        }
+      } else {
+        int copied = Math.min(getHeaderSize() - headerLength, src.remaining());
+        src.get(header, headerLength, copied);
+        headerLength += copied;
+        if (headerLength == getHeaderSize()) {
+          startBox(time);
+        }
+      }
+    }
+  }
+
+  private int getHeaderSize() {
+    return headerLength >= BOX_HEADER_SIZE && readInt(0) == LARGE_BOX_SIZE
+        ? LARGE_BOX_HEADER_SIZE : BOX_HEADER_SIZE;
+  }
+
+  private void startBox(long time) {
+    int headerSize = headerLength;
+    long size = readInt(0) == LARGE_BOX_SIZE ? ((long) readInt(8) << 32) | readInt(12)
+        : readInt(0);
+    mdat = readInt(4) == MDAT_BOX_TYPE;
+    headerLength = 0;
+    // boxes extending up to the end of the body (size 0) are not used by CMAF chunks
+    if (size < headerSize) {
+      invalid = true;
+      return;
+    }
+    remainingBoxBytes = size - headerSize;
+    if (remainingBoxBytes == 0) {
+      completeBox(time);
+    }
+  }
+
+  private long readInt(int offset) {
+    return ((header[offset] & 0xFFL) << 24) | ((header[offset + 1] & 0xFFL) << 16)
+        | ((header[offset + 2] & 0xFFL) << 8) | (header[offset + 3] & 0xFFL);
+  }
+
+  private void completeBox(long time) {
+    if (mdat) {
+      chunkTimes.add(time);
+      mdat = false;
+    }
+  }
+
+  InputStream timing(InputStream stream) {
+    return new FilterInputStream(stream) {
+
+      @Override
+      public int read() throws IOException {
+        int ret = super.read();
+        if (ret >= 0) {
+          update(new byte[]{(byte) ret}, 0, 1);
+        }
+        return ret;
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        int ret = super.read(buffer, offset, length);
+        if (ret > 0) {
+          update(buffer, offset, ret);
+        }
+        return ret;
+      }
+
+    };
+  }
+
+  /*
+  Builds the response headers with the time (in milliseconds since the request start) of the
+  first chunk and of every chunk, or an empty string when no chunk was received (e.g. for bodies
+  which are not CMAF).
+  */
+  String buildResponseHeaders(long startTime) {
+    if (chunkTimes.isEmpty()) {
+      return "";
+    }
+    return "X-MEDIA-SEGMENT-FIRST-CHUNK-TIME: " + (chunkTimes.get(0) - startTime) + "\n"
+        + "X-MEDIA-SEGMENT-CHUNK-TIMES: " + chunkTimes.stream()
+        .map(t -> String.valueOf(t - startTime))
+        .collect(Collectors.joining(",")) + "\n";
+  }
+
+}
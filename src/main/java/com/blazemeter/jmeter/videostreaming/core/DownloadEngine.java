@@ -0,0 +1,19 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+public enum DownloadEngine {
+  BLOCKING("Blocking"),
+  ASYNC("Asynchronous (NIO)"),
+  HTTP2("HTTP/2 (multiplexed)");
+
+  private final String name;
+
+  DownloadEngine(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+}
@@ -0,0 +1,123 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import com.blazemeter.jmeter.videostreaming.core.exception.SamplerInterruptedException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/*
+Cache of values which are fresh for a time to live since they were put, evicting the least
+recently used entries when it reaches its maximum size. Expired entries are kept until evicted or
+replaced, so they can be revalidated.
+
+Values can be loaded through the cache (see get), so concurrent callers missing the same key share
+one load instead of each one doing it.
+*/
+public final class ExpiringCache<K, V> {
+
+  private final long ttlMillis;
+  private final Map<K, Entry<V>> entries;
+  private final Map<K, CompletableFuture<V>> loads = new HashMap<>();
+
+  public ExpiringCache(long ttlMillis, int maxEntries) {
+    this.ttlMillis = ttlMillis;
+    this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+        return size() > maxEntries;
+      }
+
+    };
+  }
+
+  // null when there is no entry for the given key, fresh or not
+  public synchronized Entry<V> getEntry(K key) {
+    return entries.get(key);
+  }
+
+  public synchronized void put(K key, V value, Instant now) {
+    entries.put(key, new Entry<>(value, now.plusMillis(ttlMillis)));
+  }
+
+  public synchronized void remove(K key) {
+    entries.remove(key);
+  }
+
+  /*
+  Gets the fresh value of the given key, or loads it with the given loader. Only one caller loads
+  each key at a time, out of any lock, while the rest of the callers of the same key wait for its
+  result, so loading a key never delays getting other ones. Loaded values are cached with the time
+  of the clock once they are loaded, except null ones, which are returned to the waiting callers
+  but not cached, so the key is loaded again by the next caller.
+  */
+  public V get(K key, Supplier<Instant> clock, Supplier<V> loader) {
+    CompletableFuture<V> load;
+    synchronized (this) {
+      Entry<V> entry = entries.get(key);
+      if (entry != null && entry.isFresh(clock.get())) {
+        return entry.value;
+      }
+      load = loads.get(key);
+      if (load == null) {
+        loads.put(key, new CompletableFuture<>());
+      }
+    }
+    return load != null ? awaitLoad(load) : load(key, clock, loader);
+  }
+
+  private V awaitLoad(CompletableFuture<V> load) {
+    try {
+      return load.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SamplerInterruptedException();
+    } catch (ExecutionException e) {
+      // loads are never completed exceptionally
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private V load(K key, Supplier<Instant> clock, Supplier<V> loader) {
+    V ret = null;
+    try {
+      ret = loader.get();
+      return ret;
+    } finally {
+      // waiting callers get null when the load fails, as when it doesn't get a value
+      CompletableFuture<V> load;
+      synchronized (this) {
+        if (ret != null) {
+          put(key, ret, clock.get());
+        }
+        load = loads.remove(key);
+      }
+      load.complete(ret);
+    }
+  }
+
+  public static final class Entry<V> {
+
+    private final V value;
+    private final Instant expiration;
+
+    private Entry(V value, Instant expiration) {
+      this.value = value;
+      this.expiration = expiration;
+    }
+
+    public V getValue() {
+      return value;
+    }
+
+    public boolean isFresh(Instant now) {
+      return now.isBefore(expiration);
+    }
+
+  }
+
+}
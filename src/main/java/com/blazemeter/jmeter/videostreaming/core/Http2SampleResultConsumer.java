@@ -0,0 +1,155 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpVersion;
+import org.apache.hc.core5.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.hc.core5.http.nio.entity.AbstractBinResponseConsumer;
+import org.apache.jmeter.protocol.http.sampler.HTTPSampleResult;
+
+/*
+HTTP/2 counterpart of AsyncSampleResultConsumer: registers latency when the response headers
+frame arrives and sample end when the stream ends, keeping the same body size and
+decompression semantics.
+
+Responses redirecting to other URLs are not registered in the result when redirects are followed,
+so the result only describes the final response, whose URL is left to the caller.
+*/
+class Http2SampleResultConsumer extends AbstractBinResponseConsumer<HTTPSampleResult> {
+
+  private static final int CAPACITY_INCREMENT = 64 * 1024;
+  private static final int DEFAULT_BODY_SIZE = 4 * 1024;
+  private static final Set<Integer> REDIRECT_STATUS_CODES = new HashSet<>(
+      Arrays.asList(301, 302, 303, 307, 308));
+
+  private final HTTPSampleResult result;
+  private final boolean discardBody;
+  // null when the arrival of CMAF chunks is not timed
+  private final CmafChunkTimer chunkTimer;
+  private final boolean followRedirects;
+  private String redirectLocation;
+  private HttpResponse response;
+  private ByteArrayOutputStream body;
+  private long bodyBytes;
+
+  Http2SampleResultConsumer(HTTPSampleResult result, boolean discardBody,
+      CmafChunkTimer chunkTimer, boolean followRedirects) {
+    this.result = result;
+    this.discardBody = discardBody;
+    this.chunkTimer = chunkTimer;
+    this.followRedirects = followRedirects;
+  }
+
+  // null when the response is not a redirect to follow
+  String getRedirectLocation() {
+    return redirectLocation;
+  }
+
+  @Override
+  protected void start(HttpResponse response, ContentType contentType) {
+    if (followRedirects && REDIRECT_STATUS_CODES.contains(response.getCode())) {
+      Header location = response.getLastHeader("Location");
+      if (location != null) {
+        redirectLocation = location.getValue();
+        return;
+      }
+    }
+    result.latencyEnd();
+    this.response = response;
+    if (!discardBody) {
+      body = new ByteArrayOutputStream(DEFAULT_BODY_SIZE);
+    }
+  }
+
+  @Override
+  protected int capacityIncrement() {
+    return CAPACITY_INCREMENT;
+  }
+
+  @Override
+  protected void data(ByteBuffer src, boolean endOfStream) {
+    if (redirectLocation != null) {
+      src.position(src.limit());
+      return;
+    }
+    int length = src.remaining();
+    bodyBytes += length;
+    if (chunkTimer != null) {
+      chunkTimer.update(src);
+    }
+    if (body != null && src.hasArray()) {
+      body.write(src.array(), src.arrayOffset() + src.position(), length);
+      src.position(src.limit());
+    } else {
+      while (src.hasRemaining()) {
+        byte read = src.get();
+        if (body != null) {
+          body.write(read);
+        }
+      }
+    }
+  }
+
+  @Override
+  protected HTTPSampleResult buildResult() {
+    if (redirectLocation != null) {
+      return result;
+    }
+    result.sampleEnd();
+    int statusCode = response.getCode();
+    String reason = response.getReasonPhrase() != null ? response.getReasonPhrase()
+        : EnglishReasonPhraseCatalog.INSTANCE.getReason(statusCode, Locale.ENGLISH);
+    result.setResponseCode(String.valueOf(statusCode));
+    result.setResponseMessage(reason);
+    String responseHeaders = buildResponseHeaders(response, statusCode, reason);
+    result.setResponseHeaders(responseHeaders);
+    result.setHeadersSize(responseHeaders.length());
+    result.setBodySize(bodyBytes);
+    result.setBytes(responseHeaders.length() + bodyBytes);
+    Header contentType = response.getLastHeader("Content-Type");
+    if (contentType != null) {
+      result.setContentType(contentType.getValue());
+      result.setEncodingAndType(contentType.getValue());
+    }
+    Header location = response.getLastHeader("Location");
+    if (location != null) {
+      result.setRedirectLocation(location.getValue());
+    }
+    Header encoding = response.getLastHeader("Content-Encoding");
+    try {
+      result.setResponseData(body != null
+          ? AsyncSampleResultConsumer.decode(body.toByteArray(),
+          encoding != null ? encoding.getValue() : null)
+          : new byte[0]);
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not decode response body", e);
+    }
+    return result;
+  }
+
+  private static String buildResponseHeaders(HttpResponse response, int statusCode,
+      String reason) {
+    StringBuilder ret = new StringBuilder();
+    ret.append(HttpVersion.HTTP_2).append(" ").append(statusCode).append(" ").append(reason)
+        .append("\n");
+    for (Header header : response.getHeaders()) {
+      ret.append(header.getName()).append(": ").append(header.getValue()).append("\n");
+    }
+    return ret.toString();
+  }
+
+  @Override
+  public void releaseResources() {
+    response = null;
+    body = null;
+  }
+
+}
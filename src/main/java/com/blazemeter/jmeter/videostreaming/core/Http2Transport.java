@@ -0,0 +1,281 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Future;
+import org.apache.hc.client5.http.RedirectException;
+import org.apache.hc.client5.http.ssl.DefaultClientTlsStrategy;
+import org.apache.hc.core5.concurrent.ComplexCancellable;
+import org.apache.hc.core5.concurrent.ComplexFuture;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ConnectionClosedException;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.impl.DefaultAddressResolver;
+import org.apache.hc.core5.http.message.BasicHttpRequest;
+import org.apache.hc.core5.http.nio.AsyncClientExchangeHandler;
+import org.apache.hc.core5.http.nio.RequestChannel;
+import org.apache.hc.core5.http.nio.command.RequestExecutionCommand;
+import org.apache.hc.core5.http.nio.ssl.TlsStrategy;
+import org.apache.hc.core5.http.nio.support.BasicClientExchangeHandler;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2MultiplexingRequester;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2RequesterBootstrap;
+import org.apache.hc.core5.http2.nio.pool.H2ConnPool;
+import org.apache.hc.core5.reactor.Command;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.reactor.IOSession;
+import org.apache.hc.core5.util.Timeout;
+import org.apache.http.Header;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.jmeter.protocol.http.sampler.HTTPSampleResult;
+import org.apache.jmeter.util.JMeterUtils;
+
+/*
+JVM-wide HTTP/2 requester shared by every sampler configured with DownloadEngine.HTTP2.
+
+A single I/O reactor, with a small pool of threads, serves all the viewers, but each viewer opens
+its own connections (see openConnections), as each JMeter thread has its own connections with the
+blocking client. Every request of a viewer is sent as a stream of the viewer connection to its
+origin, so its playlists, init segments and media segments (including the ones of concurrent
+tracks and prefetched segments) are multiplexed over the same connection, as players do against
+HTTP/2 CDNs. Plain http URLs use h2c with prior knowledge, and https ones negotiate h2 through
+ALPN.
+
+The state of each viewer (cookies, headers and timeouts) travels with each request, and the viewer
+keeps track of its requests in flight to cancel them. Redirects are followed here, since requests
+are sent straight to the connections of the viewer.
+*/
+final class Http2Transport {
+
+  // connection specific headers are not allowed in HTTP/2 messages (RFC 7540, section 8.1.2.2)
+  private static final Set<String> CONNECTION_HEADERS = new HashSet<>(Arrays.asList(
+      "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade", "host"));
+  // same limit as the one of the HTTP client previously used by this engine
+  private static final int MAX_REDIRECTS = 50;
+
+  private static volatile Http2Transport instance;
+
+  private final TlsStrategy tlsStrategy = DefaultClientTlsStrategy.getDefault();
+  private final H2MultiplexingRequester requester;
+
+  private Http2Transport(int ioThreads) {
+    requester = H2RequesterBootstrap.bootstrap()
+        .setIOReactorConfig(IOReactorConfig.custom()
+            .setIoThreadCount(ioThreads)
+            .build())
+        .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2)
+        .setTlsStrategy(tlsStrategy)
+        .create();
+    requester.start();
+  }
+
+  static Http2Transport getInstance() {
+    Http2Transport ret = instance;
+    if (ret == null) {
+      synchronized (Http2Transport.class) {
+        ret = instance;
+        if (ret == null) {
+          ret = new Http2Transport(JMeterUtils.getPropDefault(
+              AsyncHttpEngine.IO_THREADS_PROPERTY_NAME,
+              Runtime.getRuntime().availableProcessors()));
+          instance = ret;
+        }
+      }
+    }
+    return ret;
+  }
+
+  /*
+  Opens a new set of connections, one per origin, established through the shared I/O reactor
+  when first used. Each viewer uses its own set, and closes it when it finishes.
+  */
+  H2ConnPool openConnections() {
+    return new H2ConnPool(requester, DefaultAddressResolver.INSTANCE, tlsStrategy);
+  }
+
+  /*
+  Sends the given request, built for the HTTP/1.1 asynchronous engine, as an HTTP/2 stream of the
+  given connections. The result is completed with the final URL when redirects are followed.
+  */
+  Future<HTTPSampleResult> execute(H2ConnPool connections, HttpGet request, RequestConfig config,
+      HTTPSampleResult result, boolean discardBody, CmafChunkTimer chunkTimer,
+      org.apache.http.concurrent.FutureCallback<HTTPSampleResult> callback) {
+    ComplexFuture<HTTPSampleResult> future = new ComplexFuture<>(
+        new FutureCallback<HTTPSampleResult>() {
+
+          @Override
+          public void completed(HTTPSampleResult res) {
+            callback.completed(res);
+          }
+
+          @Override
+          public void failed(Exception e) {
+            callback.failed(e);
+          }
+
+          @Override
+          public void cancelled() {
+            callback.cancelled();
+          }
+
+        });
+    BasicHttpRequest h2Request = new BasicHttpRequest(request.getMethod(), request.getURI());
+    for (Header header : request.getAllHeaders()) {
+      if (!CONNECTION_HEADERS.contains(header.getName().toLowerCase(Locale.ROOT))) {
+        h2Request.addHeader(header.getName(), header.getValue());
+      }
+    }
+    new Exchange(connections, config, result, discardBody, chunkTimer, future)
+        .send(request.getURI(), h2Request);
+    return future;
+  }
+
+  /*
+  Request sent by a viewer, along with the requests sent to follow its redirects, which are sent
+  one after the other.
+  */
+  private static final class Exchange {
+
+    private final H2ConnPool connections;
+    private final RequestConfig config;
+    private final HTTPSampleResult result;
+    private final boolean discardBody;
+    private final CmafChunkTimer chunkTimer;
+    private final ComplexFuture<HTTPSampleResult> future;
+    private int redirects;
+
+    private Exchange(H2ConnPool connections, RequestConfig config, HTTPSampleResult result,
+        boolean discardBody, CmafChunkTimer chunkTimer, ComplexFuture<HTTPSampleResult> future) {
+      this.connections = connections;
+      this.config = config;
+      this.result = result;
+      this.discardBody = discardBody;
+      this.chunkTimer = chunkTimer;
+      this.future = future;
+    }
+
+    private void send(URI uri, HttpRequest request) {
+      Http2SampleResultConsumer consumer = new Http2SampleResultConsumer(result, discardBody,
+          chunkTimer, config.isRedirectsEnabled());
+      AsyncClientExchangeHandler exchangeHandler = new BasicClientExchangeHandler<>(
+          new TimedRequestProducer(request, result), consumer,
+          new FutureCallback<HTTPSampleResult>() {
+
+            @Override
+            public void completed(HTTPSampleResult res) {
+              String location = consumer.getRedirectLocation();
+              if (location == null) {
+                complete(uri, res);
+              } else {
+                redirect(uri, location, request);
+              }
+            }
+
+            @Override
+            public void failed(Exception e) {
+              future.failed(e);
+            }
+
+            @Override
+            public void cancelled() {
+              future.cancel();
+            }
+
+          });
+      ComplexCancellable cancellable = new ComplexCancellable();
+      future.setDependency(cancellable);
+      connections.getSession(new HttpHost(uri.getScheme(), uri.getHost(), uri.getPort()),
+          Timeout.ofMilliseconds(config.getConnectTimeout()),
+          new FutureCallback<IOSession>() {
+
+            @Override
+            public void completed(IOSession session) {
+              session.setSocketTimeout(Timeout.ofMilliseconds(config.getSocketTimeout()));
+              session.enqueue(new RequestExecutionCommand(exchangeHandler, null, cancellable,
+                  HttpCoreContext.create()), Command.Priority.NORMAL);
+              if (!session.isOpen()) {
+                exchangeHandler.failed(new ConnectionClosedException());
+              }
+            }
+
+            @Override
+            public void failed(Exception e) {
+              exchangeHandler.failed(e);
+            }
+
+            @Override
+            public void cancelled() {
+              exchangeHandler.cancel();
+            }
+
+          });
+    }
+
+    private void complete(URI uri, HTTPSampleResult res) {
+      if (redirects > 0) {
+        try {
+          res.setURL(uri.toURL());
+        } catch (MalformedURLException e) {
+          future.failed(e);
+          return;
+        }
+      }
+      future.completed(res);
+    }
+
+    private void redirect(URI uri, String location, HttpRequest request) {
+      if (redirects == MAX_REDIRECTS) {
+        future.failed(new RedirectException("Maximum redirects (" + MAX_REDIRECTS + ") exceeded"));
+        return;
+      }
+      URI target;
+      try {
+        target = uri.resolve(location);
+      } catch (IllegalArgumentException e) {
+        future.failed(e);
+        return;
+      }
+      redirects++;
+      BasicHttpRequest redirectRequest = new BasicHttpRequest(request.getMethod(), target);
+      redirectRequest.setHeaders(request.getHeaders());
+      send(target, redirectRequest);
+    }
+
+  }
+
+  /*
+  Marks the end of the connection phase once the stream is opened, since the connection is
+  usually already established by a previous request.
+  */
+  private static final class TimedRequestProducer extends BasicRequestProducer {
+
+    private final HTTPSampleResult result;
+
+    private TimedRequestProducer(HttpRequest request, HTTPSampleResult result) {
+      super(request, null);
+      this.result = result;
+    }
+
+    @Override
+    public void sendRequest(RequestChannel channel, HttpContext context)
+        throws HttpException, IOException {
+      if (result.getConnectTime() == 0) {
+        result.connectEnd();
+      }
+      super.sendRequest(channel, context);
+    }
+
+  }
+
+}
@@ -1,6 +1,7 @@
 package com.blazemeter.jmeter.videostreaming.core;
 
 import java.net.URI;
+import java.time.Instant;
 
 public abstract class Manifest {
   protected final URI uri;
@@ -10,4 +11,7 @@ public abstract class Manifest {
   }
 
   protected abstract String getManifestType();
+
+  // same manifest as if it had been downloaded at the given time, used when it didn't change
+  protected abstract Manifest withDownloadTimestamp(Instant downloadTimestamp);
 }
@@ -8,8 +8,8 @@ public class MediaSegment {
   protected final Duration duration;
   private final long sequenceNumber;
   private URI uri;
-  private int byteLength;
-  private int byteOffset;
+  private long byteLength;
+  private long byteOffset;
 
   public MediaSegment(long sequenceNumber, URI uri, Duration duration) {
     this.sequenceNumber = sequenceNumber;
@@ -42,15 +42,15 @@ public class MediaSegment {
     return duration.toMillis();
   }
 
-  public int getByteLength() {
+  public long getByteLength() {
     return byteLength;
   }
 
-  public int getByteOffset() {
+  public long getByteOffset() {
     return byteOffset;
   }
 
-  public void setByteRangeInfo(URI uri, int byteLength, int byteOffset) {
+  public void setByteRangeInfo(URI uri, long byteLength, long byteOffset) {
     this.uri = uri;
     this.byteLength = byteLength;
     this.byteOffset = byteOffset;
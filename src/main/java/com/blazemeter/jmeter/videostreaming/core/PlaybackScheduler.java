@@ -0,0 +1,154 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.jmeter.util.JMeterUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+JVM-wide hashed timer wheel which runs tasks once their deadline (in System.nanoTime() terms) is
+reached, used to resume playbacks which released their thread while waiting for the next playlist
+reload or segment availability.
+
+Scheduling and cancelling a task takes constant time, regardless of how many playbacks are
+waiting, and a single thread advances the wheel once per tick, so tasks run up to one tick
+after their deadline. Tasks run on the wheel thread, so they are only expected to hand the actual
+work to other threads.
+*/
+public final class PlaybackScheduler {
+
+  public static final String TICK_MILLIS_PROPERTY_NAME = "hls.sampler.scheduler.tickMillis";
+  private static final int DEFAULT_TICK_MILLIS = 10;
+  private static final int WHEEL_SIZE = 512;
+  private static final Logger LOG = LoggerFactory.getLogger(PlaybackScheduler.class);
+
+  private static volatile PlaybackScheduler instance;
+
+  private final long tickNanos;
+  private final long startNanos = System.nanoTime();
+  @SuppressWarnings("unchecked")
+  private final Queue<Timeout>[] wheel = new Queue[WHEEL_SIZE];
+  private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+  private long tick;
+
+  @VisibleForTesting
+  PlaybackScheduler(long tickMillis) {
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+    for (int i = 0; i < wheel.length; i++) {
+      wheel[i] = new ArrayDeque<>();
+    }
+    Thread thread = new Thread(this::run, "hls-playback-scheduler");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public static PlaybackScheduler getInstance() {
+    if (instance == null) {
+      synchronized (PlaybackScheduler.class) {
+        if (instance == null) {
+          instance = new PlaybackScheduler(Math.max(1,
+              JMeterUtils.getPropDefault(TICK_MILLIS_PROPERTY_NAME, DEFAULT_TICK_MILLIS)));
+        }
+      }
+    }
+    return instance;
+  }
+
+  public long getTickMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(tickNanos);
+  }
+
+  public Timeout schedule(long deadlineNanos, Runnable task) {
+    Timeout ret = new Timeout(deadlineNanos, task);
+    scheduled.add(ret);
+    return ret;
+  }
+
+  private void run() {
+    while (true) {
+      long tickDeadline = startNanos + (tick + 1) * tickNanos;
+      long sleepNanos = tickDeadline - System.nanoTime();
+      while (sleepNanos > 0) {
+        LockSupport.parkNanos(this, sleepNanos);
+        sleepNanos = tickDeadline - System.nanoTime();
+      }
+      addScheduledTimeouts();
+      expireTimeouts(wheel[(int) (tick % WHEEL_SIZE)]);
+      tick++;
+    }
+  }
+
+  private void addScheduledTimeouts() {
+    Timeout timeout;
+    while ((timeout = scheduled.poll()) != null) {
+      if (timeout.isCancelled()) {
+        continue;
+      }
+      // ticks are counted from the wheel start, and expired deadlines go to the current tick
+      long deadlineTick = Math.max(tick,
+          (timeout.deadlineNanos - startNanos + tickNanos - 1) / tickNanos - 1);
+      timeout.remainingRounds = (deadlineTick - tick) / WHEEL_SIZE;
+      wheel[(int) (deadlineTick % WHEEL_SIZE)].add(timeout);
+    }
+  }
+
+  private void expireTimeouts(Queue<Timeout> bucket) {
+    Iterator<Timeout> it = bucket.iterator();
+    while (it.hasNext()) {
+      Timeout timeout = it.next();
+      if (timeout.isCancelled()) {
+        it.remove();
+      } else if (timeout.remainingRounds <= 0) {
+        it.remove();
+        timeout.runNow();
+      } else {
+        timeout.remainingRounds--;
+      }
+    }
+  }
+
+  public static final class Timeout {
+
+    private final long deadlineNanos;
+    private final Runnable task;
+    private final AtomicBoolean done = new AtomicBoolean();
+    private long remainingRounds;
+
+    private Timeout(long deadlineNanos, Runnable task) {
+      this.deadlineNanos = deadlineNanos;
+      this.task = task;
+    }
+
+    private boolean isCancelled() {
+      return done.get();
+    }
+
+    // returns false when the task already run or was cancelled
+    public boolean cancel() {
+      return done.compareAndSet(false, true);
+    }
+
+    /*
+    Runs the task in the calling thread without waiting for its deadline (eg: to resume a playback
+    when the sampler is interrupted), unless it already run or was cancelled.
+    */
+    public void runNow() {
+      if (done.compareAndSet(false, true)) {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          LOG.error("Error running scheduled playback task", e);
+        }
+      }
+    }
+
+  }
+
+}
@@ -42,6 +42,7 @@ public class SampleResultProcessor implements BiConsumer<String, SampleResult> {
     checkAssertions(result, pack.getAssertions());
     threadContext.getVariables()
         .put(JMeterThread.LAST_SAMPLE_OK, Boolean.toString(result.isSuccessful()));
+    StreamingMetrics.exportVariables(threadContext.getVariables());
     notifySampleListeners(result, pack.getSampleListeners());
   }
 
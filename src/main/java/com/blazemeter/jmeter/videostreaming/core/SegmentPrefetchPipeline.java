@@ -0,0 +1,108 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import org.apache.jmeter.protocol.http.sampler.HTTPSampleResult;
+
+/*
+Keeps up to a given amount of segment requests of a track in flight, as players prefetch
+segments ahead of the playback position (eg: hls.js and ExoPlayer fragment prefetch).
+
+Segments are handed back in the same order they were added, each one with the request started for
+it, so every request is still timed and reported individually. Segments which are not yet
+available when added (eg: live DASH segments) are kept without request until they are.
+*/
+public class SegmentPrefetchPipeline<T extends MediaSegment> {
+
+  private final int lookahead;
+  private final Function<T, CompletableFuture<HTTPSampleResult>> requester;
+  private final Deque<PendingSegment<T>> pending = new ArrayDeque<>();
+  private double pendingSeconds;
+
+  public SegmentPrefetchPipeline(int lookahead,
+      Function<T, CompletableFuture<HTTPSampleResult>> requester) {
+    this.lookahead = lookahead;
+    this.requester = requester;
+  }
+
+  public static class PendingSegment<T extends MediaSegment> {
+
+    private final T segment;
+    private CompletableFuture<HTTPSampleResult> request;
+
+    private PendingSegment(T segment, CompletableFuture<HTTPSampleResult> request) {
+      this.segment = segment;
+      this.request = request;
+    }
+
+    public T getSegment() {
+      return segment;
+    }
+
+    // null when the segment was not available yet and its request has not been started
+    public CompletableFuture<HTTPSampleResult> getRequest() {
+      return request;
+    }
+
+  }
+
+  public boolean hasCapacity() {
+    return pending.size() < lookahead;
+  }
+
+  public boolean isEmpty() {
+    return pending.isEmpty();
+  }
+
+  public double getPendingSeconds() {
+    return pendingSeconds;
+  }
+
+  public void add(T segment, boolean available) {
+    pending.add(new PendingSegment<>(segment, available ? requester.apply(segment) : null));
+    pendingSeconds += segment.getDurationSeconds();
+  }
+
+  /*
+  Starts the requests of the segments which were not available when added, and returns true when
+  all pending segments have been requested.
+  */
+  public boolean requestAvailable(Predicate<T> isAvailable) {
+    for (PendingSegment<T> segment : pending) {
+      if (segment.request == null) {
+        if (!isAvailable.test(segment.segment)) {
+          return false;
+        }
+        segment.request = requester.apply(segment.segment);
+      }
+    }
+    return true;
+  }
+
+  // the next segment to be handed back, without removing it, or null when there is none
+  public PendingSegment<T> peek() {
+    return pending.peek();
+  }
+
+  public PendingSegment<T> poll() {
+    PendingSegment<T> ret = pending.poll();
+    if (ret != null) {
+      pendingSeconds -= ret.segment.getDurationSeconds();
+    }
+    return ret;
+  }
+
+  public void cancel() {
+    for (PendingSegment<T> segment : pending) {
+      if (segment.request != null) {
+        segment.request.cancel(true);
+      }
+    }
+    pending.clear();
+    pendingSeconds = 0;
+  }
+
+}
@@ -0,0 +1,83 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.net.URI;
+import java.time.Instant;
+import java.util.function.Supplier;
+import org.apache.jmeter.util.JMeterUtils;
+
+/*
+JVM-wide cache of parsed master playlists and MPDs, shared by every sampler when enabled, so
+thousands of viewers starting the same title don't download and parse the same document.
+
+Entries are fresh for a configurable time to live. Expired entries are revalidated with a
+conditional request (when the server sent validators) instead of being downloaded and parsed
+again. Documents are loaded through the cache out of any lock, so only one viewer downloads (or
+revalidates) each document at a time, while a slow origin never delays viewers of other titles.
+The least recently used entries are evicted when the cache reaches its maximum size.
+*/
+public final class SharedManifestCache {
+
+  public static final String ENABLED_PROPERTY_NAME = "hls.sampler.manifestCache.enabled";
+  public static final String TTL_SECONDS_PROPERTY_NAME = "hls.sampler.manifestCache.ttlSeconds";
+  public static final String MAX_ENTRIES_PROPERTY_NAME = "hls.sampler.manifestCache.maxEntries";
+  public static final String HIT_SAMPLES_PROPERTY_NAME = "hls.sampler.manifestCache.hitSamples";
+  public static final String HIT_RESPONSE_MESSAGE = "OK (cached)";
+  public static final String HIT_RESPONSE_HEADER = "X-Cache: HIT";
+  private static final int DEFAULT_TTL_SECONDS = 30;
+  private static final int DEFAULT_MAX_ENTRIES = 1000;
+
+  private static volatile SharedManifestCache instance;
+  private static volatile boolean initialized;
+
+  private final boolean hitSamples;
+  private final ExpiringCache<URI, ValidatedManifest> entries;
+
+  private SharedManifestCache(long ttlMillis, int maxEntries, boolean hitSamples) {
+    this.hitSamples = hitSamples;
+    this.entries = new ExpiringCache<>(ttlMillis, maxEntries);
+  }
+
+  // null when the cache is disabled
+  public static SharedManifestCache getInstance() {
+    if (!initialized) {
+      synchronized (SharedManifestCache.class) {
+        if (!initialized) {
+          if (JMeterUtils.getPropDefault(ENABLED_PROPERTY_NAME, false)) {
+            instance = new SharedManifestCache(
+                JMeterUtils.getPropDefault(TTL_SECONDS_PROPERTY_NAME, DEFAULT_TTL_SECONDS) * 1000L,
+                JMeterUtils.getPropDefault(MAX_ENTRIES_PROPERTY_NAME, DEFAULT_MAX_ENTRIES),
+                JMeterUtils.getPropDefault(HIT_SAMPLES_PROPERTY_NAME, true));
+          }
+          initialized = true;
+        }
+      }
+    }
+    return instance;
+  }
+
+  @VisibleForTesting
+  public static synchronized void reset() {
+    instance = null;
+    initialized = false;
+  }
+
+  boolean isHitSamplesEnabled() {
+    return hitSamples;
+  }
+
+  // expired entries are also returned, to revalidate them
+  ExpiringCache.Entry<ValidatedManifest> getEntry(URI uri) {
+    return entries.getEntry(uri);
+  }
+
+  // see ExpiringCache.get
+  ValidatedManifest get(URI uri, Supplier<Instant> clock, Supplier<ValidatedManifest> loader) {
+    return entries.get(uri, clock, loader);
+  }
+
+  void remove(URI uri) {
+    entries.remove(uri);
+  }
+
+}
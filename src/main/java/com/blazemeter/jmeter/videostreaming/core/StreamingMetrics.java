@@ -0,0 +1,158 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+JVM-wide histograms of timings of the streaming samplers which are not reported as sample results
+(like how long the waits for playlist reloads actually took), recorded by every sampler and
+logged when the test ends. Their current values are also exported as JMeter variables (see
+exportVariables) with each sample result, so they can be saved in results with the
+sample_variables property.
+
+Histograms keep power of two millisecond buckets, so recording a value takes constant time and
+no memory, regardless of how many viewers record them.
+*/
+public final class StreamingMetrics {
+
+  public static final String WAIT_REQUESTED = "wait requested";
+  public static final String WAIT_ACTUAL = "wait actual";
+  public static final String WAIT_OVERSLEEP = "wait oversleep";
+  public static final String HEARTBEAT_DUE = "heartbeat due";
+  public static final String HEARTBEAT_LATENESS = "heartbeat lateness";
+  public static final String SLICE_OVERRUN = "slice overrun";
+
+  public static final String VARIABLE_PREFIX = "streamingMetrics.";
+
+  private static final Logger LOG = LoggerFactory.getLogger(StreamingMetrics.class);
+  private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentSkipListMap<>();
+
+  private StreamingMetrics() {
+  }
+
+  public static Histogram getHistogram(String name) {
+    return HISTOGRAMS.computeIfAbsent(name, n -> new Histogram());
+  }
+
+  public static void record(String name, long millis) {
+    getHistogram(name).record(millis);
+  }
+
+  /*
+  Puts the count, mean, 99th percentile and max of each histogram with recorded values in the given
+  variables, named with the prefix and the histogram name (like streamingMetrics.wait_oversleep.max
+  for the max of wait oversleep).
+  */
+  public static void exportVariables(JMeterVariables vars) {
+    for (Map.Entry<String, Histogram> entry : HISTOGRAMS.entrySet()) {
+      Histogram histogram = entry.getValue();
+      if (histogram.getCount() == 0) {
+        continue;
+      }
+      String name = VARIABLE_PREFIX + entry.getKey().replace(' ', '_') + ".";
+      vars.put(name + "count", String.valueOf(histogram.getCount()));
+      vars.put(name + "mean", String.valueOf(Math.round(histogram.getMean())));
+      vars.put(name + "p99", String.valueOf(histogram.getPercentile(0.99)));
+      vars.put(name + "max", String.valueOf(histogram.getMax()));
+    }
+  }
+
+  // logs the histograms with recorded values, if any, and clears them
+  public static void logSummary() {
+    StringBuilder summary = new StringBuilder();
+    for (Map.Entry<String, Histogram> entry : HISTOGRAMS.entrySet()) {
+      if (entry.getValue().getCount() > 0) {
+        summary.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+      }
+    }
+    reset();
+    if (summary.length() > 0) {
+      LOG.info("Video streaming metrics:{}", summary);
+    }
+  }
+
+  @VisibleForTesting
+  public static void reset() {
+    HISTOGRAMS.clear();
+  }
+
+  public static final class Histogram {
+
+    // upper bounds (inclusive) of buckets are 0, 1, 2, 4, ..., 2^(BUCKETS - 2) millis, and the
+    // last bucket has the greater values
+    private static final int BUCKETS = 20;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    private Histogram() {
+    }
+
+    public void record(long millis) {
+      buckets.incrementAndGet(findBucket(millis));
+      count.increment();
+      sum.add(millis);
+      max.accumulate(millis);
+    }
+
+    private static int findBucket(long millis) {
+      if (millis <= 0) {
+        return 0;
+      }
+      int ret = 65 - Long.numberOfLeadingZeros(millis - 1);
+      return Math.min(ret, BUCKETS - 1);
+    }
+
+    private static long getUpperBound(int bucket) {
+      return bucket == 0 ? 0 : 1L << (bucket - 1);
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public double getMean() {
+      long total = count.sum();
+      return total == 0 ? 0 : (double) sum.sum() / total;
+    }
+
+    public long getMax() {
+      return count.sum() == 0 ? 0 : max.get();
+    }
+
+    /*
+    Upper bound of the bucket containing the given percentile (between 0 and 1), or the max value
+    when it is in the last bucket.
+    */
+    public long getPercentile(double percentile) {
+      long total = count.sum();
+      long threshold = (long) Math.ceil(total * percentile);
+      long accumulated = 0;
+      for (int i = 0; i < BUCKETS - 1; i++) {
+        accumulated += buckets.get(i);
+        if (accumulated >= threshold && accumulated > 0) {
+          return Math.min(getUpperBound(i), getMax());
+        }
+      }
+      return getMax();
+    }
+
+    @Override
+    public String toString() {
+      return String.format("count=%d mean=%.1fms p50<=%dms p90<=%dms p99<=%dms max=%dms",
+          getCount(), getMean(), getPercentile(0.5), getPercentile(0.9), getPercentile(0.99),
+          getMax());
+    }
+
+  }
+
+}
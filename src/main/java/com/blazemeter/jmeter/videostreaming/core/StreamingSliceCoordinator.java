@@ -1,5 +1,9 @@
 package com.blazemeter.jmeter.videostreaming.core;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Per-thread handoff between the Streaming Parallel Controller and the streaming sampler.
  *
@@ -10,6 +14,17 @@ package com.blazemeter.jmeter.videostreaming.core;
  * <p>When no controller is driving the current thread the coordinator behaves as a null object:
  * {@link #isActive()} and {@link #shouldYield()} return {@code false} and
  * {@link #clampMillis(long)} returns its argument unchanged, so standalone behavior is untouched.
+ *
+ * <p>Playbacks run by a {@link ViewerPool} on the {@link PlaybackScheduler} run as scheduled steps
+ * ({@link #beginScheduledStep(long)}): instead of waiting for their next playlist reload or segment
+ * availability, they register the time to wake up ({@link #releaseWait(long)}) and yield, so the
+ * thread is released until the scheduler resumes them. Likewise, instead of waiting for a download
+ * in flight, they register it ({@link #releaseUntilDownloaded(CompletableFuture)}) and yield, so
+ * they are resumed once it completes.
+ *
+ * <p>When the controller slices several streaming samplers, it keeps the new-session flag, exit
+ * and wake up of each one, and loads them before each slice ({@link #beginSlice(boolean, long,
+ * long)}), so the thread state always belongs to the sampler of the current slice.
  */
 public final class StreamingSliceCoordinator {
 
@@ -23,6 +38,27 @@ public final class StreamingSliceCoordinator {
     private boolean newSession;
     private long sliceDeadlineNanos = Long.MAX_VALUE;
     private SliceExit lastExit;
+    private long minReleaseMillis = -1;
+    private long wakeUpNanos;
+    private boolean releaseDownloads;
+    private final List<CompletableFuture<?>> awaitedDownloads = new ArrayList<>();
+
+    private void resetReleases(long minReleaseMillis, boolean releaseDownloads) {
+      this.minReleaseMillis = minReleaseMillis;
+      this.releaseDownloads = releaseDownloads;
+      wakeUpNanos = 0;
+      awaitedDownloads.clear();
+    }
+
+    // workers of the thread merge their releases once they end
+    private synchronized void mergeReleases(State worker) {
+      if (worker.wakeUpNanos != 0) {
+        wakeUpNanos = wakeUpNanos == 0 ? worker.wakeUpNanos
+            : Math.min(wakeUpNanos, worker.wakeUpNanos);
+      }
+      awaitedDownloads.addAll(worker.awaitedDownloads);
+    }
+
   }
 
   private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
@@ -37,6 +73,99 @@ public final class StreamingSliceCoordinator {
     s.newSession = true;
     s.sliceDeadlineNanos = Long.MAX_VALUE;
     s.lastExit = null;
+    s.resetReleases(-1, false);
+  }
+
+  /**
+   * Called by the controller before each slice of one of the streaming samplers it slices. Since
+   * each sampler keeps its own playback session, the controller keeps the state of each one and
+   * sets here whether the sampler of the slice starts a new session. Waits of at least the given
+   * millis (none when negative) release the slice, as in {@link #beginScheduledStep(long)}, so a
+   * sampler waiting for its next playlist reload lets the other samplers play in the meantime.
+   */
+  public static void beginSlice(boolean newSession, long deadlineNanos, long minReleaseMillis) {
+    State s = STATE.get();
+    s.newSession = newSession;
+    s.sliceDeadlineNanos = deadlineNanos;
+    s.lastExit = null;
+    s.resetReleases(minReleaseMillis, false);
+  }
+
+  /**
+   * Called before running each step of a playback driven by the {@link PlaybackScheduler}. Waits
+   * of at least the given millis release the thread, while shorter ones are kept in the thread to
+   * avoid the scheduler latency. Downloads in flight release the thread too.
+   */
+  public static void beginScheduledStep(long minReleaseMillis) {
+    State s = STATE.get();
+    s.active = true;
+    s.newSession = false;
+    s.sliceDeadlineNanos = Long.MAX_VALUE;
+    s.lastExit = null;
+    s.resetReleases(minReleaseMillis, true);
+  }
+
+  /**
+   * Registers the time to resume the playback, instead of waiting the given millis, when the
+   * current step is run by the {@link PlaybackScheduler}. Returns {@code false} when the caller has
+   * to wait instead, or {@code true} when the caller has to skip what it was waiting for, since
+   * {@link #shouldYield()} will end the step.
+   */
+  public static boolean releaseWait(long millis) {
+    State s = STATE.get();
+    if (s.minReleaseMillis < 0 || millis <= 0 || millis < s.minReleaseMillis) {
+      return false;
+    }
+    long wakeUpNanos = System.nanoTime() + millis * 1_000_000L;
+    s.wakeUpNanos = s.wakeUpNanos == 0 ? wakeUpNanos : Math.min(s.wakeUpNanos, wakeUpNanos);
+    return true;
+  }
+
+  /**
+   * Registers the time to resume the playback, once the given millis elapse, when a wait of the
+   * current slice was cut short by its deadline, so the step the playback was waiting for (like a
+   * playlist reload) runs at its time in a later slice instead of right away. Returns {@code false}
+   * when no controller is slicing the thread, in which case the caller runs the step.
+   */
+  public static boolean releaseCutWait(long remainingMillis) {
+    State s = STATE.get();
+    if (!s.active || remainingMillis <= 0) {
+      return false;
+    }
+    long wakeUpNanos = System.nanoTime() + remainingMillis * 1_000_000L;
+    s.wakeUpNanos = s.wakeUpNanos == 0 ? wakeUpNanos : Math.min(s.wakeUpNanos, wakeUpNanos);
+    return true;
+  }
+
+  /**
+   * Registers the given download in flight, instead of waiting for it, when the current step is
+   * run by the {@link PlaybackScheduler}, which resumes the playback once the download completes.
+   * Returns {@code false} when the caller has to wait for it instead, or {@code true} when the
+   * caller has to end the step, and get the same download once the step runs again.
+   */
+  public static boolean releaseUntilDownloaded(CompletableFuture<?> download) {
+    State s = STATE.get();
+    if (!s.releaseDownloads || download.isDone()) {
+      return false;
+    }
+    s.awaitedDownloads.add(download);
+    return true;
+  }
+
+  /**
+   * The downloads in flight the last scheduled step released, whose completion resumes the
+   * playback.
+   */
+  public static List<CompletableFuture<?>> getAwaitedDownloads() {
+    return new ArrayList<>(STATE.get().awaitedDownloads);
+  }
+
+  /**
+   * The time (in {@link System#nanoTime()} terms) to resume the playback of the last scheduled
+   * step or slice, or 0 when it didn't release any wait.
+   */
+  public static long getWakeUpNanos() {
+    return STATE.get().wakeUpNanos;
   }
 
   public static void setDeadlineNanos(long deadlineNanos) {
@@ -58,11 +187,13 @@ public final class StreamingSliceCoordinator {
   }
 
   /**
-   * True when a controller is slicing and the current slice deadline has passed.
+   * True when a controller is slicing and the current slice deadline has passed, or when a
+   * scheduled step released a wait or a download.
    */
   public static boolean shouldYield() {
     State s = STATE.get();
-    return s.active && System.nanoTime() >= s.sliceDeadlineNanos;
+    return s.active && (s.wakeUpNanos != 0 || !s.awaitedDownloads.isEmpty()
+        || System.nanoTime() >= s.sliceDeadlineNanos);
   }
 
   /**
@@ -81,6 +212,33 @@ public final class StreamingSliceCoordinator {
     return Math.min(requestedMillis, remaining);
   }
 
+  /**
+   * Wraps a task so it follows the slice of the calling thread when run on a worker thread, which
+   * makes {@link #shouldYield()}, {@link #clampMillis(long)} and the release of waits and downloads
+   * behave as in the calling thread. Once the task ends, the waits and downloads it released are
+   * merged into the calling thread state, so it yields as if it had released them itself, and the
+   * worker state is cleared.
+   */
+  public static Runnable bindToCurrentSlice(Runnable task) {
+    State s = STATE.get();
+    boolean active = s.active;
+    long deadlineNanos = s.sliceDeadlineNanos;
+    long minReleaseMillis = s.minReleaseMillis;
+    boolean releaseDownloads = s.releaseDownloads;
+    return () -> {
+      State worker = STATE.get();
+      worker.active = active;
+      worker.sliceDeadlineNanos = deadlineNanos;
+      worker.resetReleases(minReleaseMillis, releaseDownloads);
+      try {
+        task.run();
+      } finally {
+        s.mergeReleases(worker);
+        clear();
+      }
+    };
+  }
+
   public static void setExit(SliceExit exit) {
     STATE.get().lastExit = exit;
   }
@@ -95,5 +253,6 @@ public final class StreamingSliceCoordinator {
     s.newSession = false;
     s.sliceDeadlineNanos = Long.MAX_VALUE;
     s.lastExit = null;
+    s.resetReleases(-1, false);
   }
 }
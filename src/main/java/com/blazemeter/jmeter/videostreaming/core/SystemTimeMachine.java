@@ -0,0 +1,75 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+Time machine of a sampler (and so of a JMeter thread and its viewers) using the system clock.
+
+Waits park the waiting thread until a deadline measured with the monotonic clock, so they are not
+affected by system clock adjustments, and interrupting the time machine only releases the waits of
+its own sampler, instead of the waits of every viewer in the JVM.
+
+Every wait records the requested and actual time (and the difference between them, when the wait
+is not interrupted) in the StreamingMetrics histograms, which shows how late playlist reloads and
+segment requests are under load.
+*/
+public class SystemTimeMachine implements TimeMachine {
+
+  private final Set<Thread> waitingThreads = ConcurrentHashMap.newKeySet();
+  private volatile boolean interrupted;
+
+  @Override
+  public void reset() {
+    interrupted = false;
+  }
+
+  @Override
+  public void interrupt() {
+    interrupted = true;
+    waitingThreads.forEach(LockSupport::unpark);
+  }
+
+  @Override
+  public void awaitMillis(long millis) throws InterruptedException {
+    if (millis <= 0 || interrupted) {
+      return;
+    }
+    long startNanos = System.nanoTime();
+    long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(millis);
+    Thread thread = Thread.currentThread();
+    waitingThreads.add(thread);
+    try {
+      long remainingNanos = deadlineNanos - startNanos;
+      // interrupt() may be called before parking, so the flag is checked after registering
+      while (remainingNanos > 0 && !interrupted) {
+        LockSupport.parkNanos(this, remainingNanos);
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        remainingNanos = deadlineNanos - System.nanoTime();
+      }
+    } finally {
+      waitingThreads.remove(thread);
+      recordWait(millis, System.nanoTime() - startNanos);
+    }
+  }
+
+  private void recordWait(long requestedMillis, long actualNanos) {
+    long actualMillis = TimeUnit.NANOSECONDS.toMillis(actualNanos);
+    StreamingMetrics.record(StreamingMetrics.WAIT_REQUESTED, requestedMillis);
+    StreamingMetrics.record(StreamingMetrics.WAIT_ACTUAL, actualMillis);
+    if (actualMillis >= requestedMillis) {
+      StreamingMetrics.record(StreamingMetrics.WAIT_OVERSLEEP, actualMillis - requestedMillis);
+    }
+  }
+
+  @Override
+  public Instant now() {
+    return Instant.now();
+  }
+
+}
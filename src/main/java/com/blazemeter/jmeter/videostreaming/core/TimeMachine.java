@@ -1,35 +1,13 @@
 package com.blazemeter.jmeter.videostreaming.core;
 
 import java.time.Instant;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
 
+/*
+Source of time and waits of a sampler, to be able to control them in tests. Samplers use their own
+SystemTimeMachine, so interrupting one of them doesn't affect the waits of the others.
+*/
 public interface TimeMachine {
 
-  TimeMachine SYSTEM = new TimeMachine() {
-    private CountDownLatch countDownLatch = new CountDownLatch(1);
-
-    @Override
-    public void reset() {
-      countDownLatch = new CountDownLatch(1);
-    }
-
-    @Override
-    public void interrupt() {
-      countDownLatch.countDown();
-    }
-
-    @Override
-    public void awaitMillis(long millis) throws InterruptedException {
-      countDownLatch.await(millis, TimeUnit.MILLISECONDS);
-    }
-
-    @Override
-    public Instant now() {
-      return Instant.now();
-    }
-  };
-
   void reset();
 
   void awaitMillis(long millis) throws InterruptedException;
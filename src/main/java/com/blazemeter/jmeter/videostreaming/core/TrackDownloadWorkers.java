@@ -0,0 +1,193 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistDownloadException;
+import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistParsingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+
+/*
+Runs the downloads of the tracks of a playback (video, audio and subtitles) each one on its own
+worker thread, as real players do with demuxed tracks, and waits for all of them to finish.
+
+Workers don't process sample results: they are handed to the owning JMeter thread, which runs
+them while it waits, since post processors, assertions and listeners are only expected to run on
+the JMeter thread which owns the sampler.
+
+Workers are owned by a sampler instance (and so by a JMeter thread) to keep the per thread
+connections of the blocking client isolated between viewers.
+*/
+public class TrackDownloadWorkers {
+
+  private static final ThreadLocal<BlockingQueue<Runnable>> OWNER_TASKS = new ThreadLocal<>();
+  private static final AtomicInteger WORKERS_COUNT = new AtomicInteger();
+  private static final Runnable TRACK_FINISHED = () -> {
+  };
+
+  private ExecutorService executor;
+
+  @FunctionalInterface
+  public interface TrackDownload {
+
+    void run() throws InterruptedException, PlaylistDownloadException, PlaylistParsingException;
+
+  }
+
+  /*
+  Runs the given task right away when invoked from the owning thread, or hands it to the owning
+  thread when invoked from a track worker. Tasks handed by a worker run in the same order they
+  were submitted.
+  */
+  public static void runOnOwnerThread(Runnable task) {
+    BlockingQueue<Runnable> ownerTasks = OWNER_TASKS.get();
+    if (ownerTasks == null) {
+      task.run();
+    } else {
+      ownerTasks.add(task);
+    }
+  }
+
+  /*
+  Runs the given task in the calling thread as a worker of the owner with the given tasks queue,
+  so tasks it runs on the owner thread are handed to that queue.
+  */
+  static void runAsWorker(BlockingQueue<Runnable> ownerTasks, Runnable task) {
+    OWNER_TASKS.set(ownerTasks);
+    try {
+      task.run();
+    } finally {
+      OWNER_TASKS.remove();
+    }
+  }
+
+  public void downloadConcurrently(List<TrackDownload> downloads)
+      throws InterruptedException, PlaylistDownloadException, PlaylistParsingException {
+    runConcurrently(downloads, i -> getExecutor());
+  }
+
+  /*
+  Runs each task with the executor for its index and processes the tasks handed to the owning
+  thread until all of them finish.
+
+  When the calling thread is itself a worker of another owner (like a viewer of a ViewerPool
+  downloading its tracks concurrently) the tasks handed by its workers are handed in turn to that
+  owner, so sample results always end up processed by the JMeter thread.
+  */
+  static void runConcurrently(List<TrackDownload> tasks, IntFunction<Executor> executors)
+      throws InterruptedException, PlaylistDownloadException, PlaylistParsingException {
+    BlockingQueue<Runnable> ownerTasks = new LinkedBlockingQueue<>();
+    Throwable[] failures = new Throwable[tasks.size()];
+    JMeterContext context = JMeterContextService.getContext();
+    List<Future<?>> workers = new ArrayList<>(tasks.size());
+    for (int i = 0; i < tasks.size(); i++) {
+      int index = i;
+      TrackDownload task = tasks.get(i);
+      // the releases of the task are merged into the owner state before it is notified
+      Runnable download = StreamingSliceCoordinator.bindToCurrentSlice(() -> {
+        try {
+          task.run();
+        } catch (Throwable e) {
+          failures[index] = e;
+        }
+      });
+      FutureTask<?> worker = new FutureTask<>(() -> {
+        JMeterContextService.replaceContext(context);
+        OWNER_TASKS.set(ownerTasks);
+        try {
+          download.run();
+        } finally {
+          OWNER_TASKS.remove();
+          ownerTasks.add(TRACK_FINISHED);
+        }
+      }, null);
+      executors.apply(i).execute(worker);
+      workers.add(worker);
+    }
+    int pending = tasks.size();
+    try {
+      while (pending > 0) {
+        Runnable task = ownerTasks.take();
+        if (task == TRACK_FINISHED) {
+          pending--;
+        } else {
+          runOnOwnerThread(task);
+        }
+      }
+    } catch (InterruptedException e) {
+      workers.forEach(w -> w.cancel(true));
+      throw e;
+    }
+    for (Throwable failure : failures) {
+      if (failure != null) {
+        rethrow(failure);
+      }
+    }
+  }
+
+  /*
+  Runs the given task on a worker, as it is needed to keep several requests in flight with the
+  blocking client. The task may outlive the slice (or step) which started it, so it doesn't
+  follow it.
+  */
+  public <T> CompletableFuture<T> supply(Supplier<T> task) {
+    CompletableFuture<T> ret = new CompletableFuture<>();
+    JMeterContext context = JMeterContextService.getContext();
+    getExecutor().execute(() -> {
+      JMeterContextService.replaceContext(context);
+      try {
+        ret.complete(task.get());
+      } catch (Throwable e) {
+        ret.completeExceptionally(e);
+      }
+    });
+    return ret;
+  }
+
+  private synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "hls-track-worker-" + WORKERS_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return executor;
+  }
+
+  private static void rethrow(Throwable failure)
+      throws InterruptedException, PlaylistDownloadException, PlaylistParsingException {
+    if (failure instanceof InterruptedException) {
+      throw (InterruptedException) failure;
+    } else if (failure instanceof PlaylistDownloadException) {
+      throw (PlaylistDownloadException) failure;
+    } else if (failure instanceof PlaylistParsingException) {
+      throw (PlaylistParsingException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else {
+      throw new IllegalStateException(failure);
+    }
+  }
+
+  public synchronized void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+}
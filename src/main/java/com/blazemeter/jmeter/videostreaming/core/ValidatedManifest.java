@@ -0,0 +1,87 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import java.time.Instant;
+import org.apache.jmeter.protocol.http.util.HTTPConstants;
+import org.apache.jmeter.samplers.SampleResult;
+
+/*
+A parsed playlist or manifest along with the validators (ETag and Last-Modified) of the response
+it was parsed from, so it can be revalidated with a conditional request and reused when it didn't
+change.
+*/
+class ValidatedManifest {
+
+  private static final String NOT_MODIFIED_RESPONSE_CODE = "304";
+
+  private final Manifest manifest;
+  private final Instant downloadTimestamp;
+  private final String entityTag;
+  private final String lastModified;
+
+  private ValidatedManifest(Manifest manifest, Instant downloadTimestamp, String entityTag,
+      String lastModified) {
+    this.manifest = manifest;
+    this.downloadTimestamp = downloadTimestamp;
+    this.entityTag = entityTag;
+    this.lastModified = lastModified;
+  }
+
+  /*
+  Validators not included in a 304 response are kept from the previous response, since servers
+  are not required to send them again.
+  */
+  static ValidatedManifest fromResult(Manifest manifest, Instant downloadTimestamp,
+      SampleResult result, ValidatedManifest previous) {
+    String entityTag = getResponseHeader(result, HTTPConstants.ETAG);
+    String lastModified = getResponseHeader(result, HTTPConstants.LAST_MODIFIED);
+    if (previous != null && isNotModified(result)) {
+      entityTag = entityTag != null ? entityTag : previous.entityTag;
+      lastModified = lastModified != null ? lastModified : previous.lastModified;
+    }
+    return new ValidatedManifest(manifest, downloadTimestamp, entityTag, lastModified);
+  }
+
+  static boolean isNotModified(SampleResult result) {
+    return NOT_MODIFIED_RESPONSE_CODE.equals(result.getResponseCode());
+  }
+
+  private static String getResponseHeader(SampleResult result, String name) {
+    String responseHeaders = result.getResponseHeaders();
+    if (responseHeaders == null) {
+      return null;
+    }
+    for (String line : responseHeaders.split("\n")) {
+      int separator = line.indexOf(':');
+      if (separator > 0 && name.equalsIgnoreCase(line.substring(0, separator).trim())) {
+        return line.substring(separator + 1).trim();
+      }
+    }
+    return null;
+  }
+
+  Manifest getManifest() {
+    return manifest;
+  }
+
+  String getEntityTag() {
+    return entityTag;
+  }
+
+  String getLastModified() {
+    return lastModified;
+  }
+
+  boolean hasValidators() {
+    return entityTag != null || lastModified != null;
+  }
+
+  // a copy of the manifest, so it can be handed to another viewer without sharing its state
+  Manifest copy() {
+    return manifest.withDownloadTimestamp(downloadTimestamp);
+  }
+
+  Manifest withDownloadTimestamp(Instant timestamp) {
+    return manifest.withDownloadTimestamp(timestamp);
+  }
+
+}
@@ -1,17 +1,40 @@
 package com.blazemeter.jmeter.videostreaming.core;
 
+import com.blazemeter.jmeter.hls.logic.HlsSampler;
 import com.blazemeter.jmeter.videostreaming.core.exception.SamplerInterruptedException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.apache.hc.core5.http2.nio.pool.H2ConnPool;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.nio.protocol.BasicAsyncRequestProducer;
+import org.apache.http.protocol.HttpContext;
 import org.apache.jmeter.protocol.http.control.CacheManager;
+import org.apache.jmeter.protocol.http.control.CookieManager;
 import org.apache.jmeter.protocol.http.control.HeaderManager;
 import org.apache.jmeter.protocol.http.sampler.HTTPHC4Impl;
 import org.apache.jmeter.protocol.http.sampler.HTTPSampleResult;
 import org.apache.jmeter.protocol.http.sampler.HTTPSamplerBase;
+import org.apache.jmeter.protocol.http.util.HTTPConstants;
+import org.apache.jmeter.samplers.SampleResult;
 
 /*
 We use this class to be able to access some methods on super class and because we can't extend
@@ -22,14 +45,53 @@ public class VideoStreamingHttpClient extends HTTPHC4Impl {
   private static final String NON_HTTP_RESPONSE_CODE = "Non HTTP response code";
   private static final String NON_HTTP_RESPONSE_MESSAGE = "Non HTTP response message";
 
+  private static final int DISCARD_BUFFER_SIZE = 64 * 1024;
+  private static final ThreadLocal<byte[]> DISCARD_BUFFER = ThreadLocal
+      .withInitial(() -> new byte[DISCARD_BUFFER_SIZE]);
+
   private transient volatile boolean interrupted = false;
 
-  private Map<String, String> headers = new HashMap<>();
+  // kept per thread, since the tracks of a playback may be downloaded concurrently
+  private final ThreadLocal<Boolean> discardResponseBody = ThreadLocal.withInitial(() -> false);
+  // timer of the CMAF chunks of the response in progress of each thread, if they are timed
+  private final ThreadLocal<CmafChunkTimer> chunkTimer = new ThreadLocal<>();
+  /*
+  Headers added for the next request of each thread, which are cleared once it is sent (or
+  discarded, when it can't be sent), so they never apply to later requests.
+  */
+  private final ThreadLocal<Map<String, String>> requestHeaders = ThreadLocal
+      .withInitial(HashMap::new);
+
+  /*
+  Token used by the asynchronous engine to keep connections of this client isolated from the
+  ones of other viewers, as each JMeter thread has its own connections with the blocking client.
+  */
+  private final Object asyncConnectionOwner = new Object();
+  // HTTP/2 connections of this client, opened with its first request sent with the HTTP/2 engine
+  private H2ConnPool http2Connections;
+  private final Set<Future<HTTPSampleResult>> asyncRequests = ConcurrentHashMap.newKeySet();
+  private CookieManager ownCookieManager;
 
   public VideoStreamingHttpClient(HTTPSamplerBase testElement) {
     super(testElement);
   }
 
+  /*
+  Makes this client keep its cookies in its own copy of the cookie manager of the sampler, so
+  each viewer played from the same JMeter thread has its own cookies.
+  */
+  public void useOwnCookies() {
+    CookieManager cookieManager = testElement.getCookieManager();
+    if (cookieManager != null) {
+      ownCookieManager = (CookieManager) cookieManager.clone();
+    }
+  }
+
+  @Override
+  protected CookieManager getCookieManager() {
+    return ownCookieManager != null ? ownCookieManager : super.getCookieManager();
+  }
+
   @Override
   public HTTPSampleResult sample(URL url, String method, boolean areFollowingRedirect,
       int frameDepth) {
@@ -44,15 +106,87 @@ public class VideoStreamingHttpClient extends HTTPHC4Impl {
   @Override
   public void threadFinished() {
     super.threadFinished();
+    asyncRequests.forEach(r -> r.cancel(true));
+    closeHttp2Connections();
+  }
+
+  private synchronized H2ConnPool getHttp2Connections() {
+    if (http2Connections == null) {
+      http2Connections = Http2Transport.getInstance().openConnections();
+    }
+    return http2Connections;
+  }
+
+  private synchronized void closeHttp2Connections() {
+    if (http2Connections != null) {
+      http2Connections.close(CloseMode.GRACEFUL);
+      http2Connections = null;
+    }
   }
 
   @Override
   public boolean interrupt() {
     interrupted = true;
+    asyncRequests.forEach(r -> r.cancel(true));
     return super.interrupt();
   }
 
   public HTTPSampleResult downloadUri(URI uri) {
+    return downloadUri(uri, false);
+  }
+
+  /*
+  When discardBody is set, the response body is drained through a reusable per thread buffer
+  while it is received, so bytes, body size, latency and connect time are registered but the
+  payload is never kept in memory.
+  */
+  public HTTPSampleResult downloadUri(URI uri, boolean discardBody) {
+    return downloadUri(uri, discardBody, false);
+  }
+
+  /*
+  When timeChunks is set, the arrival time of each CMAF chunk of the body is registered while it
+  is received, and added to the response headers (as X-MEDIA-SEGMENT-FIRST-CHUNK-TIME and
+  X-MEDIA-SEGMENT-CHUNK-TIMES, in milliseconds since the request start).
+  */
+  public HTTPSampleResult downloadUri(URI uri, boolean discardBody, boolean timeChunks) {
+    if (interrupted) {
+      throw new SamplerInterruptedException();
+    }
+    if (getDownloadEngine() != DownloadEngine.BLOCKING) {
+      return awaitResult(downloadUriAsync(uri, discardBody, timeChunks));
+    }
+    CmafChunkTimer timer = timeChunks ? new CmafChunkTimer() : null;
+    discardResponseBody.set(discardBody);
+    chunkTimer.set(timer);
+    try {
+      if (uri == null || !uri.isAbsolute()) {
+        return buildInvalidUriResult(uri, "URI is not absolute");
+      }
+      HTTPSampleResult ret = sample(uri.toURL(), "GET", false, 0);
+      if (timer != null) {
+        addChunkTimesHeaders(ret, timer);
+      }
+      return ret;
+    } catch (MalformedURLException e) {
+      return buildInvalidUriResult(uri, e.getMessage());
+    } finally {
+      discardResponseBody.set(false);
+      chunkTimer.remove();
+      requestHeaders.get().clear();
+    }
+  }
+
+  private static void addChunkTimesHeaders(HTTPSampleResult result, CmafChunkTimer timer) {
+    result.setResponseHeaders(result.getResponseHeaders()
+        + timer.buildResponseHeaders(result.getStartTime()));
+  }
+
+  /*
+  Requests only the headers of the given URI. It is always done on the calling thread, since it
+  is only used for occasional requests (like clock synchronization), whatever the download engine.
+  */
+  public HTTPSampleResult requestUriHeaders(URI uri) {
     if (interrupted) {
       throw new SamplerInterruptedException();
     }
@@ -60,9 +194,210 @@ public class VideoStreamingHttpClient extends HTTPHC4Impl {
       return buildInvalidUriResult(uri, "URI is not absolute");
     }
     try {
-      return sample(uri.toURL(), "GET", false, 0);
+      return sample(uri.toURL(), HTTPConstants.HEAD, false, 0);
     } catch (MalformedURLException e) {
       return buildInvalidUriResult(uri, e.getMessage());
+    } finally {
+      requestHeaders.get().clear();
+    }
+  }
+
+  /*
+  Downloads the given URI as a conditional GET, so the server answers with a 304 and no body when
+  the resource has not changed since the response with the given validators (any of them may be
+  null).
+  */
+  public HTTPSampleResult downloadUriIfModified(URI uri, String entityTag, String lastModified) {
+    return awaitResult(downloadUriIfModifiedAsync(uri, entityTag, lastModified));
+  }
+
+  public CompletableFuture<HTTPSampleResult> downloadUriIfModifiedAsync(URI uri,
+      String entityTag, String lastModified) {
+    if (entityTag != null) {
+      addRequestHeader(HTTPConstants.IF_NONE_MATCH, entityTag);
+    }
+    if (lastModified != null) {
+      addRequestHeader(HTTPConstants.IF_MODIFIED_SINCE, lastModified);
+    }
+    return downloadUriAsync(uri);
+  }
+
+  /*
+  Starts the download of the given URI without blocking the calling thread when the sampler uses
+  the asynchronous or HTTP/2 engine. With the blocking engine the download happens on the calling
+  thread and an already completed future is returned.
+
+  The returned future is always completed with a sample result (failed when the request fails),
+  or cancelled when the client is interrupted.
+  */
+  public CompletableFuture<HTTPSampleResult> downloadUriAsync(URI uri) {
+    return downloadUriAsync(uri, false);
+  }
+
+  public CompletableFuture<HTTPSampleResult> downloadUriAsync(URI uri, boolean discardBody) {
+    return downloadUriAsync(uri, discardBody, false);
+  }
+
+  public CompletableFuture<HTTPSampleResult> downloadUriAsync(URI uri, boolean discardBody,
+      boolean timeChunks) {
+    try {
+      return startDownload(uri, discardBody, timeChunks);
+    } finally {
+      requestHeaders.get().clear();
+    }
+  }
+
+  private CompletableFuture<HTTPSampleResult> startDownload(URI uri, boolean discardBody,
+      boolean timeChunks) {
+    if (interrupted) {
+      throw new SamplerInterruptedException();
+    }
+    if (uri == null || !uri.isAbsolute()) {
+      return CompletableFuture.completedFuture(buildInvalidUriResult(uri, "URI is not absolute"));
+    }
+    DownloadEngine engine = getDownloadEngine();
+    if (engine == DownloadEngine.BLOCKING) {
+      return CompletableFuture.completedFuture(downloadUri(uri, discardBody, timeChunks));
+    }
+    URL url;
+    try {
+      url = uri.toURL();
+    } catch (MalformedURLException e) {
+      return CompletableFuture.completedFuture(buildInvalidUriResult(uri, e.getMessage()));
+    }
+    HttpGet request = new HttpGet(uri);
+    HTTPSampleResult result = new HTTPSampleResult();
+    result.setURL(url);
+    result.setHTTPMethod(request.getMethod());
+    result.setSampleLabel(url.toString());
+    buildAsyncRequestHeaders(request, url, result);
+    CmafChunkTimer timer = timeChunks ? new CmafChunkTimer() : null;
+    CompletableFuture<HTTPSampleResult> ret = new CompletableFuture<>();
+    FutureCallback<HTTPSampleResult> callback = new FutureCallback<HTTPSampleResult>() {
+
+      @Override
+      public void completed(HTTPSampleResult res) {
+        int statusCode = Integer.parseInt(res.getResponseCode());
+        res.setSuccessful(isSuccessCode(statusCode));
+        saveAsyncResponseCookies(res, url);
+        if (timer != null) {
+          addChunkTimesHeaders(res, timer);
+        }
+        ret.complete(res);
+      }
+
+      @Override
+      public void failed(Exception e) {
+        if (result.getEndTime() == 0) {
+          result.sampleEnd();
+        }
+        errorResult(e, result);
+        ret.complete(result);
+      }
+
+      @Override
+      public void cancelled() {
+        ret.cancel(false);
+      }
+
+    };
+    result.sampleStart();
+    Future<HTTPSampleResult> execution;
+    if (engine == DownloadEngine.HTTP2) {
+      execution = Http2Transport.getInstance().execute(getHttp2Connections(), request,
+          buildAsyncRequestConfig(), result, discardBody, timer, callback);
+    } else {
+      HttpClientContext context = HttpClientContext.create();
+      context.setUserToken(asyncConnectionOwner);
+      context.setRequestConfig(buildAsyncRequestConfig());
+      execution = AsyncHttpEngine.getInstance().execute(
+          new TimedRequestProducer(URIUtils.extractHost(uri), request, result),
+          new AsyncSampleResultConsumer(result, discardBody, timer), context, callback);
+    }
+    asyncRequests.add(execution);
+    ret.whenComplete((r, e) -> {
+      asyncRequests.remove(execution);
+      if (ret.isCancelled()) {
+        execution.cancel(true);
+      }
+    });
+    return ret;
+  }
+
+  private DownloadEngine getDownloadEngine() {
+    return testElement instanceof HlsSampler ? ((HlsSampler) testElement).getDownloadEngine()
+        : DownloadEngine.BLOCKING;
+  }
+
+  private HTTPSampleResult awaitResult(CompletableFuture<HTTPSampleResult> result) {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      result.cancel(true);
+      throw new SamplerInterruptedException();
+    } catch (CancellationException e) {
+      throw new SamplerInterruptedException();
+    } catch (ExecutionException e) {
+      HTTPSampleResult ret = new HTTPSampleResult();
+      ret.sampleStart();
+      ret.sampleEnd();
+      errorResult(e.getCause(), ret);
+      return ret;
+    }
+  }
+
+  private void buildAsyncRequestHeaders(HttpGet request, URL url, HTTPSampleResult result) {
+    requestHeaders.get().forEach(request::addHeader);
+    HeaderManager headerManager = testElement.getHeaderManager();
+    if (headerManager != null) {
+      for (int i = 0; i < headerManager.size(); i++) {
+        org.apache.jmeter.protocol.http.control.Header header = headerManager.get(i);
+        request.addHeader(header.getName(), header.getValue());
+      }
+    }
+    CookieManager cookieManager = getCookieManager();
+    if (cookieManager != null) {
+      String cookies;
+      synchronized (cookieManager) {
+        cookies = cookieManager.getCookieHeaderForURL(url);
+      }
+      if (cookies != null) {
+        request.setHeader(HTTPConstants.HEADER_COOKIE, cookies);
+        result.setCookies(cookies);
+      }
+    }
+    StringBuilder requestHeaders = new StringBuilder();
+    for (Header header : request.getAllHeaders()) {
+      requestHeaders.append(header.getName()).append(": ").append(header.getValue())
+          .append("\n");
+    }
+    result.setRequestHeaders(requestHeaders.toString());
+    result.setSentBytes(request.getRequestLine().toString().length() + requestHeaders.length());
+  }
+
+  private RequestConfig buildAsyncRequestConfig() {
+    return RequestConfig.custom()
+        .setConnectTimeout(testElement.getConnectTimeout())
+        .setSocketTimeout(testElement.getResponseTimeout())
+        .setRedirectsEnabled(testElement.getAutoRedirects())
+        .build();
+  }
+
+  private void saveAsyncResponseCookies(HTTPSampleResult result, URL url) {
+    CookieManager cookieManager = getCookieManager();
+    if (cookieManager == null) {
+      return;
+    }
+    String responseHeaders = result.getResponseHeaders();
+    for (String line : responseHeaders.split("\n")) {
+      int separator = line.indexOf(':');
+      if (separator > 0 && HTTPConstants.HEADER_SET_COOKIE
+          .equalsIgnoreCase(line.substring(0, separator).trim())) {
+        synchronized (cookieManager) {
+          cookieManager.addCookieFromHeader(line.substring(separator + 1).trim(), url);
+        }
+      }
     }
   }
 
@@ -85,15 +420,63 @@ public class VideoStreamingHttpClient extends HTTPHC4Impl {
     return result;
   }
 
-  public void addHeader(String name, String value) {
-    headers.put(name, value);
+  // adds a header to the next request of the calling thread
+  public void addRequestHeader(String name, String value) {
+    requestHeaders.get().put(name, value);
   }
 
   @Override
   protected void setConnectionHeaders(HttpRequestBase request, URL url,
       HeaderManager headerManager, CacheManager cacheManager) {
-    headers.forEach(request::addHeader);
+    requestHeaders.get().forEach(request::addHeader);
     super.setConnectionHeaders(request, url, headerManager, cacheManager);
   }
 
+  @Override
+  protected byte[] readResponse(SampleResult res, InputStream instream,
+      long responseContentLength) throws IOException {
+    CmafChunkTimer timer = chunkTimer.get();
+    if (timer != null) {
+      instream = timer.timing(instream);
+    }
+    if (!discardResponseBody.get()) {
+      return super.readResponse(res, instream, responseContentLength);
+    }
+    byte[] buffer = DISCARD_BUFFER.get();
+    boolean first = true;
+    while (instream.read(buffer) > -1) {
+      if (first) {
+        res.latencyEnd();
+        first = false;
+      }
+    }
+    if (first) {
+      res.latencyEnd();
+    }
+    return new byte[0];
+  }
+
+  /*
+  Marks the end of the connection phase once the request has been written, since with the
+  asynchronous engine there is no blocking connect call to time.
+  */
+  private static final class TimedRequestProducer extends BasicAsyncRequestProducer {
+
+    private final HTTPSampleResult result;
+
+    private TimedRequestProducer(HttpHost target, HttpGet request, HTTPSampleResult result) {
+      super(target, request);
+      this.result = result;
+    }
+
+    @Override
+    public void requestCompleted(HttpContext context) {
+      if (result.getConnectTime() == 0) {
+        result.connectEnd();
+      }
+      super.requestCompleted(context);
+    }
+
+  }
+
 }
@@ -17,6 +17,11 @@ public class VideoStreamingPlayback<T extends MediaSegment> {
     return playSeconds > 0 && playSeconds <= this.consumedSeconds;
   }
 
+  // whether playing the given extra seconds keeps the playback within the requested time
+  protected boolean isWithinRequestedTime(double extraSeconds) {
+    return playSeconds <= 0 || this.consumedSeconds + extraSeconds < playSeconds;
+  }
+
   public double getPlayedTimeSeconds() {
     return this.consumedSeconds;
   }
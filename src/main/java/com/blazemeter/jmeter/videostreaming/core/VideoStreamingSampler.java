@@ -3,22 +3,35 @@ package com.blazemeter.jmeter.videostreaming.core;
 import com.blazemeter.jmeter.hls.logic.BandwidthSelector;
 import com.blazemeter.jmeter.hls.logic.HlsSampler;
 import com.blazemeter.jmeter.hls.logic.ResolutionSelector;
+import com.blazemeter.jmeter.videostreaming.core.SegmentPrefetchPipeline.PendingSegment;
 import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistDownloadException;
 import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistParsingException;
 import com.blazemeter.jmeter.videostreaming.core.exception.SamplerInterruptedException;
+import com.blazemeter.jmeter.videostreaming.core.exception.StepReleasedException;
 import com.blazemeter.jmeter.videostreaming.hls.InitializationSegment;
 import com.google.common.annotations.VisibleForTesting;
 
+import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.apache.jmeter.protocol.http.sampler.HTTPSampleResult;
+import org.apache.jmeter.protocol.http.util.HTTPConstants;
 import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jmeter.util.JMeterUtils;
 import org.slf4j.Logger;
@@ -33,17 +46,29 @@ public abstract class VideoStreamingSampler<T, U extends MediaSegment> {
       + ".releaseSegmentResponseData";
   public static final String RELEASE_PLAYLIST_RESPONSE_DATA_PROP = "hls.sampler"
       + ".releasePlaylistResponseData";
+  public static final String DISCARD_SEGMENT_RESPONSE_DATA_PROP = "hls.sampler"
+      + ".discardSegmentResponseData";
+  public static final String CONDITIONAL_PLAYLIST_REQUESTS_PROP = "hls.sampler"
+      + ".conditionalPlaylistRequests";
   protected static final String MASTER_TYPE_NAME = "master";
   protected static final String MEDIA_TYPE_NAME = "media";
+  protected static final String REMOTE_PERIOD_TYPE_NAME = "remote period";
+  protected static final String UTC_TIMING_TYPE_NAME = "utc timing";
+  protected static final String MPD_PATCH_TYPE_NAME = "mpd patch";
   private static final byte[] BOM_BYTES = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+  // bounds downloads released by steps which were not requested again (eg: a changed delta URI)
+  private static final int MAX_RELEASED_DOWNLOADS = 16;
 
   private static final Logger LOG = LoggerFactory.getLogger(VideoStreamingSampler.class);
   private static volatile Boolean releaseSegmentResponseData;
   private static volatile Boolean releasePlaylistResponseData;
+  private static volatile Boolean discardSegmentResponseData;
+  private static volatile Boolean conditionalPlaylistRequests;
 
   protected final VideoStreamingHttpClient httpClient;
   protected final TimeMachine timeMachine;
   protected final SampleResultProcessor sampleResultProcessor;
+  protected final TrackDownloadWorkers trackWorkers = new TrackDownloadWorkers();
 
   protected transient U lastVideoSegment;
   protected transient U lastAudioSegment;
@@ -52,6 +77,27 @@ public abstract class VideoStreamingSampler<T, U extends MediaSegment> {
   protected transient boolean playbackFinishedThisSample;
 
   private final HlsSampler baseSampler;
+  // last parsed playlist and its validators, by requested URI, for conditional reloads
+  private final Map<URI, ValidatedManifest> validatedPlaylists = new ConcurrentHashMap<>();
+  /*
+  Downloads in flight released by scheduled steps, by sample name and URI, which are taken by the
+  step requesting them again.
+  */
+  private final Map<String, PendingDownload> releasedDownloads =
+      new LinkedHashMap<String, PendingDownload>() {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PendingDownload> eldest) {
+          if (size() <= MAX_RELEASED_DOWNLOADS) {
+            return false;
+          }
+          eldest.getValue().request.cancel(true);
+          return true;
+        }
+
+      };
+  // downloads setting up a playback are awaited in the thread, since the setup is not resumed
+  private volatile boolean resumableDownloads;
 
   public VideoStreamingSampler(HlsSampler baseSampler, VideoStreamingHttpClient httpClient,
       TimeMachine timeMachine, SampleResultProcessor sampleResultProcessor) {
@@ -65,10 +111,14 @@ public abstract class VideoStreamingSampler<T, U extends MediaSegment> {
   public static Set<String> getSampleTypesSet() {
     Set<String> sampleTypes = Stream.of(SUBTITLES_TYPE_NAME, MEDIA_TYPE_NAME, VIDEO_TYPE_NAME,
             AUDIO_TYPE_NAME)
-        .flatMap(t -> Stream.of(buildPlaylistName(t), buildSegmentName(t), buildInitSegmentName(t)))
+        .flatMap(t -> Stream.of(buildPlaylistName(t), buildSegmentName(t), buildInitSegmentName(t),
+            buildIndexSegmentName(t), buildPartName(t)))
         .collect(Collectors.toSet());
     sampleTypes.add(buildPlaylistName(MASTER_TYPE_NAME));
     sampleTypes.add(SUBTITLES_TYPE_NAME);
+    sampleTypes.add(REMOTE_PERIOD_TYPE_NAME);
+    sampleTypes.add(UTC_TIMING_TYPE_NAME);
+    sampleTypes.add(MPD_PATCH_TYPE_NAME);
     return sampleTypes;
   }
 
@@ -84,11 +134,20 @@ public abstract class VideoStreamingSampler<T, U extends MediaSegment> {
     return segmentType + " init segment";
   }
 
+  protected static String buildIndexSegmentName(String segmentType) {
+    return segmentType + " index segment";
+  }
+
+  protected static String buildPartName(String segmentType) {
+    return segmentType + " part";
+  }
+
   public SampleResult sample() {
     StreamingSliceCoordinator.SliceExit exit = StreamingSliceCoordinator.SliceExit.FINISHED;
     try {
       URI masterUri = URI.create(baseSampler.getMasterUrl());
       playbackFinishedThisSample = false;
+      resumableDownloads = false;
       sample(masterUri, baseSampler.getBandwidthSelector(), baseSampler.getResolutionSelector(),
           baseSampler.getAudioLanguage(), baseSampler.getSubtitleLanguage(),
           baseSampler.getPlaySecondsOrWarn());
@@ -101,10 +160,12 @@ public abstract class VideoStreamingSampler<T, U extends MediaSegment> {
       HTTPSampleResult result = new HTTPSampleResult();
       result.sampleStart();
       result.sampleEnd();
-      sampleResultProcessor.accept(buildPlaylistName(MASTER_TYPE_NAME),
+      acceptSampleResult(buildPlaylistName(MASTER_TYPE_NAME),
           baseSampler.errorResult(result, e));
       exit = StreamingSliceCoordinator.SliceExit.ERROR;
       clearPlaybackSession();
+    } catch (StepReleasedException e) {
+      exit = StreamingSliceCoordinator.SliceExit.YIELD;
     } catch (SamplerInterruptedException e) {
       LOG.debug("Sampler interrupted by JMeter", e);
       exit = StreamingSliceCoordinator.SliceExit.INTERRUPTED;
@@ -119,6 +180,9 @@ public abstract class VideoStreamingSampler<T, U extends MediaSegment> {
       exit = StreamingSliceCoordinator.SliceExit.ERROR;
       clearPlaybackSession();
     } finally {
+      if (exit != StreamingSliceCoordinator.SliceExit.YIELD) {
+        cancelReleasedDownloads();
+      }
       StreamingSliceCoordinator.setExit(exit);
     }
     return null;
@@ -130,6 +194,19 @@ public abstract class VideoStreamingSampler<T, U extends MediaSegment> {
       throws SamplerInterruptedException, InterruptedException, PlaylistDownloadException,
       PlaylistParsingException;
 
+  public void threadFinished() {
+    trackWorkers.shutdown();
+    cancelReleasedDownloads();
+  }
+
+  /*
+  Sample results may be produced by track workers when tracks are downloaded concurrently, so we
+  always hand them to the owning thread to keep processing them on the JMeter thread.
+  */
+  protected void acceptSampleResult(String name, SampleResult result) {
+    TrackDownloadWorkers.runOnOwnerThread(() -> sampleResultProcessor.accept(name, result));
+  }
+
   protected boolean shouldYieldForSlice() {
     return StreamingSliceCoordinator.shouldYield();
   }
@@ -138,6 +215,30 @@ public abstract class VideoStreamingSampler<T, U extends MediaSegment> {
     return StreamingSliceCoordinator.clampMillis(requestedMillis);
   }
 
+  /*
+  Waits the given time (bounded by the current slice) before the next step of the playback, like
+  a playlist reload. When the playback is driven by the playback scheduler the thread is released
+  instead, and false is returned without waiting, in which case the caller has to return without
+  running the step, which runs once the scheduler resumes the playback. False is also returned
+  when the slice deadline cuts the wait short, so the step runs at its time in a later slice.
+  */
+  protected boolean awaitNextStep(long millis) throws InterruptedException {
+    if (StreamingSliceCoordinator.releaseWait(millis)) {
+      return false;
+    }
+    long awaitMillis = clampAwaitMillis(millis);
+    timeMachine.awaitMillis(awaitMillis);
+    return awaitMillis >= millis || !StreamingSliceCoordinator.releaseCutWait(millis - awaitMillis);
+  }
+
+  /*
+  Called by the playback once its session is set up, so the downloads of its steps are released
+  while in flight when the playback is driven by the playback scheduler.
+  */
+  protected void enableResumableDownloads() {
+    resumableDownloads = true;
+  }
+
   /**
    * Releases any persisted playback session. Called on terminal (error/interrupt) exits.
    */
@@ -145,26 +246,115 @@ public abstract class VideoStreamingSampler<T, U extends MediaSegment> {
 
   protected T downloadPlaylist(URI uri, Function<T, String> name, PlaylistParser<T> playlistParser)
       throws PlaylistParsingException, PlaylistDownloadException {
-    Instant downloadTimestamp = timeMachine.now();
-    HTTPSampleResult playlistResult = httpClient.downloadUri(uri);
+    if (!isConditionalPlaylistRequestsEnabled()) {
+      return castPlaylist(downloadValidatedPlaylist(uri, name, playlistParser, null).getManifest());
+    }
+    ValidatedManifest validated = downloadValidatedPlaylist(uri, name, playlistParser,
+        validatedPlaylists.get(uri));
+    if (validated.hasValidators()) {
+      validatedPlaylists.put(uri, validated);
+    } else {
+      validatedPlaylists.remove(uri);
+    }
+    return castPlaylist(validated.getManifest());
+  }
+
+  /*
+  Downloads a playlist without conditional request, for requests which are not repeated (like
+  blocking playlist reloads) and so have nothing to revalidate.
+  */
+  protected T downloadPlaylistUnconditionally(URI uri, Function<T, String> name,
+      PlaylistParser<T> playlistParser)
+      throws PlaylistParsingException, PlaylistDownloadException {
+    return castPlaylist(downloadValidatedPlaylist(uri, name, playlistParser, null).getManifest());
+  }
+
+  /*
+  Gets the master playlist (or MPD) of a playback from the JVM-wide cache when it is enabled, so
+  viewers starting the same title don't download and parse the same document again. Only one
+  viewer downloads (or revalidates) an expired document, out of any lock, while the rest of the
+  viewers of the same document wait for it. Viewers download the document themselves when the one
+  loading it fails or gets a document which can't be shared.
+  */
+  protected T downloadMasterPlaylist(URI uri, Function<T, String> name,
+      PlaylistParser<T> playlistParser, Predicate<T> cacheable)
+      throws PlaylistParsingException, PlaylistDownloadException {
+    SharedManifestCache cache = SharedManifestCache.getInstance();
+    if (cache == null) {
+      return downloadPlaylist(uri, name, playlistParser);
+    }
+    MasterPlaylistLoader loader = new MasterPlaylistLoader(cache, uri, name, playlistParser,
+        cacheable);
+    ValidatedManifest cached = cache.get(uri, timeMachine::now, loader);
+    if (loader.loaded) {
+      return loader.getPlaylist();
+    } else if (cached == null) {
+      return castPlaylist(downloadValidatedPlaylist(uri, name, playlistParser, null).getManifest());
+    }
+    T playlist = castPlaylist(cached.copy());
+    if (cache.isHitSamplesEnabled()) {
+      acceptSampleResult(name.apply(playlist), buildCacheHitResult(uri));
+    }
+    return playlist;
+  }
+
+  private HTTPSampleResult buildCacheHitResult(URI uri) {
+    HTTPSampleResult ret = new HTTPSampleResult();
+    ret.sampleStart();
+    ret.sampleEnd();
+    try {
+      ret.setURL(uri.toURL());
+    } catch (MalformedURLException e) {
+      LOG.warn("Problem setting url {} of cached playlist sample", uri, e);
+    }
+    ret.setHTTPMethod(HTTPConstants.GET);
+    ret.setSuccessful(true);
+    ret.setResponseCodeOK();
+    ret.setResponseMessage(SharedManifestCache.HIT_RESPONSE_MESSAGE);
+    ret.setResponseHeaders(SharedManifestCache.HIT_RESPONSE_HEADER + "\n");
+    return ret;
+  }
+
+  @SuppressWarnings("unchecked")
+  private T castPlaylist(Manifest manifest) {
+    return (T) manifest;
+  }
+
+  private ValidatedManifest downloadValidatedPlaylist(URI uri, Function<T, String> name,
+      PlaylistParser<T> playlistParser, ValidatedManifest validated)
+      throws PlaylistParsingException, PlaylistDownloadException {
+    PendingDownload download = startDownload(name.apply(null), uri,
+        () -> validated != null && validated.hasValidators()
+            ? httpClient.downloadUriIfModifiedAsync(uri, validated.getEntityTag(),
+            validated.getLastModified())
+            : httpClient.downloadUriAsync(uri));
+    Instant downloadTimestamp = download.startTime;
+    HTTPSampleResult playlistResult = awaitDownload(name.apply(null), download);
     if (!playlistResult.isSuccessful()) {
       String playlistName = name.apply(null);
-      sampleResultProcessor.accept(playlistName, playlistResult);
+      acceptSampleResult(playlistName, playlistResult);
       releasePlaylistResponseBodyIfEnabled(playlistResult);
       throw new PlaylistDownloadException(playlistName, uri);
     }
 
     // we update uri in case the request was redirected
+    URI playlistUri = uri;
     try {
-      uri = playlistResult.getURL().toURI();
+      playlistUri = playlistResult.getURL().toURI();
     } catch (URISyntaxException e) {
       LOG.warn("Problem updating uri to redirected one: {}. Continue with original uri {}",
           playlistResult.getURL(), uri, e);
     }
 
     try {
-      String playlistContents = getPlaylistContents(playlistResult);
-      T playlist = playlistParser.parse(uri, playlistContents, downloadTimestamp);
+      T playlist;
+      if (validated != null && ValidatedManifest.isNotModified(playlistResult)) {
+        // nothing changed, so there is no need to parse the playlist again
+        playlist = castPlaylist(validated.withDownloadTimestamp(downloadTimestamp));
+      } else {
+        String playlistContents = getPlaylistContents(playlistResult);
+        playlist = playlistParser.parse(playlistUri, playlistContents, downloadTimestamp);
+      }
       String videoType = ((Manifest) playlist).getManifestType();
       if (videoType != null && this.baseSampler.getIncludeTypeInHeadersStatus()) {
         videoType = "Type: " + videoType;
@@ -174,11 +364,12 @@ public abstract class VideoStreamingSampler<T, U extends MediaSegment> {
         playlistResult.setResponseHeaders(responseHeaders + videoType);
         playlistResult.setRequestHeaders(requestHeaders + videoType);
       }
-      sampleResultProcessor.accept(name.apply(playlist), playlistResult);
+      acceptSampleResult(name.apply(playlist), playlistResult);
       releasePlaylistResponseBodyIfEnabled(playlistResult);
-      return playlist;
+      return ValidatedManifest.fromResult((Manifest) playlist, downloadTimestamp,
+          playlistResult, validated);
     } catch (PlaylistParsingException e) {
-      sampleResultProcessor.accept(name.apply(null), baseSampler.errorResult(playlistResult, e));
+      acceptSampleResult(name.apply(null), baseSampler.errorResult(playlistResult, e));
       releasePlaylistResponseBodyIfEnabled(playlistResult);
       throw e;
     }
@@ -229,7 +420,7 @@ public abstract class VideoStreamingSampler<T, U extends MediaSegment> {
    since some playlist may contain a BOM marker, and jmeter HTTPSampleResult.getResponseDataAsString
    doesn't properly handle it, we need to handle it ourselves.
    */
-  private String getPlaylistContents(HTTPSampleResult result) {
+  protected String getPlaylistContents(HTTPSampleResult result) {
     byte[] bytes = result.getResponseData();
     if (bytes == null || bytes.length == 0) {
       return "";
@@ -253,6 +444,10 @@ public abstract class VideoStreamingSampler<T, U extends MediaSegment> {
     return true;
   }
 
+  protected boolean isDownloadTracksConcurrently() {
+    return baseSampler.isDownloadTracksConcurrently();
+  }
+
   protected boolean isStartFromLiveEdge() {
     return baseSampler.isStartFromLiveEdge();
   }
@@ -271,36 +466,190 @@ public abstract class VideoStreamingSampler<T, U extends MediaSegment> {
   }
 
   protected void downloadSegment(MediaSegment segment, String type) {
+    processSegmentResult(segment, type, downloadResumable(buildSegmentSampleName(segment, type),
+        segment.getUri(), () -> {
+          addSegmentRangeHeader(segment);
+          return requestSegmentUri(segment.getUri(), isChunkedSegment(segment));
+        }));
+  }
+
+  /*
+  Segments which are delivered in chunks while they are produced (like the ones of low latency
+  streams), and for which the arrival time of each chunk is registered.
+  */
+  protected boolean isChunkedSegment(MediaSegment segment) {
+    return false;
+  }
+
+  protected void addSegmentRangeHeader(MediaSegment segment) {
     if (segment.hasSubRange()) {
-      httpClient.addHeader("range", "bytes=" + segment.getByteOffset() + "-" + (
+      httpClient.addRequestHeader("range", "bytes=" + segment.getByteOffset() + "-" + (
           segment.getByteOffset() + segment.getByteLength() - 1));
     }
-    SampleResult result = httpClient.downloadUri(segment.getUri());
-    result.setResponseHeaders(
-        result.getResponseHeaders() + "X-MEDIA-SEGMENT-DURATION: " + segment.getDurationSeconds()
-            + "\n");
-    sampleResultProcessor.accept(VideoStreamingSampler.buildSegmentName(type), result);
+  }
+
+  private void processSegmentResult(MediaSegment segment, String type, SampleResult result) {
+    result.setResponseHeaders(result.getResponseHeaders() + buildSegmentHeaders(segment, result));
+    acceptSampleResult(buildSegmentSampleName(segment, type), result);
     releaseSegmentResponseBodyIfEnabled(result);
   }
 
-  protected void downloadInitSegment(InitializationSegment initializationSegment, String type) {
+  protected String buildSegmentHeaders(MediaSegment segment, SampleResult result) {
+    return "X-MEDIA-SEGMENT-DURATION: " + segment.getDurationSeconds() + "\n";
+  }
+
+  protected String buildSegmentSampleName(MediaSegment segment, String type) {
+    return VideoStreamingSampler.buildSegmentName(type);
+  }
+
+  /*
+  Builds a pipeline to prefetch segments of a track, or null when prefetch is disabled (lookahead
+  of one segment) with the blocking engine. Requests are kept in flight by the asynchronous or
+  HTTP/2 engine or, with the blocking one, by sampler workers. With the asynchronous and HTTP/2
+  engines segments always go through the pipeline, so the playback only awaits each request when
+  its sample result is processed.
+  */
+  protected <S extends MediaSegment> SegmentPrefetchPipeline<S> buildPrefetchPipeline() {
+    int lookahead = baseSampler.getSegmentPrefetchOrWarn();
+    return lookahead > 1 || baseSampler.getDownloadEngine() != DownloadEngine.BLOCKING
+        ? new SegmentPrefetchPipeline<>(lookahead, this::requestSegment) : null;
+  }
+
+  private CompletableFuture<HTTPSampleResult> requestSegment(MediaSegment segment) {
+    boolean chunked = isChunkedSegment(segment);
+    if (baseSampler.getDownloadEngine() != DownloadEngine.BLOCKING) {
+      addSegmentRangeHeader(segment);
+      return requestSegmentUri(segment.getUri(), chunked);
+    }
+    return trackWorkers.supply(() -> {
+      addSegmentRangeHeader(segment);
+      return downloadSegmentUri(segment.getUri(), chunked);
+    });
+  }
+
+  protected void downloadPendingSegment(PendingSegment<?> pending, String type)
+      throws InterruptedException {
+    CompletableFuture<HTTPSampleResult> request = pending.getRequest();
+    if (request == null) {
+      downloadSegment(pending.getSegment(), type);
+      return;
+    }
+    // the pipeline keeps the request when the step is released, so it is taken again on resume
+    if (resumableDownloads && StreamingSliceCoordinator.releaseUntilDownloaded(request)) {
+      throw new StepReleasedException();
+    }
+    processSegmentResult(pending.getSegment(), type, awaitDownload(request));
+  }
+
+  /*
+  Downloads the given URI, named as its sample result, through the download engine. When the
+  download is still in flight and the playback is driven by the playback scheduler, the step is
+  released instead of waiting for it, and the same download is taken when the step requests it
+  again once resumed.
+  */
+  protected HTTPSampleResult downloadResumable(String name, URI uri,
+      Supplier<CompletableFuture<HTTPSampleResult>> requester) {
+    return awaitDownload(name, startDownload(name, uri, requester));
+  }
+
+  private PendingDownload startDownload(String name, URI uri,
+      Supplier<CompletableFuture<HTTPSampleResult>> requester) {
+    if (resumableDownloads) {
+      PendingDownload released;
+      synchronized (releasedDownloads) {
+        released = releasedDownloads.remove(name + " " + uri);
+      }
+      if (released != null) {
+        return released;
+      }
+    }
+    Instant startTime = timeMachine.now();
+    return new PendingDownload(uri, startTime, requester.get());
+  }
+
+  private HTTPSampleResult awaitDownload(String name, PendingDownload download) {
+    if (resumableDownloads
+        && StreamingSliceCoordinator.releaseUntilDownloaded(download.request)) {
+      synchronized (releasedDownloads) {
+        releasedDownloads.put(name + " " + download.uri, download);
+      }
+      throw new StepReleasedException();
+    }
+    return awaitDownload(download.request);
+  }
+
+  private void cancelReleasedDownloads() {
+    synchronized (releasedDownloads) {
+      Iterator<PendingDownload> it = releasedDownloads.values().iterator();
+      while (it.hasNext()) {
+        it.next().request.cancel(true);
+        it.remove();
+      }
+    }
+  }
 
-    httpClient.addHeader("range", "bytes=" + initializationSegment.getByteOffset() + "-" + (
-        initializationSegment.getByteOffset() + initializationSegment.getByteLength() - 1));
-    SampleResult result = httpClient.downloadUri(initializationSegment.getUri());
-    sampleResultProcessor.accept(VideoStreamingSampler.buildInitSegmentName(type), result);
+  /*
+  Awaits a download started through the download engine, where its sample result is processed.
+  Requests are cancelled when the sampler is interrupted.
+  */
+  protected HTTPSampleResult awaitDownload(CompletableFuture<HTTPSampleResult> request) {
+    try {
+      return request.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      request.cancel(true);
+      throw new SamplerInterruptedException();
+    } catch (CancellationException e) {
+      throw new SamplerInterruptedException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  protected void downloadInitSegment(InitializationSegment initializationSegment, String type) {
+    String name = VideoStreamingSampler.buildInitSegmentName(type);
+    URI uri = initializationSegment.getUri();
+    SampleResult result = downloadResumable(name, uri, () -> {
+      httpClient.addRequestHeader("range", "bytes=" + initializationSegment.getByteOffset()
+          + "-" + (initializationSegment.getByteOffset()
+          + initializationSegment.getByteLength() - 1));
+      return requestSegmentUri(uri, false);
+    });
+    acceptSampleResult(name, result);
     releaseSegmentResponseBodyIfEnabled(result);
   }
 
+  /*
+  When discarding segment bodies, the payload is drained while it is received and never kept in
+  memory, avoiding big allocations per segment (bytes, latency and connect time are still
+  registered). Otherwise, it is kept until the sample is processed, and eventually released by
+  releaseSegmentResponseBodyIfEnabled.
+  */
+  protected HTTPSampleResult downloadSegmentUri(String name, URI uri) {
+    return downloadResumable(name, uri, () -> requestSegmentUri(uri, false));
+  }
+
+  private HTTPSampleResult downloadSegmentUri(URI uri, boolean chunked) {
+    return awaitDownload(requestSegmentUri(uri, chunked));
+  }
+
+  private CompletableFuture<HTTPSampleResult> requestSegmentUri(URI uri, boolean chunked) {
+    return httpClient.downloadUriAsync(uri, isDiscardSegmentResponseDataEnabled(), chunked);
+  }
+
+  // bodies are released on the owning thread, once the sample result has been processed
   protected void releaseSegmentResponseBodyIfEnabled(SampleResult result) {
     if (isReleaseSegmentResponseDataEnabled()) {
-      clearResponseBodyPreservingMetrics(result);
+      TrackDownloadWorkers.runOnOwnerThread(() -> clearResponseBodyPreservingMetrics(result));
     }
   }
 
   protected void releasePlaylistResponseBodyIfEnabled(SampleResult result) {
     if (isReleasePlaylistResponseDataEnabled()) {
-      clearResponseBodyPreservingMetrics(result);
+      TrackDownloadWorkers.runOnOwnerThread(() -> clearResponseBodyPreservingMetrics(result));
     }
   }
 
@@ -328,6 +677,22 @@ public abstract class VideoStreamingSampler<T, U extends MediaSegment> {
     return releasePlaylistResponseData;
   }
 
+  static boolean isDiscardSegmentResponseDataEnabled() {
+    if (discardSegmentResponseData == null) {
+      discardSegmentResponseData = JMeterUtils.getPropDefault(DISCARD_SEGMENT_RESPONSE_DATA_PROP,
+          false);
+    }
+    return discardSegmentResponseData;
+  }
+
+  private static boolean isConditionalPlaylistRequestsEnabled() {
+    if (conditionalPlaylistRequests == null) {
+      conditionalPlaylistRequests = JMeterUtils.getPropDefault(
+          CONDITIONAL_PLAYLIST_REQUESTS_PROP, false);
+    }
+    return conditionalPlaylistRequests;
+  }
+
   @VisibleForTesting
   public static void resetReleaseSegmentResponseDataCache() {
     releaseSegmentResponseData = null;
@@ -338,6 +703,16 @@ public abstract class VideoStreamingSampler<T, U extends MediaSegment> {
     releasePlaylistResponseData = null;
   }
 
+  @VisibleForTesting
+  public static void resetDiscardSegmentResponseDataCache() {
+    discardSegmentResponseData = null;
+  }
+
+  @VisibleForTesting
+  public static void resetConditionalPlaylistRequestsCache() {
+    conditionalPlaylistRequests = null;
+  }
+
   @VisibleForTesting
   public static HTTPSampleResult buildNotMatchingMediaPlaylistResult(String variants,
       String selector) {
@@ -349,4 +724,78 @@ public abstract class VideoStreamingSampler<T, U extends MediaSegment> {
   public abstract Variants getVariants(URI masterUri)
       throws PlaylistParsingException, PlaylistDownloadException;
 
+  private static final class PendingDownload {
+
+    private final URI uri;
+    private final Instant startTime;
+    private final CompletableFuture<HTTPSampleResult> request;
+
+    private PendingDownload(URI uri, Instant startTime,
+        CompletableFuture<HTTPSampleResult> request) {
+      this.uri = uri;
+      this.startTime = startTime;
+      this.request = request;
+    }
+
+  }
+
+
+  /*
+  Loads a master playlist (or MPD) into the shared cache, keeping the playlist (or the exception)
+  got by the viewer loading it, since loaders can't throw checked exceptions and documents which
+  can't be shared are not cached.
+  */
+  private final class MasterPlaylistLoader implements Supplier<ValidatedManifest> {
+
+    private final SharedManifestCache cache;
+    private final URI uri;
+    private final Function<T, String> name;
+    private final PlaylistParser<T> playlistParser;
+    private final Predicate<T> cacheable;
+    private boolean loaded;
+    private T playlist;
+    private PlaylistParsingException parsingException;
+    private PlaylistDownloadException downloadException;
+
+    private MasterPlaylistLoader(SharedManifestCache cache, URI uri, Function<T, String> name,
+        PlaylistParser<T> playlistParser, Predicate<T> cacheable) {
+      this.cache = cache;
+      this.uri = uri;
+      this.name = name;
+      this.playlistParser = playlistParser;
+      this.cacheable = cacheable;
+    }
+
+    @Override
+    public ValidatedManifest get() {
+      loaded = true;
+      // expired entries are revalidated instead of downloaded again
+      ExpiringCache.Entry<ValidatedManifest> expired = cache.getEntry(uri);
+      try {
+        ValidatedManifest validated = downloadValidatedPlaylist(uri, name, playlistParser,
+            expired != null ? expired.getValue() : null);
+        playlist = castPlaylist(validated.getManifest());
+        if (cacheable.test(playlist)) {
+          return validated;
+        }
+        cache.remove(uri);
+      } catch (PlaylistParsingException e) {
+        parsingException = e;
+      } catch (PlaylistDownloadException e) {
+        downloadException = e;
+      }
+      return null;
+    }
+
+    private T getPlaylist() throws PlaylistParsingException, PlaylistDownloadException {
+      if (parsingException != null) {
+        throw parsingException;
+      } else if (downloadException != null) {
+        throw downloadException;
+      }
+      return playlist;
+    }
+
+  }
+
 }
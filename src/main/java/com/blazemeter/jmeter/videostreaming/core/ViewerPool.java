@@ -0,0 +1,283 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistDownloadException;
+import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistParsingException;
+import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+Plays several independent playbacks (viewers) from one JMeter thread, each one with its own
+sampler (and so its own playback session) and its own HTTP client (and so its own connections,
+cookies and headers).
+
+By default each viewer runs on its own thread, which is kept between samples since the blocking
+client keeps its connections per thread. Viewer threads are virtual threads when the JVM supports
+them (Java 21 or later), so idle viewers waiting for live playlist reloads or segments
+availability don't hold a platform thread, and daemon platform threads otherwise.
+
+When waits are released (with engines whose connections are not bound to threads) and virtual
+threads are available, viewers run instead as steps, each one on its own virtual thread, and each
+step ends when the viewer has to wait for its next playlist reload or segment availability,
+registering its wake up in the playback scheduler, or for a download in flight. The viewer is
+resumed once the wait is over or the download completes, whatever happens first. This way idle
+viewers only cost memory. Without virtual threads viewers keep their own threads, since a bounded
+pool of carriers would limit the viewers (and so the requests) in flight.
+
+As with track workers, sample results are handed to the JMeter thread, which processes them while
+it waits for the viewers to finish.
+*/
+public class ViewerPool {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ViewerPool.class);
+  private static final AtomicInteger VIEWERS_COUNT = new AtomicInteger();
+  private static final ThreadFactory PLATFORM_THREAD_FACTORY = r -> {
+    Thread thread = new Thread(r, "hls-viewer-" + VIEWERS_COUNT.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  };
+  private static final ThreadFactory VIRTUAL_THREAD_FACTORY = findVirtualThreadFactory();
+  private static final Runnable VIEWER_FINISHED = () -> {
+  };
+  // waits shorter than this amount of scheduler ticks are kept in the thread
+  private static final int MIN_RELEASED_WAIT_TICKS = 2;
+
+  private final List<Viewer> viewers = new CopyOnWriteArrayList<>();
+
+  // null when virtual threads are not available
+  private static ThreadFactory findVirtualThreadFactory() {
+    try {
+      // Thread.ofVirtual().factory(), through reflection to keep compatibility with Java 8
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory")
+          .invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      LOG.debug("Virtual threads are not available, using platform threads for viewers", e);
+      return null;
+    }
+  }
+
+  private static ThreadFactory getThreadFactory() {
+    return VIRTUAL_THREAD_FACTORY != null ? VIRTUAL_THREAD_FACTORY : PLATFORM_THREAD_FACTORY;
+  }
+
+  // a virtual thread per step, or null when virtual threads are not available
+  private static Executor getCarriers() {
+    return VIRTUAL_THREAD_FACTORY != null ? r -> VIRTUAL_THREAD_FACTORY.newThread(r).start()
+        : null;
+  }
+
+  /*
+  Adds viewers, created with the given factory, or removes the last ones, until there are as
+  many as the given count.
+  */
+  public void resize(int count, Supplier<VideoStreamingSampler<?, ?>> viewerFactory) {
+    while (viewers.size() > count) {
+      viewers.remove(viewers.size() - 1).finish();
+    }
+    while (viewers.size() < count) {
+      viewers.add(new Viewer(viewerFactory.get()));
+    }
+  }
+
+  public int size() {
+    return viewers.size();
+  }
+
+  public void sample(boolean releaseWaits) throws InterruptedException {
+    Executor carriers = getCarriers();
+    if (releaseWaits && carriers != null) {
+      sampleSteps(carriers);
+      return;
+    }
+    List<TrackDownloadWorkers.TrackDownload> playbacks = new ArrayList<>(viewers.size());
+    viewers.forEach(v -> playbacks.add(v.sampler::sample));
+    try {
+      TrackDownloadWorkers.runConcurrently(playbacks, i -> viewers.get(i).getThread());
+    } catch (PlaylistDownloadException | PlaylistParsingException e) {
+      // playback samples already handle these, but keep the signature of track downloads
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @VisibleForTesting
+  void sampleSteps(Executor carriers) throws InterruptedException {
+    BlockingQueue<Runnable> ownerTasks = new LinkedBlockingQueue<>();
+    JMeterContext context = JMeterContextService.getContext();
+    viewers.forEach(v -> v.runStep(carriers, ownerTasks, context));
+    int pending = viewers.size();
+    try {
+      while (pending > 0) {
+        Runnable task = ownerTasks.take();
+        if (task == VIEWER_FINISHED) {
+          pending--;
+        } else {
+          task.run();
+        }
+      }
+    } catch (InterruptedException e) {
+      interrupt();
+      throw e;
+    }
+  }
+
+  public void resetVideoStatus() {
+    viewers.forEach(v -> v.sampler.resetVideoStatus());
+  }
+
+  public void notifyFirstSampleAfterLoopRestart() {
+    viewers.forEach(v -> v.sampler.httpClient.notifyFirstSampleAfterLoopRestart());
+  }
+
+  // viewers waiting to be resumed are resumed right away, so they end
+  public boolean interrupt() {
+    boolean ret = false;
+    for (Viewer viewer : viewers) {
+      ret |= viewer.sampler.httpClient.interrupt();
+      PendingStep pendingStep = viewer.pendingStep;
+      if (pendingStep != null) {
+        pendingStep.resume();
+      }
+    }
+    return ret;
+  }
+
+  public void shutdown() {
+    List<Viewer> finished = new ArrayList<>(viewers);
+    viewers.clear();
+    finished.forEach(Viewer::finish);
+  }
+
+  private static final class Viewer {
+
+    private final VideoStreamingSampler<?, ?> sampler;
+    private ExecutorService thread;
+    private volatile PendingStep pendingStep;
+
+    private Viewer(VideoStreamingSampler<?, ?> sampler) {
+      this.sampler = sampler;
+    }
+
+    private synchronized ExecutorService getThread() {
+      if (thread == null) {
+        thread = Executors.newSingleThreadExecutor(getThreadFactory());
+      }
+      return thread;
+    }
+
+    private void runStep(Executor carriers, BlockingQueue<Runnable> ownerTasks,
+        JMeterContext context) {
+      pendingStep = null;
+      carriers.execute(() -> {
+        JMeterContextService.replaceContext(context);
+        PlaybackScheduler scheduler = PlaybackScheduler.getInstance();
+        boolean yielded = false;
+        long wakeUpNanos = 0;
+        List<CompletableFuture<?>> downloads = new ArrayList<>();
+        try {
+          TrackDownloadWorkers.runAsWorker(ownerTasks, () -> {
+            StreamingSliceCoordinator.beginScheduledStep(
+                scheduler.getTickMillis() * MIN_RELEASED_WAIT_TICKS);
+            sampler.sample();
+          });
+          yielded = StreamingSliceCoordinator.getExit()
+              == StreamingSliceCoordinator.SliceExit.YIELD;
+          wakeUpNanos = StreamingSliceCoordinator.getWakeUpNanos();
+          downloads = StreamingSliceCoordinator.getAwaitedDownloads();
+        } finally {
+          StreamingSliceCoordinator.clear();
+          Runnable nextStep = () -> runStep(carriers, ownerTasks, context);
+          if (!yielded) {
+            ownerTasks.add(VIEWER_FINISHED);
+          } else if (wakeUpNanos == 0 && downloads.isEmpty()) {
+            nextStep.run();
+          } else {
+            PendingStep step = new PendingStep(nextStep);
+            pendingStep = step;
+            if (wakeUpNanos != 0) {
+              step.wakeUp = scheduler.schedule(wakeUpNanos, step::resume);
+            }
+            downloads.forEach(d -> d.whenComplete((r, e) -> step.resume()));
+          }
+        }
+      });
+    }
+
+    // connections of the blocking client are closed from the thread which opened them
+    private void finish() {
+      PendingStep step = pendingStep;
+      if (step != null) {
+        step.cancel();
+      }
+      Runnable cleanup = () -> {
+        sampler.threadFinished();
+        sampler.httpClient.threadFinished();
+      };
+      ExecutorService viewerThread;
+      synchronized (this) {
+        viewerThread = thread;
+        thread = null;
+      }
+      if (viewerThread == null) {
+        // viewers run as steps don't own a thread, nor connections bound to one
+        cleanup.run();
+      } else {
+        viewerThread.execute(cleanup);
+        viewerThread.shutdown();
+      }
+    }
+
+  }
+
+  /*
+  A step of a viewer waiting to be resumed, either by the playback scheduler once its wait is over
+  or once any of the downloads it released completes, whatever happens first.
+  */
+  private static final class PendingStep {
+
+    private final Runnable step;
+    private final AtomicBoolean done = new AtomicBoolean();
+    private volatile PlaybackScheduler.Timeout wakeUp;
+
+    private PendingStep(Runnable step) {
+      this.step = step;
+    }
+
+    private void resume() {
+      if (done.compareAndSet(false, true)) {
+        cancelWakeUp();
+        step.run();
+      }
+    }
+
+    private void cancel() {
+      if (done.compareAndSet(false, true)) {
+        cancelWakeUp();
+      }
+    }
+
+    private void cancelWakeUp() {
+      PlaybackScheduler.Timeout timeout = wakeUp;
+      if (timeout != null) {
+        timeout.cancel();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,7 @@
+package com.blazemeter.jmeter.videostreaming.core.exception;
+
+// exception created to end a scheduled playback step while a download is still in flight, without
+// checking for it in all the playback logic
+public class StepReleasedException extends RuntimeException {
+
+}
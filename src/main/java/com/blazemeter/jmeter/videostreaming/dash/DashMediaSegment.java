@@ -10,6 +10,8 @@ public class DashMediaSegment extends MediaSegment {
   private final Duration startTime;
   private final MediaPeriod period;
   private final Duration presentationTimeOffset;
+  private Duration availabilityTimeOffset = Duration.ZERO;
+  private boolean availabilityTimeComplete = true;
 
   public DashMediaSegment(MediaPeriod period, long sequenceNumber, URI uri, Duration duration,
       Duration startTime, Duration presentationTimeOffset) {
@@ -34,4 +36,23 @@ public class DashMediaSegment extends MediaSegment {
   public Duration getDuration() {
     return duration;
   }
+
+  /*
+  Low latency streams announce segments which may be requested availabilityTimeOffset before
+  their availability time, while they are still produced (availabilityTimeComplete is false) and
+  delivered in chunks.
+  */
+  public void setAvailabilityInfo(Duration availabilityTimeOffset,
+      boolean availabilityTimeComplete) {
+    this.availabilityTimeOffset = availabilityTimeOffset;
+    this.availabilityTimeComplete = availabilityTimeComplete;
+  }
+
+  public Duration getAvailabilityTimeOffset() {
+    return availabilityTimeOffset;
+  }
+
+  public boolean isAvailabilityTimeComplete() {
+    return availabilityTimeComplete;
+  }
 }
@@ -3,11 +3,15 @@ package com.blazemeter.jmeter.videostreaming.dash;
 import com.blazemeter.jmeter.hls.logic.BandwidthSelector;
 import com.blazemeter.jmeter.hls.logic.HlsSampler;
 import com.blazemeter.jmeter.hls.logic.ResolutionSelector;
+import com.blazemeter.jmeter.videostreaming.core.MediaSegment;
 import com.blazemeter.jmeter.videostreaming.core.MediaStreamSelector;
 import com.blazemeter.jmeter.videostreaming.core.PlaybackSession;
 import com.blazemeter.jmeter.videostreaming.core.SampleResultProcessor;
+import com.blazemeter.jmeter.videostreaming.core.SegmentPrefetchPipeline;
+import com.blazemeter.jmeter.videostreaming.core.SegmentPrefetchPipeline.PendingSegment;
 import com.blazemeter.jmeter.videostreaming.core.StreamingSliceCoordinator;
 import com.blazemeter.jmeter.videostreaming.core.TimeMachine;
+import com.blazemeter.jmeter.videostreaming.core.TrackDownloadWorkers.TrackDownload;
 import com.blazemeter.jmeter.videostreaming.core.Variants;
 import com.blazemeter.jmeter.videostreaming.core.VideoStreamSelector;
 import com.blazemeter.jmeter.videostreaming.core.VideoStreamingHttpClient;
@@ -15,20 +19,28 @@ import com.blazemeter.jmeter.videostreaming.core.VideoStreamingPlayback;
 import com.blazemeter.jmeter.videostreaming.core.VideoStreamingSampler;
 import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistDownloadException;
 import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistParsingException;
+import io.lindstrom.mpd.data.Period;
 import io.lindstrom.mpd.data.Representation;
+import io.lindstrom.mpd.data.UTCTiming;
 import java.net.URI;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import org.apache.jmeter.protocol.http.sampler.HTTPSampleResult;
 import org.apache.jmeter.samplers.SampleResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class DashSampler extends VideoStreamingSampler<Manifest, DashMediaSegment> {
 
+  private static final Logger LOG = LoggerFactory.getLogger(DashSampler.class);
+
   // Persisted playback state across slices. complements are stored in a fixed order
   // [video, audio, subtitles] so a continuing session can rebuild the loop tracks and resume
   // segments without re-downloading the manifest.
@@ -66,7 +78,11 @@ public class DashSampler extends VideoStreamingSampler<Manifest, DashMediaSegmen
       subtitlesPlayback = session.getComplements().get(2);
       mediaPlayback = session.getPrimary();
     } else {
-      manifest = downloadPlaylist(masterUri, p -> MASTER_TYPE_NAME, Manifest::fromUriAndBody);
+      // dynamic manifests are not shared, since each viewer refreshes and synchronizes its own one
+      manifest = downloadMasterPlaylist(masterUri, p -> MASTER_TYPE_NAME,
+          Manifest::fromUriAndBody, m -> !m.isDynamic())
+          .withRemotePeriods(this::resolveRemotePeriod);
+      manifest = synchronizeClocks(manifest);
 
       // we update masterUri in case the request was redirected
       masterUri = manifest.getUri();
@@ -100,6 +116,7 @@ public class DashSampler extends VideoStreamingSampler<Manifest, DashMediaSegmen
     }
     complementTracks.add(subtitlesPlayback);
 
+    enableResumableDownloads();
     boolean finished = false;
     try {
       /*
@@ -109,21 +126,28 @@ public class DashSampler extends VideoStreamingSampler<Manifest, DashMediaSegmen
       manifest refresh immediately when needed.
        */
       boolean initialLoop = !continuingSession;
+      boolean concurrentTracks = isDownloadTracksConcurrently();
+      double playedSeconds = getPlayedSeconds(mediaPlayback, playSeconds);
       while (!mediaPlayback.hasEnded() && !shouldYieldForSlice()) {
-        if (mediaPlayback.needsManifestUpdate() && !initialLoop) {
+        if (mediaPlayback.hasReachedRemotePeriod()) {
+          manifest = manifest.withReachedRemotePeriods(mediaPlayback.getPeriod(),
+              this::resolveRemotePeriod);
+          updateManifest(manifest, mediaPlayback, complementTracks, active);
+        }
+        boolean needsManifestUpdate = mediaPlayback.needsManifestUpdate() && !initialLoop;
+        if (concurrentTracks && (needsManifestUpdate || mediaPlayback.shouldAdvancePeriod())) {
+          // complementary tracks have to catch up before their manifest or period changes
+          downloadComplementsConcurrently(complementTracks, playedSeconds);
+        }
+        if (needsManifestUpdate) {
           long awaitMillis = manifest.getReloadTimeMillis(
               mediaPlayback.getLastSegment().getDurationMillis(), timeMachine.now());
-          if (awaitMillis > 0) {
-            timeMachine.awaitMillis(clampAwaitMillis(awaitMillis));
-          }
-          manifest = downloadPlaylist(masterUri, p -> MASTER_TYPE_NAME, Manifest::fromUriAndBody);
-          mediaPlayback.updateManifest(manifest);
-          for (MediaPlayback complementTrack : complementTracks) {
-            complementTrack.updateManifest(manifest);
-          }
-          if (active) {
-            session.setManifest(manifest);
+          if (awaitMillis > 0 && !awaitNextStep(awaitMillis)) {
+            break;
           }
+          manifest = synchronizeClocks(refreshManifest(masterUri, manifest)
+              .withRemotePeriods(this::resolveRemotePeriod));
+          updateManifest(manifest, mediaPlayback, complementTracks, active);
         }
         initialLoop = false;
 
@@ -134,19 +158,30 @@ public class DashSampler extends VideoStreamingSampler<Manifest, DashMediaSegmen
           }
         }
 
-        mediaPlayback.downloadNextSegment();
-        double playedSeconds = mediaPlayback.getPlayedTimeSeconds();
-        if (playSeconds > 0 && playSeconds < playedSeconds) {
-          playedSeconds = playSeconds;
-        }
-        for (MediaPlayback complementTrack : complementTracks) {
-          complementTrack.downloadUntilTimeSecond(playedSeconds);
+        if (concurrentTracks) {
+          List<TrackDownload> downloads = buildComplementDownloads(complementTracks,
+              playedSeconds);
+          downloads.add(0, mediaPlayback::downloadNextSegment);
+          trackWorkers.downloadConcurrently(downloads);
+          playedSeconds = getPlayedSeconds(mediaPlayback, playSeconds);
+        } else {
+          mediaPlayback.downloadNextSegment();
+          playedSeconds = getPlayedSeconds(mediaPlayback, playSeconds);
+          for (MediaPlayback complementTrack : complementTracks) {
+            complementTrack.downloadUntilTimeSecond(playedSeconds);
+          }
         }
       }
+      if (concurrentTracks) {
+        downloadComplementsConcurrently(complementTracks, playedSeconds);
+      }
       finished = mediaPlayback.hasEnded();
     } finally {
       playbackFinishedThisSample = finished;
       if (finished || !active) {
+        videoPlayback.cancelPrefetch();
+        audioPlayback.cancelPrefetch();
+        subtitlesPlayback.cancelPrefetch();
         lastVideoSegment = mediaPlayback.getLastSegment();
         lastSubtitleSegment = subtitlesPlayback.getLastSegment();
         lastAudioSegment = audioPlayback.getLastSegment();
@@ -155,6 +190,200 @@ public class DashSampler extends VideoStreamingSampler<Manifest, DashMediaSegmen
     }
   }
 
+  private void updateManifest(Manifest manifest, MediaPlayback mediaPlayback,
+      List<MediaPlayback> complementTracks, boolean active) {
+    mediaPlayback.updateManifest(manifest);
+    for (MediaPlayback complementTrack : complementTracks) {
+      complementTrack.updateManifest(manifest);
+    }
+    if (active) {
+      session.setManifest(manifest);
+    }
+  }
+
+  /*
+  Updates the manifest applying the MPD patch from its patch location, recording the download as
+  a mpd patch sample (failed if the patch can't be applied), when it has a valid one. Otherwise,
+  or when the patch can't be downloaded or applied, the full MPD is downloaded.
+  */
+  private Manifest refreshManifest(URI masterUri, Manifest manifest)
+      throws PlaylistDownloadException, PlaylistParsingException {
+    Instant downloadTimestamp = timeMachine.now();
+    URI patchUri = manifest.getPatchLocation(downloadTimestamp);
+    if (patchUri != null) {
+      HTTPSampleResult result = downloadResumable(MPD_PATCH_TYPE_NAME, patchUri,
+          () -> httpClient.downloadUriAsync(patchUri));
+      try {
+        if (result.isSuccessful()) {
+          Manifest ret = manifest.withPatch(patchUri, getPlaylistContents(result),
+              downloadTimestamp);
+          acceptSampleResult(MPD_PATCH_TYPE_NAME, result);
+          return ret;
+        }
+        acceptSampleResult(MPD_PATCH_TYPE_NAME, result);
+      } catch (PlaylistParsingException e) {
+        LOG.warn("Problem applying MPD patch {}, downloading full MPD", patchUri, e);
+        acceptSampleResult(MPD_PATCH_TYPE_NAME,
+            HlsSampler.errorResult(result, e.getClass().getName(), e.getMessage()));
+      } finally {
+        releasePlaylistResponseBodyIfEnabled(result);
+      }
+    }
+    return downloadPlaylist(masterUri, p -> MASTER_TYPE_NAME, Manifest::fromUriAndBody);
+  }
+
+  /*
+  Gets the periods of a remote period from the JVM-wide cache, or downloads them. Remote periods
+  which can't be downloaded or parsed are not played, and are retried on next manifest refresh.
+  */
+  private List<Period> resolveRemotePeriod(URI uri) {
+    List<Period> ret = RemotePeriodCache.getInstance().get(uri, timeMachine::now,
+        () -> downloadRemotePeriod(uri));
+    return ret != null ? ret : Collections.emptyList();
+  }
+
+  /*
+  Downloads and parses a remote period, recording the download as a remote period sample (failed
+  if it can't be parsed). Returns null when the remote period can't be downloaded or parsed.
+  */
+  private List<Period> downloadRemotePeriod(URI uri) {
+    HTTPSampleResult result = httpClient.downloadUri(uri);
+    try {
+      if (!result.isSuccessful()) {
+        acceptSampleResult(REMOTE_PERIOD_TYPE_NAME, result);
+        return null;
+      }
+      List<Period> ret = Manifest.parseRemotePeriods(uri, getPlaylistContents(result));
+      acceptSampleResult(REMOTE_PERIOD_TYPE_NAME, result);
+      return ret;
+    } catch (PlaylistParsingException e) {
+      LOG.warn("Problem parsing remote period {}", uri, e);
+      acceptSampleResult(REMOTE_PERIOD_TYPE_NAME,
+          HlsSampler.errorResult(result, e.getClass().getName(), e.getMessage()));
+      return null;
+    } finally {
+      releasePlaylistResponseBodyIfEnabled(result);
+    }
+  }
+
+  /*
+  Synchronizes the manifest clock with the first of its UTCTiming sources providing a valid time.
+  Only direct and HTTP (head, iso and xsdate) schemes are supported, and when none of them can be
+  used the clock is synchronized with the manifest publish time. Static manifests don't need it,
+  since their segments are always available.
+  */
+  private Manifest synchronizeClocks(Manifest manifest) {
+    if (!manifest.isDynamic()) {
+      return manifest;
+    }
+    for (UTCTiming timing : manifest.getUtcTimings()) {
+      Duration clocksDiff = findClocksDiff(timing, manifest);
+      if (clocksDiff != null) {
+        return manifest.withClocksDiff(clocksDiff);
+      }
+    }
+    return manifest;
+  }
+
+  private Duration findClocksDiff(UTCTiming timing, Manifest manifest) {
+    if (timing.getSchemeIdUri() == null || timing.getValue() == null) {
+      return null;
+    }
+    switch (timing.getSchemeIdUri()) {
+      case DIRECT:
+        Instant time = UtcTimingCache.parseTime(timing.getValue());
+        return time != null ? Duration.between(manifest.getDownloadTime(), time) : null;
+      case HTTP_HEAD:
+      case HTTP_ISO:
+      case HTTP_XSDATE:
+        return measureClocksDiff(timing, manifest.getUri());
+      default:
+        return null;
+    }
+  }
+
+  /*
+  Gets the offset of the given HTTP timing source from the JVM-wide cache, or measures it,
+  recording the request as a utc timing sample. The server time is taken as the one in the middle
+  of the request, as DASH players do. Only one viewer measures the offset of each timing source
+  at a time, while the rest of the viewers requiring it wait for its measure.
+  */
+  private Duration measureClocksDiff(UTCTiming timing, URI manifestUri) {
+    // the value may contain several alternative URLs separated by white spaces
+    String url = timing.getValue().trim().split("\\s+")[0];
+    URI uri;
+    try {
+      uri = manifestUri.resolve(url);
+    } catch (IllegalArgumentException e) {
+      LOG.warn("Invalid UTCTiming URL {} in {}", url, manifestUri, e);
+      return null;
+    }
+    return UtcTimingCache.getInstance().get(uri, timeMachine::now,
+        () -> requestClocksDiff(timing, uri));
+  }
+
+  // null when the timing source can't be requested or doesn't provide a valid time
+  private Duration requestClocksDiff(UTCTiming timing, URI uri) {
+    Instant requestStart = timeMachine.now();
+    boolean head = timing.getSchemeIdUri() == UTCTiming.Type.HTTP_HEAD;
+    HTTPSampleResult result = head ? httpClient.requestUriHeaders(uri)
+        : httpClient.downloadUri(uri);
+    Instant requestEnd = timeMachine.now();
+    acceptSampleResult(UTC_TIMING_TYPE_NAME, result);
+    try {
+      if (!result.isSuccessful()) {
+        return null;
+      }
+      Instant serverTime = head ? UtcTimingCache.parseDateHeader(result.getResponseHeaders())
+          : UtcTimingCache.parseTime(getPlaylistContents(result));
+      if (serverTime == null) {
+        LOG.warn("No valid time obtained from UTCTiming source {}", uri);
+        return null;
+      }
+      return Duration.between(
+          requestStart.plus(Duration.between(requestStart, requestEnd).dividedBy(2)),
+          serverTime);
+    } finally {
+      releasePlaylistResponseBodyIfEnabled(result);
+    }
+  }
+
+  @Override
+  protected boolean isChunkedSegment(MediaSegment segment) {
+    return segment instanceof DashMediaSegment
+        && !((DashMediaSegment) segment).isAvailabilityTimeComplete();
+  }
+
+  private double getPlayedSeconds(MediaPlayback mediaPlayback, int playSeconds) {
+    double playedSeconds = mediaPlayback.getPlayedTimeSeconds();
+    return playSeconds > 0 && playSeconds < playedSeconds ? playSeconds : playedSeconds;
+  }
+
+  /*
+  When tracks are downloaded concurrently, complementary tracks download up to the time played by
+  the main track when each step starts, while the main track downloads its next segment, so every
+  track keeps a segment in flight as players do.
+  */
+  private List<TrackDownload> buildComplementDownloads(List<MediaPlayback> complementTracks,
+      double untilTimeSecond) {
+    List<TrackDownload> ret = new ArrayList<>();
+    for (MediaPlayback track : complementTracks) {
+      if (track.hasContents()) {
+        ret.add(() -> track.downloadUntilTimeSecond(untilTimeSecond));
+      }
+    }
+    return ret;
+  }
+
+  private void downloadComplementsConcurrently(List<MediaPlayback> complementTracks,
+      double untilTimeSecond)
+      throws InterruptedException, PlaylistDownloadException, PlaylistParsingException {
+    List<TrackDownload> downloads = buildComplementDownloads(complementTracks, untilTimeSecond);
+    if (!downloads.isEmpty()) {
+      trackWorkers.downloadConcurrently(downloads);
+    }
+  }
+
   private static MediaStreamSelector<MediaRepresentation> buildMediaSelector(
       BandwidthSelector bandwidthSelector) {
     return new MediaStreamSelector<MediaRepresentation>() {
@@ -170,7 +399,8 @@ public class DashSampler extends VideoStreamingSampler<Manifest, DashMediaSegmen
   public Variants getVariants(URI masterUri)
       throws PlaylistParsingException, PlaylistDownloadException {
     Variants variants = new Variants();
-    Manifest manifest = getManifest(masterUri, p -> MASTER_TYPE_NAME, Manifest::fromUriAndBody);
+    Manifest manifest = getManifest(masterUri, p -> MASTER_TYPE_NAME, Manifest::fromUriAndBody)
+        .withRemotePeriods(this::resolveRemotePeriod);
     variants.setAudioLanguageList(manifest.getVideoLanguages());
     variants.setSubtitleList(manifest.getSubtitleLanguages());
     variants.setResolutionList(manifest.getResolutions());
@@ -199,6 +429,11 @@ public class DashSampler extends VideoStreamingSampler<Manifest, DashMediaSegmen
     private Iterator<MediaPeriod> periods;
     private SegmentBuilder<?> segmentBuilder;
     private boolean initializedMedia;
+    private final SegmentPrefetchPipeline<DashMediaSegment> prefetch;
+    // last segment handed to the prefetch pipeline, which may not be downloaded yet
+    private DashMediaSegment lastRequestedSegment;
+    // segment taken from the builder which is requested once available, after a released wait
+    private DashMediaSegment awaitedSegment;
 
     private MediaPlayback(Manifest manifest, String type,
         MediaStreamSelector<MediaRepresentation> selector, String languageSelector,
@@ -206,12 +441,21 @@ public class DashSampler extends VideoStreamingSampler<Manifest, DashMediaSegmen
       super(type, lastSegment, playSeconds);
       this.selector = selector;
       this.languageSelector = languageSelector;
+      this.prefetch = buildPrefetchPipeline();
       updateManifest(manifest);
     }
 
+    private DashMediaSegment getLastRequestedSegment() {
+      if (awaitedSegment != null) {
+        return awaitedSegment;
+      }
+      return lastRequestedSegment != null ? lastRequestedSegment : lastSegment;
+    }
+
     private void updateManifest(Manifest manifest) {
       this.manifest = manifest;
       MediaPeriod period;
+      DashMediaSegment lastSegment = getLastRequestedSegment();
       if (lastSegment == null) {
         periods = manifest.getPeriods().iterator();
         if (manifest.isDynamic()) {
@@ -233,8 +477,26 @@ public class DashSampler extends VideoStreamingSampler<Manifest, DashMediaSegmen
       updatePeriod(period);
     }
 
+    private MediaPeriod getPeriod() {
+      return period;
+    }
+
     private boolean shouldAdvancePeriod() {
-      return !segmentBuilder.hasNext() && periods.hasNext();
+      return hasRequestedPeriodSegments() && periods.hasNext();
+    }
+
+    // prefetched segments of the period are still downloaded after advancing it
+    private boolean hasRequestedPeriodSegments() {
+      return !segmentBuilder.hasNext() && awaitedSegment == null;
+    }
+
+    // remote periods to resolve on request are reached once the period before them is requested
+    private boolean hasReachedRemotePeriod() {
+      return hasRequestedPeriodSegments() && manifest.hasRemotePeriodAfter(period);
+    }
+
+    private boolean hasPendingSegments() {
+      return segmentBuilder.hasNext() || hasPrefetchedSegments() || awaitedSegment != null;
     }
 
     private MediaPeriod nextPeriod() {
@@ -244,39 +506,138 @@ public class DashSampler extends VideoStreamingSampler<Manifest, DashMediaSegmen
     }
 
     private void updatePeriod(MediaPeriod period) {
-      if (!period.equals(this.period)) {
+      boolean samePeriod = period.equals(this.period);
+      if (!samePeriod) {
         this.initializedMedia = false;
       }
       this.period = period;
-      this.segmentBuilder = period.findSegmentBuilder(type, selector, languageSelector);
+      SegmentBuilder<?> refreshedBuilder = period.findSegmentBuilder(type, selector,
+          languageSelector);
+      /*
+       when the manifest is refreshed we keep the position of the current builder if its
+       representation didn't change, instead of walking the whole refreshed timeline again.
+       */
+      if (samePeriod && segmentBuilder != null && getLastRequestedSegment() != null
+          && segmentBuilder.refreshFrom(refreshedBuilder)) {
+        return;
+      }
+      this.segmentBuilder = refreshedBuilder;
       if (segmentBuilder != null) {
-        this.segmentBuilder.advanceUntil(lastSegment);
+        this.segmentBuilder.advanceUntil(getLastRequestedSegment());
       }
     }
 
     private void downloadNextSegment() throws InterruptedException {
-      if (!segmentBuilder.hasNext()) {
+      if (prefetch != null) {
+        downloadNextPrefetchedSegment();
         return;
       }
+      DashMediaSegment segment = awaitedSegment;
+      if (segment == null) {
+        if (!segmentBuilder.hasNext()) {
+          return;
+        }
 
-      if (!initializedMedia) {
-        downloadInitializationSegment();
-        initializedMedia = true;
+        if (!initializedMedia) {
+          downloadInitializationSegment();
+          initializedMedia = true;
+        }
+        if (downloadSegmentIndex() && !segmentBuilder.hasNext()) {
+          return;
+        }
+        segment = segmentBuilder.next();
+      }
+      awaitedSegment = null;
+      if (!awaitSegmentAvailable(segment)) {
+        awaitedSegment = segment;
+        return;
       }
-      DashMediaSegment segment = segmentBuilder.next();
-      awaitSegmentAvailable(segment);
       downloadSegment(segment, type);
       lastSegment = segment;
       consumedSeconds += segment.getDurationSeconds();
     }
 
-    private void awaitSegmentAvailable(DashMediaSegment segment) throws InterruptedException {
-      Instant availabilityTime = segment.getStartAvailabilityTime().plus(segment.getDuration());
+    private void downloadNextPrefetchedSegment() throws InterruptedException {
+      prefetchSegments();
+      PendingSegment<DashMediaSegment> pending = prefetch.peek();
+      if (pending == null
+          || (pending.getRequest() == null && !awaitSegmentAvailable(pending.getSegment()))) {
+        return;
+      }
+      // the segment is only taken from the pipeline once its sample result has been processed
+      downloadPendingSegment(pending, type);
+      prefetch.poll();
+      lastSegment = pending.getSegment();
+      consumedSeconds += lastSegment.getDurationSeconds();
+      // keep the pipeline full while other tracks are downloaded
+      prefetchSegments();
+    }
+
+    private void prefetchSegments() {
+      if (segmentBuilder == null || !prefetch.requestAvailable(this::isSegmentAvailable)) {
+        return;
+      }
+      if (!initializedMedia && segmentBuilder.hasNext()) {
+        // segments of a previous period have to be downloaded before the new initialization one
+        if (!prefetch.isEmpty()) {
+          return;
+        }
+        downloadInitializationSegment();
+        initializedMedia = true;
+      }
+      downloadSegmentIndex();
+      while (prefetch.hasCapacity() && segmentBuilder.hasNext()
+          && isWithinRequestedTime(prefetch.getPendingSeconds())) {
+        DashMediaSegment segment = segmentBuilder.next();
+        boolean available = isSegmentAvailable(segment);
+        prefetch.add(segment, available);
+        lastRequestedSegment = segment;
+        if (!available) {
+          return;
+        }
+      }
+    }
+
+    private boolean hasPrefetchedSegments() {
+      return prefetch != null && !prefetch.isEmpty();
+    }
+
+    private void cancelPrefetch() {
+      if (prefetch != null) {
+        prefetch.cancel();
+        lastRequestedSegment = null;
+      }
+    }
+
+    /*
+    Returns false, without waiting, when the wait has been released to the playback scheduler, in
+    which case the segment has to be requested once the playback resumes.
+    */
+    private boolean awaitSegmentAvailable(DashMediaSegment segment) throws InterruptedException {
+      Instant availabilityTime = getAvailabilityTime(segment);
       //The clocks have to be synchronized to avoid error on segments availability
       Instant nowSynchronized = timeMachine.now().plus(manifest.getClocksDiff());
       if (availabilityTime.isAfter(nowSynchronized)) {
-        timeMachine.awaitMillis(Duration.between(nowSynchronized, availabilityTime).toMillis());
+        // rounding up so the segment is never requested before it is available
+        long awaitNanos = Duration.between(nowSynchronized, availabilityTime).toNanos();
+        long awaitMillis = (awaitNanos + 999_999) / 1_000_000;
+        if (StreamingSliceCoordinator.releaseWait(awaitMillis)) {
+          return false;
+        }
+        timeMachine.awaitMillis(awaitMillis);
       }
+      return true;
+    }
+
+    private boolean isSegmentAvailable(DashMediaSegment segment) {
+      Instant nowSynchronized = timeMachine.now().plus(manifest.getClocksDiff());
+      return !getAvailabilityTime(segment).isAfter(nowSynchronized);
+    }
+
+    // low latency segments are requested early, to get their chunks while they are produced
+    private Instant getAvailabilityTime(DashMediaSegment segment) {
+      return segment.getStartAvailabilityTime().plus(segment.getDuration())
+          .minus(segment.getAvailabilityTimeOffset());
     }
 
     private void downloadInitializationSegment() {
@@ -284,25 +645,46 @@ public class DashSampler extends VideoStreamingSampler<Manifest, DashMediaSegmen
       if (uri == null) {
         return;
       }
-      SampleResult result = httpClient.downloadUri(uri);
-      sampleResultProcessor.accept(buildInitSegmentName(type), result);
+      String name = buildInitSegmentName(type);
+      SampleResult result = downloadSegmentUri(name, uri);
+      acceptSampleResult(name, result);
+      releaseSegmentResponseBodyIfEnabled(result);
+    }
+
+    /*
+     downloads the index of the segments, when the segment builder requires it, which is parsed
+     before the response body is released. Returns true if the index has been downloaded.
+     */
+    private boolean downloadSegmentIndex() {
+      MediaSegment index = segmentBuilder.getPendingSegmentIndex();
+      if (index == null) {
+        return false;
+      }
+      String name = buildIndexSegmentName(type);
+      SampleResult result = downloadResumable(name, index.getUri(), () -> {
+        addSegmentRangeHeader(index);
+        return httpClient.downloadUriAsync(index.getUri());
+      });
+      acceptSampleResult(name, result);
+      segmentBuilder.withSegmentIndex(result.isSuccessful() ? result.getResponseData() : null);
       releaseSegmentResponseBodyIfEnabled(result);
+      return true;
     }
 
     private void downloadUntilTimeSecond(double untilTimeSecond) throws InterruptedException {
       if (segmentBuilder == null) {
         return;
       }
-      while (consumedSeconds < untilTimeSecond && segmentBuilder.hasNext()
-          && !shouldYieldForSlice()) {
+      while (consumedSeconds < untilTimeSecond
+          && hasPendingSegments() && !shouldYieldForSlice()) {
         downloadNextSegment();
       }
     }
 
     private boolean hasEnded() {
-      return playedRequestedTime() || segmentBuilder == null || (!segmentBuilder.hasNext()
-          && !periods.hasNext() && (!manifest.isDynamic()
-          || manifest.getMinimumUpdatePeriod() == null));
+      return playedRequestedTime() || segmentBuilder == null || (!hasPendingSegments()
+          && !periods.hasNext() && !manifest.hasRemotePeriodAfter(period)
+          && (!manifest.isDynamic() || manifest.getMinimumUpdatePeriod() == null));
     }
 
     private boolean hasContents() {
@@ -310,7 +692,7 @@ public class DashSampler extends VideoStreamingSampler<Manifest, DashMediaSegmen
     }
 
     private boolean needsManifestUpdate() {
-      return !segmentBuilder.hasNext() && !periods.hasNext();
+      return !hasPendingSegments() && !periods.hasNext() && !manifest.hasRemotePeriodAfter(period);
     }
 
   }
@@ -1,39 +1,76 @@
 package com.blazemeter.jmeter.videostreaming.dash;
 
 import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistParsingException;
+import com.blazemeter.jmeter.videostreaming.dash.MpdPatcher.PatchLocation;
+import com.blazemeter.jmeter.videostreaming.dash.MpdPatcher.PatchableDocument;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.google.common.annotations.VisibleForTesting;
 import io.lindstrom.mpd.MPDParser;
+import io.lindstrom.mpd.data.ActuateType;
 import io.lindstrom.mpd.data.BaseURL;
 import io.lindstrom.mpd.data.MPD;
 import io.lindstrom.mpd.data.Period;
 import io.lindstrom.mpd.data.PresentationType;
 import io.lindstrom.mpd.data.Representation;
+import io.lindstrom.mpd.data.UTCTiming;
 
+import java.io.IOException;
 import java.net.URI;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import javax.xml.stream.XMLStreamException;
+import org.apache.jmeter.util.JMeterUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
 
 public class Manifest extends com.blazemeter.jmeter.videostreaming.core.Manifest {
 
+  public static final String MPD_PREFILTER_PROP = "hls.sampler.dash.mpdPrefilter";
+  public static final String MPD_PREFILTER_MIN_LENGTH_PROP =
+      "hls.sampler.dash.mpdPrefilter.minLength";
+  private static final int DEFAULT_MPD_PREFILTER_MIN_LENGTH = 100_000;
+  private static final Logger LOG = LoggerFactory.getLogger(Manifest.class);
+  private static final String RESOLVE_TO_ZERO_HREF = "urn:mpeg:dash:resolve-to-zero:2013";
+  private static final Pattern XML_DECLARATION = Pattern.compile("^\\s*<\\?xml[^>]*\\?>");
+  private static final String PATCH_LOCATION_ELEMENT = "PatchLocation";
+
+  private static volatile Boolean prefilter;
+  private static volatile Integer prefilterMinLength;
+
   /**
    * Shared parser instance. Jackson {@code XmlMapper} read paths are thread-safe after
    * configuration; concurrent {@code parse} calls are validated by
    * {@code ManifestTest.shouldParseManifestConsistentlyWhenParsingConcurrentlyFromSharedParser}.
    */
-  private static final MPDParser MPD_PARSER = new MPDParser();
-
+  private static final XmlMapper MPD_MAPPER = (XmlMapper) MPDParser.defaultObjectMapper();
+  private static final MPDParser MPD_PARSER = new MPDParser(MPD_MAPPER);
   private final MPD mpd;
   private final Instant lastDownloadTime;
   private Instant playbackStartTime;
   private final List<MediaPeriod> periods;
+  // offset measured from an UTCTiming source, which takes precedence over the publish time one
+  private final Duration clocksDiff;
+  // only kept for manifests which can be patched, to apply patches to it
+  private final PatchableDocument document;
+  private final PatchLocation patchLocation;
 
-  private Manifest(URI uri, MPD mpd, Instant timestamp) {
+  private Manifest(URI uri, MPD mpd, Instant timestamp, Duration clocksDiff,
+      PatchableDocument document, PatchLocation patchLocation) {
     super(uri);
     this.mpd = mpd;
     this.lastDownloadTime = timestamp;
+    this.clocksDiff = clocksDiff;
+    this.document = document;
+    this.patchLocation = patchLocation;
     this.periods = buildPeriods(mpd);
   }
 
@@ -42,9 +79,9 @@ public class Manifest extends com.blazemeter.jmeter.videostreaming.core.Manifest
     MediaPeriod previousPeriod = null;
     for (int i = 0; i < mpd.getPeriods().size(); i++) {
       Period period = mpd.getPeriods().get(i);
+      // remote periods which could not be resolved are not played
       if (period.getHref() != null) {
-        throw new UnsupportedOperationException(
-            "External periods references are not supported yet.");
+        continue;
       }
       previousPeriod = MediaPeriod.builder()
           .withPeriod(mpd.getPeriods().get(i))
@@ -61,12 +98,192 @@ public class Manifest extends com.blazemeter.jmeter.videostreaming.core.Manifest
   public static Manifest fromUriAndBody(URI uri, String body, Instant timestamp)
       throws PlaylistParsingException {
     try {
-      return new Manifest(uri, MPD_PARSER.parse(body), timestamp);
+      PatchLocation patchLocation = body.contains(PATCH_LOCATION_ELEMENT)
+          ? MpdPatcher.findPatchLocation(body) : null;
+      return new Manifest(uri, parseMpd(body), timestamp, null,
+          patchLocation != null ? new PatchableDocument(body) : null, patchLocation);
     } catch (Exception e) {
       throw new PlaylistParsingException(uri, e);
     }
   }
 
+  /*
+  Filtering the body takes an additional pass over it, so it is only worth it for bodies large
+  enough to save more building their objects than what the pass costs.
+  */
+  private static boolean shouldPrefilter(String body) {
+    return isPrefilterEnabled() && body.length() >= getPrefilterMinLength();
+  }
+
+  private static boolean isPrefilterEnabled() {
+    if (prefilter == null) {
+      prefilter = JMeterUtils.getPropDefault(MPD_PREFILTER_PROP, false);
+    }
+    return prefilter;
+  }
+
+  private static int getPrefilterMinLength() {
+    if (prefilterMinLength == null) {
+      prefilterMinLength = JMeterUtils.getPropDefault(MPD_PREFILTER_MIN_LENGTH_PROP,
+          DEFAULT_MPD_PREFILTER_MIN_LENGTH);
+    }
+    return prefilterMinLength;
+  }
+
+  @VisibleForTesting
+  public static void resetPrefilterCache() {
+    prefilter = null;
+    prefilterMinLength = null;
+  }
+
+  private static MPD parseMpd(String body) throws XMLStreamException, IOException {
+    return MPD_PARSER.parse(shouldPrefilter(body) ? MpdPrefilter.filter(body) : body);
+  }
+
+  /*
+  Gets the absolute URI of the MPD patch to update this manifest, or null when the manifest has no
+  patch location or it has expired (its time to live since the publish time elapsed), in which
+  case the full MPD has to be downloaded.
+  */
+  public URI getPatchLocation(Instant now) {
+    if (patchLocation == null || !isDynamic()) {
+      return null;
+    }
+    OffsetDateTime publishTime = mpd.getPublishTime();
+    if (patchLocation.getTtl() != null && publishTime != null && now.plus(getClocksDiff())
+        .isAfter(publishTime.toInstant().plus(patchLocation.getTtl()))) {
+      return null;
+    }
+    try {
+      return uri.resolve(patchLocation.getUrl());
+    } catch (IllegalArgumentException e) {
+      LOG.warn("Invalid patch location {} in {}", patchLocation.getUrl(), uri, e);
+      return null;
+    }
+  }
+
+  /*
+  Gets the manifest resulting from applying the given MPD patch to this one, which keeps remote
+  periods unresolved, as when the full MPD is downloaded. The patch is applied to the document of
+  this manifest, which is kept by the patched manifest and can't be patched again through this
+  one.
+  */
+  public Manifest withPatch(URI patchUri, String patch, Instant timestamp)
+      throws PlaylistParsingException {
+    if (document == null) {
+      throw new PlaylistParsingException(patchUri, "manifest " + uri + " can't be patched");
+    }
+    try {
+      Document patched = document.take();
+      if (patched == null) {
+        throw new IllegalStateException("manifest " + uri + " was already patched");
+      }
+      MpdPatcher.apply(patched, MpdPatcher.parse(patch));
+      return new Manifest(uri, MPD_MAPPER.readValue(MpdPatcher.read(patched), MPD.class),
+          timestamp, null, new PatchableDocument(patched), MpdPatcher.findPatchLocation(patched));
+    } catch (Exception e) {
+      throw new PlaylistParsingException(patchUri, e);
+    }
+  }
+
+  /*
+  Parses the body of a remote period (the target of a period xlink:href), which may contain any
+  number of periods.
+  */
+  public static List<Period> parseRemotePeriods(URI uri, String body)
+      throws PlaylistParsingException {
+    try {
+      MPD mpd = MPD_PARSER.parse("<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" "
+          + "xmlns:xlink=\"http://www.w3.org/1999/xlink\">"
+          + XML_DECLARATION.matcher(body).replaceFirst("") + "</MPD>");
+      return mpd.getPeriods() != null ? mpd.getPeriods() : Collections.emptyList();
+    } catch (Exception e) {
+      throw new PlaylistParsingException(uri, e);
+    }
+  }
+
+  /*
+  Gets a manifest with its remote periods replaced by the ones obtained from the given resolver,
+  which gets the absolute URI of each remote period. Remote periods resolving to zero periods are
+  just removed. Remote periods to resolve on request (xlink:actuate="onRequest", the default) are
+  kept until the playback reaches them (see withReachedRemotePeriods), except the ones a static
+  manifest starts with, which are reached as soon as the playback starts.
+  */
+  public Manifest withRemotePeriods(Function<URI, List<Period>> resolver) {
+    return resolveRemotePeriods(resolver,
+        i -> mpd.getPeriods().get(i).getActuate() == ActuateType.ON_LOAD
+            || (!isDynamic() && areRemotePeriods(0, i)));
+  }
+
+  // whether the period following the given one is a remote period which has not been resolved
+  public boolean hasRemotePeriodAfter(MediaPeriod period) {
+    int next = period.getIndex() + 1;
+    return next < mpd.getPeriods().size() && mpd.getPeriods().get(next).getHref() != null;
+  }
+
+  /*
+  Gets a manifest with the remote periods following the given period resolved, up to the next
+  period to play, since they are reached once the playback completes the given period.
+  */
+  public Manifest withReachedRemotePeriods(MediaPeriod period,
+      Function<URI, List<Period>> resolver) {
+    int index = period.getIndex();
+    return resolveRemotePeriods(resolver, i -> i > index && areRemotePeriods(index + 1, i));
+  }
+
+  private boolean areRemotePeriods(int fromIndex, int toIndex) {
+    return mpd.getPeriods().subList(fromIndex, toIndex).stream()
+        .allMatch(p -> p.getHref() != null);
+  }
+
+  private Manifest resolveRemotePeriods(Function<URI, List<Period>> resolver,
+      IntPredicate resolvedPeriod) {
+    List<Period> periods = new ArrayList<>();
+    boolean resolved = false;
+    for (int i = 0; i < mpd.getPeriods().size(); i++) {
+      Period period = mpd.getPeriods().get(i);
+      String href = period.getHref() != null ? period.getHref().trim() : null;
+      if (href == null || (!RESOLVE_TO_ZERO_HREF.equals(href) && !resolvedPeriod.test(i))) {
+        periods.add(period);
+        continue;
+      }
+      resolved = true;
+      if (!RESOLVE_TO_ZERO_HREF.equals(href)) {
+        try {
+          periods.addAll(resolver.apply(uri.resolve(href)));
+        } catch (IllegalArgumentException e) {
+          LOG.warn("Invalid remote period URL {} in {}", href, uri, e);
+        }
+      }
+    }
+    if (!resolved) {
+      return this;
+    }
+    return withPlaybackStart(new Manifest(uri, mpd.buildUpon().withPeriods(periods).build(),
+        lastDownloadTime, clocksDiff, document, patchLocation));
+  }
+
+  /*
+  Gets a manifest which synchronizes its clock with the given offset (server time minus local
+  time) instead of the one estimated from the publish time.
+  */
+  public Manifest withClocksDiff(Duration clocksDiff) {
+    return withPlaybackStart(
+        new Manifest(uri, mpd, lastDownloadTime, clocksDiff, document, patchLocation));
+  }
+
+  // keeps the playback start of manifests without availability start time in derived manifests
+  private Manifest withPlaybackStart(Manifest manifest) {
+    manifest.playbackStartTime = playbackStartTime;
+    return manifest;
+  }
+
+  @Override
+  protected Manifest withDownloadTimestamp(Instant downloadTimestamp) {
+    return withPlaybackStart(
+        new Manifest(uri, mpd, downloadTimestamp, clocksDiff, document, patchLocation));
+  }
+
   public URI getUri() {
     return uri;
   }
@@ -108,7 +325,18 @@ public class Manifest extends com.blazemeter.jmeter.videostreaming.core.Manifest
         .minus(bufferTime);
   }
 
+  public List<UTCTiming> getUtcTimings() {
+    return mpd.getUtcTimings() != null ? mpd.getUtcTimings() : Collections.emptyList();
+  }
+
+  public Instant getDownloadTime() {
+    return lastDownloadTime;
+  }
+
   public Duration getClocksDiff() {
+    if (clocksDiff != null) {
+      return clocksDiff;
+    }
     OffsetDateTime publishTime = mpd.getPublishTime();
     return publishTime != null ? Duration.between(lastDownloadTime, publishTime) : Duration.ZERO;
   }
@@ -81,6 +81,11 @@ public class MediaPeriod {
     return resolutions;
   }
 
+  // position of the period in the periods of its manifest, including the ones not played
+  int getIndex() {
+    return index;
+  }
+
   public Duration getStartTime() {
     return startTime;
   }
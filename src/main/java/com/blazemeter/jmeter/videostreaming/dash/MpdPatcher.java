@@ -0,0 +1,481 @@
+package com.blazemeter.jmeter.videostreaming.dash;
+
+import com.ctc.wstx.stax.WstxInputFactory;
+import com.google.common.annotations.VisibleForTesting;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/*
+Applies MPD patches (ISO/IEC 23009-1 MPD patch documents), which contain XML patch operations
+(RFC 5261 add, replace and remove) on nodes of the MPD selected by XPath expressions.
+
+Documents are handled without namespaces, so selectors (like /MPD/Period[@id='1']) match MPD
+elements by their names, as DASH players do, and patch operations may use any prefix.
+
+Patched documents are read (see read) directly into MPD objects, so they don't have to be
+serialized and parsed again.
+*/
+final class MpdPatcher {
+
+  private static final String PATCH_LOCATION_ELEMENT = "PatchLocation";
+  private static final String PERIOD_ELEMENT = "Period";
+  private static final String TTL_ATTRIBUTE = "ttl";
+  private static final XMLInputFactory INPUT_FACTORY = buildInputFactory();
+  private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = ThreadLocal
+      .withInitial(MpdPatcher::buildDocumentBuilder);
+  private static final ThreadLocal<Transformer> TRANSFORMER = ThreadLocal
+      .withInitial(MpdPatcher::buildTransformer);
+  private static final ThreadLocal<XPath> XPATH = ThreadLocal
+      .withInitial(() -> XPathFactory.newInstance().newXPath());
+
+  private MpdPatcher() {
+  }
+
+  private static DocumentBuilder buildDocumentBuilder() {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(false);
+    factory.setExpandEntityReferences(false);
+    factory.setCoalescing(true);
+    try {
+      factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+      return factory.newDocumentBuilder();
+    } catch (ParserConfigurationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static XMLInputFactory buildInputFactory() {
+    // woodstox is the only StAX implementation in the classpath reading DOM documents
+    XMLInputFactory ret = new WstxInputFactory();
+    ret.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    ret.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    ret.setProperty(XMLInputFactory.IS_COALESCING, true);
+    return ret;
+  }
+
+  private static Transformer buildTransformer() {
+    try {
+      return TransformerFactory.newInstance().newTransformer();
+    } catch (TransformerConfigurationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static Document parse(String xml) throws IOException, SAXException {
+    return DOCUMENT_BUILDER.get().parse(new InputSource(new StringReader(xml)));
+  }
+
+  @VisibleForTesting
+  static String serialize(Document document) throws TransformerException {
+    StringWriter ret = new StringWriter();
+    TRANSFORMER.get().transform(new DOMSource(document), new StreamResult(ret));
+    return ret.toString();
+  }
+
+  // null when the MPD has no patch location
+  static PatchLocation findPatchLocation(Document mpd) {
+    Element location = findChildElement(mpd.getDocumentElement(), PATCH_LOCATION_ELEMENT);
+    return location != null
+        ? buildPatchLocation(location.getTextContent(), location.getAttribute(TTL_ATTRIBUTE))
+        : null;
+  }
+
+  /*
+  Finds the patch location of the given MPD body without parsing it into a document, reading it
+  only up to its first period, since the patch location precedes the periods in MPDs.
+  */
+  static PatchLocation findPatchLocation(String mpd) throws XMLStreamException {
+    XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(new StringReader(mpd));
+    try {
+      // the MPD element is at depth 1, so its children are at depth 2
+      int depth = 0;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamReader.END_ELEMENT) {
+          depth--;
+        } else if (event == XMLStreamReader.START_ELEMENT && ++depth == 2) {
+          if (PERIOD_ELEMENT.equals(reader.getLocalName())) {
+            return null;
+          } else if (PATCH_LOCATION_ELEMENT.equals(reader.getLocalName())) {
+            String ttl = reader.getAttributeValue(null, TTL_ATTRIBUTE);
+            return buildPatchLocation(reader.getElementText(), ttl != null ? ttl : "");
+          }
+        }
+      }
+      return null;
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static PatchLocation buildPatchLocation(String url, String ttlAttribute) {
+    if (url.trim().isEmpty()) {
+      return null;
+    }
+    Duration ttl = null;
+    if (!ttlAttribute.isEmpty()) {
+      try {
+        ttl = Duration.ofMillis((long) (Double.parseDouble(ttlAttribute) * 1000));
+      } catch (NumberFormatException e) {
+        // the patch location is used without expiration, the server rejects expired patches
+      }
+    }
+    return new PatchLocation(url.trim(), ttl);
+  }
+
+  private static Element findChildElement(Element element, String name) {
+    for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+      if (node.getNodeType() == Node.ELEMENT_NODE && name.equals(getLocalName(node))) {
+        return (Element) node;
+      }
+    }
+    return null;
+  }
+
+  private static String getLocalName(Node node) {
+    String name = node.getNodeName();
+    return name.substring(name.indexOf(':') + 1);
+  }
+
+  /*
+  Applies the operations of the given patch, in order, to the given MPD document. Throws an
+  IllegalArgumentException when the patch is not for the given MPD (by id and publish time) or any
+  of the operations can't be applied, in which case the MPD document may be partially patched.
+  */
+  static void apply(Document mpd, Document patch) {
+    Element patchElement = patch.getDocumentElement();
+    if (!"Patch".equals(getLocalName(patchElement))) {
+      throw new IllegalArgumentException("Unexpected root element " + patchElement.getNodeName());
+    }
+    Element mpdElement = mpd.getDocumentElement();
+    String mpdId = patchElement.getAttribute("mpdId");
+    if (!mpdId.isEmpty() && !mpdId.equals(mpdElement.getAttribute("id"))) {
+      throw new IllegalArgumentException("Patch for MPD " + mpdId + " does not match MPD "
+          + mpdElement.getAttribute("id"));
+    }
+    String originalPublishTime = patchElement.getAttribute("originalPublishTime");
+    if (!originalPublishTime.isEmpty() && !isSameTime(originalPublishTime,
+        mpdElement.getAttribute("publishTime"))) {
+      throw new IllegalArgumentException("Patch for MPD published at " + originalPublishTime
+          + " does not match MPD published at " + mpdElement.getAttribute("publishTime"));
+    }
+    XPath xpath = XPATH.get();
+    for (Node node = patchElement.getFirstChild(); node != null; node = node.getNextSibling()) {
+      if (node.getNodeType() != Node.ELEMENT_NODE) {
+        continue;
+      }
+      Element operation = (Element) node;
+      Node target = select(xpath, mpd, operation.getAttribute("sel"));
+      switch (getLocalName(operation)) {
+        case "add":
+          add(mpd, target, operation);
+          break;
+        case "replace":
+          replace(mpd, target, operation);
+          break;
+        case "remove":
+          remove(target);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown patch operation " + operation.getNodeName());
+      }
+    }
+  }
+
+  private static boolean isSameTime(String time, String otherTime) {
+    try {
+      return OffsetDateTime.parse(time).toInstant()
+          .equals(OffsetDateTime.parse(otherTime).toInstant());
+    } catch (DateTimeParseException e) {
+      return time.equals(otherTime);
+    }
+  }
+
+  // as specified by RFC 5261, selectors have to match exactly one node
+  private static Node select(XPath xpath, Document mpd, String selector) {
+    try {
+      NodeList nodes = (NodeList) xpath.evaluate(selector, mpd, XPathConstants.NODESET);
+      if (nodes.getLength() != 1) {
+        throw new IllegalArgumentException("Patch selector " + selector + " matches "
+            + nodes.getLength() + " nodes");
+      }
+      return nodes.item(0);
+    } catch (XPathExpressionException e) {
+      throw new IllegalArgumentException("Invalid patch selector " + selector, e);
+    }
+  }
+
+  private static void add(Document mpd, Node target, Element operation) {
+    if (target.getNodeType() != Node.ELEMENT_NODE) {
+      throw new IllegalArgumentException("Patch add selector " + operation.getAttribute("sel")
+          + " does not match an element");
+    }
+    String type = operation.getAttribute("type");
+    if (!type.isEmpty()) {
+      if (!type.startsWith("@")) {
+        throw new IllegalArgumentException("Unsupported patch add type " + type);
+      }
+      ((Element) target).setAttribute(type.substring(1), operation.getTextContent());
+      return;
+    }
+    String position = operation.getAttribute("pos");
+    Node parent = target;
+    Node reference = null;
+    if ("before".equals(position)) {
+      parent = target.getParentNode();
+      reference = target;
+    } else if ("after".equals(position)) {
+      parent = target.getParentNode();
+      reference = target.getNextSibling();
+    } else if ("prepend".equals(position)) {
+      reference = target.getFirstChild();
+    }
+    for (Node node : importChildren(mpd, operation)) {
+      parent.insertBefore(node, reference);
+    }
+  }
+
+  private static List<Node> importChildren(Document mpd, Element operation) {
+    List<Node> ret = new ArrayList<>();
+    for (Node node = operation.getFirstChild(); node != null; node = node.getNextSibling()) {
+      ret.add(mpd.importNode(node, true));
+    }
+    return ret;
+  }
+
+  private static void replace(Document mpd, Node target, Element operation) {
+    switch (target.getNodeType()) {
+      case Node.ATTRIBUTE_NODE:
+      case Node.TEXT_NODE:
+        target.setNodeValue(operation.getTextContent());
+        break;
+      case Node.ELEMENT_NODE:
+        Element replacement = findFirstChildElement(operation);
+        if (replacement == null) {
+          throw new IllegalArgumentException("Patch replace of element "
+              + operation.getAttribute("sel") + " without replacing element");
+        }
+        target.getParentNode().replaceChild(mpd.importNode(replacement, true), target);
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported patch replace selector "
+            + operation.getAttribute("sel"));
+    }
+  }
+
+  private static Element findFirstChildElement(Element element) {
+    for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+      if (node.getNodeType() == Node.ELEMENT_NODE) {
+        return (Element) node;
+      }
+    }
+    return null;
+  }
+
+  private static void remove(Node target) {
+    if (target.getNodeType() == Node.ATTRIBUTE_NODE) {
+      Attr attribute = (Attr) target;
+      attribute.getOwnerElement().removeAttributeNode(attribute);
+    } else if (target.getParentNode() instanceof Element) {
+      target.getParentNode().removeChild(target);
+    } else {
+      throw new IllegalArgumentException("Patch can't remove the MPD element");
+    }
+  }
+
+  /*
+  Reads the given document as a namespace aware parser reads the XML it was parsed from, so MPD
+  objects can be built from it: prefixed names are read by their local names (like href for
+  xlink:href) and namespace declarations are not read as attributes.
+  */
+  static XMLStreamReader read(Document document) throws XMLStreamException {
+    return new LocalNamesReader(INPUT_FACTORY.createXMLStreamReader(new DOMSource(document)));
+  }
+
+  private static final class LocalNamesReader extends StreamReaderDelegate {
+
+    // indexes in the current element of its attributes which are not namespace declarations
+    private int[] attributes = new int[0];
+    private int attributesCount;
+
+    private LocalNamesReader(XMLStreamReader reader) {
+      super(reader);
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+      return indexAttributes(super.next());
+    }
+
+    @Override
+    public int nextTag() throws XMLStreamException {
+      return indexAttributes(super.nextTag());
+    }
+
+    private int indexAttributes(int event) {
+      attributesCount = 0;
+      if (event != START_ELEMENT) {
+        return event;
+      }
+      int count = super.getAttributeCount();
+      if (attributes.length < count) {
+        attributes = new int[count];
+      }
+      for (int i = 0; i < count; i++) {
+        String name = super.getAttributeLocalName(i);
+        if (!"xmlns".equals(name) && !name.startsWith("xmlns:")
+            && !"xmlns".equals(super.getAttributePrefix(i))) {
+          attributes[attributesCount++] = i;
+        }
+      }
+      return event;
+    }
+
+    @Override
+    public String getLocalName() {
+      return toLocalName(super.getLocalName());
+    }
+
+    private static String toLocalName(String name) {
+      return name.substring(name.indexOf(':') + 1);
+    }
+
+    @Override
+    public QName getName() {
+      return new QName(getLocalName());
+    }
+
+    @Override
+    public int getAttributeCount() {
+      return attributesCount;
+    }
+
+    @Override
+    public String getAttributeLocalName(int index) {
+      return toLocalName(super.getAttributeLocalName(attributes[index]));
+    }
+
+    @Override
+    public QName getAttributeName(int index) {
+      return new QName(getAttributeLocalName(index));
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+      return null;
+    }
+
+    @Override
+    public String getAttributePrefix(int index) {
+      return "";
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+      return super.getAttributeValue(attributes[index]);
+    }
+
+    @Override
+    public String getAttributeType(int index) {
+      return super.getAttributeType(attributes[index]);
+    }
+
+    @Override
+    public boolean isAttributeSpecified(int index) {
+      return super.isAttributeSpecified(attributes[index]);
+    }
+
+    @Override
+    public String getAttributeValue(String namespace, String localName) {
+      for (int i = 0; i < attributesCount; i++) {
+        if (localName.equals(getAttributeLocalName(i))) {
+          return getAttributeValue(i);
+        }
+      }
+      return null;
+    }
+
+  }
+
+  /*
+  The document of a patchable MPD, shared by the manifests built from it. The document is only
+  parsed from the MPD body when the first patch is applied to it, and patched documents are kept
+  to apply the next patches to them. Since patches modify documents in place, each document can
+  only be taken once to be patched.
+  */
+  static final class PatchableDocument {
+
+    private String body;
+    private Document document;
+
+    PatchableDocument(String body) {
+      this.body = body;
+    }
+
+    PatchableDocument(Document document) {
+      this.document = document;
+    }
+
+    // null when the document was already taken
+    synchronized Document take() throws IOException, SAXException {
+      Document ret = document != null ? document : body != null ? parse(body) : null;
+      body = null;
+      document = null;
+      return ret;
+    }
+
+  }
+
+  static final class PatchLocation {
+
+    private final String url;
+    // null when the patch location does not expire
+    private final Duration ttl;
+
+    private PatchLocation(String url, Duration ttl) {
+      this.url = url;
+      this.ttl = ttl;
+    }
+
+    String getUrl() {
+      return url;
+    }
+
+    Duration getTtl() {
+      return ttl;
+    }
+
+  }
+
+}
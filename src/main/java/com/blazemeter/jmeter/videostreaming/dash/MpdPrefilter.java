@@ -0,0 +1,217 @@
+package com.blazemeter.jmeter.videostreaming.dash;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/*
+Prefilter of MPD bodies, applied before MPDParser builds the MPD object graph: a StAX pass which
+only keeps the elements used by the sampler (periods, adaptation sets, representations, base
+URLs, UTC timings and segment information) and compacts segment timelines, merging contiguous S
+elements with the same duration into one with a repeat count.
+
+Large live MPDs usually include many elements not used to play them (content protection,
+descriptors, events, etc.) and long timelines listing every segment, so the object graph built
+from the filtered body is a small fraction of the one built from the original one. Since the
+body is read twice, this only pays off for large bodies (see ManifestParserBenchmark), which is
+why Manifest only filters bodies above a given size.
+*/
+final class MpdPrefilter {
+
+  private static final String SEGMENT_ELEMENT = "S";
+  private static final String TIME_ATTRIBUTE = "t";
+  private static final String DURATION_ATTRIBUTE = "d";
+  private static final String REPEAT_ATTRIBUTE = "r";
+  private static final Set<String> KEPT_ELEMENTS = new HashSet<>(Arrays.asList("MPD", "BaseURL",
+      "Period", "AdaptationSet", "Representation", "SegmentTemplate", "SegmentList",
+      "SegmentBase", "SegmentTimeline", SEGMENT_ELEMENT, "SegmentURL", "Initialization",
+      "RepresentationIndex", "BitstreamSwitching", "UTCTiming"));
+  private static final XMLInputFactory INPUT_FACTORY = buildInputFactory();
+  private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+  private MpdPrefilter() {
+  }
+
+  private static XMLInputFactory buildInputFactory() {
+    XMLInputFactory ret = XMLInputFactory.newInstance();
+    ret.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    ret.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    ret.setProperty(XMLInputFactory.IS_COALESCING, true);
+    return ret;
+  }
+
+  static String filter(String body) throws XMLStreamException {
+    StringWriter ret = new StringWriter(body.length() / 2);
+    XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(new StringReader(body));
+    try {
+      XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(ret);
+      TimelineCompactor timeline = new TimelineCompactor(writer);
+      writer.writeStartDocument();
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          if (!KEPT_ELEMENTS.contains(reader.getLocalName())) {
+            skipElement(reader);
+          } else if (!SEGMENT_ELEMENT.equals(reader.getLocalName()) || !timeline.add(reader)) {
+            timeline.flush();
+            writeStartElement(reader, writer);
+          }
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          timeline.flush();
+          writer.writeEndElement();
+        } else if ((event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)
+            && !reader.isWhiteSpace()) {
+          timeline.flush();
+          writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(),
+              reader.getTextLength());
+        }
+      }
+      writer.writeEndDocument();
+      writer.close();
+    } finally {
+      reader.close();
+    }
+    return ret.toString();
+  }
+
+  // consumes the events of the current element, including its end
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  private static void writeStartElement(XMLStreamReader reader, XMLStreamWriter writer)
+      throws XMLStreamException {
+    writer.writeStartElement(nullToEmpty(reader.getPrefix()), reader.getLocalName(),
+        nullToEmpty(reader.getNamespaceURI()));
+    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+      String prefix = reader.getNamespacePrefix(i);
+      if (prefix == null || prefix.isEmpty()) {
+        writer.writeDefaultNamespace(reader.getNamespaceURI(i));
+      } else {
+        writer.writeNamespace(prefix, reader.getNamespaceURI(i));
+      }
+    }
+    for (int i = 0; i < reader.getAttributeCount(); i++) {
+      String prefix = reader.getAttributePrefix(i);
+      if (prefix == null || prefix.isEmpty()) {
+        writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+      } else {
+        writer.writeAttribute(prefix, reader.getAttributeNamespace(i),
+            reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+      }
+    }
+  }
+
+  private static String nullToEmpty(String value) {
+    return value != null ? value : "";
+  }
+
+  /*
+  Keeps the last S element of a timeline pending to be written, so following S elements with the
+  same duration, starting where it ends, are merged into it by increasing its repeat count.
+  */
+  private static final class TimelineCompactor {
+
+    private final XMLStreamWriter writer;
+    private boolean pending;
+    private String prefix;
+    private String namespace;
+    private Long time;
+    private long duration;
+    private long repetitions;
+    // start time of the next segment, or null when unknown
+    private Long nextTime;
+
+    private TimelineCompactor(XMLStreamWriter writer) {
+      this.writer = writer;
+    }
+
+    /*
+    Takes the S element the reader is at, consuming it, or returns false without consuming it when
+    it has attributes which can't be merged, and has to be written as is.
+    */
+    private boolean add(XMLStreamReader reader) throws XMLStreamException {
+      Long segmentTime = null;
+      Long segmentDuration = null;
+      long segmentRepetitions = 0;
+      for (int i = 0; i < reader.getAttributeCount(); i++) {
+        String name = reader.getAttributeLocalName(i);
+        String value = reader.getAttributeValue(i).trim();
+        if (TIME_ATTRIBUTE.equals(name)) {
+          segmentTime = Long.parseLong(value);
+        } else if (DURATION_ATTRIBUTE.equals(name)) {
+          segmentDuration = Long.parseLong(value);
+        } else if (REPEAT_ATTRIBUTE.equals(name)) {
+          segmentRepetitions = Long.parseLong(value);
+        } else {
+          return false;
+        }
+      }
+      // negative repeat counts depend on the next element or the period end
+      if (segmentDuration == null || segmentRepetitions < 0) {
+        return false;
+      }
+      String segmentPrefix = nullToEmpty(reader.getPrefix());
+      String segmentNamespace = nullToEmpty(reader.getNamespaceURI());
+      skipElement(reader);
+      if (pending && duration == segmentDuration
+          && (segmentTime == null || segmentTime.equals(nextTime))) {
+        repetitions += segmentRepetitions + 1;
+      } else {
+        writePending();
+        pending = true;
+        prefix = segmentPrefix;
+        namespace = segmentNamespace;
+        time = segmentTime;
+        duration = segmentDuration;
+        repetitions = segmentRepetitions;
+        if (segmentTime != null) {
+          nextTime = segmentTime;
+        }
+      }
+      if (nextTime != null) {
+        nextTime += segmentDuration * (segmentRepetitions + 1);
+      }
+      return true;
+    }
+
+    // writes the pending S element, if any, before any other content of the document
+    private void flush() throws XMLStreamException {
+      writePending();
+      nextTime = null;
+    }
+
+    private void writePending() throws XMLStreamException {
+      if (!pending) {
+        return;
+      }
+      writer.writeEmptyElement(prefix, SEGMENT_ELEMENT, namespace);
+      if (time != null) {
+        writer.writeAttribute(TIME_ATTRIBUTE, String.valueOf(time));
+      }
+      writer.writeAttribute(DURATION_ATTRIBUTE, String.valueOf(duration));
+      if (repetitions > 0) {
+        writer.writeAttribute(REPEAT_ATTRIBUTE, String.valueOf(repetitions));
+      }
+      pending = false;
+    }
+
+  }
+
+}
@@ -0,0 +1,50 @@
+package com.blazemeter.jmeter.videostreaming.dash;
+
+import com.blazemeter.jmeter.videostreaming.core.ExpiringCache;
+import com.google.common.annotations.VisibleForTesting;
+import io.lindstrom.mpd.data.Period;
+import java.net.URI;
+import java.util.List;
+import org.apache.jmeter.util.JMeterUtils;
+
+/*
+JVM-wide cache of remote (xlink) periods by their absolute href, shared by every sampler, so
+periods referenced by many viewers and manifest refreshes (like ad breaks inserted by SSAI
+servers) are downloaded and parsed only once per time to live.
+
+The least recently used entries are evicted when the cache reaches its maximum size. A time to
+live of 0 seconds disables the cache.
+*/
+public final class RemotePeriodCache {
+
+  public static final String TTL_SECONDS_PROPERTY_NAME =
+      "hls.sampler.dash.remotePeriodCache.ttlSeconds";
+  public static final String MAX_ENTRIES_PROPERTY_NAME =
+      "hls.sampler.dash.remotePeriodCache.maxEntries";
+  private static final int DEFAULT_TTL_SECONDS = 300;
+  private static final int DEFAULT_MAX_ENTRIES = 1000;
+
+  private static volatile ExpiringCache<URI, List<Period>> instance;
+
+  private RemotePeriodCache() {
+  }
+
+  public static ExpiringCache<URI, List<Period>> getInstance() {
+    if (instance == null) {
+      synchronized (RemotePeriodCache.class) {
+        if (instance == null) {
+          instance = new ExpiringCache<>(
+              JMeterUtils.getPropDefault(TTL_SECONDS_PROPERTY_NAME, DEFAULT_TTL_SECONDS) * 1000L,
+              JMeterUtils.getPropDefault(MAX_ENTRIES_PROPERTY_NAME, DEFAULT_MAX_ENTRIES));
+        }
+      }
+    }
+    return instance;
+  }
+
+  @VisibleForTesting
+  public static synchronized void reset() {
+    instance = null;
+  }
+
+}
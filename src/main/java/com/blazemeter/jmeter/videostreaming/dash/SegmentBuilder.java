@@ -1,5 +1,6 @@
 package com.blazemeter.jmeter.videostreaming.dash;
 
+import com.blazemeter.jmeter.videostreaming.core.MediaSegment;
 import io.lindstrom.mpd.data.BaseURL;
 import java.net.URI;
 import java.util.Iterator;
@@ -15,5 +16,24 @@ public interface SegmentBuilder<T> extends Iterator<DashMediaSegment> {
 
   boolean isEmpty();
 
+  /*
+  Takes the segment information of a builder created from a refreshed manifest while keeping the
+  current position, so the timeline is not walked again from its start. Returns false when the
+  segment information changed in a way that requires advancing the refreshed builder instead.
+  */
+  boolean refreshFrom(SegmentBuilder<?> refreshed);
+
+  /*
+  Gets the URI and byte range of a segment index which has to be downloaded, and provided with
+  withSegmentIndex, to generate segments; or null when there is no pending index.
+  */
+  MediaSegment getPendingSegmentIndex();
+
+  /*
+  Takes the body of the pending segment index, or null when it could not be downloaded, in which
+  case segments are generated as if there was no index.
+  */
+  void withSegmentIndex(byte[] segmentIndex);
+
 }
 
@@ -1,41 +1,39 @@
 package com.blazemeter.jmeter.videostreaming.dash;
 
 import java.net.URI;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
 
+/*
+A SegmentTemplate URL template compiled into a list of tokens, so segment URLs are generated in
+one pass without scanning the template, matching identifiers or formatting numbers for every
+segment.
+
+RepresentationID and Bandwidth identifiers don't change for a given representation, so they are
+solved when the template is compiled and merged with the surrounding literal text.
+*/
 public class UrlTemplateSolver {
 
   public static final char ESCAPING_CHAR = '$';
-  private static final String FORMAT_TAG_PATTERN = "(%0\\dd)?";
-  private static final Pattern NUMBER_IDENTIFIER_PATTERN = Pattern
-      .compile("^Number" + FORMAT_TAG_PATTERN + "$");
-  private static final Pattern BANDWIDTH_IDENTIFIER_PATTERN = Pattern
-      .compile("^Bandwidth" + FORMAT_TAG_PATTERN + "$");
-  private static final Pattern TIME_IDENTIFIER_PATTERN = Pattern
-      .compile("^Time" + FORMAT_TAG_PATTERN + "$");
-
-  private final MediaRepresentation representation;
-  private final long segmentNumber;
-  private final long segmentTime;
-
-  public UrlTemplateSolver(MediaRepresentation representation, long segmentNumber,
-      long segmentTime) {
-    this.representation = representation;
-    this.segmentNumber = segmentNumber;
-    this.segmentTime = segmentTime;
-  }
+  private static final String NUMBER_IDENTIFIER = "Number";
+  private static final String BANDWIDTH_IDENTIFIER = "Bandwidth";
+  private static final String TIME_IDENTIFIER = "Time";
+  private static final String REPRESENTATION_ID_IDENTIFIER = "RepresentationID";
+  private static final int MAX_NUMBER_LENGTH = 20;
 
-  public URI solveUrlTemplate(String urlTemplate) {
+  private final List<Token> tokens = new ArrayList<>();
+  private final int literalsLength;
+
+  public UrlTemplateSolver(MediaRepresentation representation, String urlTemplate) {
+    StringBuilder literal = new StringBuilder();
     int searchStart = 0;
     int escapingStart = urlTemplate.indexOf(ESCAPING_CHAR, searchStart);
-    StringBuilder ret = new StringBuilder();
     while (searchStart < urlTemplate.length() && escapingStart >= 0) {
-      ret.append(urlTemplate, searchStart, escapingStart);
+      literal.append(urlTemplate, searchStart, escapingStart);
       int escapingEnd = urlTemplate.indexOf(ESCAPING_CHAR, escapingStart + 1);
       if (escapingEnd >= 0) {
-        String identifier = urlTemplate.substring(escapingStart + 1, escapingEnd);
-        ret.append(solveUrlTemplateIdentifier(identifier));
+        compileIdentifier(urlTemplate.substring(escapingStart + 1, escapingEnd), representation,
+            literal);
         searchStart = escapingEnd + 1;
         escapingStart = urlTemplate.indexOf(ESCAPING_CHAR, searchStart);
       } else {
@@ -43,36 +41,117 @@ public class UrlTemplateSolver {
       }
     }
     if (searchStart < urlTemplate.length()) {
-      ret.append(urlTemplate, searchStart, urlTemplate.length());
+      literal.append(urlTemplate, searchStart, urlTemplate.length());
     }
-    return URI.create(ret.toString());
+    addLiteral(literal);
+    literalsLength = tokens.stream()
+        .mapToInt(t -> t.literal != null ? t.literal.length() : 0)
+        .sum();
   }
 
-  private String solveUrlTemplateIdentifier(String identifier) {
+  private void compileIdentifier(String identifier, MediaRepresentation representation,
+      StringBuilder literal) {
     if (identifier.isEmpty()) {
-      return "$";
-    } else if ("RepresentationID".equals(identifier)) {
-      return representation.getId();
+      literal.append(ESCAPING_CHAR);
+    } else if (REPRESENTATION_ID_IDENTIFIER.equals(identifier)) {
+      literal.append(representation.getId());
+    } else if (findWidth(identifier, BANDWIDTH_IDENTIFIER) > 0) {
+      appendPadded(representation.getBandwidth(), findWidth(identifier, BANDWIDTH_IDENTIFIER),
+          literal);
+    } else if (findWidth(identifier, NUMBER_IDENTIFIER) > 0) {
+      addLiteral(literal);
+      tokens.add(new Token(TokenType.NUMBER, null, findWidth(identifier, NUMBER_IDENTIFIER)));
+    } else if (findWidth(identifier, TIME_IDENTIFIER) > 0) {
+      addLiteral(literal);
+      tokens.add(new Token(TokenType.TIME, null, findWidth(identifier, TIME_IDENTIFIER)));
+    } else {
+      literal.append(ESCAPING_CHAR).append(identifier).append(ESCAPING_CHAR);
+    }
+  }
+
+  /*
+  Gets the padding width of an identifier with an optional format tag (like Number%05d), or 0
+  when the identifier doesn't match the given name or the format tag is not supported.
+  */
+  private static int findWidth(String identifier, String name) {
+    if (!identifier.startsWith(name)) {
+      return 0;
+    }
+    int formatStart = name.length();
+    if (identifier.length() == formatStart) {
+      return 1;
+    }
+    if (identifier.length() == formatStart + 4 && identifier.startsWith("%0", formatStart)
+        && Character.isDigit(identifier.charAt(formatStart + 2))
+        && identifier.charAt(formatStart + 3) == 'd') {
+      return Math.max(identifier.charAt(formatStart + 2) - '0', 1);
+    }
+    return 0;
+  }
+
+  private void addLiteral(StringBuilder literal) {
+    if (literal.length() > 0) {
+      tokens.add(new Token(TokenType.LITERAL, literal.toString(), 0));
+      literal.setLength(0);
+    }
+  }
+
+  // same output as formatting the value with %0<width>d
+  private static void appendPadded(long value, int width, StringBuilder builder) {
+    int length = value < 0 ? 2 : 1;
+    for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+      length++;
     }
-    Matcher matcher = NUMBER_IDENTIFIER_PATTERN.matcher(identifier);
-    if (matcher.matches()) {
-      return formatWithMatcher(matcher, segmentNumber);
+    if (length >= width) {
+      builder.append(value);
+      return;
     }
-    matcher = BANDWIDTH_IDENTIFIER_PATTERN.matcher(identifier);
-    if (matcher.matches()) {
-      return formatWithMatcher(matcher, representation.getBandwidth());
+    if (value < 0) {
+      builder.append('-');
     }
-    matcher = TIME_IDENTIFIER_PATTERN.matcher(identifier);
-    if (matcher.matches()) {
-      return formatWithMatcher(matcher, segmentTime);
+    for (int i = length; i < width; i++) {
+      builder.append('0');
+    }
+    if (value < 0) {
+      builder.append(Long.toString(value), 1, length);
     } else {
-      return "$" + identifier + "$";
+      builder.append(value);
+    }
+  }
+
+  public URI solveUrlTemplate(long segmentNumber, long segmentTime) {
+    StringBuilder ret = new StringBuilder(literalsLength + tokens.size() * MAX_NUMBER_LENGTH);
+    for (Token token : tokens) {
+      switch (token.type) {
+        case NUMBER:
+          appendPadded(segmentNumber, token.width, ret);
+          break;
+        case TIME:
+          appendPadded(segmentTime, token.width, ret);
+          break;
+        default:
+          ret.append(token.literal);
+      }
     }
+    return URI.create(ret.toString());
+  }
+
+  private enum TokenType {
+    LITERAL, NUMBER, TIME
   }
 
-  private String formatWithMatcher(Matcher matcher, long segmentNumber) {
-    String format = matcher.group(1);
-    return String.format(format != null ? format : "%01d", segmentNumber);
+  private static final class Token {
+
+    private final TokenType type;
+    private final String literal;
+    private final int width;
+
+    private Token(TokenType type, String literal, int width) {
+      this.type = type;
+      this.literal = literal;
+      this.width = width;
+    }
+
   }
 
 }
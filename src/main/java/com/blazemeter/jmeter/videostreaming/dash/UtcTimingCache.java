@@ -0,0 +1,97 @@
+package com.blazemeter.jmeter.videostreaming.dash;
+
+import com.blazemeter.jmeter.videostreaming.core.ExpiringCache;
+import com.google.common.annotations.VisibleForTesting;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import org.apache.jmeter.util.JMeterUtils;
+
+/*
+JVM-wide cache of the offsets between the local clock and the clocks of UTCTiming sources (by
+their absolute URL), shared by every sampler, so each timing server is only requested once per
+refresh interval, instead of once per viewer and manifest refresh.
+
+A refresh interval of 0 seconds disables the cache, measuring the offset on every manifest
+download.
+*/
+public final class UtcTimingCache {
+
+  public static final String REFRESH_SECONDS_PROPERTY_NAME =
+      "hls.sampler.dash.utcTiming.refreshSeconds";
+  private static final int DEFAULT_REFRESH_SECONDS = 60;
+  private static final int MAX_ENTRIES = 1000;
+
+  private static volatile ExpiringCache<URI, Duration> instance;
+
+  private UtcTimingCache() {
+  }
+
+  public static ExpiringCache<URI, Duration> getInstance() {
+    if (instance == null) {
+      synchronized (UtcTimingCache.class) {
+        if (instance == null) {
+          instance = new ExpiringCache<>(JMeterUtils.getPropDefault(REFRESH_SECONDS_PROPERTY_NAME,
+              DEFAULT_REFRESH_SECONDS) * 1000L, MAX_ENTRIES);
+        }
+      }
+    }
+    return instance;
+  }
+
+  @VisibleForTesting
+  public static synchronized void reset() {
+    instance = null;
+  }
+
+  /*
+  Parses the time provided by http-iso, http-xsdate and direct timing sources. xs:dateTime allows
+  times without a zone, which are taken as UTC as DASH clients do. Returns null when the time is
+  not valid.
+  */
+  static Instant parseTime(String time) {
+    if (time == null) {
+      return null;
+    }
+    String trimmed = time.trim();
+    try {
+      return OffsetDateTime.parse(trimmed, DateTimeFormatter.ISO_OFFSET_DATE_TIME).toInstant();
+    } catch (DateTimeParseException e) {
+      try {
+        return LocalDateTime.parse(trimmed, DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+            .toInstant(ZoneOffset.UTC);
+      } catch (DateTimeParseException ex) {
+        return null;
+      }
+    }
+  }
+
+  /*
+  Parses the Date header from the given response headers (as registered in sample results), as
+  provided by http-head timing sources. Returns null when there is no valid Date header.
+  */
+  static Instant parseDateHeader(String responseHeaders) {
+    if (responseHeaders == null) {
+      return null;
+    }
+    for (String header : responseHeaders.split("\n")) {
+      int separator = header.indexOf(':');
+      if (separator > 0 && "date".equalsIgnoreCase(header.substring(0, separator).trim())) {
+        try {
+          return ZonedDateTime.parse(header.substring(separator + 1).trim(),
+              DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+        } catch (DateTimeParseException e) {
+          return null;
+        }
+      }
+    }
+    return null;
+  }
+
+}
@@ -1,5 +1,6 @@
 package com.blazemeter.jmeter.videostreaming.dash.segmentbuilders;
 
+import com.blazemeter.jmeter.videostreaming.core.MediaSegment;
 import com.blazemeter.jmeter.videostreaming.dash.Manifest;
 import com.blazemeter.jmeter.videostreaming.dash.MediaPeriod;
 import com.blazemeter.jmeter.videostreaming.dash.MediaRepresentation;
@@ -9,12 +10,13 @@ import io.lindstrom.mpd.data.URLType;
 import java.net.URI;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 
 public abstract class BaseSegmentBuilder<T> implements SegmentBuilder<T> {
 
-  protected final MediaRepresentation representation;
-  protected final MediaPeriod period;
-  protected final Manifest manifest;
+  protected MediaRepresentation representation;
+  protected MediaPeriod period;
+  protected Manifest manifest;
   protected T segmentInfo;
 
   protected BaseSegmentBuilder(MediaRepresentation representation) {
@@ -37,6 +39,41 @@ public abstract class BaseSegmentBuilder<T> implements SegmentBuilder<T> {
     return this;
   }
 
+  @Override
+  public boolean refreshFrom(SegmentBuilder<?> refreshed) {
+    if (refreshed == null || refreshed.getClass() != getClass()) {
+      return false;
+    }
+    @SuppressWarnings("unchecked")
+    BaseSegmentBuilder<T> other = (BaseSegmentBuilder<T>) refreshed;
+    if (segmentInfo == null || other.segmentInfo == null
+        || !Objects.equals(representation.getId(), other.representation.getId())
+        || representation.getBandwidth() != other.representation.getBandwidth()
+        || !refreshPosition(other)) {
+      return false;
+    }
+    segmentInfo = other.segmentInfo;
+    representation = other.representation;
+    period = other.period;
+    manifest = other.manifest;
+    return true;
+  }
+
+  /*
+  Moves the current position to the segment information of the refreshed builder, or returns false
+  when it is not possible, in which case this builder is replaced by the refreshed one.
+  */
+  protected abstract boolean refreshPosition(BaseSegmentBuilder<T> refreshed);
+
+  @Override
+  public MediaSegment getPendingSegmentIndex() {
+    return null;
+  }
+
+  @Override
+  public void withSegmentIndex(byte[] segmentIndex) {
+  }
+
   protected URLType solveAbsoluteUrl(URLType url, List<List<BaseURL>> baseUrls) {
     if (url == null) {
       return null;
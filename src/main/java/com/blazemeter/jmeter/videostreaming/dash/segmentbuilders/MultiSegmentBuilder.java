@@ -3,50 +3,40 @@ package com.blazemeter.jmeter.videostreaming.dash.segmentbuilders;
 import com.blazemeter.jmeter.videostreaming.dash.DashMediaSegment;
 import com.blazemeter.jmeter.videostreaming.dash.MediaRepresentation;
 import io.lindstrom.mpd.data.Segment;
-import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.net.URI;
 import java.time.Duration;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 public abstract class MultiSegmentBuilder<T> extends BaseSegmentBuilder<T> {
 
+  private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
   private long segmentNumber;
   private long startTime;
-  private TimelineSegment timelineSegment;
-  private int timelineSegmentRepetitions;
-  private Iterator<Segment> timelineIterator;
+  private SegmentTimelineIndex timeline;
+  private int timelineEntry;
+  private long timelineSegmentRepetitions;
 
   protected MultiSegmentBuilder(MediaRepresentation representation) {
     super(representation);
   }
 
-  private static class TimelineSegment {
-
-    private long startTime;
-    private long duration;
-    private long repetitions;
-
-    private TimelineSegment(Segment base, long start) {
-      startTime = base.getT() != null ? base.getT() : start;
-      duration = base.getD();
-      repetitions = base.getR() != null ? base.getR() : 0;
-    }
-
-  }
-
   @Override
   public void advanceUntil(DashMediaSegment lastSegment) {
     segmentNumber = getStartNumber();
     startTime = getPresentationTimeOffset();
     List<Segment> timeline = getSegmentTimelineSupplier().get();
     if (timeline != null && !timeline.isEmpty()) {
-      timelineIterator = timeline.iterator();
-      timelineSegment = new TimelineSegment(timelineIterator.next(), 0);
-      startTime = timelineSegment.startTime;
+      if (this.timeline == null || !this.timeline.isBuiltFrom(timeline)) {
+        this.timeline = new SegmentTimelineIndex(timeline);
+      }
+      timelineEntry = 0;
+      timelineSegmentRepetitions = 0;
+      startTime = this.timeline.getStartTime(0);
     }
     if (lastSegment == null) {
       if (manifest.isDynamic()) {
@@ -71,9 +61,7 @@ public abstract class MultiSegmentBuilder<T> extends BaseSegmentBuilder<T> {
   protected abstract Supplier<Long> getSegmentDurationSupplier();
 
   private Duration scaledTimeToDuration(long scaledTime) {
-    return Duration.ofNanos(BigDecimal.valueOf(scaledTime)
-        .divide(BigDecimal.valueOf(getTimescale()), 10, RoundingMode.HALF_UP)
-        .multiply(BigDecimal.valueOf(1_000_000_000L)).longValue());
+    return Duration.ofNanos(ScaledTime.toNanos(scaledTime, getTimescale()));
   }
 
   private long getTimescale() {
@@ -91,61 +79,127 @@ public abstract class MultiSegmentBuilder<T> extends BaseSegmentBuilder<T> {
     Long segmentDuration = getSegmentDurationSupplier().get();
     if (segmentDuration != null) {
       Duration relativeTime = time.minus(scaledTimeToDuration(startTime));
-      long incr = BigDecimal.valueOf(relativeTime.toNanos())
-          .multiply(BigDecimal.valueOf(getTimescale()))
-          .divide(BigDecimal.valueOf(segmentDuration)
-              .multiply(BigDecimal.valueOf(1_000_000_000L)), 10, RoundingMode.HALF_UP)
-          .setScale(0, RoundingMode.HALF_UP)
-          .longValue();
+      long incr = getSegmentsUntilTime(relativeTime, segmentDuration);
       segmentNumber += incr;
       startTime += incr * segmentDuration;
     } else {
       long ptoOffset = init ? getPresentationTimeOffset() : 0;
-      long targetTicks = BigDecimal.valueOf(time.toNanos())
-          .multiply(BigDecimal.valueOf(getTimescale()))
-          .divide(BigDecimal.valueOf(1_000_000_000L), 0, RoundingMode.HALF_UP)
-          .longValue() + ptoOffset;
-      while (hasNext() && startTime + timelineSegment.duration <= targetTicks) {
-        long repetitionsUntilTime = BigDecimal
-            .valueOf(targetTicks - startTime)
-            .divide(BigDecimal.valueOf(timelineSegment.duration), 0, RoundingMode.HALF_UP)
-            .longValue();
-        long pendingRepetitions = timelineSegment.repetitions - timelineSegmentRepetitions + 1;
-        long repetitions = Math.min(pendingRepetitions, repetitionsUntilTime);
-        segmentNumber += repetitions;
-        startTime += repetitions * timelineSegment.duration;
-        timelineSegmentRepetitions += repetitions;
-        moveToNextTimelineSegmentIfNeeded();
-      }
+      long targetTicks = ScaledTime.fromNanos(time.toNanos(), getTimescale()) + ptoOffset;
+      advanceUntilTimelineTime(targetTicks);
       //TODO fix this and use proper buffering time instead of reproduction start time which is not
       // accurate and requires this workaround
       if (init && !hasNext()) {
         segmentNumber--;
-        startTime -= timelineSegment.duration;
+        startTime -= timeline.getDuration(timelineEntry);
         timelineSegmentRepetitions--;
       }
     }
   }
 
+  private long getSegmentsUntilTime(Duration time, long segmentDuration) {
+    // durations of more than ~9 billion ticks are only divided after converting time to ticks
+    if (Math.abs(segmentDuration) > Long.MAX_VALUE / NANOS_PER_SECOND) {
+      return ScaledTime.divide(ScaledTime.fromNanos(time.toNanos(), getTimescale()),
+          segmentDuration, RoundingMode.HALF_UP);
+    }
+    return ScaledTime.multiplyDivide(time.toNanos(), getTimescale(),
+        segmentDuration * NANOS_PER_SECOND, RoundingMode.HALF_UP);
+  }
+
+  /*
+   Moves to the first segment starting after targetTicks minus half a segment duration, or to the
+   first one starting after the period end, whichever comes first. Instead of going through every
+   segment of the timeline we look for the entry including such segment with a binary search, since
+   both conditions, once met by an entry, are met by all the following ones.
+   */
+  private void advanceUntilTimelineTime(long targetTicks) {
+    int entry = timeline.findFirst(i -> isTimelineEntryAfterTime(i, targetTicks));
+    if (entry == timeline.size()) {
+      entry--;
+      moveToTimelineSegment(entry, timeline.getRepetitions(entry) + 1);
+      return;
+    }
+    long entryStartTime = timeline.getStartTime(entry);
+    long duration = timeline.getDuration(entry);
+    if (!isBeforePeriodEnd(entryStartTime) || targetTicks - entryStartTime < duration) {
+      moveToTimelineSegment(entry, 0);
+    } else {
+      moveToTimelineSegment(entry,
+          ScaledTime.divide(targetTicks - entryStartTime, duration, RoundingMode.HALF_UP));
+    }
+  }
+
+  private boolean isTimelineEntryAfterTime(int entry, long targetTicks) {
+    long entryTime = targetTicks - timeline.getStartTime(entry);
+    long duration = timeline.getDuration(entry);
+    return !isBeforePeriodEnd(timeline.getStartTime(entry)) || entryTime < duration
+        || 2 * entryTime < (2 * timeline.getRepetitions(entry) + 1) * duration;
+  }
+
+  private void moveToTimelineSegment(int entry, long repetitions) {
+    timelineEntry = entry;
+    timelineSegmentRepetitions = repetitions;
+    segmentNumber = getStartNumber() + timeline.getFirstSegment(entry) + repetitions;
+    startTime = timeline.getStartTime(entry) + repetitions * timeline.getDuration(entry);
+  }
+
   private void moveToNextTimelineSegmentIfNeeded() {
-    if (timelineSegmentRepetitions > timelineSegment.repetitions && timelineIterator.hasNext()) {
-      timelineSegment = new TimelineSegment(timelineIterator.next(), startTime);
+    if (timelineSegmentRepetitions > timeline.getRepetitions(timelineEntry)
+        && timelineEntry + 1 < timeline.size()) {
+      timelineEntry++;
       /*
        we update startTime in case of jumps (timeline segment might report another time than
        expected)
        */
-      startTime = timelineSegment.startTime;
+      startTime = timeline.getStartTime(timelineEntry);
       timelineSegmentRepetitions = 0;
     }
   }
 
+  @Override
+  protected boolean refreshPosition(BaseSegmentBuilder<T> refreshed) {
+    MultiSegmentBuilder<T> other = (MultiSegmentBuilder<T>) refreshed;
+    if (getTimescale() != other.getTimescale()
+        || getPresentationTimeOffset() != other.getPresentationTimeOffset()
+        || !Objects.equals(getSegmentDurationSupplier().get(),
+        other.getSegmentDurationSupplier().get())) {
+      return false;
+    }
+    List<Segment> refreshedTimeline = other.getSegmentTimelineSupplier().get();
+    if (refreshedTimeline == null || refreshedTimeline.isEmpty() || timeline == null) {
+      return timeline == null && (refreshedTimeline == null || refreshedTimeline.isEmpty())
+          && getStartNumber() == other.getStartNumber();
+    }
+    /*
+     we look for the timeline entry currently generating segments, which is kept in the refreshed
+     timeline (maybe with more repetitions) while only older entries are removed and new ones are
+     appended. The index is refreshed in place, so only the appended entries are indexed.
+     */
+    long entryStartTime = timeline.getStartTime(timelineEntry);
+    long entryDuration = timeline.getDuration(timelineEntry);
+    if (!timeline.isBuiltFrom(refreshedTimeline) && !timeline.refresh(refreshedTimeline)) {
+      return false;
+    }
+    int entry = timeline.findEntry(entryStartTime);
+    if (entry < 0 || timeline.getDuration(entry) != entryDuration
+        || other.getStartNumber() + timeline.getFirstSegment(entry)
+        != segmentNumber - timelineSegmentRepetitions) {
+      return false;
+    }
+    timelineEntry = entry;
+    moveToNextTimelineSegmentIfNeeded();
+    return true;
+  }
+
   @Override
   public boolean hasNext() {
-    return (period.getEndTime() == null
-        ||
-        period.getEndTime().compareTo(scaledTimeToDuration(startTime - getPresentationTimeOffset()))
-            > 0)
-        && (timelineIterator == null || hasNextSegmentInTimeline());
+    return isBeforePeriodEnd(startTime) && (timeline == null || hasNextSegmentInTimeline());
+  }
+
+  private boolean isBeforePeriodEnd(long time) {
+    return period.getEndTime() == null
+        || period.getEndTime().compareTo(scaledTimeToDuration(time - getPresentationTimeOffset()))
+        > 0;
   }
 
   private long getPresentationTimeOffset() {
@@ -156,7 +210,8 @@ public abstract class MultiSegmentBuilder<T> extends BaseSegmentBuilder<T> {
   protected abstract Supplier<Long> getPresentationTimeOffsetSupplier();
 
   private boolean hasNextSegmentInTimeline() {
-    return timelineIterator.hasNext() || timelineSegmentRepetitions <= timelineSegment.repetitions;
+    return timelineEntry + 1 < timeline.size()
+        || timelineSegmentRepetitions <= timeline.getRepetitions(timelineEntry);
   }
 
   @Override
@@ -164,16 +219,37 @@ public abstract class MultiSegmentBuilder<T> extends BaseSegmentBuilder<T> {
     DashMediaSegment ret = new DashMediaSegment(period, segmentNumber,
         getUrlSolver(segmentNumber).apply(startTime), scaledTimeToDuration(getDuration()),
         scaledTimeToDuration(startTime), scaledTimeToDuration(getPresentationTimeOffset()));
+    ret.setAvailabilityInfo(getAvailabilityTimeOffset(), isAvailabilityTimeComplete());
     moveToNextSegment();
     return ret;
   }
 
+  // infinite offsets (all segments available) are ignored, since segments are not requested early
+  private Duration getAvailabilityTimeOffset() {
+    Double ret = getAvailabilityTimeOffsetSupplier().get();
+    return ret != null && ret > 0 && !ret.isInfinite()
+        ? Duration.ofNanos((long) (ret * NANOS_PER_SECOND)) : Duration.ZERO;
+  }
+
+  private boolean isAvailabilityTimeComplete() {
+    Boolean ret = getAvailabilityTimeCompleteSupplier().get();
+    return ret == null || ret;
+  }
+
+  protected Supplier<Double> getAvailabilityTimeOffsetSupplier() {
+    return () -> null;
+  }
+
+  protected Supplier<Boolean> getAvailabilityTimeCompleteSupplier() {
+    return () -> null;
+  }
+
   protected abstract Function<Long, URI> getUrlSolver(long segmentNumber);
 
   private void moveToNextSegment() {
     segmentNumber++;
     startTime += getDuration();
-    if (timelineIterator == null) {
+    if (timeline == null) {
       return;
     }
     timelineSegmentRepetitions++;
@@ -182,7 +258,7 @@ public abstract class MultiSegmentBuilder<T> extends BaseSegmentBuilder<T> {
 
   private long getDuration() {
     Long duration = getSegmentDurationSupplier().get();
-    return duration != null ? duration : timelineSegment.duration;
+    return duration != null ? duration : timeline.getDuration(timelineEntry);
   }
 
 }
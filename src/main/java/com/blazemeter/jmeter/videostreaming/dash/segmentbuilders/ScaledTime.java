@@ -0,0 +1,129 @@
+package com.blazemeter.jmeter.videostreaming.dash.segmentbuilders;
+
+import java.math.RoundingMode;
+
+/*
+Exact conversions between MPD scaled times (ticks of a timescale) and nanoseconds, using long
+arithmetic with a 128 bits intermediate product, so timelines with thousands of segments can be
+walked without allocating BigDecimals on every step.
+
+Math.multiplyHigh is not available in Java 8, so the high half of the product and the 128 by 64
+bits division are computed here, as described in Hacker's Delight (mulhu and divlu).
+*/
+final class ScaledTime {
+
+  private static final long NANOS_PER_SECOND = 1_000_000_000L;
+  private static final long LOW_BITS_MASK = 0xFFFFFFFFL;
+  private static final long HALF_WORD_BASE = 1L << 32;
+
+  private ScaledTime() {
+  }
+
+  /*
+  Rounds the seconds half up to 10 decimals and then truncates the tenths of nanosecond, as
+  converting a scaled time to a Duration with BigDecimal always did. Whole seconds are converted
+  apart, so only the fraction is scaled to tenths of nanosecond, which can't overflow.
+  */
+  static long toNanos(long scaledTime, long timescale) {
+    long tenthsOfNanos = multiplyDivide(scaledTime % timescale, NANOS_PER_SECOND * 10, timescale,
+        RoundingMode.HALF_UP);
+    return Math.addExact(Math.multiplyExact(scaledTime / timescale, NANOS_PER_SECOND),
+        tenthsOfNanos / 10);
+  }
+
+  static long fromNanos(long nanos, long timescale) {
+    return multiplyDivide(nanos, timescale, NANOS_PER_SECOND, RoundingMode.HALF_UP);
+  }
+
+  static long divide(long dividend, long divisor, RoundingMode roundingMode) {
+    return multiplyDivide(dividend, 1L, divisor, roundingMode);
+  }
+
+  /*
+  Computes a * b / c without losing precision in the intermediate product. Only DOWN and HALF_UP
+  rounding modes (which round the magnitude, like BigDecimal does) are supported.
+  */
+  static long multiplyDivide(long a, long b, long c, RoundingMode roundingMode) {
+    if (c == 0) {
+      throw new ArithmeticException("Division by zero");
+    }
+    if (roundingMode != RoundingMode.DOWN && roundingMode != RoundingMode.HALF_UP) {
+      throw new IllegalArgumentException("Unsupported rounding mode " + roundingMode);
+    }
+    boolean negative = (a < 0) ^ (b < 0) ^ (c < 0);
+    // magnitudes are handled as unsigned values, so Long.MIN_VALUE is properly treated as 2^63
+    long x = Math.abs(a);
+    long y = Math.abs(b);
+    long divisor = Math.abs(c);
+    long productLow = x * y;
+    long productHigh = unsignedMultiplyHigh(x, y);
+    long quotient;
+    long remainder;
+    if (productHigh == 0 && productLow >= 0 && divisor > 0) {
+      quotient = productLow / divisor;
+      remainder = productLow - quotient * divisor;
+    } else {
+      if (Long.compareUnsigned(productHigh, divisor) >= 0) {
+        throw new ArithmeticException("long overflow");
+      }
+      quotient = unsignedDivide(productHigh, productLow, divisor);
+      remainder = productLow - quotient * divisor;
+    }
+    if (roundingMode == RoundingMode.HALF_UP
+        && Long.compareUnsigned(remainder, divisor - remainder) >= 0) {
+      quotient++;
+    }
+    if (quotient < 0 && !(negative && quotient == Long.MIN_VALUE)) {
+      throw new ArithmeticException("long overflow");
+    }
+    return negative ? -quotient : quotient;
+  }
+
+  private static long unsignedMultiplyHigh(long x, long y) {
+    long x0 = x & LOW_BITS_MASK;
+    long x1 = x >>> 32;
+    long y0 = y & LOW_BITS_MASK;
+    long y1 = y >>> 32;
+    long w0 = x0 * y0;
+    long t = x1 * y0 + (w0 >>> 32);
+    long w1 = (t & LOW_BITS_MASK) + x0 * y1;
+    return x1 * y1 + (t >>> 32) + (w1 >>> 32);
+  }
+
+  // divides the unsigned 128 bits value high:low by divisor, requires high < divisor (unsigned)
+  private static long unsignedDivide(long high, long low, long divisor) {
+    int shift = Long.numberOfLeadingZeros(divisor);
+    long v = divisor << shift;
+    long vn1 = v >>> 32;
+    long vn0 = v & LOW_BITS_MASK;
+    long un32 = shift == 0 ? high : (high << shift) | (low >>> (64 - shift));
+    long un10 = low << shift;
+    long un1 = un10 >>> 32;
+    long un0 = un10 & LOW_BITS_MASK;
+
+    long q1 = Long.divideUnsigned(un32, vn1);
+    long rhat = un32 - q1 * vn1;
+    while (q1 >= HALF_WORD_BASE
+        || Long.compareUnsigned(q1 * vn0, (rhat << 32) + un1) > 0) {
+      q1--;
+      rhat += vn1;
+      if (rhat >= HALF_WORD_BASE) {
+        break;
+      }
+    }
+
+    long un21 = (un32 << 32) + un1 - q1 * v;
+    long q0 = Long.divideUnsigned(un21, vn1);
+    rhat = un21 - q0 * vn1;
+    while (q0 >= HALF_WORD_BASE
+        || Long.compareUnsigned(q0 * vn0, (rhat << 32) + un0) > 0) {
+      q0--;
+      rhat += vn1;
+      if (rhat >= HALF_WORD_BASE) {
+        break;
+      }
+    }
+    return (q1 << 32) + q0;
+  }
+
+}
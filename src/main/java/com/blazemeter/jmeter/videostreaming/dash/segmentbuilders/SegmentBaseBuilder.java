@@ -1,5 +1,6 @@
 package com.blazemeter.jmeter.videostreaming.dash.segmentbuilders;
 
+import com.blazemeter.jmeter.videostreaming.core.MediaSegment;
 import com.blazemeter.jmeter.videostreaming.dash.DashMediaSegment;
 import com.blazemeter.jmeter.videostreaming.dash.MediaRepresentation;
 import com.blazemeter.jmeter.videostreaming.dash.SegmentBuilder;
@@ -8,12 +9,24 @@ import io.lindstrom.mpd.data.SegmentBase;
 import io.lindstrom.mpd.data.URLType;
 import java.net.URI;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class SegmentBaseBuilder extends BaseSegmentBuilder<SegmentBase> {
 
+  private static final Logger LOG = LoggerFactory.getLogger(SegmentBaseBuilder.class);
+
   private URI segmentUrl;
   private boolean generated;
+  private MediaSegment segmentIndex;
+  private boolean segmentIndexSolved;
+  private boolean indexed;
+  private List<DashMediaSegment> subsegments;
+  private int subsegmentIndex;
+  private Duration resumeTime;
 
   public SegmentBaseBuilder(MediaRepresentation representation) {
     super(representation);
@@ -21,12 +34,20 @@ public class SegmentBaseBuilder extends BaseSegmentBuilder<SegmentBase> {
 
   @Override
   public boolean hasNext() {
-    return segmentUrl != null && !generated;
+    if (segmentUrl == null) {
+      return false;
+    }
+    if (subsegments != null) {
+      return subsegmentIndex < subsegments.size();
+    }
+    // until the index is downloaded we don't know if there are pending subsegments
+    return !generated || getPendingSegmentIndex() != null;
   }
 
   @Override
   public SegmentBuilder<SegmentBase> withSegmentInfo(SegmentBase segmentInfo,
       List<List<BaseURL>> baseUrls) {
+    super.withSegmentInfo(segmentInfo, baseUrls);
     if (segmentUrl != null) {
       return this;
     }
@@ -54,6 +75,24 @@ public class SegmentBaseBuilder extends BaseSegmentBuilder<SegmentBase> {
     return this.segmentInfo;
   }
 
+  @Override
+  protected boolean refreshPosition(BaseSegmentBuilder<SegmentBase> refreshed) {
+    /*
+     once the index is downloaded we keep it and the current subsegment if the refreshed builder
+     points to the same index. Otherwise, there is only one segment, so just using the refreshed
+     builder is as cheap.
+     */
+    SegmentBaseBuilder other = (SegmentBaseBuilder) refreshed;
+    if (subsegments == null || !Objects.equals(segmentUrl, other.segmentUrl)) {
+      return false;
+    }
+    MediaSegment index = getSegmentIndex();
+    MediaSegment otherIndex = other.getSegmentIndex();
+    return otherIndex != null && index.getUri().equals(otherIndex.getUri())
+        && index.getByteOffset() == otherIndex.getByteOffset()
+        && index.getByteLength() == otherIndex.getByteLength();
+  }
+
   @Override
   public URI getInitializationUrl() {
     if (segmentInfo == null) {
@@ -64,15 +103,124 @@ public class SegmentBaseBuilder extends BaseSegmentBuilder<SegmentBase> {
         .create(initialization.getSourceURL()) : null;
   }
 
+  @Override
+  public MediaSegment getPendingSegmentIndex() {
+    return indexed || segmentUrl == null ? null : getSegmentIndex();
+  }
+
+  private MediaSegment getSegmentIndex() {
+    if (!segmentIndexSolved) {
+      segmentIndex = buildSegmentIndex();
+      segmentIndexSolved = true;
+    }
+    return segmentIndex;
+  }
+
+  /*
+  The index is either in the range of the media file specified by indexRange, or in the one
+  specified by RepresentationIndex (which may be a different file).
+  */
+  private MediaSegment buildSegmentIndex() {
+    if (segmentInfo == null) {
+      return null;
+    }
+    URLType representationIndex = segmentInfo.getRepresentationIndex();
+    URI uri = representationIndex != null && representationIndex.getSourceURL() != null
+        ? URI.create(representationIndex.getSourceURL()) : segmentUrl;
+    String range = representationIndex != null && representationIndex.getRange() != null
+        ? representationIndex.getRange() : segmentInfo.getIndexRange();
+    if (range == null) {
+      return null;
+    }
+    String[] rangeParts = range.split("-", 2);
+    try {
+      long first = Long.parseLong(rangeParts[0].trim());
+      long last = rangeParts.length > 1 ? Long.parseLong(rangeParts[1].trim()) : -1;
+      if (first < 0 || last < first) {
+        LOG.warn("Invalid segment index range '{}' for {}", range, segmentUrl);
+        return null;
+      }
+      MediaSegment ret = new MediaSegment(0, uri, Duration.ZERO);
+      ret.setByteRangeInfo(uri, last - first + 1, first);
+      return ret;
+    } catch (NumberFormatException e) {
+      LOG.warn("Invalid segment index range '{}' for {}", range, segmentUrl, e);
+      return null;
+    }
+  }
+
+  @Override
+  public void withSegmentIndex(byte[] segmentIndex) {
+    MediaSegment index = getPendingSegmentIndex();
+    indexed = true;
+    if (index == null || segmentIndex == null) {
+      return;
+    }
+    try {
+      SegmentIndexBox box = SegmentIndexBox.parse(segmentIndex,
+          index.getUri().equals(segmentUrl) ? index.getByteOffset() : -1);
+      subsegments = buildSubsegments(box);
+      subsegmentIndex = 0;
+      skipSubsegmentsUntilResumeTime();
+    } catch (IllegalArgumentException e) {
+      LOG.warn("Problem parsing segment index of {}, downloading it as a single segment",
+          segmentUrl, e);
+    }
+  }
+
+  private List<DashMediaSegment> buildSubsegments(SegmentIndexBox box) {
+    Duration presentationTimeOffset = Duration.ofNanos(ScaledTime.toNanos(
+        getPresentationTimeOffset(), getTimescale()));
+    List<DashMediaSegment> ret = new ArrayList<>(box.getSubsegmentCount());
+    long startTime = box.getEarliestPresentationTime();
+    long offset = box.getFirstOffset();
+    for (int i = 0; i < box.getSubsegmentCount(); i++) {
+      long duration = box.getDuration(i);
+      DashMediaSegment segment = new DashMediaSegment(period, i + 1, segmentUrl,
+          Duration.ofNanos(ScaledTime.toNanos(duration, box.getTimescale())),
+          Duration.ofNanos(ScaledTime.toNanos(startTime, box.getTimescale())),
+          presentationTimeOffset);
+      segment.setByteRangeInfo(segmentUrl, box.getSize(i), offset);
+      ret.add(segment);
+      startTime += duration;
+      offset += box.getSize(i);
+    }
+    return ret;
+  }
+
+  private long getPresentationTimeOffset() {
+    Long ret = segmentInfo.getPresentationTimeOffset();
+    return ret != null ? ret : 0L;
+  }
+
+  private long getTimescale() {
+    Long ret = segmentInfo.getTimescale();
+    return ret != null ? ret : 1L;
+  }
+
+  private void skipSubsegmentsUntilResumeTime() {
+    while (resumeTime != null && subsegmentIndex < subsegments.size()
+        && subsegments.get(subsegmentIndex).getEndTime().compareTo(resumeTime) <= 0) {
+      subsegmentIndex++;
+    }
+  }
+
   @Override
   public void advanceUntil(DashMediaSegment lastSegment) {
     if (lastSegment != null && lastSegment.getPeriod().equals(period)) {
       generated = true;
+      resumeTime = lastSegment.getEndTime();
+      if (subsegments != null) {
+        skipSubsegmentsUntilResumeTime();
+      }
     }
   }
 
   @Override
   public DashMediaSegment next() {
+    if (subsegments != null) {
+      return subsegments.get(subsegmentIndex++);
+    }
     generated = true;
     return new DashMediaSegment(period, 1, segmentUrl, period.getDuration(), Duration.ZERO,
         Duration.ZERO);
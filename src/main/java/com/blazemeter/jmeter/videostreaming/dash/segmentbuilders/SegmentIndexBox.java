@@ -0,0 +1,127 @@
+package com.blazemeter.jmeter.videostreaming.dash.segmentbuilders;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/*
+Segment index box (sidx) of an ISO BMFF file, as defined in ISO/IEC 14496-12, listing the byte
+size and duration of each subsegment of the file.
+
+Only indexes directly referencing media are supported. Hierarchical indexes (referencing other
+sidx boxes) are rejected, so the media is downloaded as a single segment instead.
+*/
+final class SegmentIndexBox {
+
+  private static final int SIDX_TYPE = 0x73696478;
+  private static final int LARGE_SIZE = 1;
+  private static final int UNTIL_END_SIZE = 0;
+
+  private final long timescale;
+  private final long earliestPresentationTime;
+  private final long firstOffset;
+  private final long[] sizes;
+  private final long[] durations;
+
+  private SegmentIndexBox(long timescale, long earliestPresentationTime, long firstOffset,
+      long[] sizes, long[] durations) {
+    this.timescale = timescale;
+    this.earliestPresentationTime = earliestPresentationTime;
+    this.firstOffset = firstOffset;
+    this.sizes = sizes;
+    this.durations = durations;
+  }
+
+  /*
+  Parses the first sidx box found in the given data, which starts at dataOffset in the file
+  containing the subsegments, or at any offset (passing a negative one) when the index is in a
+  different file and subsegments start at the beginning of the media file.
+  */
+  static SegmentIndexBox parse(byte[] data, long dataOffset) {
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    try {
+      while (buffer.remaining() >= 8) {
+        int boxStart = buffer.position();
+        long size = Integer.toUnsignedLong(buffer.getInt());
+        int type = buffer.getInt();
+        if (size == LARGE_SIZE) {
+          size = buffer.getLong();
+        } else if (size == UNTIL_END_SIZE) {
+          size = data.length - boxStart;
+        }
+        if (size < buffer.position() - boxStart || size > data.length - boxStart) {
+          throw new IllegalArgumentException("Invalid size " + size + " of box at " + boxStart);
+        }
+        long boxEnd = boxStart + size;
+        if (type == SIDX_TYPE) {
+          return parseSidx(buffer, dataOffset >= 0 ? dataOffset + boxEnd : 0);
+        }
+        buffer.position((int) boxEnd);
+      }
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Incomplete segment index box", e);
+    }
+    throw new IllegalArgumentException("No segment index box found");
+  }
+
+  private static SegmentIndexBox parseSidx(ByteBuffer buffer, long anchor) {
+    int version = buffer.get();
+    // flags and reference_ID
+    buffer.position(buffer.position() + 3 + 4);
+    long timescale = Integer.toUnsignedLong(buffer.getInt());
+    long earliestPresentationTime;
+    long firstOffset;
+    if (version == 0) {
+      earliestPresentationTime = Integer.toUnsignedLong(buffer.getInt());
+      firstOffset = Integer.toUnsignedLong(buffer.getInt());
+    } else {
+      earliestPresentationTime = buffer.getLong();
+      firstOffset = buffer.getLong();
+    }
+    // reserved
+    buffer.getShort();
+    int referenceCount = Short.toUnsignedInt(buffer.getShort());
+    if (timescale == 0 || earliestPresentationTime < 0 || firstOffset < 0) {
+      throw new IllegalArgumentException("Invalid segment index box timing or offset");
+    }
+    long[] sizes = new long[referenceCount];
+    long[] durations = new long[referenceCount];
+    for (int i = 0; i < referenceCount; i++) {
+      int reference = buffer.getInt();
+      if (reference < 0) {
+        throw new IllegalArgumentException("Hierarchical segment indexes are not supported");
+      }
+      sizes[i] = reference;
+      durations[i] = Integer.toUnsignedLong(buffer.getInt());
+      // SAP information
+      buffer.getInt();
+    }
+    return new SegmentIndexBox(timescale, earliestPresentationTime, anchor + firstOffset, sizes,
+        durations);
+  }
+
+  long getTimescale() {
+    return timescale;
+  }
+
+  long getEarliestPresentationTime() {
+    return earliestPresentationTime;
+  }
+
+  // offset of the first subsegment in the media file
+  long getFirstOffset() {
+    return firstOffset;
+  }
+
+  int getSubsegmentCount() {
+    return sizes.length;
+  }
+
+  long getSize(int subsegment) {
+    return sizes[subsegment];
+  }
+
+  long getDuration(int subsegment) {
+    return durations[subsegment];
+  }
+
+}
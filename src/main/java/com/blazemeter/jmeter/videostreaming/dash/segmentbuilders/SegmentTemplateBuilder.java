@@ -8,11 +8,14 @@ import io.lindstrom.mpd.data.SegmentTemplate;
 import io.lindstrom.mpd.data.URLType;
 import java.net.URI;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class SegmentTemplateBuilder extends MultiSegmentBuilder<SegmentTemplate> {
 
+  private UrlTemplateSolver mediaUrlSolver;
+
   public SegmentTemplateBuilder(MediaRepresentation representation) {
     super(representation);
   }
@@ -39,16 +42,30 @@ public class SegmentTemplateBuilder extends MultiSegmentBuilder<SegmentTemplate>
     return this.segmentInfo;
   }
 
+  @Override
+  protected boolean refreshPosition(BaseSegmentBuilder<SegmentTemplate> refreshed) {
+    // the compiled media template is kept, so it has to be the same
+    return Objects.equals(segmentInfo.getMedia(), refreshed.segmentInfo.getMedia())
+        && Objects.equals(getInitializationTemplate(segmentInfo),
+        getInitializationTemplate(refreshed.segmentInfo))
+        && super.refreshPosition(refreshed);
+  }
+
   @Override
   public URI getInitializationUrl() {
+    String initialization = getInitializationTemplate(segmentInfo);
+    return initialization != null
+        ? new UrlTemplateSolver(representation, initialization).solveUrlTemplate(0, 0)
+        : null;
+  }
+
+  private static String getInitializationTemplate(SegmentTemplate segmentInfo) {
     String initialization = segmentInfo.getInitialization();
     URLType initElement = segmentInfo.getInitializationElement();
     if (initialization == null && initElement != null) {
       initialization = initElement.getSourceURL();
     }
-    return initialization != null
-        ? new UrlTemplateSolver(representation, 0, 0).solveUrlTemplate(initialization)
-        : null;
+    return initialization;
   }
 
   @Override
@@ -68,8 +85,10 @@ public class SegmentTemplateBuilder extends MultiSegmentBuilder<SegmentTemplate>
 
   @Override
   protected Function<Long, URI> getUrlSolver(long segmentNumber) {
-    return t -> new UrlTemplateSolver(representation, segmentNumber, t)
-        .solveUrlTemplate(segmentInfo.getMedia());
+    if (mediaUrlSolver == null) {
+      mediaUrlSolver = new UrlTemplateSolver(representation, segmentInfo.getMedia());
+    }
+    return t -> mediaUrlSolver.solveUrlTemplate(segmentNumber, t);
   }
 
   @Override
@@ -82,4 +101,14 @@ public class SegmentTemplateBuilder extends MultiSegmentBuilder<SegmentTemplate>
     return segmentInfo::getSegmentTimeline;
   }
 
+  @Override
+  protected Supplier<Double> getAvailabilityTimeOffsetSupplier() {
+    return segmentInfo::getAvailabilityTimeOffset;
+  }
+
+  @Override
+  protected Supplier<Boolean> getAvailabilityTimeCompleteSupplier() {
+    return segmentInfo::getAvailabilityTimeComplete;
+  }
+
 }
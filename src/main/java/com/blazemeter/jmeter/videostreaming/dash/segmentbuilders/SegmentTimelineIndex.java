@@ -0,0 +1,176 @@
+package com.blazemeter.jmeter.videostreaming.dash.segmentbuilders;
+
+import io.lindstrom.mpd.data.Segment;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/*
+A SegmentTimeline converted into primitive arrays, with the start time and the number of
+segments before each entry already solved, so positions in the timeline can be found with a
+binary search over its entries instead of walking it repeat by repeat.
+
+Entries live in the arrays from an offset, so refreshes of a live timeline (see refresh) can
+drop entries from its start and append new ones without indexing the whole timeline again.
+*/
+final class SegmentTimelineIndex {
+
+  private List<Segment> timeline;
+  private long[] startTimes;
+  private long[] durations;
+  private long[] repetitions;
+  // number of segments indexed before each entry, including the ones of dropped entries
+  private long[] segmentsBefore;
+  private int offset;
+  private int size;
+  // time and number of segments at the end of the last entry, where appended entries start
+  private long endTime;
+  private long segmentsCount;
+  // entries don't overlap, so start and end times increase with each entry
+  private boolean ordered = true;
+
+  SegmentTimelineIndex(List<Segment> timeline) {
+    this.timeline = timeline;
+    int capacity = timeline.size();
+    startTimes = new long[capacity];
+    durations = new long[capacity];
+    repetitions = new long[capacity];
+    segmentsBefore = new long[capacity];
+    append(timeline, 0);
+  }
+
+  private void append(List<Segment> entries, int from) {
+    ensureCapacity(entries.size() - from);
+    for (int i = from; i < entries.size(); i++) {
+      Segment entry = entries.get(i);
+      long time = endTime;
+      if (entry.getT() != null) {
+        ordered &= entry.getT() >= time;
+        time = entry.getT();
+      }
+      int position = offset + size;
+      startTimes[position] = time;
+      durations[position] = entry.getD();
+      repetitions[position] = entry.getR() != null ? entry.getR() : 0;
+      segmentsBefore[position] = segmentsCount;
+      ordered &= durations[position] > 0;
+      endTime = time + durations[position] * (repetitions[position] + 1);
+      segmentsCount += repetitions[position] + 1;
+      size++;
+    }
+  }
+
+  private void ensureCapacity(int appended) {
+    if (offset + size + appended <= startTimes.length) {
+      return;
+    }
+    // space of dropped entries is reclaimed first, and arrays are grown to twice what is needed
+    int capacity = Math.max(startTimes.length, 2 * (size + appended));
+    startTimes = moveEntries(startTimes, capacity);
+    durations = moveEntries(durations, capacity);
+    repetitions = moveEntries(repetitions, capacity);
+    segmentsBefore = moveEntries(segmentsBefore, capacity);
+    offset = 0;
+  }
+
+  private long[] moveEntries(long[] values, int capacity) {
+    long[] ret = capacity == values.length ? values : new long[capacity];
+    System.arraycopy(values, offset, ret, 0, size);
+    return ret;
+  }
+
+  /*
+  Updates the index to a refresh of its timeline, as live MPDs are updated: entries are dropped
+  from its start, its last entry may get more repetitions and new entries are appended. The
+  refresh is matched by the start time of its first entry and the duration and start time of the
+  last indexed entry, and only the appended entries are indexed. Returns false, without changing
+  the index, when the refreshed timeline is not such an update of the indexed one.
+  */
+  boolean refresh(List<Segment> refreshed) {
+    if (refreshed.isEmpty()) {
+      return false;
+    }
+    Long refreshedStart = refreshed.get(0).getT();
+    int dropped = findEntry(refreshedStart != null ? refreshedStart : 0);
+    if (dropped < 0 || size - dropped > refreshed.size()) {
+      return false;
+    }
+    int last = offset + size - 1;
+    Segment lastEntry = refreshed.get(size - dropped - 1);
+    long lastRepetitions = lastEntry.getR() != null ? lastEntry.getR() : 0;
+    if (lastEntry.getD() != durations[last] || lastRepetitions < repetitions[last]
+        || (lastEntry.getT() != null && lastEntry.getT() != startTimes[last])) {
+      return false;
+    }
+    endTime += (lastRepetitions - repetitions[last]) * durations[last];
+    segmentsCount += lastRepetitions - repetitions[last];
+    repetitions[last] = lastRepetitions;
+    offset += dropped;
+    size -= dropped;
+    append(refreshed, size);
+    timeline = refreshed;
+    return true;
+  }
+
+  boolean isBuiltFrom(List<Segment> timeline) {
+    return this.timeline == timeline;
+  }
+
+  int size() {
+    return size;
+  }
+
+  long getStartTime(int entry) {
+    return startTimes[offset + entry];
+  }
+
+  long getDuration(int entry) {
+    return durations[offset + entry];
+  }
+
+  long getRepetitions(int entry) {
+    return repetitions[offset + entry];
+  }
+
+  // number of segments in the timeline before the given entry
+  long getFirstSegment(int entry) {
+    return segmentsBefore[offset + entry] - segmentsBefore[offset];
+  }
+
+  long getEndTime(int entry) {
+    return getStartTime(entry) + getDuration(entry) * (getRepetitions(entry) + 1);
+  }
+
+  // the entry starting at the given time, or -1 if there is none
+  int findEntry(long startTime) {
+    int ret = findFirst(i -> getStartTime(i) >= startTime);
+    return ret < size() && getStartTime(ret) == startTime ? ret : -1;
+  }
+
+  /*
+  Gets the first entry matching a condition which, once met by an entry, is also met by every
+  following one; or size() when no entry matches it. Timelines with overlapping entries are
+  searched linearly, since such conditions might not hold on them.
+  */
+  int findFirst(IntPredicate condition) {
+    if (!ordered) {
+      for (int i = 0; i < size(); i++) {
+        if (condition.test(i)) {
+          return i;
+        }
+      }
+      return size();
+    }
+    int low = 0;
+    int high = size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (condition.test(middle)) {
+        high = middle;
+      } else {
+        low = middle + 1;
+      }
+    }
+    return low;
+  }
+
+}
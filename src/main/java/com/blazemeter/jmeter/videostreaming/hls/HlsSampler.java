@@ -7,8 +7,11 @@ import com.blazemeter.jmeter.hls.logic.ResolutionSelector;
 import com.blazemeter.jmeter.videostreaming.core.MediaSegment;
 import com.blazemeter.jmeter.videostreaming.core.PlaybackSession;
 import com.blazemeter.jmeter.videostreaming.core.SampleResultProcessor;
+import com.blazemeter.jmeter.videostreaming.core.SegmentPrefetchPipeline;
+import com.blazemeter.jmeter.videostreaming.core.SegmentPrefetchPipeline.PendingSegment;
 import com.blazemeter.jmeter.videostreaming.core.StreamingSliceCoordinator;
 import com.blazemeter.jmeter.videostreaming.core.TimeMachine;
+import com.blazemeter.jmeter.videostreaming.core.TrackDownloadWorkers.TrackDownload;
 import com.blazemeter.jmeter.videostreaming.core.Variants;
 import com.blazemeter.jmeter.videostreaming.core.VideoStreamingHttpClient;
 import com.blazemeter.jmeter.videostreaming.core.VideoStreamingPlayback;
@@ -17,7 +20,9 @@ import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistDownloadExcep
 import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistParsingException;
 import com.comcast.viper.hlsparserj.MasterPlaylist;
 import com.comcast.viper.hlsparserj.tags.master.StreamInf;
+import com.google.common.annotations.VisibleForTesting;
 import java.net.URI;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -27,17 +32,25 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import org.apache.jmeter.protocol.http.sampler.HTTPSampleResult;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.util.JMeterUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class HlsSampler extends VideoStreamingSampler<Playlist, MediaSegment> {
 
+  public static final String LOW_LATENCY_PROP = "hls.sampler.lowLatency";
+  public static final String DELTA_UPDATES_PROP = "hls.sampler.deltaUpdates";
   private static final Logger LOG = LoggerFactory.getLogger(HlsSampler.class);
 
   // RFC 8216 Section 6.3.3: start this many target durations from the live edge
   private static final int RFC_8216_LIVE_EDGE_DURATIONS = 3;
 
+  private static volatile Boolean lowLatency;
+  private static volatile Boolean deltaUpdates;
+
   private final transient PlaybackSession<MediaPlayback, Playlist> session =
       new PlaybackSession<>();
 
@@ -52,6 +65,30 @@ public class HlsSampler extends VideoStreamingSampler<Playlist, MediaSegment> {
     session.clear();
   }
 
+  private static boolean isLowLatencyEnabled() {
+    if (lowLatency == null) {
+      lowLatency = JMeterUtils.getPropDefault(LOW_LATENCY_PROP, true);
+    }
+    return lowLatency;
+  }
+
+  private static boolean isDeltaUpdatesEnabled() {
+    if (deltaUpdates == null) {
+      deltaUpdates = JMeterUtils.getPropDefault(DELTA_UPDATES_PROP, true);
+    }
+    return deltaUpdates;
+  }
+
+  @VisibleForTesting
+  public static void resetLowLatencyCache() {
+    lowLatency = null;
+  }
+
+  @VisibleForTesting
+  public static void resetDeltaUpdatesCache() {
+    deltaUpdates = null;
+  }
+
   public void sample(URI masterUri, BandwidthSelector bandwidthSelector,
       ResolutionSelector resolutionSelector, String audioLanguage, String subtitleLanguage,
       int playSeconds)
@@ -77,13 +114,13 @@ public class HlsSampler extends VideoStreamingSampler<Playlist, MediaSegment> {
         List<String> resolutions = getResolutions((MasterPlaylist) masterPlaylist.getPlaylist());
         if (bandwidthSelector.getCustomBandwidth() != null
             && !bandwidths.contains(bandwidthSelector.getCustomBandwidth())) {
-          sampleResultProcessor.accept(buildPlaylistName(MEDIA_TYPE_NAME),
+          acceptSampleResult(buildPlaylistName(MEDIA_TYPE_NAME),
               buildNotMatchingMediaPlaylistResult(variantsToString(bandwidths), "bandwidth"));
           endSessionOnSetupFailure();
           return;
         } else if (resolutionSelector.getCustomResolution() != null
             && !resolutions.contains(resolutionSelector.getCustomResolution())) {
-          sampleResultProcessor.accept(buildPlaylistName(MEDIA_TYPE_NAME),
+          acceptSampleResult(buildPlaylistName(MEDIA_TYPE_NAME),
               buildNotMatchingMediaPlaylistResult(variantsToString(resolutions), "resolution"));
           endSessionOnSetupFailure();
           return;
@@ -93,9 +130,11 @@ public class HlsSampler extends VideoStreamingSampler<Playlist, MediaSegment> {
             resolutionSelector, audioLanguage, subtitleLanguage);
 
         mediaPlaylist = downloadPlaylist(mediaStream.getMediaPlaylistUri(), MEDIA_TYPE_NAME);
-        audioPlaylist = tryDownloadPlaylist(mediaStream.getAudioUri(),
+        audioPlaylist = tryDownloadPlaylist(
+            getRenditionRequestUri(mediaPlaylist, mediaStream.getAudioUri()),
             p -> buildPlaylistName(AUDIO_TYPE_NAME));
-        subtitlesPlaylist = tryDownloadPlaylist(mediaStream.getSubtitlesUri(),
+        subtitlesPlaylist = tryDownloadPlaylist(
+            getRenditionRequestUri(mediaPlaylist, mediaStream.getSubtitlesUri()),
             p -> p != null ? buildPlaylistName(SUBTITLES_TYPE_NAME) : SUBTITLES_TYPE_NAME);
       } else {
         mediaPlaylist = masterPlaylist;
@@ -117,21 +156,27 @@ public class HlsSampler extends VideoStreamingSampler<Playlist, MediaSegment> {
       }
     }
 
+    enableResumableDownloads();
     boolean finished = false;
     try {
-      while (!mediaPlayback.hasEnded() && !shouldYieldForSlice()) {
-        mediaPlayback.downloadNextSegment();
-        double playedSeconds = mediaPlayback.getPlayedTimeSeconds();
-        if (playSeconds > 0 && playSeconds < playedSeconds) {
-          playedSeconds = playSeconds;
+      if (isDownloadTracksConcurrently()) {
+        downloadTracksConcurrently(mediaPlayback, Arrays.asList(audioPlayback, subtitlesPlayback),
+            playSeconds);
+      } else {
+        while (!mediaPlayback.hasEnded() && !shouldYieldForSlice()) {
+          mediaPlayback.downloadNextSegment();
+          double playedSeconds = getPlayedSeconds(mediaPlayback, playSeconds);
+          audioPlayback.downloadUntilTimeSecond(playedSeconds);
+          subtitlesPlayback.downloadUntilTimeSecond(playedSeconds);
         }
-        audioPlayback.downloadUntilTimeSecond(playedSeconds);
-        subtitlesPlayback.downloadUntilTimeSecond(playedSeconds);
       }
       finished = mediaPlayback.hasEnded();
     } finally {
       playbackFinishedThisSample = finished;
       if (finished || !active) {
+        mediaPlayback.cancelPrefetch();
+        audioPlayback.cancelPrefetch();
+        subtitlesPlayback.cancelPrefetch();
         lastVideoSegment = mediaPlayback.getLastSegment();
         lastAudioSegment = audioPlayback.getLastSegment();
         lastSubtitleSegment = subtitlesPlayback.getLastSegment();
@@ -140,6 +185,58 @@ public class HlsSampler extends VideoStreamingSampler<Playlist, MediaSegment> {
     }
   }
 
+  /*
+  With low latency playlists, renditions reported by the media playlist are requested at their
+  reported live edge, so their playlists are in sync with the media one.
+  */
+  private URI getRenditionRequestUri(Playlist mediaPlaylist, URI renditionUri) {
+    if (renditionUri == null || !isLowLatencyEnabled() || !mediaPlaylist.isLowLatency()
+        || !mediaPlaylist.canBlockReload()) {
+      return renditionUri;
+    }
+    RenditionReport report = mediaPlaylist.findRenditionReport(renditionUri);
+    return report != null ? Playlist.buildBlockingReloadUri(renditionUri,
+        report.getLastMediaSequence(), report.getLastPartIndex()) : renditionUri;
+  }
+
+  private double getPlayedSeconds(MediaPlayback mediaPlayback, int playSeconds) {
+    double playedSeconds = mediaPlayback.getPlayedTimeSeconds();
+    return playSeconds > 0 && playSeconds < playedSeconds ? playSeconds : playedSeconds;
+  }
+
+  /*
+  Each track downloads on its own worker. Complementary tracks download up to the time played by
+  the main track when the step started, while the main track downloads its next segment, and a
+  final step catches them up with the main track. This way every track keeps a segment in flight
+  as players do, and the same segments as in sequential download are requested.
+  */
+  private void downloadTracksConcurrently(MediaPlayback mediaPlayback,
+      List<MediaPlayback> complementTracks, int playSeconds)
+      throws InterruptedException, PlaylistDownloadException, PlaylistParsingException {
+    List<MediaPlayback> tracks = complementTracks.stream()
+        .filter(MediaPlayback::hasContents)
+        .collect(Collectors.toList());
+    double playedSeconds = getPlayedSeconds(mediaPlayback, playSeconds);
+    while (!mediaPlayback.hasEnded() && !shouldYieldForSlice()) {
+      List<TrackDownload> downloads = buildComplementDownloads(tracks, playedSeconds);
+      downloads.add(0, mediaPlayback::downloadNextSegment);
+      trackWorkers.downloadConcurrently(downloads);
+      playedSeconds = getPlayedSeconds(mediaPlayback, playSeconds);
+    }
+    if (!tracks.isEmpty()) {
+      trackWorkers.downloadConcurrently(buildComplementDownloads(tracks, playedSeconds));
+    }
+  }
+
+  private List<TrackDownload> buildComplementDownloads(List<MediaPlayback> tracks,
+      double untilTimeSecond) {
+    List<TrackDownload> ret = new ArrayList<>();
+    for (MediaPlayback track : tracks) {
+      ret.add(() -> track.downloadUntilTimeSecond(untilTimeSecond));
+    }
+    return ret;
+  }
+
   // A variant/resolution mismatch means playback cannot proceed; treat it as terminal so the
   // parallel controller ends the iteration instead of re-entering and re-fetching forever.
   private void endSessionOnSetupFailure() {
@@ -207,11 +304,32 @@ public class HlsSampler extends VideoStreamingSampler<Playlist, MediaSegment> {
     return new ArrayList<>(audioLanguage);
   }
 
+  @Override
+  protected String buildSegmentHeaders(MediaSegment segment, SampleResult result) {
+    String ret = super.buildSegmentHeaders(segment, result);
+    if (segment instanceof PartialSegment) {
+      Instant mediaEndTime = ((PartialSegment) segment).getMediaEndTime();
+      if (mediaEndTime != null) {
+        ret += "X-MEDIA-LIVE-LATENCY-MILLIS: " + (result.getEndTime()
+            - mediaEndTime.toEpochMilli()) + "\n";
+      }
+    }
+    return ret;
+  }
+
+  @Override
+  protected String buildSegmentSampleName(MediaSegment segment, String type) {
+    return segment instanceof PartialSegment ? buildPartName(type)
+        : super.buildSegmentSampleName(segment, type);
+  }
+
   private Playlist downloadMasterPlaylist(URI uri)
       throws PlaylistDownloadException, PlaylistParsingException {
-    return downloadPlaylist(uri,
+    // media playlists are reloaded by each viewer, so only master playlists are shared
+    return downloadMasterPlaylist(uri,
         p -> p != null && !p.isMasterPlaylist() ? buildPlaylistName(MEDIA_TYPE_NAME)
-            : buildPlaylistName(MASTER_TYPE_NAME));
+            : buildPlaylistName(MASTER_TYPE_NAME), Playlist::fromUriAndBody,
+        Playlist::isMasterPlaylist);
   }
 
   private Playlist downloadPlaylist(URI uri, String type)
@@ -229,13 +347,18 @@ public class HlsSampler extends VideoStreamingSampler<Playlist, MediaSegment> {
     private Playlist playlist;
     private Iterator<MediaSegment> mediaSegments;
     private InitializationSegment initializationSegment;
+    private PartialSegment lastPart;
+    // the last reload got the same playlist and its next one was postponed by a released wait
+    private boolean unchangedPlaylist;
     private final boolean startFromLiveEdge;
+    private final SegmentPrefetchPipeline<MediaSegment> prefetch;
 
     private MediaPlayback(Playlist playlist, String type, MediaSegment lastSegment,
         int playSeconds, boolean startFromLiveEdge) {
       super(type, lastSegment, playSeconds);
       this.playlist = playlist;
       this.startFromLiveEdge = startFromLiveEdge;
+      this.prefetch = buildPrefetchPipeline();
       if (playlist != null) {
         updateMediaSegments();
         if (playlist.hasByteRange()) {
@@ -249,7 +372,7 @@ public class HlsSampler extends VideoStreamingSampler<Playlist, MediaSegment> {
     }
 
     private void updateMediaSegments() {
-      if (lastSegment == null) {
+      if (lastSegment == null && lastPart == null) {
         List<MediaSegment> segments = playlist.getMediaSegments();
         if (startFromLiveEdge && !playlist.hasEnd()) {
           int skipIndex = computeLiveEdgeSkipIndex(segments);
@@ -258,8 +381,11 @@ public class HlsSampler extends VideoStreamingSampler<Playlist, MediaSegment> {
           mediaSegments = segments.iterator();
         }
       } else {
+        // segments downloaded through their parts are skipped too
         mediaSegments = playlist.getMediaSegments().stream()
-            .filter(s -> s.getSequenceNumber() > lastSegment.getSequenceNumber())
+            .filter(s -> (lastSegment == null
+                || s.getSequenceNumber() > lastSegment.getSequenceNumber())
+                && (lastPart == null || s.getSequenceNumber() > lastPart.getSequenceNumber()))
             .iterator();
       }
     }
@@ -285,9 +411,18 @@ public class HlsSampler extends VideoStreamingSampler<Playlist, MediaSegment> {
 
     private void downloadNextSegment()
         throws InterruptedException, PlaylistDownloadException, PlaylistParsingException {
-      if (!mediaSegments.hasNext() && !playlist.hasEnd()) {
+      // at the live edge of low latency playlists, parts are downloaded instead of segments
+      if (isLowLatency() && !hasPrefetchedSegments()
+          && (isPartInProgress() || !mediaSegments.hasNext()) && downloadNextPart()) {
+        return;
+      }
+      if (!mediaSegments.hasNext() && !playlist.hasEnd() && !hasPrefetchedSegments()) {
         updatePlaylist();
       }
+      if (prefetch != null) {
+        downloadNextPrefetchedSegment();
+        return;
+      }
       if (!mediaSegments.hasNext()) {
         return;
       }
@@ -297,6 +432,112 @@ public class HlsSampler extends VideoStreamingSampler<Playlist, MediaSegment> {
       consumedSeconds += segment.getDurationSeconds();
     }
 
+    private boolean isLowLatency() {
+      return isLowLatencyEnabled() && playlist.isLowLatency() && !playlist.hasEnd();
+    }
+
+    // a segment whose parts are being downloaded
+    private boolean isPartInProgress() {
+      return lastPart != null && (lastSegment == null
+          || lastPart.getSequenceNumber() > lastSegment.getSequenceNumber());
+    }
+
+    private boolean downloadNextPart() {
+      PartialSegment part = findNextPart();
+      if (part == null) {
+        return false;
+      }
+      if (lastPart != null && !part.hasSubRange() && part.getUri().equals(lastPart.getUri())) {
+        // already downloaded through the preload hint, which may have been placed wrongly
+        consumedSeconds += part.getDurationSeconds() - lastPart.getDurationSeconds();
+        lastPart = part;
+        return true;
+      }
+      downloadSegment(part, type);
+      lastPart = part;
+      consumedSeconds += part.getDurationSeconds();
+      return true;
+    }
+
+    private PartialSegment findNextPart() {
+      if (isPartInProgress()) {
+        PartialSegment part = findPart(lastPart.getSequenceNumber(), lastPart.getPartIndex() + 1);
+        if (part != null) {
+          return part;
+        }
+        MediaSegment parent = findSegment(lastPart.getSequenceNumber());
+        if (parent == null) {
+          return null;
+        }
+        // the segment is complete and all its parts have been downloaded
+        lastSegment = parent;
+      }
+      return findPart(getNextPartSequence(), 0);
+    }
+
+    private PartialSegment findPart(long sequenceNumber, int partIndex) {
+      for (PartialSegment part : playlist.getPartialSegments()) {
+        if (part.isAt(sequenceNumber, partIndex)) {
+          return part;
+        }
+      }
+      PartialSegment hint = playlist.getPreloadHint();
+      return hint != null && hint.isAt(sequenceNumber, partIndex) ? hint : null;
+    }
+
+    private MediaSegment findSegment(long sequenceNumber) {
+      return playlist.getMediaSegments().stream()
+          .filter(s -> s.getSequenceNumber() == sequenceNumber)
+          .findAny()
+          .orElse(null);
+    }
+
+    private long getNextPartSequence() {
+      if (isPartInProgress()) {
+        return lastPart.getSequenceNumber();
+      } else if (lastSegment != null) {
+        return lastSegment.getSequenceNumber() + 1;
+      }
+      List<MediaSegment> segments = playlist.getMediaSegments();
+      return segments.isEmpty() ? 0 : segments.get(segments.size() - 1).getSequenceNumber() + 1;
+    }
+
+    private int getNextPartIndex() {
+      return isPartInProgress() ? lastPart.getPartIndex() + 1 : 0;
+    }
+
+    private void downloadNextPrefetchedSegment() throws InterruptedException {
+      prefetchSegments();
+      PendingSegment<MediaSegment> pending = prefetch.peek();
+      if (pending == null) {
+        return;
+      }
+      // the segment is only taken from the pipeline once its sample result has been processed
+      downloadPendingSegment(pending, type);
+      prefetch.poll();
+      lastSegment = pending.getSegment();
+      consumedSeconds += lastSegment.getDurationSeconds();
+      // keep the pipeline full while other tracks are downloaded
+      prefetchSegments();
+    }
+
+    private void prefetchSegments() {
+      while (prefetch.hasCapacity() && mediaSegments.hasNext()
+          && isWithinRequestedTime(prefetch.getPendingSeconds())) {
+        prefetch.add(mediaSegments.next(), true);
+      }
+    }
+
+    private boolean hasPrefetchedSegments() {
+      return prefetch != null && !prefetch.isEmpty();
+    }
+
+    private void cancelPrefetch() {
+      if (prefetch != null) {
+        prefetch.cancel();
+      }
+    }
+
     private void downloadInitializationSegment() {
       if (initializationSegment != null) {
         downloadInitSegment(initializationSegment, type);
@@ -305,25 +546,91 @@ public class HlsSampler extends VideoStreamingSampler<Playlist, MediaSegment> {
 
     private void updatePlaylist()
         throws InterruptedException, PlaylistDownloadException, PlaylistParsingException {
+      if (isLowLatency()) {
+        updateLowLatencyPlaylist();
+        return;
+      }
 
-      timeMachine.awaitMillis(clampAwaitMillis(playlist.getReloadTimeMillisForDurationMultiplier(1,
-          timeMachine.now())));
-      Playlist updatedPlaylist = downloadPlaylist(playlist.getUri(), this.type);
+      // a playback resumed after an unchanged reload keeps waiting half the target duration
+      if (!awaitNextStep(playlist.getReloadTimeMillisForDurationMultiplier(
+          unchangedPlaylist ? 0.5 : 1, timeMachine.now()))) {
+        return;
+      }
+      Playlist updatedPlaylist = reloadPlaylist(playlist, buildReloadUri(playlist, -1, -1));
 
       while (updatedPlaylist.equals(playlist) && !shouldYieldForSlice()) {
         long millis = updatedPlaylist
             .getReloadTimeMillisForDurationMultiplier(0.5, timeMachine.now());
 
-        timeMachine.awaitMillis(clampAwaitMillis(millis));
-        updatedPlaylist = downloadPlaylist(playlist.getUri(), this.type);
+        if (!awaitNextStep(millis)) {
+          unchangedPlaylist = true;
+          this.playlist = updatedPlaylist;
+          return;
+        }
+        updatedPlaylist = reloadPlaylist(updatedPlaylist, buildReloadUri(updatedPlaylist, -1, -1));
       }
 
+      unchangedPlaylist = false;
       this.playlist = updatedPlaylist;
       updateMediaSegments();
     }
 
+    /*
+    Low latency playlists are requested with a blocking reload of the next part to download, when
+    the server supports it, so they are received as soon as the part is available. Otherwise, they
+    are reloaded every part target duration.
+    */
+    private void updateLowLatencyPlaylist()
+        throws InterruptedException, PlaylistDownloadException, PlaylistParsingException {
+      Playlist updatedPlaylist;
+      if (playlist.canBlockReload()) {
+        updatedPlaylist = reloadPlaylist(playlist,
+            buildReloadUri(playlist, getNextPartSequence(), getNextPartIndex()));
+        if (updatedPlaylist.equals(playlist)) {
+          // the server didn't block the request, so avoid flooding it with reloads
+          if (!awaitNextStep(updatedPlaylist.getPartReloadTimeMillis(timeMachine.now()))) {
+            this.playlist = updatedPlaylist;
+            return;
+          }
+        }
+      } else {
+        if (!awaitNextStep(playlist.getPartReloadTimeMillis(timeMachine.now()))) {
+          return;
+        }
+        updatedPlaylist = reloadPlaylist(playlist, buildReloadUri(playlist, -1, -1));
+      }
+      this.playlist = updatedPlaylist;
+      updateMediaSegments();
+    }
+
+    // delta updates are requested when the server supports them (EXT-X-SERVER-CONTROL)
+    private URI buildReloadUri(Playlist previous, long mediaSequence, int partIndex) {
+      return previous.buildReloadUri(mediaSequence, partIndex,
+          isDeltaUpdatesEnabled() && previous.canRequestDeltaUpdate(timeMachine.now()));
+    }
+
+    // only segments appended since the previous version are parsed on each reload
+    private Playlist reloadPlaylist(Playlist previous, URI requestUri)
+        throws PlaylistDownloadException, PlaylistParsingException {
+      PlaylistParser<Playlist> parser = (uri, body, timestamp) -> Playlist
+          .fromUriAndBody(uri, body, timestamp, previous);
+      Playlist ret = requestUri.equals(previous.getUri())
+          ? downloadPlaylist(requestUri, p -> buildPlaylistName(type), parser)
+          : downloadPlaylistUnconditionally(requestUri, p -> buildPlaylistName(type), parser);
+      if (ret.isMissingSkippedSegments()) {
+        // the delta update skipped segments not included in the previous playlist
+        ret = downloadPlaylist(previous.getUri(), p -> buildPlaylistName(type), parser);
+      }
+      return ret;
+    }
+
     private boolean hasEnded() {
-      return playedRequestedTime() || (!mediaSegments.hasNext() && playlist.hasEnd());
+      return playedRequestedTime() || (!mediaSegments.hasNext() && !hasPrefetchedSegments()
+          && playlist.hasEnd());
+    }
+
+    private boolean hasContents() {
+      return playlist != null;
     }
 
     private void downloadUntilTimeSecond(double untilTimeSecond) throws InterruptedException {
@@ -349,7 +656,7 @@ public class HlsSampler extends VideoStreamingSampler<Playlist, MediaSegment> {
       HTTPSampleResult playlistResult = httpClient.downloadUri(uri);
       if (!isHLSPlaylistLink(uri.toString())) {
         String playlistName = namer.apply(null);
-        sampleResultProcessor.accept(playlistName, playlistResult);
+        acceptSampleResult(playlistName, playlistResult);
         return null;
       } else {
         return downloadPlaylist(uri, namer);
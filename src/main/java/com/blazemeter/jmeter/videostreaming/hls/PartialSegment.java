@@ -0,0 +1,47 @@
+package com.blazemeter.jmeter.videostreaming.hls;
+
+import com.blazemeter.jmeter.videostreaming.core.MediaSegment;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+
+/*
+A part (EXT-X-PART) of a low latency HLS media segment, or the part announced by an
+EXT-X-PRELOAD-HINT, identified by the sequence number of its parent segment and its index in it.
+*/
+public class PartialSegment extends MediaSegment {
+
+  private final int partIndex;
+  private final Instant mediaEndTime;
+
+  public PartialSegment(long sequenceNumber, int partIndex, URI uri, Duration duration,
+      Instant mediaEndTime) {
+    super(sequenceNumber, uri, duration);
+    this.partIndex = partIndex;
+    this.mediaEndTime = mediaEndTime;
+  }
+
+  public int getPartIndex() {
+    return partIndex;
+  }
+
+  // wall clock time (from EXT-X-PROGRAM-DATE-TIME) of the end of the part media, if known
+  public Instant getMediaEndTime() {
+    return mediaEndTime;
+  }
+
+  public boolean isAt(long sequenceNumber, int partIndex) {
+    return getSequenceNumber() == sequenceNumber && this.partIndex == partIndex;
+  }
+
+  @Override
+  public String toString() {
+    return "PartialSegment{" +
+        "sequenceNumber=" + getSequenceNumber() +
+        ", partIndex=" + partIndex +
+        ", uri=" + getUri() +
+        ", duration=" + duration +
+        '}';
+  }
+
+}
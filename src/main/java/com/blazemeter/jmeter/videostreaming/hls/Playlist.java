@@ -25,14 +25,19 @@ import com.comcast.viper.hlsparserj.tags.media.TargetDuration;
 import java.net.URI;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -41,20 +46,47 @@ import org.slf4j.LoggerFactory;
 public class Playlist extends Manifest {
 
   private static final Logger LOG = LoggerFactory.getLogger(Playlist.class);
+  private static final String MEDIA_SEQUENCE_TAG = "#EXT-X-MEDIA-SEQUENCE:";
+  private static final String SEGMENT_DURATION_TAG = "#EXTINF";
+  private static final String BYTE_RANGE_TAG = "#EXT-X-BYTERANGE";
+  private static final String SKIP_TAG = "#EXT-X-SKIP:";
+  private static final String PROGRAM_DATE_TIME_TAG = "#EXT-X-PROGRAM-DATE-TIME:";
+  private static final String KEY_TAG = "#EXT-X-KEY:";
+  private static final String MAP_TAG = "#EXT-X-MAP:";
+  private static final String PART_TAG = "#EXT-X-PART:";
+  // tags which only apply to the segment following them, not to the whole playlist
+  private static final List<String> SEGMENT_TAG_PREFIXES = Arrays.asList(PROGRAM_DATE_TIME_TAG,
+      PART_TAG, "#EXT-X-BITRATE:");
+  private static final List<String> SEGMENT_TAGS = Arrays.asList("#EXT-X-DISCONTINUITY",
+      "#EXT-X-GAP");
+  private static final String DELIVERY_DIRECTIVE_PREFIX = "_HLS_";
   private final String body; //This field is only used for comparing objects
   private final Instant downloadTimestamp;
   private IPlaylist playlist;
-
-  private Playlist(URI uri, String body, Instant downloadTimestamp, IPlaylist playlist) {
+  private List<MediaSegment> mediaSegments;
+  // sequence number of the first segment included in the parsed playlist
+  private final long parsedSequence;
+  private List<PartialSegment> partialSegments;
+  private PartialSegment preloadHint;
+  private boolean missingSkippedSegments;
+
+  private Playlist(URI uri, String body, Instant downloadTimestamp, IPlaylist playlist,
+      List<MediaSegment> mediaSegments, long parsedSequence) {
     super(uri);
 
     this.downloadTimestamp = downloadTimestamp;
     this.body = body;
     this.playlist = playlist;
+    this.mediaSegments = mediaSegments;
+    this.parsedSequence = parsedSequence;
   }
 
   public static Playlist fromUriAndBody(URI uri, String body, Instant timestamp)
       throws PlaylistParsingException {
+    uri = removeDeliveryDirectives(uri);
+    if (body.contains(SKIP_TAG)) {
+      return fromDeltaUpdate(uri, body, timestamp, null);
+    }
     try {
       String normalizedBody = body;
       if (body.indexOf('\r') >= 0) {
@@ -64,12 +96,297 @@ public class Playlist extends Manifest {
       if (p.getTags().isEmpty()) {
         throw new PlaylistParsingException(uri, "No playlist tags found");
       }
-      return new Playlist(uri, body, timestamp, p);
+      MediaSequence mediaSequence = !p.isMasterPlaylist()
+          ? ((MediaPlaylist) p).getMediaSequence() : null;
+      return new Playlist(uri, body, timestamp, p, null,
+          mediaSequence != null ? mediaSequence.getSequenceNumber() : 0);
     } catch (Exception e) {
       throw new PlaylistParsingException(uri, e);
     }
   }
 
+  /*
+  Parses a reload of a live media playlist reusing the segments parsed from its previous version,
+  so only the playlist header and the segments appended since then are parsed and resolved. Live
+  sliding window playlists just change a few lines between reloads, which makes parsing the whole
+  body on each reload expensive for long DVR windows.
+
+  Segments are matched through EXT-X-MEDIA-SEQUENCE, and reused only when they are listed with the
+  same tags and URIs as in the previous playlist (ignoring parts, which servers remove from older
+  segments). Otherwise, the whole body is parsed (eg: no previous playlist, byte ranges, the media
+  sequence going backwards, or keys, maps or URIs changing in the reused segments).
+
+  Tags of the first segment listed before its EXTINF (like parts or its program date time) are
+  not kept in the parsed header, since they would be attached to the first appended segment. The
+  program date time of the appended segments is solved from the last one of the reused segments
+  instead, and the last key and map of the reused segments are kept, since they still apply to the
+  appended segments.
+  */
+  public static Playlist fromUriAndBody(URI uri, String body, Instant timestamp,
+      Playlist previous) throws PlaylistParsingException {
+    uri = removeDeliveryDirectives(uri);
+    if (body.contains(SKIP_TAG)) {
+      return fromDeltaUpdate(uri, body, timestamp, previous);
+    }
+    if (previous == null || previous.isMasterPlaylist() || !uri.equals(previous.uri)
+        || previous.hasByteRange() || body.indexOf('\r') >= 0 || body.contains(BYTE_RANGE_TAG)) {
+      return fromUriAndBody(uri, body, timestamp);
+    }
+    long sequence = parseMediaSequence(body);
+    List<MediaSegment> previousSegments = previous.getMediaSegments();
+    if (sequence < 0 || previousSegments.isEmpty()
+        || sequence < previousSegments.get(0).getSequenceNumber()) {
+      return fromUriAndBody(uri, body, timestamp);
+    }
+    int firstReusedIndex = (int) Math.min(previousSegments.size(),
+        sequence - previousSegments.get(0).getSequenceNumber());
+    int reusedCount = previousSegments.size() - firstReusedIndex;
+    int segmentsStart = body.indexOf("\n" + SEGMENT_DURATION_TAG) + 1;
+    int tailStart = reusedCount > 0 && segmentsStart > 0
+        ? findSegmentsEnd(body, segmentsStart, reusedCount) : -1;
+    if (tailStart < 0 || !listsPreviousSegments(body, segmentsStart, tailStart, previous,
+        firstReusedIndex, reusedCount)) {
+      return fromUriAndBody(uri, body, timestamp);
+    }
+    String reusedBody = body.substring(segmentsStart, tailStart);
+
+    try {
+      StringBuilder reducedBody = new StringBuilder();
+      String programDateTime = appendPlaylistHeader(body, segmentsStart, reducedBody);
+      appendLastTag(reusedBody, KEY_TAG, reducedBody);
+      appendLastTag(reusedBody, MAP_TAG, reducedBody);
+      Instant segmentStart = solveNextProgramDateTime(programDateTime, reusedBody);
+      if (segmentStart != null) {
+        reducedBody.append(PROGRAM_DATE_TIME_TAG)
+            .append(DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(
+                segmentStart.atOffset(ZoneOffset.UTC)))
+            .append('\n');
+      }
+      reducedBody.append(body, tailStart, body.length());
+      AbstractPlaylist p = PlaylistFactory.parsePlaylist(TWELVE, reducedBody.toString());
+      if (p.getTags().isEmpty() || p.isMasterPlaylist()) {
+        throw new PlaylistParsingException(uri, "No media playlist tags found");
+      }
+      List<MediaSegment> segments = new ArrayList<>(previousSegments.size());
+      segments.addAll(previousSegments.subList(firstReusedIndex, previousSegments.size()));
+      segments.addAll(buildMediaSegments(uri, (MediaPlaylist) p, sequence + reusedCount));
+      return new Playlist(uri, body, timestamp, p, segments, sequence + reusedCount);
+    } catch (Exception e) {
+      throw new PlaylistParsingException(uri, e);
+    }
+  }
+
+  /*
+  A delta update (requested with _HLS_skip=YES) replaces the oldest segments of the playlist with
+  an EXT-X-SKIP tag, so skipped segments are taken from the previous version of the playlist.
+  When they are not available there, the playlist only contains the segments listed in the delta
+  update and is marked as missing skipped segments, so the whole playlist can be requested.
+  */
+  private static Playlist fromDeltaUpdate(URI uri, String body, Instant timestamp,
+      Playlist previous) throws PlaylistParsingException {
+    try {
+      AbstractPlaylist p = PlaylistFactory.parsePlaylist(TWELVE, body.replace("\r", ""));
+      if (p.getTags().isEmpty() || p.isMasterPlaylist()) {
+        throw new PlaylistParsingException(uri, "No media playlist tags found");
+      }
+      MediaSequence mediaSequence = ((MediaPlaylist) p).getMediaSequence();
+      long sequence = mediaSequence != null ? mediaSequence.getSequenceNumber() : 0;
+      Map<String, String> skip = findTagAttributes(p, "EXT-X-SKIP");
+      long skippedCount = Long.parseLong(skip.get("SKIPPED-SEGMENTS"));
+      List<MediaSegment> skippedSegments = findSkippedSegments(previous, uri, sequence,
+          skippedCount);
+      List<MediaSegment> segments = new ArrayList<>();
+      if (skippedSegments != null) {
+        segments.addAll(skippedSegments);
+      }
+      segments.addAll(buildMediaSegments(uri, (MediaPlaylist) p, sequence + skippedCount));
+      Playlist ret = new Playlist(uri, body, timestamp, p, segments, sequence + skippedCount);
+      ret.missingSkippedSegments = skippedSegments == null;
+      return ret;
+    } catch (Exception e) {
+      throw new PlaylistParsingException(uri, e);
+    }
+  }
+
+  private static List<MediaSegment> findSkippedSegments(Playlist previous, URI uri,
+      long sequence, long skippedCount) {
+    if (previous == null || previous.isMasterPlaylist() || !uri.equals(previous.uri)) {
+      return null;
+    }
+    List<MediaSegment> previousSegments = previous.getMediaSegments();
+    if (previousSegments.isEmpty()) {
+      return null;
+    }
+    long firstIndex = sequence - previousSegments.get(0).getSequenceNumber();
+    if (firstIndex < 0 || firstIndex + skippedCount > previousSegments.size()) {
+      return null;
+    }
+    return previousSegments.subList((int) firstIndex, (int) (firstIndex + skippedCount));
+  }
+
+  /*
+  Appends the lines before the first segment of the body which apply to the whole playlist, and
+  returns the program date time of the first segment, if any.
+  */
+  private static String appendPlaylistHeader(String body, int segmentsStart,
+      StringBuilder builder) {
+    String programDateTime = null;
+    int lineStart = 0;
+    while (lineStart < segmentsStart) {
+      int lineEnd = body.indexOf('\n', lineStart) + 1;
+      String line = body.substring(lineStart, lineEnd).trim();
+      if (line.startsWith(PROGRAM_DATE_TIME_TAG)) {
+        programDateTime = line.substring(PROGRAM_DATE_TIME_TAG.length());
+      } else if (!SEGMENT_TAGS.contains(line)
+          && SEGMENT_TAG_PREFIXES.stream().noneMatch(line::startsWith)) {
+        builder.append(body, lineStart, lineEnd);
+      }
+      lineStart = lineEnd;
+    }
+    return programDateTime;
+  }
+
+  /*
+  Checks that the given number of segments listed in the body, from the EXTINF of the first one,
+  are listed with the same tags and URIs in the previous playlist from the segment at the given
+  index. Parts are ignored, since servers remove them from segments which are no longer the most
+  recent ones, and they don't change the reused segments.
+  */
+  private static boolean listsPreviousSegments(String body, int start, int end,
+      Playlist previous, int firstIndex, int segmentsCount) {
+    String previousBody = previous.body;
+    if (previousBody.contains(SKIP_TAG) || previousBody.indexOf('\r') >= 0) {
+      return false;
+    }
+    int previousStart = previousBody.indexOf("\n" + SEGMENT_DURATION_TAG) + 1;
+    if (previousStart > 0 && firstIndex > 0) {
+      int previousSegmentEnd = findSegmentsEnd(previousBody, previousStart, firstIndex);
+      previousStart = previousSegmentEnd > 0
+          ? previousBody.indexOf("\n" + SEGMENT_DURATION_TAG, previousSegmentEnd - 1) + 1 : 0;
+    }
+    int previousEnd = previousStart > 0
+        ? findSegmentsEnd(previousBody, previousStart, segmentsCount) : -1;
+    if (previousEnd < 0) {
+      return false;
+    } else if (end - start == previousEnd - previousStart
+        && body.regionMatches(start, previousBody, previousStart, end - start)) {
+      return true;
+    }
+    int lineStart = skipParts(body, start, end);
+    int previousLineStart = skipParts(previousBody, previousStart, previousEnd);
+    while (lineStart < end && previousLineStart < previousEnd) {
+      int lineEnd = findLineEnd(body, lineStart, end);
+      int previousLineEnd = findLineEnd(previousBody, previousLineStart, previousEnd);
+      if (lineEnd - lineStart != previousLineEnd - previousLineStart || !body
+          .regionMatches(lineStart, previousBody, previousLineStart, lineEnd - lineStart)) {
+        return false;
+      }
+      lineStart = skipParts(body, lineEnd, end);
+      previousLineStart = skipParts(previousBody, previousLineEnd, previousEnd);
+    }
+    return lineStart >= end && previousLineStart >= previousEnd;
+  }
+
+  private static int skipParts(String body, int from, int to) {
+    int lineStart = from;
+    while (lineStart < to && body.startsWith(PART_TAG, lineStart)) {
+      lineStart = findLineEnd(body, lineStart, to);
+    }
+    return lineStart;
+  }
+
+  // position right after the end of line (including the line feed) of the given line start
+  private static int findLineEnd(String body, int lineStart, int to) {
+    int lineEnd = body.indexOf('\n', lineStart);
+    return lineEnd < 0 || lineEnd >= to ? to : lineEnd + 1;
+  }
+
+  private static void appendLastTag(String body, String tag, StringBuilder builder) {
+    int tagStart = body.lastIndexOf("\n" + tag) + 1;
+    if (tagStart > 0) {
+      int tagEnd = body.indexOf('\n', tagStart);
+      builder.append(body, tagStart, tagEnd < 0 ? body.length() : tagEnd).append('\n');
+    }
+  }
+
+  /*
+  Solves the program date time of the segment following the given ones, from the last program date
+  time listed in them, or from the one of the first segment if there is none.
+  */
+  private static Instant solveNextProgramDateTime(String firstProgramDateTime, String segments) {
+    int tagStart = segments.lastIndexOf("\n" + PROGRAM_DATE_TIME_TAG) + 1;
+    if (tagStart == 0) {
+      return firstProgramDateTime != null
+          ? plus(parseDateTime(firstProgramDateTime), sumSegmentDurations(segments)) : null;
+    }
+    int valueStart = tagStart + PROGRAM_DATE_TIME_TAG.length();
+    int valueEnd = segments.indexOf('\n', valueStart);
+    return plus(parseDateTime(segments.substring(valueStart, valueEnd).trim()),
+        sumSegmentDurations(segments.substring(valueEnd)));
+  }
+
+  private static Instant plus(Instant instant, Duration duration) {
+    return instant != null ? instant.plus(duration) : null;
+  }
+
+  private static Duration sumSegmentDurations(String body) {
+    Duration ret = Duration.ZERO;
+    int tagStart = body.indexOf(SEGMENT_DURATION_TAG + ":");
+    while (tagStart >= 0) {
+      int valueStart = tagStart + SEGMENT_DURATION_TAG.length() + 1;
+      int valueEnd = body.indexOf('\n', valueStart);
+      ret = ret.plus(parseDuration(
+          body.substring(valueStart, valueEnd < 0 ? body.length() : valueEnd).split(",", 2)[0]));
+      tagStart = body.indexOf(SEGMENT_DURATION_TAG + ":", valueStart);
+    }
+    return ret;
+  }
+
+  private static long parseMediaSequence(String body) {
+    int tagStart = body.indexOf(MEDIA_SEQUENCE_TAG);
+    if (tagStart < 0) {
+      return -1;
+    }
+    int valueStart = tagStart + MEDIA_SEQUENCE_TAG.length();
+    int valueEnd = body.indexOf('\n', valueStart);
+    try {
+      return Long.parseLong(
+          body.substring(valueStart, valueEnd < 0 ? body.length() : valueEnd).trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /*
+  Gets the position in the body right after the URI of the given number of segments, counting
+  from the given position, or -1 if the body doesn't contain so many segments.
+  */
+  private static int findSegmentsEnd(String body, int from, int segmentsCount) {
+    int lineStart = from;
+    int count = 0;
+    while (lineStart < body.length()) {
+      int lineEnd = body.indexOf('\n', lineStart);
+      if (lineEnd < 0) {
+        lineEnd = body.length();
+      }
+      if (body.charAt(lineStart) != '#' && !isBlank(body, lineStart, lineEnd)
+          && ++count == segmentsCount) {
+        return Math.min(lineEnd + 1, body.length());
+      }
+      lineStart = lineEnd + 1;
+    }
+    return -1;
+  }
+
+  private static boolean isBlank(String str, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (!Character.isWhitespace(str.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   public URI getUri() {
     return uri;
   }
@@ -133,13 +450,17 @@ public class Playlist extends Manifest {
   }
 
   public List<MediaSegment> getMediaSegments() {
-    MediaPlaylist mediaPlaylist = (MediaPlaylist) playlist;
-    MediaSequence mediaSequence = mediaPlaylist.getMediaSequence();
-    int sequence = (mediaSequence != null ? mediaSequence.getSequenceNumber() : 0);
+    if (mediaSegments == null) {
+      mediaSegments = buildMediaSegments(uri, (MediaPlaylist) playlist, parsedSequence);
+    }
+    return mediaSegments;
+  }
 
-    AtomicInteger sequenceNumber = new AtomicInteger(sequence);
+  private static List<MediaSegment> buildMediaSegments(URI uri, MediaPlaylist mediaPlaylist,
+      long sequence) {
+    AtomicLong sequenceNumber = new AtomicLong(sequence);
 
-    if (!hasByteRange()) {
+    if (mediaPlaylist.getByteRanges().isEmpty()) {
       return mediaPlaylist.getSegments().stream()
           .map(s -> new MediaSegment(sequenceNumber.getAndIncrement(),
               uri.resolve(s.getURI()), Duration.ofMillis(Math.round(s.getDuration() * 1000))))
@@ -213,6 +534,260 @@ public class Playlist extends Manifest {
     return Math.max(0, reloadPeriodMillis - timeDiffMillis);
   }
 
+  public boolean isLowLatency() {
+    return !playlist.isMasterPlaylist() && findTagAttributes("EXT-X-PART-INF") != null;
+  }
+
+  public long getPartTargetDurationMillis() {
+    Map<String, String> partInf = findTagAttributes("EXT-X-PART-INF");
+    return partInf != null ? parseDuration(partInf.get("PART-TARGET")).toMillis() : 0;
+  }
+
+  public boolean canBlockReload() {
+    Map<String, String> serverControl = findTagAttributes("EXT-X-SERVER-CONTROL");
+    return serverControl != null && "YES".equals(serverControl.get("CAN-BLOCK-RELOAD"));
+  }
+
+  public long getSkipUntilMillis() {
+    Map<String, String> serverControl = findTagAttributes("EXT-X-SERVER-CONTROL");
+    return serverControl != null ? parseDuration(serverControl.get("CAN-SKIP-UNTIL")).toMillis()
+        : 0;
+  }
+
+  /*
+  As stated by the HLS spec, delta updates are only requested when this version of the playlist
+  is younger than half the skip boundary, so the skipped segments are included in it.
+  */
+  public boolean canRequestDeltaUpdate(Instant now) {
+    long skipUntilMillis = getSkipUntilMillis();
+    return skipUntilMillis > 0
+        && downloadTimestamp.until(now, ChronoUnit.MILLIS) < skipUntilMillis / 2;
+  }
+
+  public boolean isMissingSkippedSegments() {
+    return missingSkippedSegments;
+  }
+
+  public long getPartReloadTimeMillis(Instant now) {
+    return Math.max(0,
+        getPartTargetDurationMillis() - downloadTimestamp.until(now, ChronoUnit.MILLIS));
+  }
+
+  /*
+  Parts listed in the playlist, which are only kept for the most recent segments and the segment
+  being currently produced.
+  */
+  public List<PartialSegment> getPartialSegments() {
+    if (partialSegments == null) {
+      parsePartialSegments();
+    }
+    return partialSegments;
+  }
+
+  // the part announced by EXT-X-PRELOAD-HINT, or null if there is none
+  public PartialSegment getPreloadHint() {
+    if (partialSegments == null) {
+      parsePartialSegments();
+    }
+    return preloadHint;
+  }
+
+  /*
+  Parts are attached to segments in the order they appear: parts listed before an EXTINF belong
+  to that segment, and parts after the last EXTINF belong to the segment being produced. When
+  EXT-X-PROGRAM-DATE-TIME is available, the wall clock time of the end of each part is solved too,
+  to measure the latency from the live edge.
+  */
+  private void parsePartialSegments() {
+    List<PartialSegment> parts = new ArrayList<>();
+    long sequence = parsedSequence;
+    int partIndex = 0;
+    Instant segmentStart = null;
+    Duration segmentPartsDuration = Duration.ZERO;
+    PartialSegment previousPart = null;
+    UnparsedTag hintTag = null;
+    for (UnparsedTag tag : playlist.getTags()) {
+      switch (tag.getTagName()) {
+        case "EXT-X-PROGRAM-DATE-TIME":
+          segmentStart = parseDateTime(getTagValue(tag));
+          break;
+        case "EXT-X-PART":
+          Map<String, String> attributes = tag.getAttributes();
+          Duration duration = parseDuration(attributes.get("DURATION"));
+          segmentPartsDuration = segmentPartsDuration.plus(duration);
+          PartialSegment part = new PartialSegment(sequence, partIndex++,
+              uri.resolve(attributes.get("URI")), duration,
+              segmentStart != null ? segmentStart.plus(segmentPartsDuration) : null);
+          setPartByteRange(part, attributes.get("BYTERANGE"), previousPart);
+          parts.add(part);
+          previousPart = part;
+          break;
+        case "EXTINF":
+          if (segmentStart != null) {
+            segmentStart = segmentStart.plus(parseDuration(getTagValue(tag).split(",", 2)[0]));
+          }
+          sequence++;
+          partIndex = 0;
+          segmentPartsDuration = Duration.ZERO;
+          break;
+        case "EXT-X-PRELOAD-HINT":
+          hintTag = tag;
+          break;
+        default:
+          break;
+      }
+    }
+    partialSegments = parts;
+    // hints for byte ranges of a part being produced would require open ended ranges
+    if (hintTag != null && "PART".equals(hintTag.getAttributes().get("TYPE"))
+        && !hintTag.getAttributes().containsKey("BYTERANGE-START")) {
+      Duration duration = Duration.ofMillis(getPartTargetDurationMillis());
+      preloadHint = new PartialSegment(sequence, partIndex,
+          uri.resolve(hintTag.getAttributes().get("URI")), duration,
+          segmentStart != null ? segmentStart.plus(segmentPartsDuration).plus(duration) : null);
+    }
+  }
+
+  private static void setPartByteRange(PartialSegment part, String byteRange,
+      PartialSegment previousPart) {
+    if (byteRange == null) {
+      return;
+    }
+    String[] rangeParts = byteRange.split("@", 2);
+    long length = Long.parseLong(rangeParts[0].trim());
+    long offset;
+    if (rangeParts.length > 1) {
+      offset = Long.parseLong(rangeParts[1].trim());
+    } else if (previousPart != null && previousPart.hasSubRange()
+        && previousPart.getUri().equals(part.getUri())) {
+      offset = previousPart.getByteOffset() + previousPart.getByteLength();
+    } else {
+      offset = 0;
+    }
+    part.setByteRangeInfo(part.getUri(), length, offset);
+  }
+
+  public List<RenditionReport> getRenditionReports() {
+    List<RenditionReport> ret = new ArrayList<>();
+    PartialSegment lastPart = getPartialSegments().isEmpty() ? null
+        : partialSegments.get(partialSegments.size() - 1);
+    List<MediaSegment> segments = getMediaSegments();
+    long lastSequence = segments.isEmpty() ? parsedSequence - 1
+        : segments.get(segments.size() - 1).getSequenceNumber();
+    for (UnparsedTag tag : playlist.getTags()) {
+      if ("EXT-X-RENDITION-REPORT".equals(tag.getTagName())) {
+        Map<String, String> attributes = tag.getAttributes();
+        // missing attributes mean the same values as this playlist
+        String lastMsn = attributes.get("LAST-MSN");
+        String lastPartIndex = attributes.get("LAST-PART");
+        ret.add(new RenditionReport(uri.resolve(attributes.get("URI")),
+            lastMsn != null ? Long.parseLong(lastMsn) : lastSequence,
+            lastPartIndex != null ? Integer.parseInt(lastPartIndex)
+                : (lastPart != null ? lastPart.getPartIndex() : -1)));
+      }
+    }
+    return ret;
+  }
+
+  public RenditionReport findRenditionReport(URI renditionUri) {
+    return getRenditionReports().stream()
+        .filter(r -> r.getUri().equals(renditionUri))
+        .findAny()
+        .orElse(null);
+  }
+
+  /*
+  URI to reload the playlist with the given delivery directives. With a non negative media
+  sequence, it is a blocking reload which the server answers once the playlist contains the given
+  segment, or part of it when a part index (non negative) is specified. With delta update, the
+  server may skip the oldest segments of the playlist.
+  */
+  public URI buildReloadUri(long mediaSequence, int partIndex, boolean deltaUpdate) {
+    List<String> directives = new ArrayList<>();
+    // directives are sorted by name, as servers may require for better cache hit ratios
+    if (mediaSequence >= 0) {
+      directives.add(DELIVERY_DIRECTIVE_PREFIX + "msn=" + mediaSequence);
+      if (partIndex >= 0) {
+        directives.add(DELIVERY_DIRECTIVE_PREFIX + "part=" + partIndex);
+      }
+    }
+    if (deltaUpdate) {
+      directives.add(DELIVERY_DIRECTIVE_PREFIX + "skip=YES");
+    }
+    return directives.isEmpty() ? uri : addDeliveryDirectives(uri, String.join("&", directives));
+  }
+
+  public static URI buildBlockingReloadUri(URI uri, long mediaSequence, int partIndex) {
+    return addDeliveryDirectives(uri, DELIVERY_DIRECTIVE_PREFIX + "msn=" + mediaSequence
+        + (partIndex >= 0 ? "&" + DELIVERY_DIRECTIVE_PREFIX + "part=" + partIndex : ""));
+  }
+
+  private static URI addDeliveryDirectives(URI uri, String directives) {
+    String str = uri.toString();
+    int fragmentStart = str.indexOf('#');
+    String fragment = fragmentStart >= 0 ? str.substring(fragmentStart) : "";
+    String withoutFragment = fragmentStart >= 0 ? str.substring(0, fragmentStart) : str;
+    return URI.create(withoutFragment + (uri.getRawQuery() == null ? "?" : "&") + directives
+        + fragment);
+  }
+
+  // playlists are identified by their URI without the delivery directives of the request
+  private static URI removeDeliveryDirectives(URI uri) {
+    String query = uri.getRawQuery();
+    if (query == null || !query.contains(DELIVERY_DIRECTIVE_PREFIX)) {
+      return uri;
+    }
+    String str = uri.toString();
+    int queryStart = str.indexOf('?');
+    int fragmentStart = str.indexOf('#', queryStart);
+    String filteredQuery = Arrays.stream(query.split("&"))
+        .filter(p -> !p.startsWith(DELIVERY_DIRECTIVE_PREFIX))
+        .collect(Collectors.joining("&"));
+    return URI.create(str.substring(0, queryStart)
+        + (filteredQuery.isEmpty() ? "" : "?" + filteredQuery)
+        + (fragmentStart >= 0 ? str.substring(fragmentStart) : ""));
+  }
+
+  private Map<String, String> findTagAttributes(String tagName) {
+    return findTagAttributes(playlist, tagName);
+  }
+
+  private static Map<String, String> findTagAttributes(IPlaylist playlist, String tagName) {
+    for (UnparsedTag tag : playlist.getTags()) {
+      if (tagName.equals(tag.getTagName())) {
+        return tag.getAttributes();
+      }
+    }
+    return null;
+  }
+
+  private static String getTagValue(UnparsedTag tag) {
+    String[] tagParts = tag.getRawTag().split(":", 2);
+    return tagParts.length > 1 ? tagParts[1].trim() : "";
+  }
+
+  private static Duration parseDuration(String seconds) {
+    return seconds != null ? Duration.ofMillis(Math.round(Double.parseDouble(seconds) * 1000))
+        : Duration.ZERO;
+  }
+
+  private static Instant parseDateTime(String dateTime) {
+    try {
+      return OffsetDateTime.parse(dateTime, DateTimeFormatter.ISO_OFFSET_DATE_TIME).toInstant();
+    } catch (DateTimeParseException e) {
+      LOG.warn("Could not parse program date time {}", dateTime, e);
+      return null;
+    }
+  }
+
+  @Override
+  protected Playlist withDownloadTimestamp(Instant downloadTimestamp) {
+    Playlist ret = new Playlist(uri, body, downloadTimestamp, playlist, mediaSegments,
+        parsedSequence);
+    ret.missingSkippedSegments = missingSkippedSegments;
+    return ret;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -0,0 +1,34 @@
+package com.blazemeter.jmeter.videostreaming.hls;
+
+import java.net.URI;
+
+/*
+Last media sequence number and part of another rendition, as reported by EXT-X-RENDITION-REPORT,
+used to request its playlist with a blocking reload right at its live edge.
+*/
+public class RenditionReport {
+
+  private final URI uri;
+  private final long lastMediaSequence;
+  private final int lastPartIndex;
+
+  public RenditionReport(URI uri, long lastMediaSequence, int lastPartIndex) {
+    this.uri = uri;
+    this.lastMediaSequence = lastMediaSequence;
+    this.lastPartIndex = lastPartIndex;
+  }
+
+  public URI getUri() {
+    return uri;
+  }
+
+  public long getLastMediaSequence() {
+    return lastMediaSequence;
+  }
+
+  // -1 when the rendition has no parts
+  public int getLastPartIndex() {
+    return lastPartIndex;
+  }
+
+}
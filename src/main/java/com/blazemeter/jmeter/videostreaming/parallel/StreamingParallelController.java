@@ -1,7 +1,10 @@
 package com.blazemeter.jmeter.videostreaming.parallel;
 
+import com.blazemeter.jmeter.videostreaming.core.StreamingMetrics;
 import com.blazemeter.jmeter.videostreaming.core.StreamingSliceCoordinator;
 import com.blazemeter.jmeter.videostreaming.core.StreamingSliceCoordinator.SliceExit;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.LongSupplier;
 import org.apache.jmeter.control.GenericController;
 import org.apache.jmeter.samplers.AbstractSampler;
@@ -14,13 +17,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Runs a heartbeat branch "in parallel" with a streaming sampler on a single JMeter thread by time
- * slicing the streaming playback.
+ * Runs a heartbeat branch "in parallel" with one or more streaming samplers on a single JMeter
+ * thread by time slicing the streaming playbacks.
  *
- * <p>The streaming sampler (a {@code bzm - Streaming Sampler}) must be a direct child. Every other
- * direct child forms the heartbeat branch, which is dispatched once every configured interval while
- * playback keeps running in bounded slices in between. This avoids the per-thread cost of the
- * JMeter Parallel Controller while still emitting periodic requests during playback.
+ * <p>The streaming samplers (a {@code bzm - Streaming Sampler}) must be direct children. Every
+ * other direct child forms the heartbeat branch, which is dispatched once every configured
+ * interval while playback keeps running in bounded slices in between. This avoids the per-thread
+ * cost of the JMeter Parallel Controller while still emitting periodic requests during playback.
+ *
+ * <p>When there are several streaming samplers (like a multi-view client), slices are dispatched to
+ * them in round-robin, each one keeping its own playback session. A sampler which has to wait for
+ * its next playlist reload or segment availability ends its slice, so the rest can play in the
+ * meantime, and it is resumed once its wait is over.
+ *
+ * <p>Slices cut by their deadline end once the step in progress (like a segment download or a
+ * playlist reload) ends, so the controller learns from each sampler how long its slices overrun
+ * their deadlines (its typical work unit), and ends its slices that much earlier before the
+ * heartbeat is due, running the heartbeat right away when there is no room for a work unit before
+ * it. Heartbeat lateness, slice overruns and the time left to the heartbeat on each slice are
+ * recorded in {@link StreamingMetrics}.
  */
 public class StreamingParallelController extends GenericController {
 
@@ -34,12 +49,22 @@ public class StreamingParallelController extends GenericController {
   private static final long MAX_INTERVAL_MILLIS = 24L * 60L * 60L * 1000L;
   private static final long MAX_SLICE_MILLIS =
       JMeterUtils.getPropDefault("hls.parallel.max_slice_millis", 5000L);
+  private static final boolean ADAPTIVE_SLICES =
+      JMeterUtils.getPropDefault("hls.parallel.adaptive_slices", true);
+  // shorter waits are kept in the slice, since switching to another sampler would take longer
+  private static final long MIN_RELEASED_WAIT_MILLIS = 10L;
+  // weight of the last overrun in the learned work unit of a sampler
+  private static final int WORK_UNIT_SMOOTHING = 4;
 
   private enum Phase {
     STREAMING, HEARTBEAT
   }
 
-  private transient Sampler streamingSampler;
+  private transient List<StreamingTrack> tracks = new ArrayList<>();
+  private transient StreamingTrack slicedTrack;
+  private transient long sliceDeadlineNanos;
+  private transient int lastTrackIndex = -1;
+  private transient int passthroughTrackIndex;
   private transient GenericController heartbeatBranch;
   private transient int heartbeatChildCount;
   private transient Phase phase;
@@ -53,12 +78,7 @@ public class StreamingParallelController extends GenericController {
   @Override
   public void addTestElement(TestElement child) {
     if (child instanceof com.blazemeter.jmeter.hls.logic.HlsSampler) {
-      if (streamingSampler == null) {
-        streamingSampler = (Sampler) child;
-      } else {
-        LOG.warn("StreamingParallelController '{}' has more than one Streaming Sampler as a direct "
-            + "child; only the first one is used as the primary playback track.", getName());
-      }
+      tracks.add(new StreamingTrack((Sampler) child));
     } else {
       heartbeatBranch().addTestElement(child);
       heartbeatChildCount++;
@@ -95,12 +115,16 @@ public class StreamingParallelController extends GenericController {
     phase = Phase.STREAMING;
     dueNanos = 0;
     pendingMessageEmitted = false;
+    slicedTrack = null;
+    lastTrackIndex = -1;
+    passthroughTrackIndex = 0;
+    tracks.forEach(StreamingTrack::reset);
     setFirst(true);
   }
 
   @Override
   public Sampler next() {
-    if (streamingSampler == null) {
+    if (tracks.isEmpty()) {
       return misconfiguredNext();
     }
 
@@ -124,27 +148,54 @@ public class StreamingParallelController extends GenericController {
       if (heartbeat != null) {
         return heartbeat;
       }
-      dueNanos = nowNanos() + intervalMillis * NANOS_PER_MILLI;
+      scheduleNextHeartbeat(nowNanos());
       phase = Phase.STREAMING;
     }
 
-    SliceExit exit = StreamingSliceCoordinator.getExit();
-    if (exit != null && exit != SliceExit.YIELD) {
+    if (slicedTrack != null && !endSlice()) {
       return endSession();
     }
 
     long now = nowNanos();
-    if (hasHeartbeat() && now >= dueNanos) {
+    StreamingTrack track = findNextTrack(now);
+    // a slice which would not fit a work unit before the heartbeat would be cut right before it
+    if (hasHeartbeat() && now >= dueNanos - getExpectedOverrunNanos(track)) {
       phase = Phase.HEARTBEAT;
+      recordMillis(StreamingMetrics.HEARTBEAT_LATENESS, now - dueNanos);
       Sampler heartbeat = heartbeatBranch.next();
       if (heartbeat != null) {
         return heartbeat;
       }
-      dueNanos = now + intervalMillis * NANOS_PER_MILLI;
+      scheduleNextHeartbeat(now);
       phase = Phase.STREAMING;
     }
 
-    return dispatchStreamingSlice();
+    return dispatchStreamingSlice(track);
+  }
+
+  /*
+  The next heartbeat is due one interval after the one which just ran was due, instead of one
+  interval after it ended, so heartbeats don't drift by their lateness and duration. Heartbeats
+  missed by one running more than an interval late are skipped, keeping the schedule.
+  */
+  private void scheduleNextHeartbeat(long now) {
+    long intervalNanos = intervalMillis * NANOS_PER_MILLI;
+    dueNanos += intervalNanos;
+    if (now - dueNanos > 0) {
+      dueNanos += (now - dueNanos + intervalNanos - 1) / intervalNanos * intervalNanos;
+    }
+  }
+
+  /*
+  Slices are ended this long before the heartbeat, capped to half the interval, so samplers whose
+  slices overrun more than the interval don't make heartbeats run back to back.
+  */
+  private long getExpectedOverrunNanos(StreamingTrack track) {
+    return Math.min(track.getExpectedOverrunNanos(), intervalMillis * NANOS_PER_MILLI / 2);
+  }
+
+  private static void recordMillis(String metric, long nanos) {
+    StreamingMetrics.record(metric, Math.max(0, nanos) / NANOS_PER_MILLI);
   }
 
   private long nowNanos() {
@@ -155,15 +206,100 @@ public class StreamingParallelController extends GenericController {
     this.nanoClock = clock;
   }
 
-  private Sampler dispatchStreamingSlice() {
+  /*
+  Keeps the exit of the last slice in its track, and returns false when the session has to end,
+  since all the tracks finished or the playback was interrupted.
+  */
+  private boolean endSlice() {
+    StreamingTrack track = slicedTrack;
+    slicedTrack = null;
+    SliceExit exit = StreamingSliceCoordinator.getExit();
+    if (exit == SliceExit.INTERRUPTED) {
+      return false;
+    }
+    if (exit == null || exit == SliceExit.YIELD) {
+      track.wakeUpNanos = StreamingSliceCoordinator.getWakeUpNanos();
+      long overrunNanos = nowNanos() - sliceDeadlineNanos;
+      if (track.wakeUpNanos == 0 && sliceDeadlineNanos != Long.MAX_VALUE && overrunNanos >= 0) {
+        recordMillis(StreamingMetrics.SLICE_OVERRUN, overrunNanos);
+        track.learnOverrun(overrunNanos);
+      }
+    } else {
+      // a failing track doesn't stop the rest of the playbacks
+      track.finished = true;
+    }
+    return tracks.stream().anyMatch(t -> !t.finished);
+  }
+
+  private Sampler dispatchStreamingSlice(StreamingTrack track) {
     long now = nowNanos();
-    // when there is no heartbeat branch there is nothing to interleave, so let playback run whole
-    long deadline = hasHeartbeat()
-        ? Math.min(dueNanos, now + MAX_SLICE_MILLIS * NANOS_PER_MILLI)
-        : Long.MAX_VALUE;
-    StreamingSliceCoordinator.setDeadlineNanos(deadline);
-    StreamingSliceCoordinator.setExit(null);
-    return streamingSampler;
+    // when there is nothing to interleave, let playback run whole
+    long deadline = Long.MAX_VALUE;
+    if (hasHeartbeat() || tracks.size() > 1) {
+      deadline = now + MAX_SLICE_MILLIS * NANOS_PER_MILLI;
+    }
+    if (hasHeartbeat()) {
+      recordMillis(StreamingMetrics.HEARTBEAT_DUE, dueNanos - now);
+      long expectedOverrunNanos = getExpectedOverrunNanos(track);
+      long heartbeatDeadline = dueNanos - expectedOverrunNanos;
+      // the slice is extended up to the heartbeat instead of cutting it by its max length when
+      // there would be no room for another work unit between them
+      if (heartbeatDeadline - deadline < expectedOverrunNanos) {
+        deadline = heartbeatDeadline;
+      }
+    }
+    long minReleaseMillis = -1;
+    Long othersWakeUpNanos = findOthersWakeUpNanos(track, now);
+    if (othersWakeUpNanos != null && othersWakeUpNanos - now <= 0) {
+      // other tracks are ready to play, so waits of this one end the slice
+      minReleaseMillis = MIN_RELEASED_WAIT_MILLIS;
+    } else if (othersWakeUpNanos != null) {
+      // this track waits in its slice until the next one has to be resumed, and longer waits end
+      // the slice, so the track is resumed at its own wake up
+      deadline = Math.min(deadline, othersWakeUpNanos);
+    }
+    StreamingSliceCoordinator.beginSlice(track.newSession, deadline, minReleaseMillis);
+    track.newSession = false;
+    slicedTrack = track;
+    sliceDeadlineNanos = deadline;
+    lastTrackIndex = tracks.indexOf(track);
+    return track.sampler;
+  }
+
+  /*
+  Next track in round-robin which is ready to play, or the one to be resumed first when all of
+  them are waiting.
+  */
+  private StreamingTrack findNextTrack(long now) {
+    StreamingTrack ret = null;
+    for (int i = 1; i <= tracks.size(); i++) {
+      StreamingTrack track = tracks.get((lastTrackIndex + i) % tracks.size());
+      if (track.finished) {
+        continue;
+      }
+      if (track.isReady(now)) {
+        return track;
+      }
+      if (ret == null || track.wakeUpNanos - ret.wakeUpNanos < 0) {
+        ret = track;
+      }
+    }
+    return ret;
+  }
+
+  // null when there are no other tracks to play
+  private Long findOthersWakeUpNanos(StreamingTrack track, long now) {
+    Long ret = null;
+    for (StreamingTrack other : tracks) {
+      if (other == track || other.finished) {
+        continue;
+      }
+      long wakeUpNanos = other.isReady(now) ? now : other.wakeUpNanos;
+      if (ret == null || wakeUpNanos - ret < 0) {
+        ret = wakeUpNanos;
+      }
+    }
+    return ret;
   }
 
   private Sampler endSession() {
@@ -241,9 +377,8 @@ public class StreamingParallelController extends GenericController {
           getName());
       nestedWarned = true;
     }
-    if (!pendingMessageEmitted) {
-      pendingMessageEmitted = true;
-      return streamingSampler;
+    if (passthroughTrackIndex < tracks.size()) {
+      return tracks.get(passthroughTrackIndex++).sampler;
     }
     Sampler heartbeat = heartbeatBranch != null ? heartbeatBranch.next() : null;
     if (heartbeat == null) {
@@ -268,6 +403,41 @@ public class StreamingParallelController extends GenericController {
     setProperty(RUN_IMMEDIATELY, runImmediately);
   }
 
+  private static class StreamingTrack {
+
+    private final Sampler sampler;
+    private boolean newSession = true;
+    private boolean finished;
+    // 0 when the track is not waiting
+    private long wakeUpNanos;
+    // kept between iterations, since it depends on the stream and the server
+    private long workUnitNanos;
+
+    private StreamingTrack(Sampler sampler) {
+      this.sampler = sampler;
+    }
+
+    private void reset() {
+      newSession = true;
+      finished = false;
+      wakeUpNanos = 0;
+    }
+
+    private boolean isReady(long nowNanos) {
+      return wakeUpNanos == 0 || wakeUpNanos - nowNanos <= 0;
+    }
+
+    private void learnOverrun(long overrunNanos) {
+      workUnitNanos = workUnitNanos == 0 ? overrunNanos
+          : workUnitNanos + (overrunNanos - workUnitNanos) / WORK_UNIT_SMOOTHING;
+    }
+
+    private long getExpectedOverrunNanos() {
+      return ADAPTIVE_SLICES ? workUnitNanos : 0;
+    }
+
+  }
+
   private static class MessageSampler extends AbstractSampler {
 
     private final String message;
@@ -1,9 +1,16 @@
 package com.blazemeter.jmeter.hls.logic;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.only;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import com.blazemeter.jmeter.JMeterTestUtils;
+
 import com.blazemeter.jmeter.videostreaming.core.MediaSegment;
 import com.blazemeter.jmeter.videostreaming.core.SampleResultProcessor;
 import com.blazemeter.jmeter.videostreaming.core.TimeMachine;
@@ -11,8 +18,10 @@ import com.blazemeter.jmeter.videostreaming.core.VideoStreamingHttpClient;
 import com.blazemeter.jmeter.videostreaming.core.VideoStreamingSampler;
 import com.blazemeter.jmeter.videostreaming.hls.Playlist;
 import org.junit.Before;
+import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
@@ -32,6 +41,11 @@ public class HlsSamplerTest {
 
   private HlsSampler hlsSampler;
 
+  @BeforeClass
+  public static void setupClass() {
+    JMeterTestUtils.setupJmeterEnv();
+  }
+
   @Before
   public void setUp() {
     hlsSampler = new HlsSampler(factory, client, processor, timeMachine);
@@ -50,4 +64,40 @@ public class HlsSamplerTest {
     verify(factory, only())
         .getVideoStreamingSampler(masterUrl, hlsSampler, client, timeMachine, processor);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void shouldSampleEachViewerWithItsOwnClientWhenViewersPerThread() {
+    String masterUrl = "hls_master_playlist.m3u8";
+    hlsSampler.setMasterUrl(masterUrl);
+    hlsSampler.setViewersPerThread("3");
+
+    doReturn(videoStreamingSampler)
+        .when(factory)
+        .getVideoStreamingSampler(eq(masterUrl), eq(hlsSampler),
+            any(VideoStreamingHttpClient.class), eq(timeMachine), eq(processor));
+
+    hlsSampler.sample();
+    verify(factory, times(3))
+        .getVideoStreamingSampler(eq(masterUrl), eq(hlsSampler), argThat(c -> c != client),
+            eq(timeMachine), eq(processor));
+    verify(videoStreamingSampler, times(3)).sample();
+  }
+
+  @Test
+  public void shouldResetTimeMachineWhenSamplingAfterInterruptedIteration() {
+    String masterUrl = "hls_master_playlist.m3u8";
+    hlsSampler.setMasterUrl(masterUrl);
+
+    doReturn(videoStreamingSampler)
+        .when(factory)
+        .getVideoStreamingSampler(masterUrl, hlsSampler, client, timeMachine, processor);
+
+    hlsSampler.interrupt();
+    hlsSampler.testIterationStart(null);
+    hlsSampler.sample();
+    InOrder inOrder = inOrder(timeMachine, videoStreamingSampler);
+    inOrder.verify(timeMachine).interrupt();
+    inOrder.verify(timeMachine).reset();
+    inOrder.verify(videoStreamingSampler).sample();
+  }
+}
@@ -2,13 +2,16 @@ package com.blazemeter.jmeter.videostreaming;
 
 import static org.assertj.core.api.Java6Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.blazemeter.jmeter.JMeterTestUtils;
 import com.blazemeter.jmeter.videostreaming.core.SampleResultProcessor;
+import com.blazemeter.jmeter.videostreaming.core.SharedManifestCache;
 import com.blazemeter.jmeter.videostreaming.core.TimeMachine;
 import com.blazemeter.jmeter.videostreaming.core.VideoStreamingHttpClient;
 import com.blazemeter.jmeter.videostreaming.core.VideoStreamingSampler;
@@ -20,10 +23,12 @@ import java.net.URI;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import org.apache.jmeter.protocol.http.sampler.HTTPSampleResult;
 import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jmeter.util.JMeterUtils;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
@@ -40,6 +45,12 @@ public abstract class VideoStreamingSamplerTest {
   protected static final String VIDEO_TYPE_NAME = "video";
   protected static final String AUDIO_TYPE_NAME = "audio";
   protected static final String SUBTITLES_TYPE_NAME = "subtitles";
+  private static final String[] PLUGIN_PROPERTIES = {
+      VideoStreamingSampler.RELEASE_SEGMENT_RESPONSE_DATA_PROP,
+      VideoStreamingSampler.RELEASE_PLAYLIST_RESPONSE_DATA_PROP,
+      VideoStreamingSampler.DISCARD_SEGMENT_RESPONSE_DATA_PROP,
+      VideoStreamingSampler.CONDITIONAL_PLAYLIST_REQUESTS_PROP,
+      SharedManifestCache.ENABLED_PROPERTY_NAME};
 
   protected com.blazemeter.jmeter.hls.logic.HlsSampler baseSampler;
   protected SegmentResultFallbackUriSamplerMock uriSampler = new SegmentResultFallbackUriSamplerMock();
@@ -129,11 +140,63 @@ public abstract class VideoStreamingSamplerTest {
   @Before
   public void setUp() {
     JMeterTestUtils.setupJmeterEnv();
-    JMeterUtils.setProperty(VideoStreamingSampler.RELEASE_SEGMENT_RESPONSE_DATA_PROP, "false");
-    JMeterUtils.setProperty(VideoStreamingSampler.RELEASE_PLAYLIST_RESPONSE_DATA_PROP, "false");
+    disablePluginProperties();
+    stubAsyncDownloads();
+    buildSampler(uriSampler);
+  }
+
+  /*
+  With the blocking engine the asynchronous downloads of the client are just completed with the
+  result of the blocking ones, so tests stub (and verify) the blocking ones. Chunk timing is
+  ignored, since stubbed results have no chunks to time.
+  */
+  private void stubAsyncDownloads() {
+    lenient().doAnswer(a -> CompletableFuture.completedFuture(
+        httpClient.downloadUri(a.getArgument(0, URI.class))))
+        .when(httpClient).downloadUriAsync(any());
+    lenient().doAnswer(a -> CompletableFuture.completedFuture(
+        downloadUri(a.getArgument(0, URI.class), a.getArgument(1, Boolean.class))))
+        .when(httpClient).downloadUriAsync(any(), anyBoolean());
+    lenient().doAnswer(a -> CompletableFuture.completedFuture(
+        downloadUri(a.getArgument(0, URI.class), a.getArgument(1, Boolean.class))))
+        .when(httpClient).downloadUriAsync(any(), anyBoolean(), anyBoolean());
+    lenient().doAnswer(a -> CompletableFuture.completedFuture(
+        httpClient.downloadUriIfModified(a.getArgument(0, URI.class),
+            a.getArgument(1, String.class), a.getArgument(2, String.class))))
+        .when(httpClient).downloadUriIfModifiedAsync(any(), any(), any());
+  }
+
+  private HTTPSampleResult downloadUri(URI uri, boolean discardBody) {
+    return discardBody ? httpClient.downloadUri(uri, true) : httpClient.downloadUri(uri);
+  }
+
+  @After
+  public void tearDown() {
+    disablePluginProperties();
+  }
+
+  private static void disablePluginProperties() {
+    for (String property : PLUGIN_PROPERTIES) {
+      JMeterUtils.setProperty(property, "false");
+    }
+    resetPluginPropertyCaches();
+  }
+
+  private static void resetPluginPropertyCaches() {
     VideoStreamingSampler.resetReleaseSegmentResponseDataCache();
     VideoStreamingSampler.resetReleasePlaylistResponseDataCache();
-    buildSampler(uriSampler);
+    VideoStreamingSampler.resetDiscardSegmentResponseDataCache();
+    VideoStreamingSampler.resetConditionalPlaylistRequestsCache();
+    SharedManifestCache.reset();
+  }
+
+  /*
+  Enables one of the plugin flags for the current test. The flags (and the caches of their values)
+  are restored after each test, so tests don't need to restore them.
+  */
+  protected static void enablePluginProperty(String property) {
+    JMeterUtils.setProperty(property, "true");
+    resetPluginPropertyCaches();
   }
 
   protected void buildSampler(Function<URI, HTTPSampleResult> uriSampler) {
@@ -185,4 +248,19 @@ public abstract class VideoStreamingSamplerTest {
         .isEqualTo(ComparableSampleResult.listFrom(Arrays.asList(results)));
   }
 
+  protected void verifySampleResultsInAnyOrder(SampleResult... results) {
+    ArgumentCaptor<String> sampleNamesCaptor = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<SampleResult> sampleResultCaptor = ArgumentCaptor.forClass(SampleResult.class);
+    verify(sampleResultProcessor, atLeastOnce())
+        .accept(sampleNamesCaptor.capture(), sampleResultCaptor.capture());
+
+    Iterator<String> sampleNameIt = sampleNamesCaptor.getAllValues().iterator();
+    for (SampleResult sampleResult : sampleResultCaptor.getAllValues()) {
+      sampleResult.setSampleLabel(SAMPLER_NAME + " - " + sampleNameIt.next());
+    }
+    assertThat(ComparableSampleResult.listFrom(sampleResultCaptor.getAllValues()))
+        .containsExactlyInAnyOrderElementsOf(
+            ComparableSampleResult.listFrom(Arrays.asList(results)));
+  }
+
 }
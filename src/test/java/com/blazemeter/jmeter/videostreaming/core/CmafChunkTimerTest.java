@@ -0,0 +1,77 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class CmafChunkTimerTest {
+
+  static byte[] buildBox(String type, int payloadSize) {
+    ByteBuffer ret = ByteBuffer.allocate(8 + payloadSize);
+    ret.putInt(8 + payloadSize);
+    ret.put(type.getBytes(StandardCharsets.US_ASCII));
+    return ret.array();
+  }
+
+  static byte[] buildChunks(int count) throws IOException {
+    ByteArrayOutputStream ret = new ByteArrayOutputStream();
+    ret.write(buildBox("styp", 16));
+    for (int i = 0; i < count; i++) {
+      ret.write(buildBox("moof", 100));
+      ret.write(buildBox("mdat", 1000));
+    }
+    return ret.toByteArray();
+  }
+
+  private static String[] findChunkTimes(CmafChunkTimer timer) {
+    String headers = timer.buildResponseHeaders(System.currentTimeMillis());
+    String prefix = "X-MEDIA-SEGMENT-CHUNK-TIMES: ";
+    int start = headers.indexOf(prefix);
+    return start < 0 ? new String[0]
+        : headers.substring(start + prefix.length(), headers.indexOf('\n', start)).split(",");
+  }
+
+  @Test
+  public void shouldRegisterEveryChunkWhenBodyIsReceivedInOneBuffer() throws IOException {
+    CmafChunkTimer timer = new CmafChunkTimer();
+    byte[] body = buildChunks(3);
+    timer.update(body, 0, body.length);
+    assertThat(findChunkTimes(timer)).hasSize(3);
+  }
+
+  @Test
+  public void shouldRegisterEveryChunkWhenBoxHeadersAreSplitAcrossBuffers() throws IOException {
+    CmafChunkTimer timer = new CmafChunkTimer();
+    byte[] body = buildChunks(2);
+    for (int i = 0; i < body.length; i += 3) {
+      timer.update(body, i, Math.min(3, body.length - i));
+    }
+    assertThat(findChunkTimes(timer)).hasSize(2);
+  }
+
+  @Test
+  public void shouldRegisterChunkWhenMdatHasLargeSize() {
+    ByteBuffer body = ByteBuffer.allocate(16 + 10);
+    body.putInt(1);
+    body.put("mdat".getBytes(StandardCharsets.US_ASCII));
+    body.putLong(26);
+    body.rewind();
+    CmafChunkTimer timer = new CmafChunkTimer();
+    timer.update(body);
+    assertThat(findChunkTimes(timer)).hasSize(1);
+    assertThat(body.position()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldNotBuildHeadersWhenBodyIsNotCmaf() {
+    CmafChunkTimer timer = new CmafChunkTimer();
+    byte[] body = "#EXTM3U\n#EXT-X-VERSION:3\n".getBytes(StandardCharsets.UTF_8);
+    timer.update(body, 0, body.length);
+    assertThat(timer.buildResponseHeaders(0)).isEmpty();
+  }
+
+}
@@ -0,0 +1,92 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+  private static final Instant NOW = Instant.parse("2024-01-13T20:09:50Z");
+  private static final long TTL_MILLIS = 60_000;
+  private static final long TIMEOUT_MILLIS = 5000;
+
+  private final ExpiringCache<String, String> cache = new ExpiringCache<>(TTL_MILLIS, 2);
+
+  @Test
+  public void shouldGetFreshEntryUntilTimeToLive() {
+    cache.put("key", "value", NOW);
+    ExpiringCache.Entry<String> entry = cache.getEntry("key");
+    assertThat(entry.getValue()).isEqualTo("value");
+    assertThat(entry.isFresh(NOW.plusMillis(TTL_MILLIS - 1))).isTrue();
+    assertThat(entry.isFresh(NOW.plusMillis(TTL_MILLIS))).isFalse();
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedEntryWhenFull() {
+    cache.put("first", "value", NOW);
+    cache.put("second", "value", NOW);
+    cache.getEntry("first");
+    cache.put("third", "value", NOW);
+    assertThat(cache.getEntry("second")).isNull();
+    assertThat(cache.getEntry("first")).isNotNull();
+  }
+
+  @Test
+  public void shouldNotLoadAgainWhenValueIsFresh() {
+    AtomicInteger loads = new AtomicInteger();
+    cache.get("key", () -> NOW, () -> "value" + loads.incrementAndGet());
+    assertThat(cache.get("key", () -> NOW.plusMillis(TTL_MILLIS - 1),
+        () -> "value" + loads.incrementAndGet())).isEqualTo("value1");
+  }
+
+  @Test
+  public void shouldLoadAgainWhenLoadedValueIsNull() {
+    cache.get("key", () -> NOW, () -> null);
+    assertThat(cache.get("key", () -> NOW, () -> "value")).isEqualTo("value");
+  }
+
+  @Test
+  public void shouldShareLoadBetweenConcurrentCallersOfSameKey() throws Exception {
+    CountDownLatch loading = new CountDownLatch(1);
+    CompletableFuture<String> loaded = new CompletableFuture<>();
+    AtomicInteger loads = new AtomicInteger();
+    CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> cache.get("key",
+        () -> NOW, () -> {
+          loads.incrementAndGet();
+          loading.countDown();
+          return loaded.join();
+        }));
+    loading.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> cache.get("key",
+        () -> NOW, () -> "value" + loads.incrementAndGet()));
+    loaded.complete("value");
+    assertThat(first.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)).isEqualTo("value");
+    assertThat(second.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)).isEqualTo("value");
+    assertThat(loads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldGetOtherKeysWhileLoadingKey() throws Exception {
+    CountDownLatch loading = new CountDownLatch(1);
+    CompletableFuture<String> loaded = new CompletableFuture<>();
+    CompletableFuture<String> slow = CompletableFuture.supplyAsync(() -> cache.get("slow",
+        () -> NOW, () -> {
+          loading.countDown();
+          return loaded.join();
+        }));
+    loading.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    try {
+      assertThat(cache.get("other", () -> NOW, () -> "value")).isEqualTo("value");
+      assertThat(slow.isDone()).isFalse();
+    } finally {
+      loaded.complete("value");
+    }
+    slow.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+}
@@ -0,0 +1,68 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class PlaybackSchedulerTest {
+
+  private static final long TICK_MILLIS = 5;
+
+  private final PlaybackScheduler scheduler = new PlaybackScheduler(TICK_MILLIS);
+
+  @Test
+  public void shouldRunTasksInDeadlineOrderWhenDeadlinesAreReached() throws Exception {
+    List<Integer> runs = new CopyOnWriteArrayList<>();
+    CountDownLatch done = new CountDownLatch(3);
+    long now = System.nanoTime();
+    long[] runNanos = new long[3];
+    for (int i : new int[]{2, 0, 1}) {
+      scheduler.schedule(now + TimeUnit.MILLISECONDS.toNanos(20 + i * 30L), () -> {
+        runNanos[i] = System.nanoTime();
+        runs.add(i);
+        done.countDown();
+      });
+    }
+    assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(runs).containsExactly(0, 1, 2);
+    for (int i = 0; i < runNanos.length; i++) {
+      assertThat(runNanos[i]).isGreaterThanOrEqualTo(now + TimeUnit.MILLISECONDS.toNanos(
+          20 + i * 30L));
+    }
+  }
+
+  @Test
+  public void shouldRunTaskWhenDeadlineIsBeyondOneWheelRound() throws Exception {
+    CountDownLatch done = new CountDownLatch(1);
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS * 600);
+    scheduler.schedule(deadline, done::countDown);
+    assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(System.nanoTime()).isGreaterThanOrEqualTo(deadline);
+  }
+
+  @Test
+  public void shouldNotRunTaskWhenCancelled() throws Exception {
+    CountDownLatch cancelled = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(1);
+    long now = System.nanoTime();
+    scheduler.schedule(now + TimeUnit.MILLISECONDS.toNanos(20), cancelled::countDown).cancel();
+    scheduler.schedule(now + TimeUnit.MILLISECONDS.toNanos(40), done::countDown);
+    assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(cancelled.getCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldRunTaskOnlyOnceWhenRunBeforeDeadline() throws Exception {
+    CountDownLatch runs = new CountDownLatch(2);
+    PlaybackScheduler.Timeout timeout = scheduler.schedule(System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(20), runs::countDown);
+    timeout.runNow();
+    assertThat(runs.await(100, TimeUnit.MILLISECONDS)).isFalse();
+    assertThat(runs.getCount()).isEqualTo(1);
+  }
+
+}
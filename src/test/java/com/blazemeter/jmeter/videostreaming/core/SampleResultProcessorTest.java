@@ -161,6 +161,48 @@ public class SampleResultProcessorTest {
     assertThat(result.isSuccessful()).isTrue();
   }
 
+  @Test
+  public void shouldSetFailResultWhenMpdPatchAssertionFailsOnMpdPatchSample() throws Exception {
+    buildFailedAssertionWithLabelType("mpd patch");
+    SampleResult result = buildSampleResultWithUrl(TEST_URL);
+    processor.accept("mpd patch", result);
+    assertThat(result.isSuccessful()).isFalse();
+  }
+
+  @Test
+  public void shouldKeepSuccessResultWhenMpdPatchAssertionFailsOnMasterSample() throws Exception {
+    buildFailedAssertionWithLabelType("mpd patch");
+    SampleResult result = buildSampleResultWithUrl(TEST_URL);
+    processor.accept("master", result);
+    assertThat(result.isSuccessful()).isTrue();
+  }
+
+  @Test
+  public void shouldKeepSuccessResultWhenRemotePeriodAssertionFailsOnOtherSample()
+      throws Exception {
+    buildFailedAssertionWithLabelType("remote period");
+    SampleResult result = buildSampleResultWithUrl(TEST_URL);
+    processor.accept(MEDIA_SEGMENT_SAMPLE_TYPE, result);
+    assertThat(result.isSuccessful()).isTrue();
+  }
+
+  @Test
+  public void shouldKeepSuccessResultWhenUtcTimingAssertionFailsOnOtherSample() throws Exception {
+    buildFailedAssertionWithLabelType("utc timing");
+    SampleResult result = buildSampleResultWithUrl(TEST_URL);
+    processor.accept(MEDIA_SEGMENT_SAMPLE_TYPE, result);
+    assertThat(result.isSuccessful()).isTrue();
+  }
+
+  @Test
+  public void shouldKeepSuccessResultWhenIndexSegmentAssertionFailsOnOtherSample()
+      throws Exception {
+    buildFailedAssertionWithLabelType("video index segment");
+    SampleResult result = buildSampleResultWithUrl(TEST_URL);
+    processor.accept("video segment", result);
+    assertThat(result.isSuccessful()).isTrue();
+  }
+
   @Test
   public void shouldGetExtractedVariableWhenExtractorWithSameLabelType()
       throws Exception {
@@ -3,6 +3,10 @@ package com.blazemeter.jmeter.videostreaming.core;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import com.blazemeter.jmeter.videostreaming.core.StreamingSliceCoordinator.SliceExit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.Test;
 
@@ -184,4 +188,97 @@ public class StreamingSliceCoordinatorTest {
       // spin
     }
   }
+
+  @Test
+  public void shouldNotReleaseWaitWhenNotRunningScheduledStep() {
+    StreamingSliceCoordinator.beginIteration();
+    assertThat(StreamingSliceCoordinator.releaseWait(1000)).isFalse();
+    assertThat(StreamingSliceCoordinator.shouldYield()).isFalse();
+  }
+
+  @Test
+  public void shouldYieldWithEarliestWakeUpWhenScheduledStepReleasesWaits() {
+    StreamingSliceCoordinator.beginScheduledStep(20);
+    long start = System.nanoTime();
+    assertThat(StreamingSliceCoordinator.releaseWait(5000)).isTrue();
+    assertThat(StreamingSliceCoordinator.releaseWait(1000)).isTrue();
+    assertThat(StreamingSliceCoordinator.shouldYield()).isTrue();
+    assertThat(StreamingSliceCoordinator.getWakeUpNanos() - start)
+        .isBetween(1_000_000_000L, 2_000_000_000L);
+  }
+
+  @Test
+  public void shouldYieldWithWakeUpWhenSliceReleasesCutWait() {
+    StreamingSliceCoordinator.beginIteration();
+    StreamingSliceCoordinator.beginSlice(false, System.nanoTime(), -1);
+    long start = System.nanoTime();
+    assertThat(StreamingSliceCoordinator.releaseCutWait(1000)).isTrue();
+    assertThat(StreamingSliceCoordinator.getWakeUpNanos() - start)
+        .isBetween(1_000_000_000L, 2_000_000_000L);
+  }
+
+  @Test
+  public void shouldNotReleaseCutWaitWhenNotActive() {
+    assertThat(StreamingSliceCoordinator.releaseCutWait(1000)).isFalse();
+    assertThat(StreamingSliceCoordinator.getWakeUpNanos()).isZero();
+  }
+
+  @Test
+  public void shouldNotReleaseWaitWhenShorterThanMinimum() {
+    StreamingSliceCoordinator.beginScheduledStep(20);
+    assertThat(StreamingSliceCoordinator.releaseWait(10)).isFalse();
+    assertThat(StreamingSliceCoordinator.shouldYield()).isFalse();
+  }
+
+  @Test
+  public void shouldKeepSessionAndReleaseWaitsOfSamplerWhenSliceBegins() {
+    StreamingSliceCoordinator.beginIteration();
+    StreamingSliceCoordinator.beginSlice(false, System.nanoTime() + 60_000_000_000L, 20);
+    assertThat(StreamingSliceCoordinator.consumeNewSession()).isFalse();
+    assertThat(StreamingSliceCoordinator.releaseWait(1000)).isTrue();
+    assertThat(StreamingSliceCoordinator.shouldYield()).isTrue();
+    StreamingSliceCoordinator.setExit(SliceExit.YIELD);
+
+    StreamingSliceCoordinator.beginSlice(true, System.nanoTime() + 60_000_000_000L, -1);
+    assertThat(StreamingSliceCoordinator.consumeNewSession()).isTrue();
+    assertThat(StreamingSliceCoordinator.getExit()).isNull();
+    assertThat(StreamingSliceCoordinator.releaseWait(1000)).isFalse();
+    assertThat(StreamingSliceCoordinator.shouldYield()).isFalse();
+  }
+
+  @Test
+  public void shouldReleaseDownloadInFlightWhenRunningScheduledStep() {
+    CompletableFuture<Void> download = new CompletableFuture<>();
+    StreamingSliceCoordinator.beginScheduledStep(20);
+    assertThat(StreamingSliceCoordinator.releaseUntilDownloaded(download)).isTrue();
+    assertThat(StreamingSliceCoordinator.shouldYield()).isTrue();
+    assertThat(StreamingSliceCoordinator.getAwaitedDownloads()).containsExactly(download);
+  }
+
+  @Test
+  public void shouldNotReleaseDownloadWhenSlicedByController() {
+    StreamingSliceCoordinator.beginIteration();
+    StreamingSliceCoordinator.beginSlice(false, System.nanoTime() + 60_000_000_000L, 20);
+    assertThat(StreamingSliceCoordinator.releaseUntilDownloaded(new CompletableFuture<>()))
+        .isFalse();
+    assertThat(StreamingSliceCoordinator.shouldYield()).isFalse();
+  }
+
+  @Test
+  public void shouldMergeReleasesOfWorkerWhenBoundTaskEnds() throws Exception {
+    CompletableFuture<Void> download = new CompletableFuture<>();
+    StreamingSliceCoordinator.beginScheduledStep(20);
+    ExecutorService worker = Executors.newSingleThreadExecutor();
+    try {
+      worker.submit(StreamingSliceCoordinator.bindToCurrentSlice(() -> {
+        StreamingSliceCoordinator.releaseWait(1000);
+        StreamingSliceCoordinator.releaseUntilDownloaded(download);
+      })).get(5, TimeUnit.SECONDS);
+    } finally {
+      worker.shutdownNow();
+    }
+    assertThat(StreamingSliceCoordinator.shouldYield()).isTrue();
+    assertThat(StreamingSliceCoordinator.getWakeUpNanos()).isNotZero();
+    assertThat(StreamingSliceCoordinator.getAwaitedDownloads()).containsExactly(download);
+  }
 }
@@ -0,0 +1,94 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.blazemeter.jmeter.JMeterTestUtils;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SystemTimeMachineTest {
+
+  private static final long WAIT_MILLIS = 5000;
+
+  @BeforeClass
+  public static void setupClass() {
+    JMeterTestUtils.setupJmeterEnv();
+  }
+
+  @After
+  public void tearDown() {
+    StreamingMetrics.reset();
+  }
+
+  private static CompletableFuture<Long> startWait(SystemTimeMachine timeMachine, long millis) {
+    return CompletableFuture.supplyAsync(() -> {
+      long start = System.nanoTime();
+      try {
+        timeMachine.awaitMillis(millis);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    });
+  }
+
+  @Test
+  public void shouldWaitUntilDeadlineWhenNotInterrupted() throws Exception {
+    assertThat(startWait(new SystemTimeMachine(), 50).get(5, TimeUnit.SECONDS))
+        .isGreaterThanOrEqualTo(50);
+  }
+
+  @Test
+  public void shouldOnlyReleaseOwnWaitsWhenInterrupted() throws Exception {
+    SystemTimeMachine interrupted = new SystemTimeMachine();
+    SystemTimeMachine other = new SystemTimeMachine();
+    CompletableFuture<Long> interruptedWait = startWait(interrupted, WAIT_MILLIS);
+    CompletableFuture<Long> otherWait = startWait(other, WAIT_MILLIS);
+    Thread.sleep(100);
+    interrupted.interrupt();
+    assertThat(interruptedWait.get(1, TimeUnit.SECONDS)).isLessThan(WAIT_MILLIS);
+    assertThat(otherWait.isDone()).isFalse();
+    other.interrupt();
+    otherWait.get(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void shouldNotWaitAfterInterruptedUntilReset() throws Exception {
+    SystemTimeMachine timeMachine = new SystemTimeMachine();
+    timeMachine.interrupt();
+    assertThat(startWait(timeMachine, WAIT_MILLIS).get(1, TimeUnit.SECONDS))
+        .isLessThan(WAIT_MILLIS);
+    timeMachine.reset();
+    assertThat(startWait(timeMachine, 50).get(5, TimeUnit.SECONDS))
+        .isGreaterThanOrEqualTo(50);
+  }
+
+  @Test
+  public void shouldRecordRequestedAndActualWaitWhenWaitEnds() throws Exception {
+    startWait(new SystemTimeMachine(), 50).get(5, TimeUnit.SECONDS);
+    StreamingMetrics.Histogram requested = StreamingMetrics
+        .getHistogram(StreamingMetrics.WAIT_REQUESTED);
+    StreamingMetrics.Histogram actual = StreamingMetrics.getHistogram(StreamingMetrics.WAIT_ACTUAL);
+    assertThat(requested.getCount()).isEqualTo(1);
+    assertThat(requested.getMax()).isEqualTo(50);
+    assertThat(actual.getMax()).isGreaterThanOrEqualTo(50);
+    assertThat(StreamingMetrics.getHistogram(StreamingMetrics.WAIT_OVERSLEEP).getCount())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void shouldExportRecordedWaitsWhenExportingVariables() throws Exception {
+    startWait(new SystemTimeMachine(), 50).get(5, TimeUnit.SECONDS);
+    JMeterVariables vars = new JMeterVariables();
+    StreamingMetrics.exportVariables(vars);
+    assertThat(vars.get(StreamingMetrics.VARIABLE_PREFIX + "wait_requested.count"))
+        .isEqualTo("1");
+    assertThat(vars.get(StreamingMetrics.VARIABLE_PREFIX + "wait_requested.max"))
+        .isEqualTo("50");
+  }
+
+}
@@ -1,18 +1,63 @@
 package com.blazemeter.jmeter.videostreaming.core;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.absent;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
 import static org.assertj.core.api.Java6Assertions.assertThat;
 
 import com.blazemeter.jmeter.JMeterTestUtils;
 import com.blazemeter.jmeter.hls.logic.HlsSampler;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.DiscardingEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AsyncResponseBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
 import org.apache.jmeter.protocol.http.sampler.HTTPSampleResult;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
 
 public class VideoStreamingHttpClientTest {
 
+  private static final String BODY = "#EXTM3U";
+  private static final String PLAYLIST_PATH = "/master.m3u8";
+  private static final String REDIRECT_PATH = "/redirect.m3u8";
+  private static final String SEGMENT_PATH = "/segment.m4s";
+  private static final String RANGE_HEADER = "Range";
+  private static final String RANGE = "bytes=0-1";
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(wireMockConfig().dynamicPort());
+
   private VideoStreamingHttpClient httpClient;
+  private HlsSampler sampler;
+  private HttpAsyncServer h2Server;
 
   @BeforeClass
   public static void setupClass() {
@@ -21,7 +66,16 @@ public class VideoStreamingHttpClientTest {
 
   @Before
   public void setup() {
-    httpClient = new VideoStreamingHttpClient(new HlsSampler());
+    sampler = new HlsSampler();
+    httpClient = new VideoStreamingHttpClient(sampler);
+  }
+
+  @After
+  public void teardown() {
+    if (h2Server != null) {
+      httpClient.threadFinished();
+      h2Server.close(CloseMode.IMMEDIATE);
+    }
   }
 
   /*
@@ -48,6 +102,221 @@ public class VideoStreamingHttpClientTest {
     assertFailedResult(result);
   }
 
+  @Test
+  public void shouldReturnFailedResultWhenUriIsNotAbsoluteWithAsyncEngine() {
+    sampler.setDownloadEngine(DownloadEngine.ASYNC);
+    HTTPSampleResult result = httpClient.downloadUri(URI.create("/relative/master.m3u8"));
+    assertFailedResult(result);
+  }
+
+  @Test
+  public void shouldDownloadUriWithAsyncEngine() throws Exception {
+    sampler.setDownloadEngine(DownloadEngine.ASYNC);
+    URI uri = startServer(200);
+    HTTPSampleResult result = httpClient.downloadUri(uri);
+    assertThat(result.isSuccessful()).isTrue();
+    assertThat(result.getResponseDataAsString()).isEqualTo(BODY);
+    assertThat(result.getBodySizeAsLong()).isEqualTo(BODY.length());
+  }
+
+  @Test
+  public void shouldNotBlockUntilResponseWhenDownloadingAsyncWithAsyncEngine() throws Exception {
+    sampler.setDownloadEngine(DownloadEngine.ASYNC);
+    URI uri = startServer(200, 500);
+    CompletableFuture<HTTPSampleResult> download = httpClient.downloadUriAsync(uri);
+    assertThat(download.isDone()).isFalse();
+    HTTPSampleResult result = download.get(5, TimeUnit.SECONDS);
+    assertThat(result.isSuccessful()).isTrue();
+    assertThat(result.getResponseDataAsString()).isEqualTo(BODY);
+  }
+
+  @Test
+  public void shouldReturnFailedResultWhenAsyncDownloadGetsErrorStatus() throws Exception {
+    sampler.setDownloadEngine(DownloadEngine.ASYNC);
+    URI uri = startServer(404);
+    HTTPSampleResult result = httpClient.downloadUri(uri);
+    assertThat(result.isSuccessful()).isFalse();
+    assertThat(result.getResponseCode()).isEqualTo("404");
+  }
+
+  @Test
+  public void shouldKeepBodySizeWithoutResponseDataWhenDiscardingBody() throws Exception {
+    URI uri = startServer(200);
+    HTTPSampleResult result = httpClient.downloadUri(uri, true);
+    assertThat(result.isSuccessful()).isTrue();
+    assertThat(result.getResponseData()).isEmpty();
+    assertThat(result.getBodySizeAsLong()).isEqualTo(BODY.length());
+  }
+
+  @Test
+  public void shouldKeepBodySizeWithoutResponseDataWhenDiscardingBodyWithAsyncEngine()
+      throws Exception {
+    sampler.setDownloadEngine(DownloadEngine.ASYNC);
+    URI uri = startServer(200);
+    HTTPSampleResult result = httpClient.downloadUri(uri, true);
+    assertThat(result.isSuccessful()).isTrue();
+    assertThat(result.getResponseData()).isEmpty();
+    assertThat(result.getBodySizeAsLong()).isEqualTo(BODY.length());
+  }
+
+  @Test
+  public void shouldMultiplexRequestsOverOneConnectionWithHttp2Engine() throws Exception {
+    sampler.setDownloadEngine(DownloadEngine.HTTP2);
+    Set<String> clientAddresses = ConcurrentHashMap.newKeySet();
+    URI uri = startHttp2Server(clientAddresses);
+    HTTPSampleResult first = httpClient.downloadUri(uri);
+    HTTPSampleResult second = httpClient.downloadUri(uri);
+    assertThat(first.isSuccessful()).isTrue();
+    assertThat(first.getResponseDataAsString()).isEqualTo(BODY);
+    assertThat(second.isSuccessful()).isTrue();
+    assertThat(second.getResponseHeaders()).startsWith("HTTP/2.0 200");
+    assertThat(clientAddresses).hasSize(1);
+  }
+
+  @Test
+  public void shouldUseOneConnectionPerViewerWithHttp2Engine() throws Exception {
+    sampler.setDownloadEngine(DownloadEngine.HTTP2);
+    Set<String> clientAddresses = ConcurrentHashMap.newKeySet();
+    URI uri = startHttp2Server(clientAddresses);
+    VideoStreamingHttpClient otherViewer = new VideoStreamingHttpClient(sampler);
+    try {
+      assertSuccessfulDownloads(httpClient, uri);
+      assertSuccessfulDownloads(otherViewer, uri);
+    } finally {
+      otherViewer.threadFinished();
+    }
+    assertThat(clientAddresses).hasSize(2);
+  }
+
+  @Test
+  public void shouldFollowRedirectsWithHttp2Engine() throws Exception {
+    sampler.setDownloadEngine(DownloadEngine.HTTP2);
+    sampler.setAutoRedirects(true);
+    URI uri = startHttp2Server(ConcurrentHashMap.newKeySet());
+    HTTPSampleResult result = httpClient.downloadUri(uri.resolve(REDIRECT_PATH));
+    assertThat(result.isSuccessful()).isTrue();
+    assertThat(result.getResponseDataAsString()).isEqualTo(BODY);
+    assertThat(result.getURL().toString()).isEqualTo(uri.toString());
+  }
+
+  @Test
+  public void shouldAddChunkTimesHeadersWhenTimingChunks() throws Exception {
+    URI uri = startChunkedServer(CmafChunkTimerTest.buildChunks(2));
+    HTTPSampleResult result = httpClient.downloadUri(uri, true, true);
+    assertThat(result.isSuccessful()).isTrue();
+    assertThat(result.getResponseHeaders()).contains("X-MEDIA-SEGMENT-FIRST-CHUNK-TIME: ")
+        .containsPattern("X-MEDIA-SEGMENT-CHUNK-TIMES: \\d+,\\d+\n");
+  }
+
+  @Test
+  public void shouldAddChunkTimesHeadersWhenTimingChunksWithAsyncEngine() throws Exception {
+    sampler.setDownloadEngine(DownloadEngine.ASYNC);
+    URI uri = startChunkedServer(CmafChunkTimerTest.buildChunks(2));
+    HTTPSampleResult result = httpClient.downloadUri(uri, true, true);
+    assertThat(result.isSuccessful()).isTrue();
+    assertThat(result.getResponseHeaders())
+        .containsPattern("X-MEDIA-SEGMENT-CHUNK-TIMES: \\d+,\\d+\n");
+  }
+
+  @Test
+  public void shouldNotSendRequestHeaderInNextRequest() {
+    URI uri = startServer(200);
+    downloadWithAndWithoutRangeHeader(uri);
+    verifyRangeHeaderOnlyInFirstRequest();
+  }
+
+  @Test
+  public void shouldNotSendRequestHeaderInNextRequestWithAsyncEngine() {
+    sampler.setDownloadEngine(DownloadEngine.ASYNC);
+    URI uri = startServer(200);
+    downloadWithAndWithoutRangeHeader(uri);
+    verifyRangeHeaderOnlyInFirstRequest();
+  }
+
+  @Test
+  public void shouldNotSendRequestHeaderInNextRequestWhenUriIsNotAbsolute() {
+    URI uri = startServer(200);
+    httpClient.addRequestHeader(RANGE_HEADER, RANGE);
+    httpClient.downloadUri(URI.create(PLAYLIST_PATH));
+    httpClient.downloadUri(uri);
+    wireMockRule.verify(1, getRequestedFor(urlEqualTo(PLAYLIST_PATH))
+        .withHeader(RANGE_HEADER, absent()));
+  }
+
+  private void downloadWithAndWithoutRangeHeader(URI uri) {
+    httpClient.addRequestHeader(RANGE_HEADER, RANGE);
+    httpClient.downloadUri(uri);
+    httpClient.downloadUri(uri);
+  }
+
+  private void verifyRangeHeaderOnlyInFirstRequest() {
+    wireMockRule.verify(1, getRequestedFor(urlEqualTo(PLAYLIST_PATH))
+        .withHeader(RANGE_HEADER, equalTo(RANGE)));
+    wireMockRule.verify(1, getRequestedFor(urlEqualTo(PLAYLIST_PATH))
+        .withHeader(RANGE_HEADER, absent()));
+  }
+
+  private void assertSuccessfulDownloads(VideoStreamingHttpClient viewer, URI uri)
+      throws Exception {
+    CompletableFuture<HTTPSampleResult> first = viewer.downloadUriAsync(uri);
+    CompletableFuture<HTTPSampleResult> second = viewer.downloadUriAsync(uri);
+    assertThat(first.get(5, TimeUnit.SECONDS).isSuccessful()).isTrue();
+    assertThat(second.get(5, TimeUnit.SECONDS).isSuccessful()).isTrue();
+    assertThat(viewer.downloadUri(uri).isSuccessful()).isTrue();
+  }
+
+  private URI startChunkedServer(byte[] body) {
+    wireMockRule.stubFor(get(urlEqualTo(SEGMENT_PATH))
+        .willReturn(aResponse()
+            .withStatus(200)
+            .withBody(body)
+            .withChunkedDribbleDelay(2, 50)));
+    return URI.create(wireMockRule.url(SEGMENT_PATH));
+  }
+
+  private URI startServer(int statusCode) {
+    return startServer(statusCode, 0);
+  }
+
+  private URI startServer(int statusCode, int delayMillis) {
+    wireMockRule.stubFor(get(urlEqualTo(PLAYLIST_PATH))
+        .willReturn(aResponse()
+            .withStatus(statusCode)
+            .withBody(BODY)
+            .withFixedDelay(delayMillis)));
+    return URI.create(wireMockRule.url(PLAYLIST_PATH));
+  }
+
+  private URI startHttp2Server(Set<String> clientAddresses) throws Exception {
+    h2Server = H2ServerBootstrap.bootstrap()
+        .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2)
+        .register("*", new AsyncServerRequestHandler<Message<HttpRequest, Void>>() {
+
+          @Override
+          public AsyncRequestConsumer<Message<HttpRequest, Void>> prepare(HttpRequest request,
+              EntityDetails entityDetails, HttpContext context) {
+            return new BasicRequestConsumer<>(new DiscardingEntityConsumer<>());
+          }
+
+          @Override
+          public void handle(Message<HttpRequest, Void> request, ResponseTrigger responseTrigger,
+              HttpContext context) throws IOException, HttpException {
+            clientAddresses.add(HttpCoreContext.adapt(context).getEndpointDetails()
+                .getRemoteAddress().toString());
+            AsyncResponseBuilder response = REDIRECT_PATH.equals(request.getHead().getPath())
+                ? AsyncResponseBuilder.create(302).addHeader("Location", PLAYLIST_PATH)
+                : AsyncResponseBuilder.create(200).setEntity(BODY, ContentType.TEXT_PLAIN);
+            responseTrigger.submitResponse(response.build(), context);
+          }
+
+        })
+        .create();
+    h2Server.start();
+    ListenerEndpoint endpoint = h2Server.listen(new InetSocketAddress("localhost", 0)).get();
+    return URI.create("http://localhost:" + ((InetSocketAddress) endpoint.getAddress()).getPort()
+        + "/master.m3u8");
+  }
+
   private void assertFailedResult(HTTPSampleResult result) {
     assertThat(result).isNotNull();
     assertThat(result.isSuccessful()).isFalse();
@@ -0,0 +1,127 @@
+package com.blazemeter.jmeter.videostreaming.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import com.blazemeter.jmeter.JMeterTestUtils;
+import com.blazemeter.jmeter.hls.logic.BandwidthSelector;
+import com.blazemeter.jmeter.hls.logic.ResolutionSelector;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.jmeter.protocol.http.sampler.HTTPSampleResult;
+import org.apache.jmeter.samplers.SampleResult;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ViewerPoolTest {
+
+  private static final long WAIT_MILLIS = 100;
+  private static final long TIMEOUT_MILLIS = 5000;
+
+  private final ViewerPool pool = new ViewerPool();
+  private final ExecutorService carriers = Executors.newCachedThreadPool();
+
+  @BeforeClass
+  public static void setupClass() {
+    JMeterTestUtils.setupJmeterEnv();
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+    carriers.shutdownNow();
+  }
+
+  @Test
+  public void shouldResumeViewerStepWhenReleasedWaitIsOver() throws Exception {
+    SteppedSampler sampler = new SteppedSampler();
+    pool.resize(1, () -> sampler);
+    long start = System.nanoTime();
+    CompletableFuture<Void> sample = startSample();
+    sampler.download.complete(new HTTPSampleResult());
+    sample.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+        .isGreaterThanOrEqualTo(WAIT_MILLIS);
+    assertThat(sampler.steps.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void shouldNotResumeViewerStepUntilReleasedDownloadCompletes() throws Exception {
+    SteppedSampler sampler = new SteppedSampler();
+    pool.resize(1, () -> sampler);
+    CompletableFuture<Void> sample = startSample();
+    awaitSteps(sampler, 2);
+    Thread.sleep(WAIT_MILLIS);
+    assertThat(sampler.steps.get()).isEqualTo(2);
+    assertThat(sample.isDone()).isFalse();
+    sampler.download.complete(new HTTPSampleResult());
+    sample.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    assertThat(sampler.steps.get()).isEqualTo(3);
+  }
+
+  private CompletableFuture<Void> startSample() {
+    return CompletableFuture.runAsync(() -> {
+      try {
+        pool.sampleSteps(carriers);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+  private void awaitSteps(SteppedSampler sampler, int steps) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (sampler.steps.get() < steps && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  /*
+  Releases a wait on its first step, a download in flight on its second one, and finishes on the
+  third one.
+  */
+  private static class SteppedSampler extends VideoStreamingSampler<Object, MediaSegment> {
+
+    private final AtomicInteger steps = new AtomicInteger();
+    private final CompletableFuture<HTTPSampleResult> download = new CompletableFuture<>();
+
+    private SteppedSampler() {
+      super(null, mock(VideoStreamingHttpClient.class), null, null);
+    }
+
+    @Override
+    public SampleResult sample() {
+      int step = steps.incrementAndGet();
+      if (step == 1) {
+        StreamingSliceCoordinator.releaseWait(WAIT_MILLIS);
+      } else if (step == 2) {
+        StreamingSliceCoordinator.releaseUntilDownloaded(download);
+      }
+      StreamingSliceCoordinator.setExit(step < 3 ? StreamingSliceCoordinator.SliceExit.YIELD
+          : StreamingSliceCoordinator.SliceExit.FINISHED);
+      return null;
+    }
+
+    @Override
+    protected void sample(URI masterUri, BandwidthSelector bandwidthSelector,
+        ResolutionSelector resolutionSelector, String audioLanguage, String subtitleLanguage,
+        int playSeconds) {
+    }
+
+    @Override
+    public void clearPlaybackSession() {
+    }
+
+    @Override
+    public Variants getVariants(URI masterUri) {
+      return null;
+    }
+
+  }
+
+}
@@ -1,11 +1,20 @@
 package com.blazemeter.jmeter.videostreaming.dash;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
 import com.blazemeter.jmeter.videostreaming.VideoStreamingSamplerTest;
+import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistParsingException;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import org.apache.jmeter.protocol.http.sampler.HTTPSampleResult;
 import org.apache.jmeter.samplers.SampleResult;
+import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 public class DashSamplerTest extends VideoStreamingSamplerTest {
 
@@ -29,6 +38,12 @@ public class DashSamplerTest extends VideoStreamingSamplerTest {
     sampler = new DashSampler(baseSampler, httpClient, timeMachine, sampleResultProcessor);
   }
 
+  @Before
+  public void setUpRemotePeriodCache() {
+    RemotePeriodCache.reset();
+    UtcTimingCache.reset();
+  }
+
   @Test
   public void shouldDownloadDefaultMediaFromManifest() throws IOException {
     String manifest = getResource(DEFAULT_MANIFEST);
@@ -309,4 +324,269 @@ public class DashSamplerTest extends VideoStreamingSamplerTest {
     );
   }
 
+  @Test
+  public void shouldContinueSegmentsAfterManifestRefreshRemovingOldTimelineEntries()
+      throws IOException {
+    String firstManifest = getResource("slidingTimelineManifest.mpd");
+    String refreshedManifest = getResource("slidingTimelineManifestRefreshed.mpd");
+
+    uriSampler.setupUriSampleResults(MANIFEST_URI,
+        buildBaseSampleResult(SAMPLER_NAME, MANIFEST_URI, firstManifest),
+        buildBaseSampleResult(SAMPLER_NAME, MANIFEST_URI, refreshedManifest));
+
+    long lastSegNum = 1108993099L;
+    double segDurationSeconds = 1.6;
+
+    URI videoInitUri = URI.create(BASE_URI + "/init-v1.m4s");
+    uriSampler.setupUriSampleResults(videoInitUri,
+        buildNamedSampleResult(SAMPLER_NAME, videoInitUri));
+    URI videoSeg1Uri = URI.create(BASE_URI + "/seg-v1-" + lastSegNum + ".m4s");
+    uriSampler.setupUriSampleResults(videoSeg1Uri,
+        buildNamedSampleResult(VIDEO_TYPE_NAME, videoSeg1Uri));
+    URI videoSeg2Uri = URI.create(BASE_URI + "/seg-v1-" + (lastSegNum + 1) + ".m4s");
+    uriSampler.setupUriSampleResults(videoSeg2Uri,
+        buildNamedSampleResult(VIDEO_TYPE_NAME, videoSeg2Uri));
+
+    setPlaySeconds(3);
+    sampler.sample();
+
+    verifySampleResults(
+        buildBaseSampleResult(MANIFEST_NAME, MANIFEST_URI, firstManifest),
+        buildNamedSampleResult(buildInitSampleName(VIDEO_TYPE_NAME), videoInitUri),
+        addDurationHeader(
+            buildNamedSampleResult(buildSegmentName(VIDEO_TYPE_NAME), videoSeg1Uri),
+            segDurationSeconds),
+        buildBaseSampleResult(MANIFEST_NAME, MANIFEST_URI, refreshedManifest),
+        addDurationHeader(
+            buildNamedSampleResult(buildSegmentName(VIDEO_TYPE_NAME), videoSeg2Uri),
+            segDurationSeconds)
+    );
+  }
+
+  @Test
+  public void shouldDownloadSubsegmentsByteRangesWhenSegmentBaseHasIndex() throws IOException {
+    String manifest = getResource("segmentBaseManifest.mpd");
+    setupUriSamplerManifest(MANIFEST_URI, manifest);
+
+    URI videoUri = URI.create(BASE_URI + "/video-v1.mp4");
+    byte[] segmentIndex = buildSegmentIndex(new int[]{1000, 1500}, new int[]{2000, 2000});
+    uriSampler.setupUriSampleResults(videoUri,
+        buildIndexSampleResult(SAMPLER_NAME, videoUri, segmentIndex),
+        buildNamedSampleResult(VIDEO_TYPE_NAME, videoUri),
+        buildNamedSampleResult(VIDEO_TYPE_NAME, videoUri));
+
+    setPlaySeconds(4);
+    sampler.sample();
+
+    verifySampleResults(
+        buildManifestResult(manifest),
+        buildIndexSampleResult(buildSegmentName(VIDEO_TYPE_NAME + " index"), videoUri,
+            segmentIndex),
+        addDurationHeader(buildNamedSampleResult(buildSegmentName(VIDEO_TYPE_NAME), videoUri),
+            2.0),
+        addDurationHeader(buildNamedSampleResult(buildSegmentName(VIDEO_TYPE_NAME), videoUri),
+            2.0));
+    verify(httpClient).addRequestHeader("range", "bytes=800-855");
+    verify(httpClient).addRequestHeader("range", "bytes=856-1855");
+    verify(httpClient).addRequestHeader("range", "bytes=1856-3355");
+  }
+
+  private HTTPSampleResult buildIndexSampleResult(String name, URI uri, byte[] segmentIndex) {
+    HTTPSampleResult result = buildNamedSampleResult(name, uri);
+    result.setResponseData(segmentIndex);
+    return result;
+  }
+
+  private static byte[] buildSegmentIndex(int[] sizes, int[] durations) {
+    int boxSize = 32 + 12 * sizes.length;
+    ByteBuffer ret = ByteBuffer.allocate(boxSize)
+        .putInt(boxSize)
+        .put("sidx".getBytes())
+        // version, flags and reference ID
+        .putInt(0)
+        .putInt(1)
+        // timescale, earliest presentation time and first offset
+        .putInt(1000)
+        .putInt(0)
+        .putInt(0)
+        // reserved and reference count
+        .putShort((short) 0)
+        .putShort((short) sizes.length);
+    for (int i = 0; i < sizes.length; i++) {
+      ret.putInt(sizes[i])
+          .putInt(durations[i])
+          .putInt(0x90000000);
+    }
+    return ret.array();
+  }
+
+  @Test
+  public void shouldDownloadRemotePeriodSegmentsWhenManifestHasXlinkPeriods() throws IOException {
+    String manifest = getResource("remotePeriodManifest.mpd");
+    setupUriSamplerManifest(MANIFEST_URI, manifest);
+    URI remotePeriodUri = URI.create(BASE_URI + "/remotePeriod.xml");
+    String remotePeriod = getResource("remotePeriod.xml");
+    uriSampler.setupUriSampleResults(remotePeriodUri,
+        buildBaseSampleResult(SAMPLER_NAME, remotePeriodUri, remotePeriod));
+    URI initUri = URI.create(BASE_URI + "/ad-init-v1.m4s");
+    uriSampler.setupUriSampleResults(initUri, buildNamedSampleResult(SAMPLER_NAME, initUri));
+    URI segment1Uri = URI.create(BASE_URI + "/ad-v1-1.m4s");
+    uriSampler.setupUriSampleResults(segment1Uri,
+        buildNamedSampleResult(VIDEO_TYPE_NAME, segment1Uri));
+    URI segment2Uri = URI.create(BASE_URI + "/ad-v1-2.m4s");
+    uriSampler.setupUriSampleResults(segment2Uri,
+        buildNamedSampleResult(VIDEO_TYPE_NAME, segment2Uri));
+
+    setPlaySeconds(4);
+    sampler.sample();
+
+    verifySampleResults(
+        buildManifestResult(manifest),
+        buildBaseSampleResult("HLS - remote period", remotePeriodUri, remotePeriod),
+        buildNamedSampleResult(buildInitSampleName(VIDEO_TYPE_NAME), initUri),
+        addDurationHeader(buildNamedSampleResult(buildSegmentName(VIDEO_TYPE_NAME), segment1Uri),
+            2.0),
+        addDurationHeader(buildNamedSampleResult(buildSegmentName(VIDEO_TYPE_NAME), segment2Uri),
+            2.0));
+  }
+
+  @Test
+  public void shouldNotDownloadRemotePeriodAgainWhenAlreadyResolved() throws IOException {
+    setupUriSamplerManifest(MANIFEST_URI, getResource("remotePeriodManifest.mpd"));
+    URI remotePeriodUri = URI.create(BASE_URI + "/remotePeriod.xml");
+    uriSampler.setupUriSampleResults(remotePeriodUri,
+        buildBaseSampleResult(SAMPLER_NAME, remotePeriodUri, getResource("remotePeriod.xml")));
+
+    setPlaySeconds(2);
+    sampler.sample();
+    sampler.sample();
+
+    verify(httpClient, times(1)).downloadUri(remotePeriodUri);
+  }
+
+  @Test
+  public void shouldDownloadRemotePeriodWhenReachedWhenActuateIsOnRequest() throws IOException {
+    String manifest = getResource("onRequestRemotePeriodManifest.mpd");
+    setupUriSamplerManifest(MANIFEST_URI, manifest);
+    URI remotePeriodUri = URI.create(BASE_URI + "/remotePeriod.xml");
+    String remotePeriod = getResource("remotePeriod.xml");
+    uriSampler.setupUriSampleResults(remotePeriodUri,
+        buildBaseSampleResult(SAMPLER_NAME, remotePeriodUri, remotePeriod));
+    URI mainInitUri = URI.create(BASE_URI + "/main-init-v1.m4s");
+    uriSampler.setupUriSampleResults(mainInitUri,
+        buildNamedSampleResult(SAMPLER_NAME, mainInitUri));
+    URI mainSegmentUri = URI.create(BASE_URI + "/main-v1-1.m4s");
+    uriSampler.setupUriSampleResults(mainSegmentUri,
+        buildNamedSampleResult(VIDEO_TYPE_NAME, mainSegmentUri));
+    URI adInitUri = URI.create(BASE_URI + "/ad-init-v1.m4s");
+    uriSampler.setupUriSampleResults(adInitUri, buildNamedSampleResult(SAMPLER_NAME, adInitUri));
+    URI adSegmentUri = URI.create(BASE_URI + "/ad-v1-1.m4s");
+    uriSampler.setupUriSampleResults(adSegmentUri,
+        buildNamedSampleResult(VIDEO_TYPE_NAME, adSegmentUri));
+
+    setPlaySeconds(4);
+    sampler.sample();
+
+    verifySampleResults(
+        buildManifestResult(manifest),
+        buildNamedSampleResult(buildInitSampleName(VIDEO_TYPE_NAME), mainInitUri),
+        addDurationHeader(
+            buildNamedSampleResult(buildSegmentName(VIDEO_TYPE_NAME), mainSegmentUri), 2.0),
+        buildBaseSampleResult("HLS - remote period", remotePeriodUri, remotePeriod),
+        buildNamedSampleResult(buildInitSampleName(VIDEO_TYPE_NAME), adInitUri),
+        addDurationHeader(buildNamedSampleResult(buildSegmentName(VIDEO_TYPE_NAME), adSegmentUri),
+            2.0));
+  }
+
+  @Test
+  public void shouldRecordFailedRemotePeriodSampleWhenRemotePeriodCantBeParsed()
+      throws IOException {
+    setupUriSamplerManifest(MANIFEST_URI, getResource("onRequestRemotePeriodManifest.mpd"));
+    URI remotePeriodUri = URI.create(BASE_URI + "/remotePeriod.xml");
+    uriSampler.setupUriSampleResults(remotePeriodUri,
+        buildBaseSampleResult(SAMPLER_NAME, remotePeriodUri, "<Period"));
+
+    setPlaySeconds(4);
+    sampler.sample();
+
+    ArgumentCaptor<SampleResult> result = ArgumentCaptor.forClass(SampleResult.class);
+    verify(sampleResultProcessor).accept(eq("remote period"), result.capture());
+    assertThat(result.getValue().isSuccessful()).isFalse();
+    assertThat(result.getValue().getResponseCode())
+        .endsWith(PlaylistParsingException.class.getName());
+  }
+
+  @Test
+  public void shouldRequestUtcTimingSourceWhenManifestHasSupportedUtcTiming() throws IOException {
+    String manifest = getResource("utcTimingManifest.mpd");
+    setupUriSamplerManifest(MANIFEST_URI, manifest);
+    URI timingUri = URI.create(BASE_URI + "/time.txt");
+    String time = "2024-01-13T20:09:51.000Z";
+    uriSampler.setupUriSampleResults(timingUri,
+        buildBaseSampleResult(SAMPLER_NAME, timingUri, time));
+    URI initUri = URI.create(BASE_URI + "/init-v1.m4s");
+    uriSampler.setupUriSampleResults(initUri, buildNamedSampleResult(SAMPLER_NAME, initUri));
+    URI segmentUri = URI.create(BASE_URI + "/seg-v1-1108993098.m4s");
+    uriSampler.setupUriSampleResults(segmentUri,
+        buildNamedSampleResult(VIDEO_TYPE_NAME, segmentUri));
+
+    setPlaySeconds(1);
+    sampler.sample();
+
+    verifySampleResults(
+        buildManifestResult(manifest),
+        buildBaseSampleResult("HLS - utc timing", timingUri, time),
+        buildNamedSampleResult(buildInitSampleName(VIDEO_TYPE_NAME), initUri),
+        addDurationHeader(buildNamedSampleResult(buildSegmentName(VIDEO_TYPE_NAME), segmentUri),
+            1.433));
+  }
+
+  @Test
+  public void shouldApplyMpdPatchWhenRefreshingManifestWithPatchLocation() throws IOException {
+    String manifest = getResource("patchableTimelineManifest.mpd");
+    setupUriSamplerManifest(MANIFEST_URI, manifest);
+    URI patchUri = URI.create(BASE_URI + "/patch.mpp");
+    String patch = getResource("timelineManifestPatch.mpp");
+    uriSampler.setupUriSampleResults(patchUri,
+        buildBaseSampleResult(SAMPLER_NAME, patchUri, patch));
+
+    long startSegNum = 1108993098L;
+    URI videoInitUri = URI.create(BASE_URI + "/init-v1.m4s");
+    uriSampler.setupUriSampleResults(videoInitUri,
+        buildNamedSampleResult(SAMPLER_NAME, videoInitUri));
+    URI videoSeg1Uri = URI.create(BASE_URI + "/seg-v1-" + startSegNum + ".m4s");
+    uriSampler.setupUriSampleResults(videoSeg1Uri,
+        buildNamedSampleResult(VIDEO_TYPE_NAME, videoSeg1Uri));
+    URI videoSeg2Uri = URI.create(BASE_URI + "/seg-v1-" + (startSegNum + 1) + ".m4s");
+    uriSampler.setupUriSampleResults(videoSeg2Uri,
+        buildNamedSampleResult(VIDEO_TYPE_NAME, videoSeg2Uri));
+    URI audioInitUri = URI.create(BASE_URI + "/init-a1.m4s");
+    uriSampler.setupUriSampleResults(audioInitUri,
+        buildNamedSampleResult(SAMPLER_NAME, audioInitUri));
+    URI audioSeg1Uri = URI.create(BASE_URI + "/seg-a1-" + startSegNum + ".m4s");
+    uriSampler.setupUriSampleResults(audioSeg1Uri,
+        buildNamedSampleResult(AUDIO_TYPE_NAME, audioSeg1Uri));
+    URI audioSeg2Uri = URI.create(BASE_URI + "/seg-a1-" + (startSegNum + 1) + ".m4s");
+    uriSampler.setupUriSampleResults(audioSeg2Uri,
+        buildNamedSampleResult(AUDIO_TYPE_NAME, audioSeg2Uri));
+
+    setPlaySeconds(3);
+    sampler.sample();
+
+    verifySampleResults(
+        buildManifestResult(manifest),
+        buildNamedSampleResult(buildInitSampleName(VIDEO_TYPE_NAME), videoInitUri),
+        addDurationHeader(
+            buildNamedSampleResult(buildSegmentName(VIDEO_TYPE_NAME), videoSeg1Uri), 1.433),
+        buildNamedSampleResult(buildInitSampleName(AUDIO_TYPE_NAME), audioInitUri),
+        addDurationHeader(
+            buildNamedSampleResult(buildSegmentName(AUDIO_TYPE_NAME), audioSeg1Uri), 1.433),
+        buildBaseSampleResult("HLS - mpd patch", patchUri, patch),
+        addDurationHeader(
+            buildNamedSampleResult(buildSegmentName(VIDEO_TYPE_NAME), videoSeg2Uri), 1.6),
+        addDurationHeader(
+            buildNamedSampleResult(buildSegmentName(AUDIO_TYPE_NAME), audioSeg2Uri), 1.6));
+    verify(httpClient, times(1)).downloadUri(MANIFEST_URI);
+  }
+
 }
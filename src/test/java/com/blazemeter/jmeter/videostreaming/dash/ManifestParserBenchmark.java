@@ -0,0 +1,107 @@
+package com.blazemeter.jmeter.videostreaming.dash;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import io.lindstrom.mpd.MPDParser;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLStreamException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+Compares parsing MPDs with MPDParser as is and after filtering them with MpdPrefilter, for the
+test MPDs and for generated live MPDs whose timelines list the given number of segments (like
+"generated-10000"), to find the size from which the prefilter pays off. Run it with the gc
+profiler (-prof gc) to compare allocations as well. It runs in the Maven JVM (no fork), since JVMs
+forked by JMH don't get the test classpath that exec:java builds.
+
+Run it with: mvn test-compile exec:java -Dexec.classpathScope=test
+-Dexec.mainClass=com.blazemeter.jmeter.videostreaming.dash.ManifestParserBenchmark
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+public class ManifestParserBenchmark {
+
+  private static final String GENERATED_PREFIX = "generated-";
+
+  @Param({"defaultManifest.mpd", "dynamicTimelineManifest.mpd", "liveStreamingDashManifest.mpd",
+      "generated-100", "generated-1000", "generated-10000"})
+  private String resource;
+
+  private String body;
+  private MPDParser mpdParser;
+
+  @Setup
+  public void setup() throws IOException {
+    body = resource.startsWith(GENERATED_PREFIX)
+        ? buildLiveManifest(Integer.parseInt(resource.substring(GENERATED_PREFIX.length())))
+        : Resources.toString(Resources.getResource(ManifestParserBenchmark.class, resource),
+            Charsets.UTF_8);
+    mpdParser = new MPDParser();
+  }
+
+  /*
+  Builds a live MPD with video and audio timelines listing each segment, as usually served, with a
+  few elements not used to play it, and one in four segments a bit shorter than the rest, so not
+  all of them can be merged.
+  */
+  private static String buildLiveManifest(int segments) {
+    StringBuilder ret = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+        + "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" type=\"dynamic\" "
+        + "availabilityStartTime=\"2024-01-01T00:00:00Z\" minimumUpdatePeriod=\"PT2S\" "
+        + "profiles=\"urn:mpeg:dash:profile:isoff-live:2011\">\n"
+        + "<Period id=\"1\" start=\"PT0S\">\n");
+    for (String type : new String[] {"video", "audio"}) {
+      ret.append("<AdaptationSet contentType=\"").append(type).append("\">\n")
+          .append("<ContentProtection schemeIdUri=\"urn:mpeg:dash:mp4protection:2011\" "
+              + "value=\"cenc\"/>\n")
+          .append("<Role schemeIdUri=\"urn:mpeg:dash:role:2011\" value=\"main\"/>\n")
+          .append("<SegmentTemplate timescale=\"90000\" initialization=\"init-$RepresentationID$"
+              + ".m4s\" media=\"seg-$RepresentationID$-$Time$.m4s\">\n<SegmentTimeline>\n");
+      long time = 0;
+      for (int i = 0; i < segments; i++) {
+        long duration = i % 4 == 3 ? 179_820 : 180_000;
+        ret.append("<S t=\"").append(time).append("\" d=\"").append(duration).append("\"/>\n");
+        time += duration;
+      }
+      ret.append("</SegmentTimeline>\n</SegmentTemplate>\n")
+          .append("<Representation id=\"").append(type).append("\" bandwidth=\"1000000\"/>\n")
+          .append("</AdaptationSet>\n");
+    }
+    return ret.append("</Period>\n</MPD>\n").toString();
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(ManifestParserBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+
+  @Benchmark
+  public Object mpdParser() throws IOException {
+    return mpdParser.parse(body);
+  }
+
+  @Benchmark
+  public Object prefilteredMpdParser() throws IOException, XMLStreamException {
+    return mpdParser.parse(MpdPrefilter.filter(body));
+  }
+
+}
@@ -2,12 +2,15 @@ package com.blazemeter.jmeter.videostreaming.dash;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistParsingException;
 import com.google.common.base.Charsets;
 import com.google.common.io.Resources;
 import java.io.IOException;
 import java.net.URI;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -19,6 +22,15 @@ public class ManifestTest {
 
   private static final URI TEST_URI = URI.create("http://test/manifest.mpd");
   private static final int THREAD_COUNT = 32;
+  private static final int MAX_COMPARED_SEGMENTS = 50;
+  private static final URI PATCH_URI = URI.create("http://test/patch.mpp");
+  private static final String PATCHABLE_MPD = "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" "
+      + "xmlns:xlink=\"http://www.w3.org/1999/xlink\" id=\"c1\" type=\"dynamic\" "
+      + "availabilityStartTime=\"2024-01-13T20:00:00Z\" publishTime=\"2024-01-13T20:09:50Z\" "
+      + "minimumUpdatePeriod=\"PT2S\">"
+      + "<PatchLocation>patch.mpp</PatchLocation>"
+      + "<Period id=\"1\" start=\"PT0S\"/>"
+      + "</MPD>";
 
   @Test
   public void shouldParseManifestConsistentlyWhenParsingConcurrentlyFromSharedParser()
@@ -93,4 +105,92 @@ public class ManifestTest {
     assertThat(manifest.getMinimumUpdatePeriod()).isNotNull();
   }
 
+  @Test
+  public void shouldKeepSynchronizedClockWhenUpdatingDownloadTimestamp() throws Exception {
+    Duration clocksDiff = Duration.ofSeconds(3);
+    Manifest manifest = Manifest.fromUriAndBody(TEST_URI,
+        loadResource("dynamicTimelineManifest.mpd"), Instant.EPOCH).withClocksDiff(clocksDiff);
+    assertThat(manifest.withDownloadTimestamp(Instant.EPOCH.plusSeconds(10)).getClocksDiff())
+        .isEqualTo(clocksDiff);
+  }
+
+  @Test
+  public void shouldGetSameSegmentsWhenParsingPrefilteredManifest() throws Exception {
+    for (String resource : Arrays.asList("defaultManifest.mpd", "dynamicTimelineManifest.mpd",
+        "liveStreamingDashManifest.mpd", "slidingTimelineManifest.mpd")) {
+      String body = loadResource(resource);
+      Manifest expected = Manifest.fromUriAndBody(TEST_URI, body, Instant.EPOCH);
+      Manifest filtered = Manifest.fromUriAndBody(TEST_URI, MpdPrefilter.filter(body),
+          Instant.EPOCH);
+      assertManifestEquivalent(filtered, expected);
+      assertThat(buildSegmentUris(filtered)).isEqualTo(buildSegmentUris(expected));
+    }
+  }
+
+  @Test
+  public void shouldApplyPatchToPatchedManifestWhenPatchingAgain() throws Exception {
+    Manifest manifest = Manifest.fromUriAndBody(TEST_URI, PATCHABLE_MPD, Instant.EPOCH)
+        .withPatch(PATCH_URI, buildPatch("2024-01-13T20:09:50Z", "2024-01-13T20:09:52Z",
+            "<Period id=\"2\" start=\"PT10S\"/>"), Instant.EPOCH)
+        .withPatch(PATCH_URI, buildPatch("2024-01-13T20:09:52Z", "2024-01-13T20:09:54Z",
+            "<Period id=\"3\" xlink:href=\"remote.xml\"/>"), Instant.EPOCH);
+    assertThat(manifest.getPeriods()).hasSize(2);
+    assertThat(manifest.hasRemotePeriodAfter(manifest.getPeriods().get(1))).isTrue();
+    assertThat(manifest.getPatchLocation(Instant.EPOCH)).isEqualTo(PATCH_URI);
+  }
+
+  private static String buildPatch(String originalPublishTime, String publishTime,
+      String period) {
+    return "<Patch xmlns=\"urn:mpeg:dash:schema:mpd-patch:2020\" "
+        + "xmlns:p=\"urn:ietf:params:xml:schema:patch-ops\" "
+        + "xmlns:xlink=\"http://www.w3.org/1999/xlink\" mpdId=\"c1\" "
+        + "originalPublishTime=\"" + originalPublishTime + "\">"
+        + "<p:replace sel=\"/MPD/@publishTime\">" + publishTime + "</p:replace>"
+        + "<p:add sel=\"/MPD\">" + period + "</p:add>"
+        + "</Patch>";
+  }
+
+  @Test(expected = PlaylistParsingException.class)
+  public void shouldThrowPlaylistParsingExceptionWhenPatchingAlreadyPatchedManifest()
+      throws Exception {
+    Manifest manifest = Manifest.fromUriAndBody(TEST_URI, PATCHABLE_MPD, Instant.EPOCH);
+    String patch = buildPatch("2024-01-13T20:09:50Z", "2024-01-13T20:09:52Z",
+        "<Period id=\"2\" start=\"PT10S\"/>");
+    manifest.withPatch(PATCH_URI, patch, Instant.EPOCH);
+    manifest.withPatch(PATCH_URI, patch, Instant.EPOCH);
+  }
+
+  private static List<String> buildSegmentUris(Manifest manifest) {
+    List<String> ret = new ArrayList<>();
+    for (MediaPeriod period : manifest.getPeriods()) {
+      for (String type : Arrays.asList("video", "audio", "subtitles")) {
+        SegmentBuilder<?> builder = period.findSegmentBuilder(type, variants -> variants.get(0),
+            null);
+        if (builder == null) {
+          continue;
+        }
+        builder.advanceUntil(null);
+        ret.add(String.valueOf(builder.getInitializationUrl()));
+        for (int i = 0; i < MAX_COMPARED_SEGMENTS && builder.hasNext(); i++) {
+          DashMediaSegment segment = builder.next();
+          ret.add(segment.getUri() + " " + segment.getDuration());
+        }
+      }
+    }
+    return ret;
+  }
+
+  @Test
+  public void shouldSkipUnusedElementsAndMergeContiguousSegmentsWhenPrefilteringManifest()
+      throws Exception {
+    String filtered = MpdPrefilter.filter("<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\">"
+        + "<Period><AdaptationSet><ContentProtection schemeIdUri=\"urn:test\"/>"
+        + "<SegmentTemplate><SegmentTimeline><S t=\"0\" d=\"5\"/><S d=\"5\"/>"
+        + "<S t=\"10\" d=\"5\" r=\"1\"/><S t=\"30\" d=\"5\"/></SegmentTimeline>"
+        + "</SegmentTemplate></AdaptationSet></Period></MPD>");
+    assertThat(filtered).doesNotContain("ContentProtection")
+        .contains("<SegmentTimeline><S t=\"0\" d=\"5\" r=\"3\"/><S t=\"30\" d=\"5\"/>"
+            + "</SegmentTimeline>");
+  }
+
 }
@@ -0,0 +1,82 @@
+package com.blazemeter.jmeter.videostreaming.dash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class MpdPatcherTest {
+
+  private static final String MPD = "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" id=\"c1\" "
+      + "type=\"dynamic\" publishTime=\"2024-01-13T20:09:50Z\">"
+      + "<PatchLocation ttl=\"60\">patch.mpp</PatchLocation>"
+      + "<Period id=\"1\"><AdaptationSet id=\"1\"><SegmentTemplate><SegmentTimeline>"
+      + "<S t=\"0\" d=\"2\"/>"
+      + "</SegmentTimeline></SegmentTemplate></AdaptationSet></Period>"
+      + "</MPD>";
+  private static final String TIMELINE_SELECTOR =
+      "/MPD/Period[@id='1']/AdaptationSet[@id='1']/SegmentTemplate/SegmentTimeline";
+
+  private static String buildPatch(String originalPublishTime, String operations) {
+    return "<Patch xmlns=\"urn:mpeg:dash:schema:mpd-patch:2020\" "
+        + "xmlns:p=\"urn:ietf:params:xml:schema:patch-ops\" mpdId=\"c1\" "
+        + "originalPublishTime=\"" + originalPublishTime + "\">"
+        + operations
+        + "</Patch>";
+  }
+
+  private static String applyPatch(String patch) throws Exception {
+    Document mpd = MpdPatcher.parse(MPD);
+    MpdPatcher.apply(mpd, MpdPatcher.parse(patch));
+    return MpdPatcher.serialize(mpd);
+  }
+
+  @Test
+  public void shouldFindPatchLocationWhenMpdHasPatchLocation() throws Exception {
+    MpdPatcher.PatchLocation location = MpdPatcher.findPatchLocation(MpdPatcher.parse(MPD));
+    assertThat(location.getUrl()).isEqualTo("patch.mpp");
+    assertThat(location.getTtl()).isEqualTo(Duration.ofSeconds(60));
+  }
+
+  @Test
+  public void shouldFindPatchLocationWhenMpdBodyHasPatchLocation() throws Exception {
+    MpdPatcher.PatchLocation location = MpdPatcher.findPatchLocation(MPD);
+    assertThat(location.getUrl()).isEqualTo("patch.mpp");
+    assertThat(location.getTtl()).isEqualTo(Duration.ofSeconds(60));
+  }
+
+  @Test
+  public void shouldNotFindPatchLocationWhenMpdBodyOnlyHasPatchLocationInPeriod()
+      throws Exception {
+    assertThat(MpdPatcher.findPatchLocation(MPD.replace("<PatchLocation ttl=\"60\">patch.mpp"
+        + "</PatchLocation>", "").replace("<AdaptationSet", "<PatchLocation>patch.mpp"
+        + "</PatchLocation><AdaptationSet"))).isNull();
+  }
+
+  @Test
+  public void shouldApplyOperationsWhenPatchMatchesMpd() throws Exception {
+    String patched = applyPatch(buildPatch("2024-01-13T20:09:50.000Z",
+        "<p:replace sel=\"/MPD/@publishTime\">2024-01-13T20:09:52Z</p:replace>"
+            + "<p:add sel=\"" + TIMELINE_SELECTOR + "\"><S d=\"2\"/></p:add>"
+            + "<p:remove sel=\"" + TIMELINE_SELECTOR + "/S[1]\"/>"
+            + "<p:add sel=\"" + TIMELINE_SELECTOR + "/S[1]\" type=\"@t\">2</p:add>"));
+    assertThat(patched)
+        .contains("publishTime=\"2024-01-13T20:09:52Z\"")
+        .contains("<SegmentTimeline><S d=\"2\" t=\"2\"/></SegmentTimeline>");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldThrowIllegalArgumentExceptionWhenPatchIsForAnotherPublishTime()
+      throws Exception {
+    applyPatch(buildPatch("2024-01-13T20:09:48Z",
+        "<p:replace sel=\"/MPD/@publishTime\">2024-01-13T20:09:52Z</p:replace>"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldThrowIllegalArgumentExceptionWhenSelectorMatchesNoNode() throws Exception {
+    applyPatch(buildPatch("2024-01-13T20:09:50Z",
+        "<p:remove sel=\"/MPD/Period[@id='2']\"/>"));
+  }
+
+}
@@ -0,0 +1,51 @@
+package com.blazemeter.jmeter.videostreaming.dash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UrlTemplateSolverTest {
+
+  private MediaRepresentation representation;
+
+  @Before
+  public void setup() {
+    representation = mock(MediaRepresentation.class);
+    when(representation.getId()).thenReturn("video1");
+    when(representation.getBandwidth()).thenReturn(128000L);
+  }
+
+  @Test
+  public void shouldSolveIdentifiersWhenTemplateWithoutFormatTags() {
+    assertThat(solve("http://test/$RepresentationID$/$Bandwidth$/$Number$-$Time$.m4s", 5, 9000))
+        .isEqualTo(URI.create("http://test/video1/128000/5-9000.m4s"));
+  }
+
+  @Test
+  public void shouldPadValuesWhenTemplateWithFormatTags() {
+    assertThat(solve("http://test/$Number%05d$-$Time%03d$-$Bandwidth%08d$.m4s", 12, 123456))
+        .isEqualTo(URI.create("http://test/00012-123456-00128000.m4s"));
+  }
+
+  @Test
+  public void shouldKeepEscapingCharWhenEmptyIdentifier() {
+    assertThat(solve("http://test/seg$$$Number$.m4s", 1, 0))
+        .isEqualTo(URI.create("http://test/seg$1.m4s"));
+  }
+
+  @Test
+  public void shouldKeepIdentifierWhenUnknownIdentifier() {
+    assertThat(solve("http://test/$SubNumber$-$Number%5d$.m4s", 1, 0))
+        .isEqualTo(URI.create("http://test/$SubNumber$-$Number%5d$.m4s"));
+  }
+
+  private URI solve(String template, long segmentNumber, long segmentTime) {
+    return new UrlTemplateSolver(representation, template)
+        .solveUrlTemplate(segmentNumber, segmentTime);
+  }
+
+}
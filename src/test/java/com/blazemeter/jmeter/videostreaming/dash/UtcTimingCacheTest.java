@@ -0,0 +1,62 @@
+package com.blazemeter.jmeter.videostreaming.dash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.blazemeter.jmeter.videostreaming.core.ExpiringCache;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.After;
+import org.junit.Test;
+
+public class UtcTimingCacheTest {
+
+  private static final URI TIMING_URI = URI.create("http://test/time");
+  private static final Instant NOW = Instant.parse("2024-01-13T20:09:50Z");
+
+  @After
+  public void tearDown() {
+    UtcTimingCache.reset();
+  }
+
+  @Test
+  public void shouldParseTimeWhenIsoWithOffset() {
+    assertThat(UtcTimingCache.parseTime(" 2024-01-13T21:09:50.250+01:00\n"))
+        .isEqualTo(Instant.parse("2024-01-13T20:09:50.250Z"));
+  }
+
+  @Test
+  public void shouldParseTimeAsUtcWhenXsDateTimeWithoutZone() {
+    assertThat(UtcTimingCache.parseTime("2024-01-13T20:09:50"))
+        .isEqualTo(NOW);
+  }
+
+  @Test
+  public void shouldGetNullTimeWhenInvalidTime() {
+    assertThat(UtcTimingCache.parseTime("Sat, 13 Jan 2024 20:09:50 GMT")).isNull();
+  }
+
+  @Test
+  public void shouldParseDateHeaderWhenResponseHeadersIncludeDate() {
+    assertThat(UtcTimingCache.parseDateHeader("HTTP/1.1 200 OK\n"
+        + "Content-Length: 0\n"
+        + "date: Sat, 13 Jan 2024 20:09:50 GMT\n"))
+        .isEqualTo(NOW);
+  }
+
+  @Test
+  public void shouldGetNullDateWhenResponseHeadersWithoutDate() {
+    assertThat(UtcTimingCache.parseDateHeader("HTTP/1.1 200 OK\nContent-Length: 0\n")).isNull();
+  }
+
+  @Test
+  public void shouldGetCachedClocksDiffUntilRefreshInterval() {
+    ExpiringCache<URI, Duration> cache = UtcTimingCache.getInstance();
+    Duration clocksDiff = Duration.ofMillis(1500);
+    cache.put(TIMING_URI, clocksDiff, NOW);
+    assertThat(cache.get(TIMING_URI, () -> NOW.plusSeconds(59), () -> null))
+        .isEqualTo(clocksDiff);
+    assertThat(cache.get(TIMING_URI, () -> NOW.plusSeconds(60), () -> null)).isNull();
+  }
+
+}
@@ -0,0 +1,55 @@
+package com.blazemeter.jmeter.videostreaming.dash.segmentbuilders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import org.junit.Test;
+
+public class ScaledTimeTest {
+
+  private static final long TIMESCALE = 90000;
+  // a time since epoch in ticks, which overflows a long when multiplied by a billion
+  private static final long LARGE_SCALED_TIME = 153_000_000_000_003L;
+
+  @Test
+  public void shouldTruncateSubNanosWhenConvertingScaledTimeToNanos() {
+    assertThat(ScaledTime.toNanos(2, 3)).isEqualTo(666_666_666L);
+  }
+
+  @Test
+  public void shouldRoundSecondsHalfUpBeforeTruncatingSubNanosWhenConvertingScaledTimeToNanos() {
+    assertThat(ScaledTime.toNanos(19_999_999_999L, 20_000_000_000L)).isEqualTo(1_000_000_000L);
+  }
+
+  @Test
+  public void shouldConvertScaledTimeToNanosWhenProductOverflowsLong() {
+    assertThat(ScaledTime.toNanos(LARGE_SCALED_TIME, TIMESCALE))
+        .isEqualTo(BigDecimal.valueOf(LARGE_SCALED_TIME)
+            .divide(BigDecimal.valueOf(TIMESCALE), 10, RoundingMode.HALF_UP)
+            .multiply(BigDecimal.valueOf(1_000_000_000L))
+            .longValue());
+  }
+
+  @Test
+  public void shouldRoundHalfUpWhenConvertingNanosToScaledTime() {
+    assertThat(ScaledTime.fromNanos(5_000, 100_000)).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldRoundHalfAwayFromZeroWhenDividingNegativeValues() {
+    assertThat(ScaledTime.divide(-5, 2, RoundingMode.HALF_UP)).isEqualTo(-3);
+  }
+
+  @Test
+  public void shouldGetOriginalScaledTimeWhenConvertingBackFromNanos() {
+    long nanos = ScaledTime.toNanos(LARGE_SCALED_TIME, TIMESCALE);
+    assertThat(ScaledTime.fromNanos(nanos, TIMESCALE)).isEqualTo(LARGE_SCALED_TIME);
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void shouldThrowArithmeticExceptionWhenResultOverflowsLong() {
+    ScaledTime.multiplyDivide(Long.MAX_VALUE, 2, 1, RoundingMode.DOWN);
+  }
+
+}
@@ -0,0 +1,150 @@
+package com.blazemeter.jmeter.videostreaming.dash.segmentbuilders;
+
+import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistParsingException;
+import com.blazemeter.jmeter.videostreaming.dash.DashMediaSegment;
+import com.blazemeter.jmeter.videostreaming.dash.Manifest;
+import com.blazemeter.jmeter.videostreaming.dash.SegmentBuilder;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+Measures walking a SegmentTemplate with a SegmentTimeline of thousands of S elements, and
+compares the scaled time conversions it does on every segment using BigDecimal (as it used to be)
+and using ScaledTime long arithmetic.
+
+Run it with: mvn test-compile exec:java -Dexec.classpathScope=test
+-Dexec.mainClass=com.blazemeter.jmeter.videostreaming.dash.segmentbuilders.SegmentTimelineBenchmark
+
+It runs in the Maven JVM (no fork), since JVMs forked by JMH don't get the test classpath that
+exec:java builds.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+public class SegmentTimelineBenchmark {
+
+  private static final URI MANIFEST_URI = URI.create("http://test/manifest.mpd");
+  private static final long TIMESCALE = 90000;
+  // durations alternate so every S element is kept instead of being merged with a repeat count
+  private static final long[] SEGMENT_DURATIONS = {180180, 180000};
+  // a start time since epoch, which overflows a long when multiplied by a billion
+  private static final long START_TIME = 153_000_000_000_000L;
+
+  @Param({"1000", "10000"})
+  private int timelineSegments;
+
+  private SegmentBuilder<?> segmentBuilder;
+  private DashMediaSegment lastSegment;
+  private long[] scaledTimes;
+
+  @Setup
+  public void setup() throws PlaylistParsingException {
+    Manifest manifest = Manifest.fromUriAndBody(MANIFEST_URI, buildManifest(timelineSegments),
+        Instant.EPOCH);
+    segmentBuilder = manifest.getPeriods().get(0)
+        .findSegmentBuilder("video", variants -> variants.get(0), null);
+    segmentBuilder.advanceUntil(null);
+    scaledTimes = new long[timelineSegments];
+    for (int i = 0; i < timelineSegments; i++) {
+      lastSegment = segmentBuilder.next();
+      scaledTimes[i] = START_TIME + i * SEGMENT_DURATIONS[0];
+    }
+  }
+
+  private static String buildManifest(int segments) {
+    StringBuilder timeline = new StringBuilder();
+    long time = START_TIME;
+    for (int i = 0; i < segments; i++) {
+      long duration = SEGMENT_DURATIONS[i % SEGMENT_DURATIONS.length];
+      timeline.append(i == 0 ? "<S t=\"" + time + "\" d=\"" : "<S d=\"")
+          .append(duration)
+          .append("\"/>\n");
+      time += duration;
+    }
+    return "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+        + "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" type=\"static\" "
+        + "mediaPresentationDuration=\"PT100H\" minBufferTime=\"PT2S\" "
+        + "profiles=\"urn:mpeg:dash:profile:isoff-live:2011\">\n"
+        + "<Period id=\"1\" start=\"PT0S\">\n"
+        + "<AdaptationSet id=\"1\" contentType=\"video\" mimeType=\"video/mp4\">\n"
+        + "<SegmentTemplate timescale=\"" + TIMESCALE + "\" presentationTimeOffset=\""
+        + START_TIME + "\" initialization=\"init-$RepresentationID$.m4s\" "
+        + "media=\"seg-$RepresentationID$-$Time$.m4s\">\n"
+        + "<SegmentTimeline>\n" + timeline + "</SegmentTimeline>\n"
+        + "</SegmentTemplate>\n"
+        + "<Representation id=\"v1\" bandwidth=\"1000000\" width=\"1920\" height=\"1080\" "
+        + "codecs=\"avc1.640028\"/>\n"
+        + "</AdaptationSet>\n"
+        + "</Period>\n"
+        + "</MPD>\n";
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(SegmentTimelineBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+
+  @Benchmark
+  public Object walkTimeline() {
+    segmentBuilder.advanceUntil(null);
+    DashMediaSegment segment = null;
+    while (segmentBuilder.hasNext()) {
+      segment = segmentBuilder.next();
+    }
+    return segment;
+  }
+
+  @Benchmark
+  public boolean seekTimelineEnd() {
+    segmentBuilder.advanceUntil(lastSegment);
+    return segmentBuilder.hasNext();
+  }
+
+  @Benchmark
+  public long bigDecimalConversions() {
+    long ret = 0;
+    for (long scaledTime : scaledTimes) {
+      Duration time = Duration.ofNanos(BigDecimal.valueOf(scaledTime)
+          .divide(BigDecimal.valueOf(TIMESCALE), 10, RoundingMode.HALF_UP)
+          .multiply(BigDecimal.valueOf(1_000_000_000L)).longValue());
+      ret += BigDecimal.valueOf(time.toNanos())
+          .multiply(BigDecimal.valueOf(TIMESCALE))
+          .divide(BigDecimal.valueOf(1_000_000_000L), 0, RoundingMode.HALF_UP)
+          .longValue();
+    }
+    return ret;
+  }
+
+  @Benchmark
+  public long scaledTimeConversions() {
+    long ret = 0;
+    for (long scaledTime : scaledTimes) {
+      Duration time = Duration.ofNanos(ScaledTime.toNanos(scaledTime, TIMESCALE));
+      ret += ScaledTime.fromNanos(time.toNanos(), TIMESCALE);
+    }
+    return ret;
+  }
+
+}
@@ -0,0 +1,78 @@
+package com.blazemeter.jmeter.videostreaming.dash.segmentbuilders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.lindstrom.mpd.MPDParser;
+import io.lindstrom.mpd.data.Segment;
+import java.io.IOException;
+import java.util.List;
+import org.junit.Test;
+
+public class SegmentTimelineIndexTest {
+
+  private static SegmentTimelineIndex buildIndex(String timeline) throws IOException {
+    return new SegmentTimelineIndex(parseTimeline(timeline));
+  }
+
+  private static List<Segment> parseTimeline(String timeline) throws IOException {
+    return new MPDParser().parse(
+        "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+            + "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" type=\"static\">\n"
+            + "<Period id=\"1\">\n"
+            + "<AdaptationSet id=\"1\" contentType=\"video\">\n"
+            + "<SegmentTemplate timescale=\"1000\" media=\"$Time$.m4s\">\n"
+            + "<SegmentTimeline>" + timeline + "</SegmentTimeline>\n"
+            + "</SegmentTemplate>\n"
+            + "</AdaptationSet>\n"
+            + "</Period>\n"
+            + "</MPD>\n")
+        .getPeriods().get(0).getAdaptationSets().get(0).getSegmentTemplate()
+        .getSegmentTimeline();
+  }
+
+  @Test
+  public void shouldSolveStartTimesAndFirstSegmentsWhenTimelineHasJumps() throws IOException {
+    SegmentTimelineIndex index = buildIndex("<S t=\"100\" d=\"10\" r=\"2\"/><S d=\"5\"/>"
+        + "<S t=\"200\" d=\"20\" r=\"1\"/>");
+    assertThat(new long[][]{
+        {index.getStartTime(0), index.getStartTime(1), index.getStartTime(2)},
+        {index.getFirstSegment(0), index.getFirstSegment(1), index.getFirstSegment(2)},
+        {index.getEndTime(0), index.getEndTime(1), index.getEndTime(2)}})
+        .isEqualTo(new long[][]{{100, 130, 200}, {0, 3, 4}, {130, 135, 240}});
+  }
+
+  @Test
+  public void shouldFindEntryStartingAtTime() throws IOException {
+    SegmentTimelineIndex index = buildIndex("<S t=\"100\" d=\"10\" r=\"2\"/><S d=\"5\"/>"
+        + "<S t=\"200\" d=\"20\" r=\"1\"/>");
+    assertThat(new int[]{index.findEntry(130), index.findEntry(140), index.findEntry(300)})
+        .isEqualTo(new int[]{1, -1, -1});
+  }
+
+  @Test
+  public void shouldFindFirstMatchingEntryWhenTimelineHasOverlappingEntries()
+      throws IOException {
+    SegmentTimelineIndex index = buildIndex("<S t=\"100\" d=\"10\" r=\"2\"/>"
+        + "<S t=\"120\" d=\"10\"/><S t=\"90\" d=\"10\"/>");
+    assertThat(index.findEntry(90)).isEqualTo(2);
+  }
+
+  @Test
+  public void shouldIndexAppendedEntriesWhenRefreshingSlidingTimeline() throws IOException {
+    SegmentTimelineIndex index = buildIndex("<S t=\"100\" d=\"10\" r=\"2\"/><S d=\"5\"/>");
+    assertThat(index.refresh(parseTimeline("<S t=\"130\" d=\"5\" r=\"1\"/>"
+        + "<S d=\"20\" r=\"1\"/>"))).isTrue();
+    assertThat(new long[][]{
+        {index.size(), index.getStartTime(0), index.getStartTime(1)},
+        {index.getRepetitions(0), index.getFirstSegment(0), index.getFirstSegment(1)}})
+        .isEqualTo(new long[][]{{2, 130, 140}, {1, 0, 2}});
+  }
+
+  @Test
+  public void shouldNotRefreshWhenTimelineDoesNotContinueIndexedOne() throws IOException {
+    SegmentTimelineIndex index = buildIndex("<S t=\"100\" d=\"10\" r=\"2\"/><S d=\"5\"/>");
+    assertThat(index.refresh(parseTimeline("<S t=\"130\" d=\"10\"/>"))).isFalse();
+    assertThat(index.getStartTime(1)).isEqualTo(130);
+  }
+
+}
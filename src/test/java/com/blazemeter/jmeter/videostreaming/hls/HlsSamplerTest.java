@@ -2,14 +2,19 @@ package com.blazemeter.jmeter.videostreaming.hls;
 
 import static org.assertj.core.api.Java6Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.blazemeter.jmeter.hls.logic.BandwidthSelector;
 import com.blazemeter.jmeter.hls.logic.BandwidthSelector.CustomBandwidthSelector;
 import com.blazemeter.jmeter.videostreaming.VideoStreamingSamplerTest;
+import com.blazemeter.jmeter.videostreaming.core.SharedManifestCache;
+import com.blazemeter.jmeter.videostreaming.core.StreamingSliceCoordinator;
 import com.blazemeter.jmeter.videostreaming.core.TimeMachine;
 import com.blazemeter.jmeter.videostreaming.core.VideoStreamingHttpClient;
 import com.blazemeter.jmeter.videostreaming.core.VideoStreamingSampler;
@@ -23,15 +28,18 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import org.apache.jmeter.protocol.http.sampler.HTTPSampleResult;
 import org.apache.jmeter.samplers.SampleResult;
-import org.apache.jmeter.util.JMeterUtils;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
@@ -42,6 +50,7 @@ public class HlsSamplerTest extends VideoStreamingSamplerTest {
   private static final URI MASTER_URI = URI.create(BASE_URI + "/master.m3u8");
   protected static final String MEDIA_TYPE_NAME = "media";
   protected static final double MEDIA_SEGMENT_DURATION = 5.0;
+  private static final double LOW_LATENCY_PART_DURATION = 2.5;
   private static final String MEDIA_PLAYLIST_SAMPLE_NAME = SAMPLER_NAME + " - media playlist";
   private static final String MASTER_PLAYLIST_NAME = "masterPlaylist.m3u8";
   private static final String MASTER_PLAYLIST_WITH_TYPE_NAME = "masterPlaylistWithType.m3u8";
@@ -131,6 +140,70 @@ public class HlsSamplerTest extends VideoStreamingSamplerTest {
         buildMediaSegmentSampleResult(1));
   }
 
+  @Test
+  public void shouldGetMasterPlaylistFromSharedCacheWhenOtherViewerDownloadedIt()
+      throws Exception {
+    enablePluginProperty(SharedManifestCache.ENABLED_PROPERTY_NAME);
+    setupUriSamplerPlaylist(MASTER_URI, getResource(MASTER_PLAYLIST_NAME));
+    setupUriSamplerPlaylist(MEDIA_PLAYLIST_URI, getResource(SIMPLE_MEDIA_PLAYLIST_NAME));
+    setPlaySeconds(MEDIA_SEGMENT_DURATION);
+    sampler.sample();
+    new HlsSampler(baseSampler, httpClient, timeMachine, sampleResultProcessor).sample();
+
+    verify(httpClient).downloadUri(MASTER_URI);
+    verify(httpClient, times(2)).downloadUri(MEDIA_PLAYLIST_URI);
+    verify(sampleResultProcessor, times(2))
+        .accept(eq("master playlist"), any());
+  }
+
+  @Test(timeout = TEST_TIMEOUT)
+  public void shouldDownloadMasterPlaylistWhileOtherTitleMasterPlaylistDownloadsWithSharedCache()
+      throws Exception {
+    enablePluginProperty(SharedManifestCache.ENABLED_PROPERTY_NAME);
+    URI otherMasterUri = URI.create(BASE_URI + "/titles/50/master.m3u8");
+    String masterPlaylist = getResource(MASTER_PLAYLIST_NAME);
+    setupUriSamplerPlaylist(MASTER_URI, masterPlaylist);
+    setupUriSamplerPlaylist(otherMasterUri, masterPlaylist);
+    setupUriSamplerPlaylist(MEDIA_PLAYLIST_URI, getResource(SIMPLE_MEDIA_PLAYLIST_NAME),
+        getResource(SIMPLE_MEDIA_PLAYLIST_NAME));
+    CountDownLatch masterDownloadStarted = new CountDownLatch(1);
+    CountDownLatch otherTitleSampled = new CountDownLatch(1);
+    buildSampler(uri -> {
+      if (MASTER_URI.equals(uri)) {
+        masterDownloadStarted.countDown();
+        try {
+          otherTitleSampled.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      return uriSampler.apply(uri);
+    });
+    setPlaySeconds(MEDIA_SEGMENT_DURATION);
+    com.blazemeter.jmeter.hls.logic.HlsSampler otherBaseSampler =
+        new com.blazemeter.jmeter.hls.logic.HlsSampler();
+    otherBaseSampler.setName(SAMPLER_NAME);
+    otherBaseSampler.setMasterUrl(otherMasterUri.toString());
+    otherBaseSampler.setPlayVideoDuration(true);
+    otherBaseSampler.setPlaySeconds(String.valueOf((int) MEDIA_SEGMENT_DURATION));
+    HlsSampler otherSampler = new HlsSampler(otherBaseSampler, httpClient, timeMachine,
+        sampleResultProcessor);
+
+    runWithAsyncSample(() -> {
+      masterDownloadStarted.await();
+      try {
+        otherSampler.sample();
+      } finally {
+        otherTitleSampled.countDown();
+      }
+      return null;
+    });
+
+    verify(httpClient).downloadUri(MASTER_URI);
+    verify(httpClient).downloadUri(otherMasterUri);
+    verify(httpClient, times(2)).downloadUri(MEDIA_PLAYLIST_URI);
+  }
+
   @Test
   public void shouldDownloadSegmentWhenMediaPlaylistHasRelativePath() throws Exception {
     String masterPlaylist = getResource(MASTER_PLAYLIST_NAME);
@@ -158,6 +231,21 @@ public class HlsSamplerTest extends VideoStreamingSamplerTest {
         buildMediaSegmentSampleResult(sequenceNumber));
   }
 
+  @Test
+  public void shouldDownloadAllSegmentsInOrderWhenSampleWholeVideoAndVODWithSegmentPrefetch()
+      throws Exception {
+    baseSampler.setSegmentPrefetch("2");
+    String mediaPlaylist = getResource(VOD_MEDIA_PLAYLIST_NAME);
+    setupUriSamplerPlaylist(MASTER_URI, mediaPlaylist);
+    sampler.sample();
+    int sequenceNumber = 1;
+    verifySampleResults(
+        buildBaseSampleResult(MEDIA_PLAYLIST_SAMPLE_NAME, MASTER_URI, mediaPlaylist),
+        buildMediaSegmentSampleResult(sequenceNumber++),
+        buildMediaSegmentSampleResult(sequenceNumber++),
+        buildMediaSegmentSampleResult(sequenceNumber));
+  }
+
   @Test
   public void shouldKeepDownloadingSegmentsUntilListEndWhenEventStreamAndPlayWholeVideo()
       throws Exception {
@@ -258,6 +346,52 @@ public class HlsSamplerTest extends VideoStreamingSamplerTest {
         buildMediaSegmentSampleResult(sequenceNumber));
   }
 
+  @Test
+  public void shouldDownloadPartsAndBlockReloadWhenLowLatencyLiveStream() throws Exception {
+    String mediaPlaylist1 = getResource("lowLatencyMediaPlaylist-Part1.m3u8");
+    String mediaPlaylist2 = getResource("lowLatencyMediaPlaylist-Part2.m3u8");
+    URI blockingReloadUri = URI.create(MASTER_URI + "?_HLS_msn=2&_HLS_part=2");
+    setupUriSamplerPlaylist(MASTER_URI, mediaPlaylist1);
+    setupUriSamplerPlaylist(blockingReloadUri, mediaPlaylist2);
+    setPlaySeconds(MEDIA_SEGMENT_DURATION + LOW_LATENCY_PART_DURATION * 3);
+    sampler.sample();
+    verifySampleResults(
+        buildBaseSampleResult(MEDIA_PLAYLIST_SAMPLE_NAME, MASTER_URI, mediaPlaylist1),
+        buildMediaSegmentSampleResult(1),
+        buildMediaPartSampleResult("002.0"),
+        buildMediaPartSampleResult("002.1"),
+        buildBaseSampleResult(MEDIA_PLAYLIST_SAMPLE_NAME, blockingReloadUri, mediaPlaylist2),
+        buildMediaPartSampleResult("003.0"));
+  }
+
+  @Test
+  public void shouldRequestDeltaUpdateWhenServerCanSkipSegments() throws Exception {
+    String mediaPlaylist1 = getResource("deltaUpdateMediaPlaylist-Part1.m3u8");
+    String mediaPlaylist2 = getResource("deltaUpdateMediaPlaylist-Part2.m3u8");
+    URI deltaUpdateUri = URI.create(MASTER_URI + "?_HLS_skip=YES");
+    setupUriSamplerPlaylist(MASTER_URI, mediaPlaylist1);
+    setupUriSamplerPlaylist(deltaUpdateUri, mediaPlaylist2);
+    setPlaySeconds(MEDIA_SEGMENT_DURATION * 5);
+    sampler.sample();
+    int sequenceNumber = 1;
+    verifySampleResults(
+        buildBaseSampleResult(MEDIA_PLAYLIST_SAMPLE_NAME, MASTER_URI, mediaPlaylist1),
+        buildMediaSegmentSampleResult(sequenceNumber++),
+        buildMediaSegmentSampleResult(sequenceNumber++),
+        buildMediaSegmentSampleResult(sequenceNumber++),
+        buildMediaSegmentSampleResult(sequenceNumber++),
+        buildBaseSampleResult(MEDIA_PLAYLIST_SAMPLE_NAME, deltaUpdateUri, mediaPlaylist2),
+        buildMediaSegmentSampleResult(sequenceNumber));
+  }
+
+  private HTTPSampleResult buildMediaPartSampleResult(String partName) {
+    HTTPSampleResult result = buildSampleResult(
+        URI.create(BASE_URI + "/" + MEDIA_TYPE_NAME + "/" + partName + ".ts"),
+        SEGMENT_CONTENT_TYPE, "");
+    result.setSampleLabel(SAMPLER_NAME + " - " + MEDIA_TYPE_NAME + " part");
+    return addDurationHeader(result, LOW_LATENCY_PART_DURATION);
+  }
+
   @Test
   public void shouldNotDownloadMediaPlaylistOrSegmentsWhenMasterPlaylistRequestFails() {
     setupUriSamplerErrorResult(MASTER_URI);
@@ -342,6 +476,30 @@ public class HlsSamplerTest extends VideoStreamingSamplerTest {
         .isBetween(TARGET_TIME_MILLIS, TARGET_TIME_MILLIS + TIME_THRESHOLD_MILLIS);
   }
 
+  @Test
+  public void shouldNotReloadPlaylistBeforeTargetTimeWhenSliceDeadlineCutsWait()
+      throws Exception {
+    TimedUriSampler timedUriSampler = new TimedUriSampler(uriSampler, timeMachine, 0);
+    buildSampler(timedUriSampler);
+    setupUriSamplerPlaylist(MASTER_URI, getResource(EVENT_MEDIA_PLAYLIST_PART_1_NAME),
+        getResource(EVENT_MEDIA_PLAYLIST_PART_2_NAME));
+    Instant windowStart = timeMachine.now();
+    StreamingSliceCoordinator.beginIteration();
+    try {
+      // short slices, as when other samplers of a Streaming Parallel Controller wake up soon
+      for (int i = 0; i < 5; i++) {
+        StreamingSliceCoordinator.beginSlice(i == 0,
+            System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100), -1);
+        sampler.sample();
+      }
+    } finally {
+      StreamingSliceCoordinator.clear();
+    }
+    long windowMillis = windowStart.until(timeMachine.now(), ChronoUnit.MILLIS);
+    assertThat(timedUriSampler.getUriSamplesTimeStamps(MASTER_URI).size())
+        .isLessThanOrEqualTo(1 + (int) (windowMillis / TARGET_TIME_MILLIS));
+  }
+
   private static class TimedUriSampler implements Function<URI, HTTPSampleResult> {
 
     private final Function<URI, HTTPSampleResult> baseUriSampler;
@@ -642,6 +800,42 @@ public class HlsSamplerTest extends VideoStreamingSamplerTest {
         buildSubtitlesSegmentSampleResult());
   }
 
+  @Test
+  public void shouldDownloadSameSegmentsOnOwningThreadWhenDownloadingTracksConcurrently()
+      throws Exception {
+    setUpSamplerForRenditions(FRENCH_LANGUAGE_SELECTOR, "");
+    baseSampler.setDownloadTracksConcurrently(true);
+
+    String masterPlaylist = getResource(MASTER_PLAYLIST_WITH_RENDITIONS_RESOURCE);
+    String audioPlaylist = getResource(AUDIO_PLAYLIST_RESOURCE);
+    String subtitlePlaylist = getResource(SUBTITLE_PLAYLIST_FRENCH_RESOURCE);
+    String mediaPlaylist = getResource(SIMPLE_MEDIA_PLAYLIST_NAME);
+
+    setupUriSamplerPlaylist(MASTER_PLAYLIST_WITH_RENDITIONS_URI, masterPlaylist);
+    setupUriSamplerPlaylist(MEDIA_PLAYLIST_URI, mediaPlaylist);
+    setupUriSamplerPlaylist(AUDIO_PLAYLIST_DEFAULT_ENGLISH_URI, audioPlaylist);
+    setupUriSamplerPlaylist(FRENCH_SUBTITLES_PLAYLIST_URI, subtitlePlaylist);
+    Set<Thread> processingThreads = ConcurrentHashMap.newKeySet();
+    doAnswer(a -> processingThreads.add(Thread.currentThread())).when(sampleResultProcessor)
+        .accept(any(), any());
+
+    sampler.sample();
+
+    assertThat(processingThreads).containsExactly(Thread.currentThread());
+    verifySampleResultsInAnyOrder(
+        buildBaseSampleResult(MASTER_PLAYLIST_SAMPLE_NAME, MASTER_PLAYLIST_WITH_RENDITIONS_URI,
+            masterPlaylist),
+        buildBaseSampleResult(MEDIA_PLAYLIST_SAMPLE_NAME, MEDIA_PLAYLIST_URI, mediaPlaylist),
+        buildBaseSampleResult(AUDIO_PLAYLIST_SAMPLE_NAME, AUDIO_PLAYLIST_DEFAULT_ENGLISH_URI,
+            audioPlaylist),
+        buildBaseSampleResult(SUBTITLE_PLAYLIST_SAMPLE_NAME, FRENCH_SUBTITLES_PLAYLIST_URI,
+            subtitlePlaylist),
+        buildMediaSegmentSampleResult(1),
+        buildAudioSegmentSampleResult(1),
+        buildAudioSegmentSampleResult(2),
+        buildSubtitlesSegmentSampleResult());
+  }
+
   @Test
   public void shouldDownloadDefaultAudioWhenSelectorNotFound() throws IOException {
     setUpSamplerForRenditions("", "sp");
@@ -957,48 +1151,78 @@ public class HlsSamplerTest extends VideoStreamingSamplerTest {
   @Test
   public void shouldReleaseSegmentResponseDataAfterProcessingWhenReleaseSegmentResponseDataEnabled()
       throws Exception {
-    JMeterUtils.setProperty(VideoStreamingSampler.RELEASE_SEGMENT_RESPONSE_DATA_PROP, "true");
-    VideoStreamingSampler.resetReleaseSegmentResponseDataCache();
-    try {
-      String mediaPlaylist = getResource(SIMPLE_MEDIA_PLAYLIST_NAME);
-      HTTPSampleResult segmentResult = buildMediaSegmentSampleResult(1);
-      segmentResult.setResponseData("segment-payload", Charsets.UTF_8.name());
-      long bytesBeforeRelease = segmentResult.getBytesAsLong();
-
-      setupUriSamplerPlaylist(MASTER_URI, mediaPlaylist);
-      uriSampler.setupUriSampleResults(buildSegmentUri(MEDIA_TYPE_NAME, 1), segmentResult);
-      setPlaySeconds(MEDIA_SEGMENT_DURATION);
-      sampler.sample();
-
-      assertThat(segmentResult.getResponseData()).isEmpty();
-      assertThat(segmentResult.getBytesAsLong()).isEqualTo(bytesBeforeRelease);
-    } finally {
-      JMeterUtils.setProperty(VideoStreamingSampler.RELEASE_SEGMENT_RESPONSE_DATA_PROP, "false");
-      VideoStreamingSampler.resetReleaseSegmentResponseDataCache();
-    }
+    enablePluginProperty(VideoStreamingSampler.RELEASE_SEGMENT_RESPONSE_DATA_PROP);
+    String mediaPlaylist = getResource(SIMPLE_MEDIA_PLAYLIST_NAME);
+    HTTPSampleResult segmentResult = buildMediaSegmentSampleResult(1);
+    segmentResult.setResponseData("segment-payload", Charsets.UTF_8.name());
+    long bytesBeforeRelease = segmentResult.getBytesAsLong();
+
+    setupUriSamplerPlaylist(MASTER_URI, mediaPlaylist);
+    uriSampler.setupUriSampleResults(buildSegmentUri(MEDIA_TYPE_NAME, 1), segmentResult);
+    setPlaySeconds(MEDIA_SEGMENT_DURATION);
+    sampler.sample();
+
+    assertThat(segmentResult.getResponseData()).isEmpty();
+    assertThat(segmentResult.getBytesAsLong()).isEqualTo(bytesBeforeRelease);
+  }
+
+  @Test
+  public void shouldDownloadSegmentsDiscardingBodyWhenDiscardSegmentResponseDataEnabled()
+      throws Exception {
+    enablePluginProperty(VideoStreamingSampler.DISCARD_SEGMENT_RESPONSE_DATA_PROP);
+    String mediaPlaylist = getResource(SIMPLE_MEDIA_PLAYLIST_NAME);
+    URI segmentUri = buildSegmentUri(MEDIA_TYPE_NAME, 1);
+    when(httpClient.downloadUri(segmentUri, true))
+        .thenReturn(buildBaseSegmentSampleResult(MEDIA_TYPE_NAME, 1));
+
+    setupUriSamplerPlaylist(MASTER_URI, mediaPlaylist);
+    setPlaySeconds(MEDIA_SEGMENT_DURATION);
+    sampler.sample();
+
+    verify(httpClient).downloadUri(segmentUri, true);
+    verifySampleResults(
+        buildBaseSampleResult(MEDIA_PLAYLIST_SAMPLE_NAME, MASTER_URI, mediaPlaylist),
+        buildMediaSegmentSampleResult(1));
+  }
+
+  @Test
+  public void shouldReuseParsedPlaylistWhenConditionalReloadGetsNotModified() throws Exception {
+    enablePluginProperty(VideoStreamingSampler.CONDITIONAL_PLAYLIST_REQUESTS_PROP);
+    String entityTag = "\"v1\"";
+    HTTPSampleResult playlistResult = buildBaseSampleResult(SAMPLER_NAME, MASTER_URI,
+        getResource(EVENT_MEDIA_PLAYLIST_PART_1_NAME));
+    playlistResult.setResponseHeaders(
+        playlistResult.getResponseHeaders() + "ETag: " + entityTag + "\n");
+    uriSampler.setupUriSampleResults(MASTER_URI, playlistResult);
+    HTTPSampleResult notModifiedResult = buildBaseSampleResult(MASTER_URI);
+    notModifiedResult.setSuccessful(true);
+    notModifiedResult.setResponseCode("304");
+    notModifiedResult.setResponseHeaders("");
+    when(httpClient.downloadUriIfModified(MASTER_URI, entityTag, null))
+        .thenReturn(notModifiedResult, buildBaseSampleResult(SAMPLER_NAME, MASTER_URI,
+            getResource(EVENT_MEDIA_PLAYLIST_PART_2_NAME)));
+
+    sampler.sample();
+
+    verify(httpClient, times(2)).downloadUriIfModified(MASTER_URI, entityTag, null);
+    verify(httpClient).downloadUri(buildSegmentUri(MEDIA_TYPE_NAME, 5));
   }
 
   @Test
   public void shouldReleasePlaylistResponseDataAfterProcessingWhenReleasePlaylistResponseDataEnabled()
       throws Exception {
-    JMeterUtils.setProperty(VideoStreamingSampler.RELEASE_PLAYLIST_RESPONSE_DATA_PROP, "true");
-    VideoStreamingSampler.resetReleasePlaylistResponseDataCache();
-    try {
-      String mediaPlaylist = getResource(SIMPLE_MEDIA_PLAYLIST_NAME);
-      HTTPSampleResult playlistResult = buildBaseSampleResult(SAMPLER_NAME, MASTER_URI,
-          mediaPlaylist);
-      long bytesBeforeRelease = playlistResult.getBytesAsLong();
+    enablePluginProperty(VideoStreamingSampler.RELEASE_PLAYLIST_RESPONSE_DATA_PROP);
+    String mediaPlaylist = getResource(SIMPLE_MEDIA_PLAYLIST_NAME);
+    HTTPSampleResult playlistResult = buildBaseSampleResult(SAMPLER_NAME, MASTER_URI,
+        mediaPlaylist);
+    long bytesBeforeRelease = playlistResult.getBytesAsLong();
 
-      uriSampler.setupUriSampleResults(MASTER_URI, playlistResult);
-      setPlaySeconds(MEDIA_SEGMENT_DURATION);
-      sampler.sample();
+    uriSampler.setupUriSampleResults(MASTER_URI, playlistResult);
+    setPlaySeconds(MEDIA_SEGMENT_DURATION);
+    sampler.sample();
 
-      assertThat(playlistResult.getResponseData()).isEmpty();
-      assertThat(playlistResult.getBytesAsLong()).isEqualTo(bytesBeforeRelease);
-    } finally {
-      JMeterUtils.setProperty(VideoStreamingSampler.RELEASE_PLAYLIST_RESPONSE_DATA_PROP, "false");
-      VideoStreamingSampler.resetReleasePlaylistResponseDataCache();
-    }
+    assertThat(playlistResult.getResponseData()).isEmpty();
+    assertThat(playlistResult.getBytesAsLong()).isEqualTo(bytesBeforeRelease);
   }
 
   @Test
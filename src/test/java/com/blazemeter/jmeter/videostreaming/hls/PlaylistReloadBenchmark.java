@@ -0,0 +1,78 @@
+package com.blazemeter.jmeter.videostreaming.hls;
+
+import com.blazemeter.jmeter.videostreaming.core.exception.PlaylistParsingException;
+import java.net.URI;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+Measures the cost of a live media playlist reload on DVR windows of different sizes, where the
+reloaded playlist slides one segment from the previous one, comparing parsing the whole body with
+parsing it incrementally from the previous playlist. Playlists are measured with and without an
+init segment map and a program date time on each segment, as most live playlists include them.
+
+Run it with: mvn test-compile exec:java -Dexec.classpathScope=test
+-Dexec.mainClass=com.blazemeter.jmeter.videostreaming.hls.PlaylistReloadBenchmark
+
+It runs in the Maven JVM (no fork), since JVMs forked by JMH don't get the test classpath that
+exec:java builds.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+public class PlaylistReloadBenchmark {
+
+  private static final URI PLAYLIST_URI = URI.create("http://test/media/playlist.m3u8");
+
+  @Param({"1000", "10000"})
+  private int windowSegments;
+
+  @Param({"false", "true"})
+  private boolean segmentTags;
+
+  private Playlist previous;
+  private String reloadBody;
+
+  @Setup
+  public void setup() throws PlaylistParsingException {
+    previous = Playlist.fromUriAndBody(PLAYLIST_URI,
+        PlaylistTest.buildLivePlaylist(1, windowSegments, segmentTags), Instant.EPOCH);
+    previous.getMediaSegments();
+    reloadBody = PlaylistTest.buildLivePlaylist(2, windowSegments, segmentTags);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(PlaylistReloadBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+
+  @Benchmark
+  public Object fullReload() throws PlaylistParsingException {
+    return Playlist.fromUriAndBody(PLAYLIST_URI, reloadBody, Instant.EPOCH).getMediaSegments();
+  }
+
+  @Benchmark
+  public Object incrementalReload() throws PlaylistParsingException {
+    return Playlist.fromUriAndBody(PLAYLIST_URI, reloadBody, Instant.EPOCH, previous)
+        .getMediaSegments();
+  }
+
+}
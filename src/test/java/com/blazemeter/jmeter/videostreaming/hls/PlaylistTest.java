@@ -0,0 +1,308 @@
+package com.blazemeter.jmeter.videostreaming.hls;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.blazemeter.jmeter.videostreaming.core.MediaSegment;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class PlaylistTest {
+
+  private static final URI TEST_URI = URI.create("http://test/media/playlist.m3u8");
+
+  @Test
+  public void shouldGetSameSegmentsAsFullParseWhenReloadingIncrementally() throws Exception {
+    Playlist previous = Playlist.fromUriAndBody(TEST_URI, buildLivePlaylist(10, 5),
+        Instant.EPOCH);
+    String reloadBody = buildLivePlaylist(12, 5);
+
+    Playlist reloaded = Playlist.fromUriAndBody(TEST_URI, reloadBody, Instant.EPOCH, previous);
+
+    assertSegmentsEquivalent(reloaded.getMediaSegments(),
+        Playlist.fromUriAndBody(TEST_URI, reloadBody, Instant.EPOCH).getMediaSegments());
+  }
+
+  @Test
+  public void shouldReusePreviousSegmentsWhenReloadingIncrementally() throws Exception {
+    Playlist previous = Playlist.fromUriAndBody(TEST_URI, buildLivePlaylist(10, 5),
+        Instant.EPOCH);
+
+    Playlist reloaded = Playlist.fromUriAndBody(TEST_URI, buildLivePlaylist(11, 5),
+        Instant.EPOCH, previous);
+
+    assertThat(reloaded.getMediaSegments().get(0))
+        .isSameAs(previous.getMediaSegments().get(1));
+  }
+
+  @Test
+  public void shouldGetSameSegmentsAsFullParseWhenMediaSequenceGoesBackwards() throws Exception {
+    Playlist previous = Playlist.fromUriAndBody(TEST_URI, buildLivePlaylist(10, 5),
+        Instant.EPOCH);
+    String reloadBody = buildLivePlaylist(3, 5);
+
+    Playlist reloaded = Playlist.fromUriAndBody(TEST_URI, reloadBody, Instant.EPOCH, previous);
+
+    assertSegmentsEquivalent(reloaded.getMediaSegments(),
+        Playlist.fromUriAndBody(TEST_URI, reloadBody, Instant.EPOCH).getMediaSegments());
+  }
+
+  @Test
+  public void shouldGetSamePartsAsFullParseWhenReloadingLowLatencyPlaylistIncrementally()
+      throws Exception {
+    Playlist previous = Playlist.fromUriAndBody(TEST_URI,
+        getResource("lowLatencyMediaPlaylist-Part1.m3u8"), Instant.EPOCH);
+    String reloadBody = getResource("lowLatencyMediaPlaylist-Part2.m3u8");
+
+    Playlist reloaded = Playlist.fromUriAndBody(TEST_URI, reloadBody, Instant.EPOCH, previous);
+
+    Playlist expected = Playlist.fromUriAndBody(TEST_URI, reloadBody, Instant.EPOCH);
+    assertSegmentsEquivalent(reloaded.getMediaSegments(), expected.getMediaSegments());
+    assertPartsEquivalent(reloaded.getPartialSegments(), expected.getPartialSegments());
+  }
+
+  @Test
+  public void shouldNotAttachFirstSegmentTagsToNewSegmentsWhenReloadingIncrementally()
+      throws Exception {
+    String previousBody = getResource("lowLatencyMediaPlaylist-Part2.m3u8");
+    Playlist previous = Playlist.fromUriAndBody(TEST_URI, previousBody, Instant.EPOCH);
+    String reloadBody = previousBody
+        .replace("#EXT-X-MEDIA-SEQUENCE:1\n#EXTINF:5.00,\n/media/001.ts\n",
+            "#EXT-X-MEDIA-SEQUENCE:2\n#EXT-X-PROGRAM-DATE-TIME:2020-01-01T00:00:05.000Z\n"
+                + "#EXT-X-DISCONTINUITY\n")
+        .replace("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"/media/003.1.ts\"\n",
+            "#EXT-X-PART:DURATION=2.5,URI=\"/media/003.1.ts\"\n"
+                + "#EXTINF:5.00,\n"
+                + "/media/003.ts\n"
+                + "#EXT-X-PART:DURATION=2.5,URI=\"/media/004.0.ts\"\n"
+                + "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"/media/004.1.ts\"\n");
+
+    Playlist reloaded = Playlist.fromUriAndBody(TEST_URI, reloadBody, Instant.EPOCH, previous);
+
+    Playlist expected = Playlist.fromUriAndBody(TEST_URI, reloadBody, Instant.EPOCH);
+    assertThat(reloaded.getMediaSegments().get(0)).isSameAs(previous.getMediaSegments().get(1));
+    assertSegmentsEquivalent(reloaded.getMediaSegments(), expected.getMediaSegments());
+    assertPartsEquivalent(reloaded.getPartialSegments(), expected.getPartialSegments().stream()
+        .filter(p -> p.getSequenceNumber() > 2)
+        .collect(Collectors.toList()));
+    assertThat(reloaded.getPreloadHint().getMediaEndTime())
+        .isEqualTo(expected.getPreloadHint().getMediaEndTime());
+  }
+
+  @Test
+  public void shouldReusePreviousSegmentsWhenReloadingIncrementallyWithProgramDateTimesAndMap()
+      throws Exception {
+    Playlist previous = Playlist.fromUriAndBody(TEST_URI, buildLivePlaylist(10, 5, true),
+        Instant.EPOCH);
+    String reloadBody = buildLivePlaylist(11, 5, true);
+
+    Playlist reloaded = Playlist.fromUriAndBody(TEST_URI, reloadBody, Instant.EPOCH, previous);
+
+    assertThat(reloaded.getMediaSegments().get(0)).isSameAs(previous.getMediaSegments().get(1));
+    assertSegmentsEquivalent(reloaded.getMediaSegments(),
+        Playlist.fromUriAndBody(TEST_URI, reloadBody, Instant.EPOCH).getMediaSegments());
+  }
+
+  @Test
+  public void shouldGetSamePartsAsFullParseWhenReloadingLowLatencyPlaylistWithProgramDateTimes()
+      throws Exception {
+    Playlist previous = Playlist.fromUriAndBody(TEST_URI, buildLowLatencyPlaylist(6, 3),
+        Instant.EPOCH);
+    String reloadBody = buildLowLatencyPlaylist(7, 3);
+
+    Playlist reloaded = Playlist.fromUriAndBody(TEST_URI, reloadBody, Instant.EPOCH, previous);
+
+    Playlist expected = Playlist.fromUriAndBody(TEST_URI, reloadBody, Instant.EPOCH);
+    assertThat(reloaded.getMediaSegments().get(0)).isSameAs(previous.getMediaSegments().get(1));
+    assertSegmentsEquivalent(reloaded.getMediaSegments(), expected.getMediaSegments());
+    assertPartsEquivalent(reloaded.getPartialSegments(), expected.getPartialSegments());
+    assertThat(reloaded.getPreloadHint().getMediaEndTime())
+        .isEqualTo(expected.getPreloadHint().getMediaEndTime());
+  }
+
+  @Test
+  public void shouldParseWholePlaylistWhenReloadChangesUriOfReusedSegment() throws Exception {
+    Playlist previous = Playlist.fromUriAndBody(TEST_URI, buildLivePlaylist(10, 5, true),
+        Instant.EPOCH);
+    String reloadBody = buildLivePlaylist(11, 5, true).replace("segment12.ts", "other12.ts");
+
+    Playlist reloaded = Playlist.fromUriAndBody(TEST_URI, reloadBody, Instant.EPOCH, previous);
+
+    assertThat(reloaded.getMediaSegments().get(0))
+        .isNotSameAs(previous.getMediaSegments().get(1));
+    assertSegmentsEquivalent(reloaded.getMediaSegments(),
+        Playlist.fromUriAndBody(TEST_URI, reloadBody, Instant.EPOCH).getMediaSegments());
+  }
+
+  @Test
+  public void shouldParseWholePlaylistWhenReloadChangesMapOfReusedSegment() throws Exception {
+    Playlist previous = Playlist.fromUriAndBody(TEST_URI, buildLivePlaylist(10, 5, true),
+        Instant.EPOCH);
+    String reloadBody = buildLivePlaylist(11, 5, true).replace("segment12.ts\n",
+        "segment12.ts\n#EXT-X-MAP:URI=\"init2.mp4\"\n");
+
+    Playlist reloaded = Playlist.fromUriAndBody(TEST_URI, reloadBody, Instant.EPOCH, previous);
+
+    assertThat(reloaded.getMediaSegments().get(0))
+        .isNotSameAs(previous.getMediaSegments().get(1));
+    assertSegmentsEquivalent(reloaded.getMediaSegments(),
+        Playlist.fromUriAndBody(TEST_URI, reloadBody, Instant.EPOCH).getMediaSegments());
+  }
+
+  @Test
+  public void shouldGetEndMarkerFromTailWhenReloadingIncrementally() throws Exception {
+    Playlist previous = Playlist.fromUriAndBody(TEST_URI, buildLivePlaylist(10, 5),
+        Instant.EPOCH);
+
+    Playlist reloaded = Playlist.fromUriAndBody(TEST_URI,
+        buildLivePlaylist(11, 5) + "#EXT-X-ENDLIST\n", Instant.EPOCH, previous);
+
+    assertThat(reloaded.hasEnd()).isTrue();
+  }
+
+  @Test
+  public void shouldGetPartsWithMediaEndTimeWhenLowLatencyPlaylistWithProgramDateTime()
+      throws Exception {
+    Playlist playlist = Playlist.fromUriAndBody(TEST_URI, "#EXTM3U\n"
+        + "#EXT-X-TARGETDURATION:4\n"
+        + "#EXT-X-PART-INF:PART-TARGET=1.0\n"
+        + "#EXT-X-MEDIA-SEQUENCE:7\n"
+        + "#EXT-X-PROGRAM-DATE-TIME:2020-01-01T00:00:00.000Z\n"
+        + "#EXTINF:4.0,\n"
+        + "segment7.ts\n"
+        + "#EXT-X-PART:DURATION=1.0,URI=\"part8.0.ts\"\n"
+        + "#EXT-X-PART:DURATION=1.0,URI=\"part8.1.ts\"\n"
+        + "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"part8.2.ts\"\n", Instant.EPOCH);
+
+    PartialSegment lastPart = playlist.getPartialSegments().get(1);
+    PartialSegment hint = playlist.getPreloadHint();
+
+    assertThat(lastPart.isAt(8, 1)).isTrue();
+    assertThat(lastPart.getMediaEndTime()).isEqualTo(Instant.parse("2020-01-01T00:00:06Z"));
+    assertThat(hint.isAt(8, 2)).isTrue();
+    assertThat(hint.getUri()).isEqualTo(URI.create("http://test/media/part8.2.ts"));
+  }
+
+  @Test
+  public void shouldIgnoreDeliveryDirectivesInUriWhenParsingPlaylist() throws Exception {
+    Playlist playlist = Playlist.fromUriAndBody(
+        Playlist.buildBlockingReloadUri(TEST_URI, 12, 3), buildLivePlaylist(10, 5),
+        Instant.EPOCH);
+
+    assertThat(playlist.getUri()).isEqualTo(TEST_URI);
+  }
+
+  @Test
+  public void shouldGetSkippedSegmentsFromPreviousPlaylistWhenDeltaUpdate() throws Exception {
+    Playlist previous = Playlist.fromUriAndBody(TEST_URI, buildLivePlaylist(10, 5),
+        Instant.EPOCH);
+    String fullBody = buildLivePlaylist(11, 5);
+
+    Playlist reloaded = Playlist.fromUriAndBody(TEST_URI, fullBody.replace(
+        "#EXTINF:6.000,\nsegment11.ts\n#EXTINF:6.000,\nsegment12.ts\n",
+        "#EXT-X-SKIP:SKIPPED-SEGMENTS=2\n"), Instant.EPOCH, previous);
+
+    assertThat(reloaded.isMissingSkippedSegments()).isFalse();
+    assertSegmentsEquivalent(reloaded.getMediaSegments(),
+        Playlist.fromUriAndBody(TEST_URI, fullBody, Instant.EPOCH).getMediaSegments());
+  }
+
+  @Test
+  public void shouldMarkMissingSkippedSegmentsWhenDeltaUpdateWithoutPreviousPlaylist()
+      throws Exception {
+    Playlist playlist = Playlist.fromUriAndBody(TEST_URI, buildLivePlaylist(11, 5).replace(
+        "#EXTINF:6.000,\nsegment11.ts\n", "#EXT-X-SKIP:SKIPPED-SEGMENTS=1\n"), Instant.EPOCH);
+
+    assertThat(playlist.isMissingSkippedSegments()).isTrue();
+    assertThat(playlist.getMediaSegments().get(0).getSequenceNumber()).isEqualTo(12);
+  }
+
+  static String buildLivePlaylist(long mediaSequence, int segmentsCount) {
+    return buildLivePlaylist(mediaSequence, segmentsCount, false);
+  }
+
+  /*
+  Segment tags add an init segment map and a program date time to each segment, as live
+  playlists usually do.
+  */
+  static String buildLivePlaylist(long mediaSequence, int segmentsCount, boolean segmentTags) {
+    StringBuilder body = new StringBuilder("#EXTM3U\n"
+        + "#EXT-X-VERSION:" + (segmentTags ? 6 : 3) + "\n"
+        + "#EXT-X-TARGETDURATION:6\n"
+        + "#EXT-X-MEDIA-SEQUENCE:" + mediaSequence + "\n");
+    if (segmentTags) {
+      body.append("#EXT-X-MAP:URI=\"init.mp4\"\n");
+    }
+    for (long i = mediaSequence; i < mediaSequence + segmentsCount; i++) {
+      if (segmentTags) {
+        body.append(buildProgramDateTimeTag(i * 6));
+      }
+      body.append("#EXTINF:6.000,\n")
+          .append("segment").append(i).append(".ts\n");
+    }
+    return body.toString();
+  }
+
+  private static String buildProgramDateTimeTag(long seconds) {
+    return "#EXT-X-PROGRAM-DATE-TIME:" + Instant.EPOCH.plusSeconds(seconds) + "\n";
+  }
+
+  /*
+  Builds a low latency playlist with a program date time on each segment, listing the parts of the
+  last segment and of the one being produced, as servers do.
+  */
+  private static String buildLowLatencyPlaylist(long mediaSequence, int segmentsCount) {
+    StringBuilder body = new StringBuilder("#EXTM3U\n"
+        + "#EXT-X-VERSION:9\n"
+        + "#EXT-X-TARGETDURATION:4\n"
+        + "#EXT-X-PART-INF:PART-TARGET=2.0\n"
+        + "#EXT-X-MEDIA-SEQUENCE:" + mediaSequence + "\n"
+        + "#EXT-X-MAP:URI=\"init.mp4\"\n");
+    long nextSequence = mediaSequence + segmentsCount;
+    for (long i = mediaSequence; i < nextSequence; i++) {
+      body.append(buildProgramDateTimeTag(i * 4));
+      if (i == nextSequence - 1) {
+        body.append(buildPartTag(i, 0))
+            .append(buildPartTag(i, 1));
+      }
+      body.append("#EXTINF:4.0,\n")
+          .append("segment").append(i).append(".mp4\n");
+    }
+    return body.append(buildProgramDateTimeTag(nextSequence * 4))
+        .append(buildPartTag(nextSequence, 0))
+        .append("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"part").append(nextSequence)
+        .append(".1.mp4\"\n")
+        .toString();
+  }
+
+  private static String buildPartTag(long sequence, int partIndex) {
+    return "#EXT-X-PART:DURATION=2.0,URI=\"part" + sequence + "." + partIndex + ".mp4\"\n";
+  }
+
+  private static void assertPartsEquivalent(List<PartialSegment> parts,
+      List<PartialSegment> expected) {
+    assertThat(parts).hasSize(expected.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertThat(parts.get(i).toString()).isEqualTo(expected.get(i).toString());
+      assertThat(parts.get(i).getMediaEndTime()).isEqualTo(expected.get(i).getMediaEndTime());
+    }
+  }
+
+  private String getResource(String name) throws IOException {
+    return Resources.toString(Resources.getResource(getClass(), name), Charsets.UTF_8);
+  }
+
+  private static void assertSegmentsEquivalent(List<MediaSegment> segments,
+      List<MediaSegment> expected) {
+    assertThat(segments).hasSize(expected.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertThat(segments.get(i).toString()).isEqualTo(expected.get(i).toString());
+    }
+  }
+
+}
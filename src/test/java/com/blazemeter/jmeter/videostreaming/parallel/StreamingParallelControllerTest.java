@@ -3,6 +3,7 @@ package com.blazemeter.jmeter.videostreaming.parallel;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import com.blazemeter.jmeter.JMeterTestUtils;
+import com.blazemeter.jmeter.videostreaming.core.StreamingMetrics;
 import com.blazemeter.jmeter.videostreaming.core.StreamingSliceCoordinator;
 import com.blazemeter.jmeter.videostreaming.core.StreamingSliceCoordinator.SliceExit;
 import java.util.ArrayDeque;
@@ -30,6 +31,7 @@ public class StreamingParallelControllerTest {
   @After
   public void tearDown() {
     StreamingSliceCoordinator.clear();
+    StreamingMetrics.reset();
   }
 
   private StreamingParallelController controller(String interval, boolean runImmediately) {
@@ -121,6 +123,164 @@ public class StreamingParallelControllerTest {
     assertThat(emitted).containsExactly("stream", "stream", "hb", "stream", "NULL");
   }
 
+  @Test
+  public void shouldRunHeartbeatEarlierWhenSlicesOverrunTheirDeadline() {
+    StreamingParallelController controller = controller("10", false);
+    AtomicLong clock = new AtomicLong(0);
+    controller.setNanoClock(clock::get);
+    FakeStreamingSampler streaming = new FakeStreamingSampler();
+    streaming.clock = clock;
+    streaming.script.add(SliceExit.YIELD);
+    streaming.sampleEndNanos.add(7 * SECOND_NANOS);
+    streaming.script.add(SliceExit.YIELD);
+    streaming.sampleEndNanos.add(8 * SECOND_NANOS + SECOND_NANOS / 2);
+    streaming.script.add(SliceExit.FINISHED);
+    controller.addTestElement(streaming);
+    controller.addTestElement(new NamedSampler("hb"));
+
+    List<String> emitted = drive(controller, streaming, 10);
+
+    assertThat(emitted).containsExactly("stream", "stream", "hb", "stream", "NULL");
+    StreamingMetrics.Histogram overruns = StreamingMetrics
+        .getHistogram(StreamingMetrics.SLICE_OVERRUN);
+    assertThat(overruns.getCount()).isEqualTo(2);
+    assertThat(overruns.getMax()).isEqualTo(2000);
+  }
+
+  @Test
+  public void shouldRecordHeartbeatLatenessWhenSliceEndsAfterHeartbeatIsDue() {
+    StreamingParallelController controller = controller("3", false);
+    AtomicLong clock = new AtomicLong(0);
+    controller.setNanoClock(clock::get);
+    FakeStreamingSampler streaming = new FakeStreamingSampler();
+    streaming.clock = clock;
+    streaming.script.add(SliceExit.YIELD);
+    streaming.sampleEndNanos.add(4 * SECOND_NANOS);
+    streaming.script.add(SliceExit.FINISHED);
+    controller.addTestElement(streaming);
+    controller.addTestElement(new NamedSampler("hb"));
+
+    List<String> emitted = drive(controller, streaming, 10);
+
+    assertThat(emitted).containsExactly("stream", "hb", "stream", "NULL");
+    StreamingMetrics.Histogram lateness = StreamingMetrics
+        .getHistogram(StreamingMetrics.HEARTBEAT_LATENESS);
+    assertThat(lateness.getCount()).isEqualTo(1);
+    assertThat(lateness.getMax()).isEqualTo(1000);
+    StreamingMetrics.Histogram due = StreamingMetrics.getHistogram(StreamingMetrics.HEARTBEAT_DUE);
+    assertThat(due.getCount()).isEqualTo(2);
+    assertThat(due.getMax()).isEqualTo(3000);
+  }
+
+  @Test
+  public void shouldScheduleNextHeartbeatFromDueTimeWhenHeartbeatRunsLate() {
+    StreamingParallelController controller = controller("3", false);
+    AtomicLong clock = new AtomicLong(0);
+    controller.setNanoClock(clock::get);
+    FakeStreamingSampler streaming = new FakeStreamingSampler();
+    streaming.clock = clock;
+    streaming.script.add(SliceExit.YIELD);
+    streaming.sampleEndNanos.add(4 * SECOND_NANOS);
+    streaming.script.add(SliceExit.YIELD);
+    streaming.sampleEndNanos.add(5 * SECOND_NANOS + SECOND_NANOS / 2);
+    streaming.script.add(SliceExit.FINISHED);
+    controller.addTestElement(streaming);
+    controller.addTestElement(new NamedSampler("hb"));
+
+    List<String> emitted = drive(controller, streaming, 10);
+
+    assertThat(emitted).containsExactly("stream", "hb", "stream", "hb", "stream", "NULL");
+  }
+
+  @Test
+  public void shouldNotRunHeartbeatsBackToBackWhenSlicesOverrunMoreThanInterval() {
+    StreamingParallelController controller = controller("3", false);
+    AtomicLong clock = new AtomicLong(0);
+    controller.setNanoClock(clock::get);
+    FakeStreamingSampler streaming = new FakeStreamingSampler();
+    streaming.clock = clock;
+    streaming.script.add(SliceExit.YIELD);
+    streaming.sampleEndNanos.add(10 * SECOND_NANOS);
+    streaming.script.add(SliceExit.FINISHED);
+    controller.addTestElement(streaming);
+    controller.addTestElement(new NamedSampler("hb"));
+
+    List<String> emitted = drive(controller, streaming, 10);
+
+    assertThat(emitted).containsExactly("stream", "hb", "stream", "NULL");
+  }
+
+  @Test
+  public void shouldRoundRobinSlicesWhenSeveralStreamingSamplers() {
+    StreamingParallelController controller = controller("10", false);
+    FakeStreamingSampler first = new FakeStreamingSampler("first");
+    first.script.add(SliceExit.YIELD);
+    first.script.add(SliceExit.YIELD);
+    first.script.add(SliceExit.FINISHED);
+    FakeStreamingSampler second = new FakeStreamingSampler("second");
+    second.script.add(SliceExit.YIELD);
+    second.script.add(SliceExit.FINISHED);
+    controller.addTestElement(first);
+    controller.addTestElement(second);
+
+    List<String> emitted = driveStreams(controller, 10);
+
+    assertThat(emitted).containsExactly("first", "second", "first", "second", "first", "NULL");
+  }
+
+  @Test
+  public void shouldStartNewSessionOfEachStreamingSamplerWhenIterationStarts() {
+    StreamingParallelController controller = controller("10", false);
+    FakeStreamingSampler first = new FakeStreamingSampler("first");
+    first.script.add(SliceExit.YIELD);
+    first.script.add(SliceExit.FINISHED);
+    FakeStreamingSampler second = new FakeStreamingSampler("second");
+    second.script.add(SliceExit.FINISHED);
+    controller.addTestElement(first);
+    controller.addTestElement(second);
+
+    driveStreams(controller, 10);
+
+    assertThat(first.newSessions).containsExactly(true, false);
+    assertThat(second.newSessions).containsExactly(true);
+  }
+
+  @Test
+  public void shouldPlayOtherStreamingSamplersWhileOneWaits() {
+    StreamingParallelController controller = controller("10", false);
+    FakeStreamingSampler waiting = new FakeStreamingSampler("waiting");
+    waiting.releasedWaits.add(60 * 60 * 1000L);
+    waiting.script.add(SliceExit.YIELD);
+    waiting.script.add(SliceExit.FINISHED);
+    FakeStreamingSampler playing = new FakeStreamingSampler("playing");
+    playing.script.add(SliceExit.YIELD);
+    playing.script.add(SliceExit.YIELD);
+    playing.script.add(SliceExit.FINISHED);
+    controller.addTestElement(waiting);
+    controller.addTestElement(playing);
+
+    List<String> emitted = driveStreams(controller, 10);
+
+    assertThat(emitted)
+        .containsExactly("waiting", "playing", "playing", "playing", "waiting", "NULL");
+  }
+
+  @Test
+  public void shouldKeepPlayingOtherStreamingSamplersWhenOneFails() {
+    StreamingParallelController controller = controller("10", false);
+    FakeStreamingSampler failing = new FakeStreamingSampler("failing");
+    failing.script.add(SliceExit.ERROR);
+    FakeStreamingSampler playing = new FakeStreamingSampler("playing");
+    playing.script.add(SliceExit.YIELD);
+    playing.script.add(SliceExit.FINISHED);
+    controller.addTestElement(failing);
+    controller.addTestElement(playing);
+
+    List<String> emitted = driveStreams(controller, 10);
+
+    assertThat(emitted).containsExactly("failing", "playing", "playing", "NULL");
+  }
+
   @Test
   public void shouldEmitFailedSampleWhenNoStreamingChild() {
     StreamingParallelController controller = controller("10", false);
@@ -147,6 +307,22 @@ public class StreamingParallelControllerTest {
     assertThat(controller.next()).isNull();
   }
 
+  private List<String> driveStreams(StreamingParallelController controller, int maxSteps) {
+    List<String> emitted = new ArrayList<>();
+    for (int i = 0; i < maxSteps; i++) {
+      Sampler next = controller.next();
+      if (next == null) {
+        emitted.add("NULL");
+        break;
+      }
+      emitted.add(next.getName());
+      if (next instanceof FakeStreamingSampler) {
+        ((FakeStreamingSampler) next).sample();
+      }
+    }
+    return emitted;
+  }
+
   private String step(StreamingParallelController controller, FakeStreamingSampler streaming) {
     Sampler next = controller.next();
     if (next == null) {
@@ -161,16 +337,31 @@ public class StreamingParallelControllerTest {
   private static class FakeStreamingSampler extends com.blazemeter.jmeter.hls.logic.HlsSampler {
 
     private final Deque<SliceExit> script = new ArrayDeque<>();
+    private final Deque<Long> releasedWaits = new ArrayDeque<>();
+    private final Deque<Long> sampleEndNanos = new ArrayDeque<>();
+    private AtomicLong clock;
+    private final List<Boolean> newSessions = new ArrayList<>();
     private int sampleCalls;
 
     private FakeStreamingSampler() {
+      this("stream");
+    }
+
+    private FakeStreamingSampler(String name) {
       super(null, null, null, null);
-      setName("stream");
+      setName(name);
     }
 
     @Override
     public SampleResult sample() {
       sampleCalls++;
+      newSessions.add(StreamingSliceCoordinator.consumeNewSession());
+      if (!releasedWaits.isEmpty()) {
+        assertThat(StreamingSliceCoordinator.releaseWait(releasedWaits.poll())).isTrue();
+      }
+      if (!sampleEndNanos.isEmpty()) {
+        clock.set(sampleEndNanos.poll());
+      }
       SliceExit exit = script.isEmpty() ? SliceExit.FINISHED : script.poll();
       StreamingSliceCoordinator.setExit(exit);
       return null;